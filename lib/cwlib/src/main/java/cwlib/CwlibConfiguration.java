@@ -1,5 +1,8 @@
 package cwlib;
 
+import cwlib.enums.CompressionLevel;
+import cwlib.enums.TextureQuality;
+
 import java.io.File;
 
 public class CwlibConfiguration
@@ -59,6 +62,36 @@ public class CwlibConfiguration
      */
     public static boolean CAN_COMPILE_ORBIS_SHADERS = false;
 
+    /**
+     * Zlib compression level used when compressing resources,
+     * unless one is explicitly specified.
+     */
+    public static CompressionLevel COMPRESSION_LEVEL = CompressionLevel.BEST;
+
+    /**
+     * Whether chunks that don't get any smaller when compressed should
+     * be stored uncompressed, unless explicitly specified.
+     */
+    public static boolean STORE_INCOMPRESSIBLE_CHUNKS = false;
+
+    /**
+     * Maximum total size in bytes of decoded resources kept in memory
+     * by the resource system, 0 disables caching.
+     */
+    public static long RESOURCE_CACHE_SIZE = 0x8000000L;
+
+    /**
+     * Directory texture thumbnails are cached in, null disables the thumbnail cache.
+     */
+    public static File THUMBNAIL_CACHE_DIRECTORY =
+        new File(JAR_DIRECTORY, "cache/thumbnails");
+
+    /**
+     * Quality used when compressing textures with the built-in DXT encoder,
+     * unless one is explicitly specified.
+     */
+    public static TextureQuality TEXTURE_QUALITY = TextureQuality.QUALITY;
+
     /**
      * Whether Toolkit is running on Windows
      */
@@ -0,0 +1,42 @@
+package cwlib.enums;
+
+import java.util.zip.Deflater;
+
+/**
+ * Zlib compression levels used when compressing resources,
+ * the game can read any of them, they only trade size for speed.
+ */
+public enum CompressionLevel
+{
+    /**
+     * Fastest compression, noticeably larger output.
+     */
+    FAST(Deflater.BEST_SPEED),
+
+    /**
+     * Zlib's default compression level.
+     */
+    DEFAULT(Deflater.DEFAULT_COMPRESSION),
+
+    /**
+     * Smallest output, but very slow on large resources.
+     */
+    BEST(Deflater.BEST_COMPRESSION);
+
+    private final int level;
+
+    CompressionLevel(int level)
+    {
+        this.level = level;
+    }
+
+    /**
+     * Gets the zlib level used by a Deflater.
+     *
+     * @return Deflater compression level
+     */
+    public int getLevel()
+    {
+        return this.level;
+    }
+}
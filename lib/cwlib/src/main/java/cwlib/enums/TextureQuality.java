@@ -0,0 +1,19 @@
+package cwlib.enums;
+
+/**
+ * Quality settings for DXT compression of textures,
+ * they only trade encoding time for accuracy, the output format is the same.
+ */
+public enum TextureQuality
+{
+    /**
+     * Endpoints are taken from the bounding box of each block.
+     */
+    FAST,
+
+    /**
+     * Endpoints are fit along the principal axis of each block's colors
+     * and refined with least squares.
+     */
+    QUALITY
+}
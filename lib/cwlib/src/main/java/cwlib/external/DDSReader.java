@@ -85,13 +85,13 @@ public final class DDSReader
                 switch (type)
                 {
                     case 1146639409:
-                        offset += 8 * (width + 3) / 4 * (height + 3) / 4;
+                        offset += 8 * ((width + 3) / 4) * ((height + 3) / 4);
                         break;
                     case 1146639410:
                     case 1146639411:
                     case 1146639412:
                     case 1146639413:
-                        offset += 16 * (width + 3) / 4 * (height + 3) / 4;
+                        offset += 16 * ((width + 3) / 4) * ((height + 3) / 4);
                         break;
                     case 65538:
                     case 65539:
@@ -85,7 +85,7 @@ public class FieldSerializer implements JsonSerializer<FieldLayoutDetails>,
         object.add("name", jsc.serialize(layout.name));
         object.add("modifiers", jsc.serialize(layout.modifiers));
         object.add("machineType", jsc.serialize(layout.machineType));
-        if (GsonUtils.REVISION.getVersion() >= 0x145)
+        if (GsonUtils.getContext().getRevision().getVersion() >= 0x145)
             object.add("fishType", jsc.serialize(layout.fishType));
         object.add("arrayBaseMachineType", jsc.serialize(layout.arrayBaseMachineType));
         object.add("instanceOffset", new JsonPrimitive(layout.instanceOffset));
@@ -16,12 +16,13 @@ public class ThingSerializer implements JsonSerializer<Thing>, JsonDeserializer<
     public Thing deserialize(JsonElement je, Type type, JsonDeserializationContext jdc)
     throws JsonParseException
     {
+        GsonUtils.Context context = GsonUtils.getContext();
         if (je.isJsonPrimitive())
-            return GsonUtils.THINGS.get(je.getAsInt());
+            return context.getThing(je.getAsInt());
         JsonObject object = je.getAsJsonObject();
         int UID = object.get("UID").getAsInt();
         Thing thing = new Thing(UID);
-        GsonUtils.THINGS.put(UID, thing);
+        context.putThing(thing);
 
         if (object.has("world"))
             thing.world = jdc.deserialize(object.get("world"), Thing.class);
@@ -45,13 +46,13 @@ public class ThingSerializer implements JsonSerializer<Thing>, JsonDeserializer<
     @Override
     public JsonElement serialize(Thing thing, Type type, JsonSerializationContext jsc)
     {
-        if (GsonUtils.UNIQUE_THINGS.contains(thing))
+        GsonUtils.Context context = GsonUtils.getContext();
+        if (!context.markSerialized(thing))
             return new JsonPrimitive(thing.UID);
-        GsonUtils.UNIQUE_THINGS.add(thing);
 
         JsonObject object = new JsonObject();
 
-        int version = GsonUtils.REVISION.getVersion();
+        int version = context.getRevision().getVersion();
 
         object.addProperty("UID", thing.UID);
 
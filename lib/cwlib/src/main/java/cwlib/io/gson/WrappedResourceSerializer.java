@@ -54,7 +54,7 @@ public class WrappedResourceSerializer implements JsonSerializer<WrappedResource
             compressionFlags = CompressionFlags.USE_ALL_COMPRESSION;
 
         resource.revision = revision;
-        GsonUtils.REVISION = revision;
+        GsonUtils.getContext().setRevision(revision);
 
         ResourceType resourceType = jdc.deserialize(object.get("type"), ResourceType.class);
         resource.type = resourceType;
@@ -87,7 +87,7 @@ public class WrappedResourceSerializer implements JsonSerializer<WrappedResource
     {
         JsonObject object = new JsonObject();
 
-        GsonUtils.REVISION = resource.revision;
+        GsonUtils.getContext().setRevision(resource.revision);
         object.add("revision", new JsonPrimitive(resource.revision.getHead()));
         short id = resource.revision.getBranchID();
         if (id != 0)
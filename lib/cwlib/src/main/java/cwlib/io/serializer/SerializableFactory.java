@@ -0,0 +1,92 @@
+package cwlib.io.serializer;
+
+import cwlib.ex.SerializationException;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of constructors for serializable structures, so the serializer
+ * doesn't have to go through reflection for every structure it creates.
+ * <p>
+ * A constructor is bound to a generated supplier the first time a class is
+ * requested, after which creating an instance is just a direct constructor call.
+ */
+final class SerializableFactory
+{
+    private static final ClassValue<Supplier<?>> CONSTRUCTORS = new ClassValue<>()
+    {
+        @Override
+        protected Supplier<?> computeValue(Class<?> clazz)
+        {
+            return SerializableFactory.bind(clazz);
+        }
+    };
+
+    private SerializableFactory() { }
+
+    /**
+     * Creates a new instance of a class with its default constructor.
+     *
+     * @param <T>   Type of class
+     * @param clazz Class to instantiate
+     * @return New instance of class
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T create(Class<T> clazz)
+    {
+        try { return (T) CONSTRUCTORS.get(clazz).get(); }
+        catch (SerializationException ex) { throw ex; }
+        catch (RuntimeException ex)
+        {
+            throw new SerializationException("Failed to create class instance in " +
+                                             "serializer!", ex);
+        }
+    }
+
+    /**
+     * Binds the default constructor of a class to a supplier.
+     *
+     * @param clazz Class to bind constructor of
+     * @return Supplier that creates instances of the class
+     */
+    private static Supplier<?> bind(Class<?> clazz)
+    {
+        // Abstract types can't be instantiated, and would only fail once the
+        // supplier is called, so fail the same way the serializer used to.
+        if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers()))
+            return SerializableFactory.unsupported(clazz);
+
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clazz,
+                MethodHandles.lookup());
+            MethodHandle constructor = lookup.findConstructor(clazz,
+                MethodType.methodType(void.class));
+            CallSite site = LambdaMetafactory.metafactory(
+                lookup,
+                "get",
+                MethodType.methodType(Supplier.class),
+                MethodType.methodType(Object.class),
+                constructor,
+                MethodType.methodType(clazz)
+            );
+            return (Supplier<?>) site.getTarget().invokeExact();
+        }
+        catch (Throwable ex) { return SerializableFactory.unsupported(clazz); }
+    }
+
+    private static Supplier<?> unsupported(Class<?> clazz)
+    {
+        return () ->
+        {
+            throw new SerializationException("Failed to create class instance in " +
+                                             "serializer! (" + clazz.getName() + ")");
+        };
+    }
+}
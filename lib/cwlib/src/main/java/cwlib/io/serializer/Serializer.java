@@ -76,6 +76,21 @@ public class Serializer
         this.isWriting = true;
     }
 
+    /**
+     * Constructs a new serializer with a stream that grows as it's written to.
+     *
+     * @param revision         Revision of resource to be serialized
+     * @param compressionFlags Compression flags to use during serialization
+     */
+    public Serializer(Revision revision, byte compressionFlags)
+    {
+        this.output = new MemoryOutputStream(compressionFlags);
+        this.input = null;
+        this.revision = revision;
+        this.compressionFlags = compressionFlags;
+        this.isWriting = true;
+    }
+
     /**
      * Constructs a new serializer.
      *
@@ -1101,13 +1116,7 @@ public class Serializer
         if (reference == 0) return null;
         if (this.referenceIDs.containsKey(reference))
             return (T) this.referenceIDs.get(reference);
-        T struct = null;
-        try { struct = clazz.getDeclaredConstructor().newInstance(); }
-        catch (Exception ex)
-        {
-            throw new SerializationException("Failed to create class instance in " +
-                                             "serializer!");
-        }
+        T struct = SerializableFactory.create(clazz);
         this.referenceIDs.put(reference, struct);
         this.referenceObjects.put(struct, reference);
         struct.serialize(this);
@@ -1126,14 +1135,7 @@ public class Serializer
     public final <T extends Serializable> T struct(T value, Class<T> clazz)
     {
         if (!this.isWriting || value == null)
-        {
-            try { value = clazz.getDeclaredConstructor().newInstance(); }
-            catch (Exception ex)
-            {
-                throw new SerializationException("Failed to create class instance in " +
-                                                 "serializer!");
-            }
-        }
+            value = SerializableFactory.create(clazz);
 
         value.serialize(this);
         return value;
@@ -4,19 +4,25 @@ import cwlib.enums.CompressionFlags;
 import cwlib.io.ValueEnum;
 import cwlib.types.data.GUID;
 import cwlib.types.data.SHA1;
-import cwlib.util.Bytes;
 import cwlib.util.FileIO;
 import org.joml.Matrix4f;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.lang.reflect.Array;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
  * Big-endian binary input stream.
+ * <p>
+ * Primitives are read straight out of the buffer through byte array views,
+ * so reading them doesn't allocate anything. Reads that run past the end
+ * of the stream are padded with null bytes, like in bytes().
  */
 public class MemoryInputStream
 {
@@ -27,8 +33,37 @@ public class MemoryInputStream
         End
     }
 
+    private static final VarHandle SHORT_BE =
+        MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle SHORT_LE =
+        MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_BE =
+        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_LE =
+        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_BE =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG_LE =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Components of an identity matrix, used as the defaults
+     * for compressed matrices.
+     */
+    private static final float[] IDENTITY = new float[] {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, 1, 0,
+        0, 0, 0, 1
+    };
+
     private final byte[] buffer;
 
+    /**
+     * Scratch space for reading matrices.
+     */
+    private final float[] matrix = new float[16];
+
     private int offset = 0;
     private final int length;
     private byte compressionFlags;
@@ -102,6 +137,20 @@ public class MemoryInputStream
         return Arrays.copyOfRange(this.buffer, this.offset - size, this.offset);
     }
 
+    /**
+     * Gets how many of the requested bytes can actually be read from the current offset,
+     * anything past the end of the stream is treated as null bytes, like in bytes().
+     *
+     * @param size Number of bytes requested
+     * @return Number of bytes available
+     */
+    private int getAvailable(int size)
+    {
+        if (size < 0)
+            throw new IllegalArgumentException("Can't read a negative number of bytes.");
+        return Math.max(0, Math.min(size, this.length - this.offset));
+    }
+
     /**
      * Reads a byte array from the stream.
      *
@@ -164,9 +213,12 @@ public class MemoryInputStream
      */
     public final short i16()
     {
-        byte[] bytes = this.bytes(2);
-        if (this.isLittleEndian) return Bytes.toShortLE(bytes);
-        return Bytes.toShortBE(bytes);
+        VarHandle handle = this.isLittleEndian ? SHORT_LE : SHORT_BE;
+        if (this.offset + 2 > this.length)
+            return (short) handle.get(this.bytes(2), 0);
+        short value = (short) handle.get(this.buffer, this.offset);
+        this.offset += 2;
+        return value;
     }
 
     /**
@@ -186,10 +238,17 @@ public class MemoryInputStream
      */
     public final int u24()
     {
-        final byte[] b = this.bytes(3);
+        byte[] b = this.buffer;
+        int o = this.offset;
+        if (o + 3 > this.length)
+        {
+            b = this.bytes(3);
+            o = 0;
+        }
+        else this.offset += 3;
         if (this.isLittleEndian)
-            return (b[2] & 0xFF) << 16 | (b[1] & 0xFF) << 8 | b[0] & 0xFF;
-        return (b[0] & 0xFF) << 16 | (b[1] & 0xFF) << 8 | b[2] & 0xFF;
+            return (b[o + 2] & 0xFF) << 16 | (b[o + 1] & 0xFF) << 8 | b[o] & 0xFF;
+        return (b[o] & 0xFF) << 16 | (b[o + 1] & 0xFF) << 8 | b[o + 2] & 0xFF;
     }
 
     /**
@@ -202,9 +261,12 @@ public class MemoryInputStream
     {
         if (force32 || (this.compressionFlags & CompressionFlags.USE_COMPRESSED_INTEGERS) == 0)
         {
-            byte[] bytes = this.bytes(4);
-            if (this.isLittleEndian) return Bytes.toIntegerLE(bytes);
-            return Bytes.toIntegerBE(bytes);
+            VarHandle handle = this.isLittleEndian ? INT_LE : INT_BE;
+            if (this.offset + 4 > this.length)
+                return (int) handle.get(this.bytes(4), 0);
+            int value = (int) handle.get(this.buffer, this.offset);
+            this.offset += 4;
+            return value;
         }
         return (int) (this.uleb128() & 0xFFFFFFFF);
     }
@@ -246,26 +308,12 @@ public class MemoryInputStream
     {
         if (force64 || (this.compressionFlags & CompressionFlags.USE_COMPRESSED_INTEGERS) == 0)
         {
-            final byte[] b = this.bytes(8);
-            if (this.isLittleEndian)
-            {
-                return (b[7] & 0xFFL) << 56L |
-                       (b[6] & 0xFFL) << 48L |
-                       (b[5] & 0xFFL) << 40L |
-                       (b[4] & 0xFFL) << 32L |
-                       (b[3] & 0xFFL) << 24L |
-                       (b[2] & 0xFFL) << 16L |
-                       (b[1] & 0xFFL) << 8L |
-                       (b[0] & 0xFFL) << 0L;
-            }
-            return (b[0] & 0xFFL) << 56L |
-                   (b[1] & 0xFFL) << 48L |
-                   (b[2] & 0xFFL) << 40L |
-                   (b[3] & 0xFFL) << 32L |
-                   (b[4] & 0xFFL) << 24L |
-                   (b[5] & 0xFFL) << 16L |
-                   (b[6] & 0xFFL) << 8L |
-                   (b[7] & 0xFFL) << 0L;
+            VarHandle handle = this.isLittleEndian ? LONG_LE : LONG_BE;
+            if (this.offset + 8 > this.length)
+                return (long) handle.get(this.bytes(8), 0);
+            long value = (long) handle.get(this.buffer, this.offset);
+            this.offset += 8;
+            return value;
         }
         return this.uleb128();
     }
@@ -334,7 +382,7 @@ public class MemoryInputStream
         long result = 0, i = 0;
         while (true)
         {
-            long b = this.u8() & 0xFFL;
+            long b = this.buffer[this.offset++] & 0xFFL;
             result |= (b & 0x7fL) << 7L * i;
             if ((b & 0x80L) == 0L)
                 break;
@@ -435,8 +483,15 @@ public class MemoryInputStream
     {
         int count = this.i32();
         float[] elements = new float[count];
-        for (int i = 0; i < count; ++i)
-            elements[i] = this.f32();
+        if (this.offset + count * 4L > this.length)
+        {
+            for (int i = 0; i < count; ++i)
+                elements[i] = this.f32();
+            return elements;
+        }
+        VarHandle handle = this.isLittleEndian ? INT_LE : INT_BE;
+        for (int i = 0; i < count; ++i, this.offset += 4)
+            elements[i] = Float.intBitsToFloat((int) handle.get(this.buffer, this.offset));
         return elements;
     }
 
@@ -491,7 +546,8 @@ public class MemoryInputStream
      */
     public Matrix4f m44()
     {
-        final float[] matrix = new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+        final float[] matrix = this.matrix;
+        System.arraycopy(IDENTITY, 0, matrix, 0, 16);
 
         int flags = 0xFFFF;
         if ((this.compressionFlags & CompressionFlags.USE_COMPRESSED_MATRICES) != 0)
@@ -515,7 +571,9 @@ public class MemoryInputStream
     public final String str(int size)
     {
         if (size == 0) return "";
-        return new String(this.bytes(size)).replace("\0", "");
+        String value = new String(this.buffer, this.offset, this.getAvailable(size));
+        this.offset += size;
+        return value.replace("\0", "");
     }
 
     /**
@@ -527,7 +585,11 @@ public class MemoryInputStream
     public final String wstr(int size)
     {
         if (size == 0) return "";
-        return new String(this.bytes(size * 2), StandardCharsets.UTF_16BE).replace("\0", "");
+        size *= 2;
+        String value = new String(this.buffer, this.offset, this.getAvailable(size),
+            StandardCharsets.UTF_16BE);
+        this.offset += size;
+        return value.replace("\0", "");
     }
 
     /**
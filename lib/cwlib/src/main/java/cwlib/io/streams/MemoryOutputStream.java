@@ -13,29 +13,93 @@ import org.joml.Vector4f;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Big-endian binary output stream.
+ * <p>
+ * The stream grows as it's written to, large streams are built out of
+ * fixed-size segments taken from a shared pool, which are only joined
+ * into a single buffer once it's requested.
  */
 public class MemoryOutputStream
 {
+    private static final int SEGMENT_SHIFT = 16;
+
+    /**
+     * Size of each segment of the stream.
+     */
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Maximum number of unused segments kept around in the pool.
+     */
+    private static final int MAX_POOLED_SEGMENTS = 0x100;
+
+    /**
+     * Segments released by streams after they've been joined.
+     */
+    private static final ConcurrentLinkedQueue<byte[]> SEGMENT_POOL =
+        new ConcurrentLinkedQueue<>();
+
+    private static final AtomicInteger POOLED_SEGMENT_COUNT = new AtomicInteger();
+
+    /**
+     * Contiguous buffer of the stream, null while the stream is segmented.
+     */
     private byte[] buffer;
 
+    /**
+     * Segments of the stream, null once they've been joined into a buffer,
+     * segments that haven't been written to yet are left null.
+     */
+    private byte[][] segments;
+
     private int offset = 0;
-    private final int length;
+    private int length;
     private byte compressionFlags;
 
     private boolean isLittleEndian = false;
 
     /**
-     * Creates a memory output stream with specified size.
+     * Creates a growable memory output stream.
+     */
+    public MemoryOutputStream()
+    {
+        this.segments = new byte[8][];
+    }
+
+    /**
+     * Creates a memory output stream with specified size,
+     * the stream will grow if more is written to it.
      *
-     * @param size Size of stream
+     * @param size Initial size of stream
      */
     public MemoryOutputStream(int size)
     {
+        if (size < 0)
+            throw new IllegalArgumentException("Stream size cannot be negative!");
         this.length = size;
-        this.buffer = new byte[size];
+
+        // Small streams aren't worth segmenting, and large streams only
+        // allocate segments as they're written to, so oversized estimates
+        // don't cost anything.
+        if (size <= SEGMENT_SIZE) this.buffer = new byte[size];
+        else this.segments = new byte[((size - 1) >>> SEGMENT_SHIFT) + 1][];
+    }
+
+    /**
+     * Creates a growable memory output stream with compression flags.
+     *
+     * @param compressionFlags Flags for compression methods used
+     */
+    public MemoryOutputStream(byte compressionFlags)
+    {
+        this();
+        this.compressionFlags = compressionFlags;
     }
 
     /**
@@ -58,8 +122,38 @@ public class MemoryOutputStream
      */
     public final MemoryOutputStream bytes(byte[] value)
     {
-        System.arraycopy(value, 0, this.buffer, this.offset, value.length);
-        this.offset += value.length;
+        return this.bytes(value, 0, value.length);
+    }
+
+    /**
+     * Writes a region of a buffer to the stream.
+     *
+     * @param value  Buffer to write from
+     * @param offset Offset of data in buffer
+     * @param size   Number of bytes to write
+     * @return This output stream
+     */
+    public final MemoryOutputStream bytes(byte[] value, int offset, int size)
+    {
+        this.reserve(size);
+        if (this.buffer != null)
+        {
+            System.arraycopy(value, offset, this.buffer, this.offset, size);
+            this.offset += size;
+            return this;
+        }
+
+        while (size > 0)
+        {
+            int start = this.offset & SEGMENT_MASK;
+            int count = Math.min(SEGMENT_SIZE - start, size);
+            System.arraycopy(value, offset, this.getSegment(this.offset >>> SEGMENT_SHIFT),
+                start, count);
+            this.offset += count;
+            offset += count;
+            size -= count;
+        }
+
         return this;
     }
 
@@ -110,7 +204,11 @@ public class MemoryOutputStream
      */
     public final MemoryOutputStream i8(byte value)
     {
-        this.buffer[this.offset++] = value;
+        this.reserve(1);
+        if (this.buffer != null) this.buffer[this.offset] = value;
+        else
+            this.getSegment(this.offset >>> SEGMENT_SHIFT)[this.offset & SEGMENT_MASK] = value;
+        this.offset++;
         return this;
     }
 
@@ -122,8 +220,7 @@ public class MemoryOutputStream
      */
     public final MemoryOutputStream u8(int value)
     {
-        this.buffer[this.offset++] = (byte) (value & 0xFF);
-        return this;
+        return this.i8((byte) (value & 0xFF));
     }
 
     /**
@@ -735,6 +832,7 @@ public class MemoryOutputStream
      */
     public final MemoryOutputStream pad(int size)
     {
+        this.reserve(size);
         this.offset += size;
         return this;
     }
@@ -746,10 +844,97 @@ public class MemoryOutputStream
      */
     public final MemoryOutputStream shrink()
     {
-        this.buffer = Arrays.copyOfRange(this.buffer, 0, this.offset);
+        this.length = this.offset;
+        this.join();
         return this;
     }
 
+    /**
+     * Makes sure there's room to write a number of bytes at the current offset,
+     * growing the stream if necessary.
+     *
+     * @param size Number of bytes that will be written
+     */
+    private void reserve(int size)
+    {
+        int end = this.offset + size;
+        if (size < 0 || end < 0)
+            throw new IllegalArgumentException("Stream can't grow past 2GB!");
+        if (end > this.length)
+            this.length = end;
+
+        if (this.buffer != null)
+        {
+            if (end > this.buffer.length)
+                this.buffer = Arrays.copyOf(this.buffer,
+                    (int) Math.min(Integer.MAX_VALUE - 8,
+                        Math.max(end, this.buffer.length * 2L)));
+            return;
+        }
+
+        // Empty writes at the start of the stream don't need any segments.
+        int count = (int) ((end + (long) SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        if (count > this.segments.length)
+            this.segments = Arrays.copyOf(this.segments,
+                Math.max(count, this.segments.length * 2));
+    }
+
+    /**
+     * Gets a segment of the stream, allocating it if it hasn't been written to yet.
+     *
+     * @param index Index of segment
+     * @return Segment
+     */
+    private byte[] getSegment(int index)
+    {
+        byte[] segment = this.segments[index];
+        if (segment == null)
+        {
+            segment = SEGMENT_POOL.poll();
+            if (segment != null)
+            {
+                POOLED_SEGMENT_COUNT.decrementAndGet();
+                Arrays.fill(segment, (byte) 0);
+            }
+            else segment = new byte[SEGMENT_SIZE];
+            this.segments[index] = segment;
+        }
+        return segment;
+    }
+
+    /**
+     * Joins the stream into a single buffer the size of the stream,
+     * segments are returned to the pool afterwards.
+     */
+    private void join()
+    {
+        if (this.buffer != null)
+        {
+            if (this.buffer.length != this.length)
+                this.buffer = Arrays.copyOf(this.buffer, this.length);
+            return;
+        }
+
+        byte[] buffer = new byte[this.length];
+        for (int i = 0; i < this.segments.length; ++i)
+        {
+            byte[] segment = this.segments[i];
+            if (segment == null) continue;
+
+            int start = i << SEGMENT_SHIFT;
+            if (start < this.length)
+                System.arraycopy(segment, 0, buffer, start,
+                    Math.min(SEGMENT_SIZE, this.length - start));
+
+            if (POOLED_SEGMENT_COUNT.incrementAndGet() <= MAX_POOLED_SEGMENTS)
+                SEGMENT_POOL.offer(segment);
+            else POOLED_SEGMENT_COUNT.decrementAndGet();
+        }
+
+        this.segments = null;
+        this.buffer = buffer;
+    }
+
     /**
      * Seeks to position relative to seek mode.
      *
@@ -800,8 +985,15 @@ public class MemoryOutputStream
         this.seek(offset, SeekMode.Relative);
     }
 
+    /**
+     * Gets the contents of the stream as a single buffer,
+     * this joins the stream if it's segmented.
+     *
+     * @return Stream buffer
+     */
     public final byte[] getBuffer()
     {
+        this.join();
         return this.buffer;
     }
 
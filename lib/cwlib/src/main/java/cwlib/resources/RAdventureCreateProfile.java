@@ -135,7 +135,7 @@ public class RAdventureCreateProfile implements Resource
     @Override
     public SerializationData build(Revision revision, byte compressionFlags)
     {
-        Serializer serializer = new Serializer(0x1000000, revision, compressionFlags);
+        Serializer serializer = new Serializer(revision, compressionFlags);
         serializer.struct(this, RAdventureCreateProfile.class);
         return new SerializationData(
             serializer.getBuffer(),
@@ -633,9 +633,9 @@ public class RLevel implements Resource
     @Override
     public SerializationData build(Revision revision, byte compressionFlags)
     {
-        // 16MB buffer for generation of levels, since the allocated size will get
-        // stuck in a recursive loop until I fix it.
-        Serializer serializer = new Serializer(0x1000000, revision, compressionFlags);
+        // The allocated size will get stuck in a recursive loop until I fix it,
+        // so just let the stream grow as it needs to.
+        Serializer serializer = new Serializer(revision, compressionFlags);
         serializer.struct(this, RLevel.class);
         return new SerializationData(
             serializer.getBuffer(),
@@ -226,7 +226,7 @@ public class RPlan implements Resource
         //     things = serializer.getThings();
         // }
 
-        Serializer serializer = new Serializer(0x800000, this.revision, this.compressionFlags);
+        Serializer serializer = new Serializer(this.revision, this.compressionFlags);
         serializer.array(things, Thing.class, true);
         this.thingData = serializer.getBuffer();
 
@@ -238,11 +238,11 @@ public class RPlan implements Resource
     public void setThing(Thing thing)
     {
         // This is terribly inefficient, but whatever
-        Serializer serializer = new Serializer(0x800000, this.revision, this.compressionFlags);
+        Serializer serializer = new Serializer(this.revision, this.compressionFlags);
         serializer.reference(thing, Thing.class);
         Thing[] things = serializer.getThings();
 
-        serializer = new Serializer(0x800000, this.revision, this.compressionFlags);
+        serializer = new Serializer(this.revision, this.compressionFlags);
         serializer.array(things, Thing.class, true);
 
         this.thingData = serializer.getBuffer();
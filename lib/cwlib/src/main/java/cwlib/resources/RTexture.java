@@ -27,8 +27,21 @@ public class RTexture
     private byte[] data;
     public boolean noSRGB = false;
 
+    /**
+     * Decoded full size image, only decoded when requested.
+     */
     private BufferedImage cached;
 
+    /**
+     * Whether the data is a PNG or JPG image, rather than a DDS texture.
+     */
+    private boolean isImage;
+
+    /**
+     * Whether the pixels of the DDS texture still need to be unswizzled.
+     */
+    private boolean isSwizzled;
+
     public RTexture(SerializedResource resource)
     {
         this.process(resource);
@@ -48,20 +61,9 @@ public class RTexture
         {
             case 0xffd8ffe0:
             case 0x89504e47:
-                InputStream stream = new ByteArrayInputStream(data);
-                try
-                {
-                    this.cached = ImageIO.read(stream);
-                    stream.close();
-                }
-                catch (IOException ex)
-                {
-                    throw new SerializationException("An error occured reading " +
-                                                     "BufferedImage");
-                }
+                this.isImage = true;
                 return;
             case 0x44445320:
-                this.cached = Images.fromDDS(data);
                 return;
         }
 
@@ -80,10 +82,6 @@ public class RTexture
             case COMPRESSED_TEXTURE:
                 if (type == ResourceType.TEXTURE)
                 {
-                    // ResourceSystem.println("Texture", "Detected COMPRESSED_TEXTURE,
-                    // decompressing to DDS");
-                    this.cached = Images.fromDDS(this.data);
-
                     byte[] footer = Arrays.copyOfRange(this.data, this.data.length - 4,
                         this.data.length);
                     if (Bytes.toIntegerBE(footer) == 0x42554D50)
@@ -126,7 +124,6 @@ public class RTexture
         System.arraycopy(gtf, 0, DDS, header.length, gtf.length);
 
         this.data = DDS;
-        this.cached = this.getImage();
     }
 
     /**
@@ -147,8 +144,7 @@ public class RTexture
         if (format == CellGcmEnumForGtf.A8R8G8B8 || format == CellGcmEnumForGtf.B8 ||
             this.info.getMethod() == SerializationType.GTF_SWIZZLED ||
             this.info.getMethod() == SerializationType.GXT_SWIZZLED)
-            this.unswizzle();
-        else this.cached = this.getImage();
+            this.isSwizzled = true;
     }
 
     private int getMortonNumber(int x, int y, int width, int height)
@@ -231,9 +227,11 @@ public class RTexture
     }
 
     /**
-     * Unswizzles the texture's pixel data
+     * Decodes and unswizzles the texture's pixel data
+     *
+     * @return Decoded image
      */
-    private void unswizzle()
+    private BufferedImage unswizzle()
     {
         int[] pixels = DDSReader.read(this.data, DDSReader.ARGB, 0);
         pixels = DDS.unswizzle(pixels, this.info.getHeight(), this.info.getWidth());
@@ -245,23 +243,54 @@ public class RTexture
                 (pixel & 0xff) << 24 | (pixel & 0xff00) << 8 | (pixel & 0xff0000) >> 8 | (pixel >> 24) & 0xff;
         }
 
-        this.cached = new BufferedImage(this.info.getWidth(), this.info.getHeight(),
-            BufferedImage.TYPE_INT_ARGB);
-        if (this.cached != null)
-            this.cached.setRGB(0, 0, this.info.getWidth(), this.info.getHeight(), pixels, 0,
-                this.info.getWidth());
+        return Images.fromPixels(pixels, this.info.getWidth(), this.info.getHeight());
     }
 
     /**
-     * Convert texture to BufferedImage
+     * Convert texture to BufferedImage, the image is decoded on
+     * the first call and cached afterwards.
      *
      * @return Converted texture
      */
     public BufferedImage getImage()
     {
-        if (this.cached != null)
+        if (this.cached != null || this.data == null)
             return this.cached;
-        return Images.fromDDS(this.data);
+
+        if (this.isImage)
+        {
+            try (InputStream stream = new ByteArrayInputStream(this.data))
+            {
+                this.cached = ImageIO.read(stream);
+            }
+            catch (IOException ex)
+            {
+                throw new SerializationException("An error occured reading " +
+                                                 "BufferedImage");
+            }
+        }
+        else if (this.isSwizzled) this.cached = this.unswizzle();
+        else this.cached = Images.fromDDS(this.data);
+
+        return this.cached;
+    }
+
+    /**
+     * Converts texture to a BufferedImage at least as large as the requested size,
+     * only the smallest mip level that covers the size is decoded. The full size image
+     * is returned if it has already been decoded, or if the texture has no smaller levels.
+     *
+     * @param width  Requested width
+     * @param height Requested height
+     * @return Converted texture
+     */
+    public BufferedImage getImage(int width, int height)
+    {
+        if (this.cached != null || this.data == null || this.isImage || this.isSwizzled)
+            return this.getImage();
+        int level = Images.getMipLevel(this.data, width, height);
+        if (level == 0) return this.getImage();
+        return Images.fromDDS(this.data, level);
     }
 
     /**
@@ -283,9 +312,9 @@ public class RTexture
      */
     public ImageIcon getImageIcon(int width, int height)
     {
-        if (cached == null) cached = this.getImage();
-        if (cached != null)
-            return Images.getImageIcon(cached, width, height);
+        BufferedImage image = this.getImage(width, height);
+        if (image != null)
+            return Images.getImageIcon(image, width, height);
         return null;
     }
 
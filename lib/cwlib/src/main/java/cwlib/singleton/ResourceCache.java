@@ -0,0 +1,228 @@
+package cwlib.singleton;
+
+import cwlib.types.data.SHA1;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of decoded resources, bounded by the
+ * total size of the decoded data rather than the number of entries.
+ * <p>
+ * Resources are keyed by the SHA1 of their serialized data, and since
+ * the contents of a hash can never change, entries are never invalidated,
+ * only evicted when the cache exceeds its capacity.
+ */
+public final class ResourceCache
+{
+    /**
+     * Key of a cached resource, the same data can be decoded into
+     * more than one representation, so the type of value is part of the key.
+     */
+    private static final class Key
+    {
+        private final SHA1 sha1;
+        private final Class<?> clazz;
+
+        private Key(SHA1 sha1, Class<?> clazz)
+        {
+            this.sha1 = sha1;
+            this.clazz = clazz;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (other == this) return true;
+            if (!(other instanceof Key otherKey)) return false;
+            return this.clazz == otherKey.clazz && this.sha1.equals(otherKey.sha1);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * this.sha1.hashCode() + this.clazz.hashCode();
+        }
+    }
+
+    /**
+     * Cached value along with its weight in bytes.
+     */
+    private static final class Entry
+    {
+        private final Object value;
+        private final long weight;
+
+        private Entry(Object value, long weight)
+        {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Entries in access order, the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Maximum total weight of all entries in bytes.
+     */
+    private long capacity;
+
+    /**
+     * Current total weight of all entries in bytes.
+     */
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a resource cache.
+     *
+     * @param capacity Maximum total size of cached resources in bytes, 0 disables the cache
+     */
+    public ResourceCache(long capacity)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Cache capacity cannot be negative!");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets a cached resource.
+     *
+     * @param <T>   Type of resource
+     * @param sha1  SHA1 of the resource's serialized data
+     * @param clazz Type of resource
+     * @return Cached resource, or null if it isn't cached
+     */
+    public synchronized <T> T get(SHA1 sha1, Class<T> clazz)
+    {
+        if (sha1 == null || clazz == null) return null;
+        Entry entry = this.entries.get(new Key(sha1, clazz));
+        if (entry == null)
+        {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return clazz.cast(entry.value);
+    }
+
+    /**
+     * Adds a resource to the cache, evicting the least recently used
+     * resources if the cache is over capacity. Resources larger than the
+     * capacity of the cache aren't cached.
+     *
+     * @param <T>    Type of resource
+     * @param sha1   SHA1 of the resource's serialized data
+     * @param clazz  Type of resource
+     * @param value  Resource to cache
+     * @param weight Size of resource in bytes
+     */
+    public synchronized <T> void put(SHA1 sha1, Class<T> clazz, T value, long weight)
+    {
+        if (sha1 == null)
+            throw new NullPointerException("Can't cache resource with null SHA1!");
+        if (clazz == null || value == null)
+            throw new NullPointerException("Can't cache null resource!");
+        if (weight < 0)
+            throw new IllegalArgumentException("Resource weight cannot be negative!");
+        if (weight > this.capacity) return;
+
+        Entry previous = this.entries.put(new Key(sha1, clazz), new Entry(value, weight));
+        if (previous != null) this.weight -= previous.weight;
+        this.weight += weight;
+
+        this.trim();
+    }
+
+    /**
+     * Evicts least recently used entries until the cache is within capacity.
+     */
+    private void trim()
+    {
+        Iterator<Map.Entry<Key, Entry>> iterator = this.entries.entrySet().iterator();
+        while (this.weight > this.capacity && iterator.hasNext())
+        {
+            this.weight -= iterator.next().getValue().weight;
+            iterator.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Removes every entry from the cache, statistics are left as is.
+     */
+    public synchronized void clear()
+    {
+        this.entries.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * Resets the hit, miss, and eviction counters.
+     */
+    public synchronized void resetStatistics()
+    {
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    /**
+     * Sets the maximum total size of cached resources,
+     * evicting entries if the cache is now over capacity.
+     *
+     * @param capacity Maximum total size of cached resources in bytes, 0 disables the cache
+     */
+    public synchronized void setCapacity(long capacity)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Cache capacity cannot be negative!");
+        this.capacity = capacity;
+        this.trim();
+    }
+
+    public synchronized long getCapacity()
+    {
+        return this.capacity;
+    }
+
+    public synchronized long getWeight()
+    {
+        return this.weight;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return this.entries.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return this.hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return this.evictions;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("ResourceCache (%d entries, %d/%d bytes, %d hits, %d misses, %d " +
+                             "evictions)", this.entries.size(), this.weight, this.capacity,
+            this.hits, this.misses, this.evictions);
+    }
+}
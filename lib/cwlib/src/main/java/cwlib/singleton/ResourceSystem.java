@@ -1,22 +1,26 @@
 package cwlib.singleton;
 
+import cwlib.CwlibConfiguration;
 import cwlib.types.data.GUID;
 import cwlib.types.data.ResourceDescriptor;
 import cwlib.enums.DatabaseType;
 import cwlib.io.Resource;
 import cwlib.io.Serializable;
+import cwlib.resources.RTexture;
 import cwlib.resources.RTranslationTable;
 import cwlib.types.data.SHA1;
 import cwlib.types.swing.FileData;
 import cwlib.types.swing.FileModel;
 import cwlib.types.swing.FileNode;
 import cwlib.util.FileIO;
+import cwlib.util.Images;
 import cwlib.util.Nodes;
 import cwlib.types.SerializedResource;
 import cwlib.types.archives.Fart;
 import cwlib.types.data.ResourceInfo;
 import cwlib.types.databases.FileEntry;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -107,6 +111,18 @@ public class ResourceSystem
     private static final ExecutorService databaseService = Executors.newSingleThreadExecutor();
     private static final ExecutorService resourceService = Executors.newSingleThreadExecutor();
 
+    /**
+     * Decoded resources keyed by the SHA1 of their data.
+     */
+    private static final ResourceCache resourceCache =
+        new ResourceCache(CwlibConfiguration.RESOURCE_CACHE_SIZE);
+
+    /**
+     * Texture thumbnails keyed by the SHA1 of their data and size.
+     */
+    private static final ThumbnailCache thumbnailCache =
+        new ThumbnailCache(CwlibConfiguration.THUMBNAIL_CACHE_DIRECTORY);
+
     private static final ArrayList<FileData> databases = new ArrayList<>();
     private static final ArrayList<Fart> archives = new ArrayList<>();
 
@@ -218,6 +234,42 @@ public class ResourceSystem
         return null;
     }
 
+    /**
+     * Gets an entry by its exact path in any loaded database,
+     * the selected database takes precedence.
+     *
+     * @param path Path of entry to find
+     * @return Entry found
+     */
+    public static FileEntry get(String path)
+    {
+        if (path == null)
+            throw new NullPointerException("Can't find null path!");
+        if (ResourceSystem.getDatabases().size() == 0) return null;
+
+        // Prefer current database, can be null if not in GUI mode
+        FileData current = ResourceSystem.selectedDatabase;
+        if (current != null && current.getType().hasGUIDs())
+        {
+            FileEntry entry = current.get(path);
+            if (entry != null && entry.getPath().equalsIgnoreCase(path))
+                return entry;
+        }
+
+        for (FileData database : ResourceSystem.getDatabases())
+        {
+            if (database == current) continue;
+            if (database.getType().hasGUIDs())
+            {
+                FileEntry entry = database.get(path);
+                if (entry != null && entry.getPath().equalsIgnoreCase(path))
+                    return entry;
+            }
+        }
+
+        return null;
+    }
+
     public static byte[] extract(ResourceDescriptor descriptor)
     {
         if (descriptor == null) return null;
@@ -342,12 +394,134 @@ public class ResourceSystem
         return code;
     }
 
+    /**
+     * Gets the decoded container of a resource, going through the resource cache.
+     * Cached containers are shared, so they should never be modified.
+     *
+     * @param descriptor Descriptor of resource to get
+     * @return Decoded resource container
+     */
+    private static SerializedResource getSerializedResource(ResourceDescriptor descriptor)
+    {
+        SHA1 sha1 = ResourceSystem.getHash(descriptor);
+        SerializedResource resource = resourceCache.get(sha1, SerializedResource.class);
+        if (resource != null) return resource;
+
+        byte[] data = ResourceSystem.extract(descriptor);
+        if (data == null) return null;
+
+        // GUIDs can be served from disk, so the hash of the entry isn't
+        // guaranteed to actually match the data that was extracted.
+        if (!descriptor.isHash()) sha1 = SHA1.fromBuffer(data);
+
+        resource = new SerializedResource(data);
+        resourceCache.put(sha1, SerializedResource.class, resource, resource.getSize());
+        return resource;
+    }
+
+    /**
+     * Gets the SHA1 a descriptor currently resolves to.
+     *
+     * @param descriptor Descriptor to resolve
+     * @return SHA1 of resource, or null if it can't be resolved
+     */
+    private static SHA1 getHash(ResourceDescriptor descriptor)
+    {
+        if (descriptor == null) return null;
+        if (descriptor.isHash()) return descriptor.getSHA1();
+        FileEntry entry = ResourceSystem.get(descriptor);
+        if (entry == null) return null;
+        return entry.getSHA1();
+    }
+
+    /**
+     * Loads a resource, the decoded resource data is cached,
+     * but a new instance is deserialized on every call.
+     *
+     * @param <T>        Resource type that implements Serializable
+     * @param descriptor Descriptor of resource to load
+     * @param clazz      Resource class reference that implements Serializable
+     * @return Deserialized resource
+     */
     public static <T extends Serializable> T load(ResourceDescriptor descriptor, Class<T> clazz)
     {
-        byte[] resourceData = extract(descriptor);
-        if (resourceData == null) return null;
-        return new SerializedResource(resourceData).loadResource(clazz);
+        SerializedResource resource = ResourceSystem.getSerializedResource(descriptor);
+        if (resource == null) return null;
+        return resource.loadResource(clazz);
+    }
+
+    /**
+     * Loads a resource through the resource cache, the same instance is
+     * returned for every descriptor that resolves to the same data,
+     * so it should be treated as read-only.
+     *
+     * @param <T>        Resource type that implements Serializable
+     * @param descriptor Descriptor of resource to load
+     * @param clazz      Resource class reference that implements Serializable
+     * @return Shared deserialized resource
+     */
+    public static <T extends Serializable> T loadShared(ResourceDescriptor descriptor,
+                                                        Class<T> clazz)
+    {
+        SHA1 sha1 = ResourceSystem.getHash(descriptor);
+        T value = resourceCache.get(sha1, clazz);
+        if (value != null) return value;
+
+        SerializedResource resource = ResourceSystem.getSerializedResource(descriptor);
+        if (resource == null) return null;
+        value = resource.loadResource(clazz);
+        if (value == null) return null;
+
+        if (sha1 != null)
+            resourceCache.put(sha1, clazz, value, resource.getSize());
+        return value;
+    }
+
+    /**
+     * Gets the cache of decoded resources, for checking statistics
+     * or adjusting its capacity.
+     *
+     * @return Resource cache
+     */
+    public static ResourceCache getResourceCache()
+    {
+        return ResourceSystem.resourceCache;
+    }
+
+    /**
+     * Gets a thumbnail of a texture through the thumbnail cache,
+     * only the mip level closest to the thumbnail size is decoded.
+     *
+     * @param descriptor Descriptor of texture
+     * @param size       Maximum width and height of the thumbnail
+     * @return Thumbnail of texture, or null if the texture can't be loaded
+     */
+    public static BufferedImage getThumbnail(ResourceDescriptor descriptor, int size)
+    {
+        if (descriptor == null) return null;
+        SHA1 sha1 = ResourceSystem.getHash(descriptor);
+        BufferedImage thumbnail = thumbnailCache.get(sha1, size);
+        if (thumbnail != null) return thumbnail;
+
+        byte[] data = ResourceSystem.extract(descriptor);
+        if (data == null) return null;
+        if (!descriptor.isHash()) sha1 = SHA1.fromBuffer(data);
 
+        try
+        {
+            BufferedImage image = new RTexture(data).getImage(size, size);
+            if (image == null) return null;
+            thumbnail = Images.getThumbnail(image, size);
+        }
+        catch (Exception ex) { return null; }
+
+        thumbnailCache.put(sha1, size, thumbnail);
+        return thumbnail;
+    }
+
+    public static ThumbnailCache getThumbnailCache()
+    {
+        return ResourceSystem.thumbnailCache;
     }
 
     public static void refreshEditor()
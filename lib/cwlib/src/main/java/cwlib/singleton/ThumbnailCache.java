@@ -0,0 +1,107 @@
+package cwlib.singleton;
+
+import cwlib.types.data.SHA1;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persistent on-disk cache of texture thumbnails.
+ * <p>
+ * Thumbnails are stored as PNGs keyed by the SHA1 of the texture data and the size
+ * of the thumbnail, since the contents of a hash can never change, thumbnails never
+ * need to be invalidated.
+ */
+public final class ThumbnailCache
+{
+    /**
+     * Directory thumbnails are stored in.
+     */
+    private final File directory;
+
+    /**
+     * Creates a thumbnail cache.
+     *
+     * @param directory Directory to store thumbnails in, null disables the cache
+     */
+    public ThumbnailCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    private File getFile(SHA1 sha1, int size)
+    {
+        return new File(this.directory, String.format("%s_%d.png", sha1, size));
+    }
+
+    /**
+     * Gets a cached thumbnail.
+     *
+     * @param sha1 SHA1 of the texture data
+     * @param size Maximum width and height of the thumbnail
+     * @return Cached thumbnail, or null if it isn't cached
+     */
+    public BufferedImage get(SHA1 sha1, int size)
+    {
+        if (this.directory == null || sha1 == null) return null;
+        File file = this.getFile(sha1, size);
+        if (!file.exists()) return null;
+        try { return ImageIO.read(file); }
+        catch (IOException ex) { return null; }
+    }
+
+    /**
+     * Adds a thumbnail to the cache, failures are ignored,
+     * the thumbnail just won't be cached.
+     *
+     * @param sha1      SHA1 of the texture data
+     * @param size      Maximum width and height of the thumbnail
+     * @param thumbnail Thumbnail to cache
+     */
+    public void put(SHA1 sha1, int size, BufferedImage thumbnail)
+    {
+        if (this.directory == null || sha1 == null || thumbnail == null) return;
+        File file = this.getFile(sha1, size);
+        try
+        {
+            Files.createDirectories(this.directory.toPath());
+
+            // Written to a temporary file first, so a partially written thumbnail
+            // is never read back by another instance.
+            File temp = File.createTempFile("thumbnail", ".png", this.directory);
+            try
+            {
+                if (!ImageIO.write(thumbnail, "png", temp)) return;
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally { Files.deleteIfExists(temp.toPath()); }
+        }
+        catch (IOException ex)
+        {
+            ResourceSystem.println("ThumbnailCache",
+                "Failed to cache thumbnail " + file.getName());
+        }
+    }
+
+    /**
+     * Removes every thumbnail from the cache.
+     */
+    public void clear()
+    {
+        if (this.directory == null) return;
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(".png"));
+        if (files == null) return;
+        for (File file : files)
+            file.delete();
+    }
+
+    public File getDirectory()
+    {
+        return this.directory;
+    }
+}
@@ -0,0 +1,268 @@
+package cwlib.types;
+
+import cwlib.enums.Branch;
+import cwlib.enums.CompressionFlags;
+import cwlib.enums.ResourceType;
+import cwlib.enums.Revisions;
+import cwlib.enums.SerializationType;
+import cwlib.ex.SerializationException;
+import cwlib.types.data.GUID;
+import cwlib.types.data.ResourceDescriptor;
+import cwlib.types.data.Revision;
+import cwlib.types.data.SHA1;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lightweight view of the header of a resource.
+ * <p>
+ * Only the magic, revision, compression flags and dependency table are read,
+ * the body of the resource is left as is until it's explicitly requested,
+ * so walking dependencies doesn't require decrypting or decompressing anything.
+ */
+public class ResourceHeader
+{
+    /**
+     * Source buffer of the resource.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Type of resource.
+     */
+    private final ResourceType type;
+
+    /**
+     * Method of serialization, binary, text, or texture resources.
+     */
+    private final SerializationType method;
+
+    /**
+     * Revision of the resource, null if the resource isn't binary.
+     */
+    private Revision revision;
+
+    /**
+     * Controls which data types get compressed during serialization.
+     */
+    private byte compressionFlags = CompressionFlags.USE_NO_COMPRESSION;
+
+    /**
+     * Whether the resource is compressed
+     */
+    private boolean isCompressed = true;
+
+    /**
+     * Offset of the dependency table, -1 if the resource doesn't have one.
+     */
+    private int dependencyTableOffset = -1;
+
+    /**
+     * Dependencies of this resource, only read when requested.
+     */
+    private ResourceDescriptor[] dependencies;
+
+    /**
+     * Fully processed resource, only created when requested.
+     */
+    private SerializedResource resource;
+
+    /**
+     * Reads the header of a resource.
+     *
+     * @param data Resource data
+     */
+    public ResourceHeader(byte[] data)
+    {
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Reads the header of a resource, the buffer isn't copied unless
+     * the body of the resource is requested.
+     *
+     * @param buffer Resource data, from the current position to the limit
+     */
+    public ResourceHeader(ByteBuffer buffer)
+    {
+        if (buffer == null)
+            throw new NullPointerException("Resource buffer cannot be null!");
+        this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+
+        if (this.buffer.limit() < 0x4)
+            throw new SerializationException("Invalid Resource type!");
+
+        byte[] magic = new byte[4];
+        this.buffer.get(0, magic);
+        this.type = ResourceType.fromMagic(new String(magic, 0, 3, StandardCharsets.US_ASCII));
+        if (this.type == ResourceType.INVALID)
+            throw new SerializationException("Invalid Resource type!");
+        this.method = SerializationType.fromValue(new String(magic, 3, 1,
+            StandardCharsets.US_ASCII));
+        if (this.method == SerializationType.UNKNOWN)
+            throw new SerializationException("Invalid serialization method!");
+
+        if (this.method == SerializationType.BINARY ||
+            this.method == SerializationType.ENCRYPTED_BINARY)
+            this.processBinaryHeader();
+    }
+
+    /**
+     * Reads the revision, compression flags, and dependency table offset
+     * of a binary resource.
+     */
+    private void processBinaryHeader()
+    {
+        try
+        {
+            int head = this.buffer.getInt(0x4);
+            short branchID = 0, branchRevision = 0;
+            if (head >= 0x109)
+            {
+                this.dependencyTableOffset = this.buffer.getInt(0x8);
+                if (head >= 0x189 && this.type != ResourceType.STATIC_MESH)
+                {
+                    int offset = 0xc;
+                    if (head >= 0x271)
+                    {
+                        branchID = this.buffer.getShort(offset);
+                        branchRevision = this.buffer.getShort(offset + 2);
+                        offset += 4;
+                    }
+                    if (head >= 0x297 ||
+                        (head == Branch.LEERDAMMER.getHead() &&
+                         branchID == Branch.LEERDAMMER.getID()) &&
+                        branchRevision >= Revisions.LD_RESOURCES)
+                        this.compressionFlags = this.buffer.get(offset++);
+                    this.isCompressed = this.buffer.get(offset) != 0;
+                }
+            }
+            this.revision = new Revision(head, branchID, branchRevision);
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            throw new SerializationException("Resource header is truncated!");
+        }
+    }
+
+    /**
+     * Reads the dependency table of this resource.
+     *
+     * @return Every row of the dependency table, including invalid descriptors
+     */
+    private ResourceDescriptor[] processDependencies()
+    {
+        if (this.dependencyTableOffset == -1)
+            return new ResourceDescriptor[0];
+
+        try
+        {
+            int offset = this.dependencyTableOffset;
+            int count = this.buffer.getInt(offset);
+            offset += 4;
+
+            ResourceDescriptor[] dependencies = new ResourceDescriptor[count];
+            for (int i = 0; i < count; ++i)
+            {
+                byte flags = this.buffer.get(offset++);
+
+                GUID guid = null;
+                SHA1 sha1 = null;
+
+                if ((flags & 2) != 0)
+                {
+                    long value = this.buffer.getInt(offset) & 0xFFFFFFFFL;
+                    if (value != 0) guid = new GUID(value);
+                    offset += 4;
+                }
+                if ((flags & 1) != 0)
+                {
+                    byte[] hash = new byte[0x14];
+                    this.buffer.get(offset, hash);
+                    sha1 = new SHA1(hash);
+                    offset += 0x14;
+                }
+
+                dependencies[i] = new ResourceDescriptor(guid, sha1,
+                    ResourceType.fromType(this.buffer.getInt(offset)));
+                offset += 4;
+            }
+
+            return dependencies;
+        }
+        catch (IndexOutOfBoundsException | NegativeArraySizeException ex)
+        {
+            throw new SerializationException("Dependency table exceeds the bounds of the " +
+                                             "resource!");
+        }
+    }
+
+    /**
+     * Gets the dependency table of this resource, rows that don't
+     * describe a valid resource are included as is.
+     *
+     * @return Dependencies of this resource
+     */
+    public ResourceDescriptor[] getDependencies()
+    {
+        if (this.dependencies == null)
+            this.dependencies = this.processDependencies();
+        return this.dependencies;
+    }
+
+    /**
+     * Gets the fully processed resource,
+     * this decrypts and decompresses the body of the resource.
+     *
+     * @return Processed resource
+     */
+    public SerializedResource getResource()
+    {
+        if (this.resource != null) return this.resource;
+
+        byte[] data;
+        if (this.buffer.hasArray() && this.buffer.arrayOffset() == 0 &&
+            this.buffer.array().length == this.buffer.limit())
+            data = this.buffer.array();
+        else
+        {
+            data = new byte[this.buffer.limit()];
+            this.buffer.get(0, data);
+        }
+
+        this.resource = new SerializedResource(data);
+        return this.resource;
+    }
+
+    public ResourceType getResourceType()
+    {
+        return this.type;
+    }
+
+    public SerializationType getSerializationType()
+    {
+        return this.method;
+    }
+
+    public Revision getRevision()
+    {
+        return this.revision;
+    }
+
+    public byte getCompressionFlags()
+    {
+        return this.compressionFlags;
+    }
+
+    public boolean isCompressed()
+    {
+        return this.isCompressed;
+    }
+
+    public boolean hasDependencies()
+    {
+        return this.dependencyTableOffset != -1;
+    }
+}
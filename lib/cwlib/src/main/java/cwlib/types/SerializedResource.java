@@ -1,5 +1,6 @@
 package cwlib.types;
 
+import cwlib.CwlibConfiguration;
 import cwlib.enums.*;
 import cwlib.ex.SerializationException;
 import cwlib.io.Resource;
@@ -142,9 +143,9 @@ public class SerializedResource
                     int size = stream.i32(), padding = 0;
                     if (size % 4 != 0)
                         padding = 4 - (size % 4);
-                    stream =
-                        new MemoryInputStream(Crypto.XXTEA(stream.bytes(size + padding),
-                            true));
+                    byte[] encrypted = stream.bytes(size + padding);
+                    Crypto.XXTEA(encrypted, 0, encrypted.length, true, Crypto.TEA_KEY);
+                    stream = new MemoryInputStream(encrypted);
                     stream.seek(padding);
                 }
 
@@ -324,6 +325,23 @@ public class SerializedResource
      * @return Resource container
      */
     public static byte[] compress(SerializationData data, boolean preferCompressed)
+    {
+        return SerializedResource.compress(data, preferCompressed,
+            CwlibConfiguration.COMPRESSION_LEVEL, CwlibConfiguration.STORE_INCOMPRESSIBLE_CHUNKS);
+    }
+
+    /**
+     * Wraps a resource in a container, with optional compression.
+     *
+     * @param data                Serialization data to wrap
+     * @param preferCompressed    Whether or not this resource should be compressed, if possible
+     * @param level               Zlib compression level to use
+     * @param storeIncompressible Whether chunks that don't get any smaller when compressed
+     *                            should be stored uncompressed
+     * @return Resource container
+     */
+    public static byte[] compress(SerializationData data, boolean preferCompressed,
+                                  CompressionLevel level, boolean storeIncompressible)
     {
         ResourceType type = data.getType();
         StaticMeshInfo meshInfo = data.getStaticMeshInfo();
@@ -354,7 +372,8 @@ public class SerializedResource
 
             if (!type.equals(ResourceType.TEXTURE))
                 data.getTextureInfo().write(stream);
-            stream.bytes(Compressor.getCompressedStream(data.getBuffer(), preferCompressed));
+            stream.bytes(Compressor.getCompressedStream(data.getBuffer(), preferCompressed,
+                level, storeIncompressible, true));
 
             stream.shrink();
             return stream.getBuffer();
@@ -394,7 +413,8 @@ public class SerializedResource
         }
 
         if (isCompressed || head < 0x189)
-            buffer = Compressor.getCompressedStream(buffer, isCompressed);
+            buffer = Compressor.getCompressedStream(buffer, isCompressed, level,
+                storeIncompressible, true);
 
             // Tell the game there are no streams in the zlib data,
             // technically we don't have to waste memory concatenating the streams,
@@ -405,7 +425,12 @@ public class SerializedResource
         if (data.getMethod().equals(SerializationType.ENCRYPTED_BINARY))
         {
             stream.i32(buffer.length);
-            buffer = Crypto.XXTEA(buffer, false);
+            // Only the caller's own buffer or unaligned data needs to be copied,
+            // anything else can be encrypted in-place.
+            if (buffer != data.getBuffer() && buffer.length % 4 == 0)
+                Crypto.XXTEA(buffer, 0, buffer.length, false, Crypto.TEA_KEY);
+            else
+                buffer = Crypto.XXTEA(buffer, false);
         }
         stream.bytes(buffer);
 
@@ -548,6 +573,17 @@ public class SerializedResource
             this.dependencies.add(newDescriptor);
     }
 
+    /**
+     * Gets the size of the decoded resource data.
+     *
+     * @return Size of resource data
+     */
+    public int getSize()
+    {
+        if (this.data == null) return 0;
+        return this.data.length;
+    }
+
     public ResourceDescriptor[] getDependencies()
     {
         return this.dependencies.toArray(ResourceDescriptor[]::new);
@@ -0,0 +1,779 @@
+package cwlib.types.archives;
+
+import cwlib.types.data.SHA1;
+import cwlib.util.Crypto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies that the entries of an archive match their hashes.
+ * <p>
+ * File archives are read front to back in large blocks, so the disk only ever
+ * sees sequential reads, while the entries in each block are hashed on a pool
+ * of worker threads. Verification only ever reports problems, bad entries are
+ * only removed from the archive by an explicit repair.
+ */
+public final class ArchiveVerifier
+{
+    /**
+     * Default number of bytes read from the archive at once.
+     */
+    private static final int DEFAULT_BLOCK_SIZE = 0x1000000;
+
+    /**
+     * Largest gap between entries that gets read through rather
+     * than starting a new block.
+     */
+    private static final int MAX_BLOCK_GAP = 0x10000;
+
+    /**
+     * Maximum number of blocks waiting to be hashed, so a slow pool
+     * doesn't end up with the entire archive in memory.
+     */
+    private static final int MAX_PENDING_BLOCKS = 4;
+
+    /**
+     * Kinds of problems an entry can have.
+     */
+    public enum IssueType
+    {
+        /**
+         * Data of the entry doesn't match its hash.
+         */
+        CORRUPT,
+
+        /**
+         * Entry extends past the end of the data in the archive.
+         */
+        TRUNCATED,
+
+        /**
+         * Hash is already listed by another valid entry in the FAT.
+         */
+        DUPLICATE
+    }
+
+    /**
+     * A problem found with an entry in the archive.
+     */
+    public static final class Issue
+    {
+        private final Fat fat;
+        private final IssueType type;
+        private final SHA1 actual;
+
+        private Issue(Fat fat, IssueType type, SHA1 actual)
+        {
+            this.fat = fat;
+            this.type = type;
+            this.actual = actual;
+        }
+
+        public Fat getFat()
+        {
+            return this.fat;
+        }
+
+        public IssueType getType()
+        {
+            return this.type;
+        }
+
+        /**
+         * Gets the hash of the data that's actually stored for this entry.
+         *
+         * @return Hash of stored data, only set for corrupt entries
+         */
+        public SHA1 getActualSHA1()
+        {
+            return this.actual;
+        }
+
+        @Override
+        public String toString()
+        {
+            String issue = String.format("%s %s (offset = 0x%x, size = 0x%x)", this.type,
+                this.fat.getSHA1(), this.fat.getOffset(), this.fat.getSize());
+            if (this.actual != null) issue += " actual = " + this.actual;
+            return issue;
+        }
+    }
+
+    /**
+     * Snapshot of how far along a verification is.
+     */
+    public static class Progress
+    {
+        protected final int entryCount;
+        protected final int verifiedCount;
+        protected final long totalBytes;
+        protected final long verifiedBytes;
+        protected final long time;
+
+        private Progress(int entryCount, int verifiedCount, long totalBytes,
+                         long verifiedBytes, long time)
+        {
+            this.entryCount = entryCount;
+            this.verifiedCount = verifiedCount;
+            this.totalBytes = totalBytes;
+            this.verifiedBytes = verifiedBytes;
+            this.time = time;
+        }
+
+        public int getEntryCount()
+        {
+            return this.entryCount;
+        }
+
+        public int getVerifiedCount()
+        {
+            return this.verifiedCount;
+        }
+
+        public long getTotalBytes()
+        {
+            return this.totalBytes;
+        }
+
+        public long getVerifiedBytes()
+        {
+            return this.verifiedBytes;
+        }
+
+        /**
+         * Gets the time spent verifying so far.
+         *
+         * @return Time in nanoseconds
+         */
+        public long getTime()
+        {
+            return this.time;
+        }
+
+        public double getBytesPerSecond()
+        {
+            if (this.time == 0) return 0.0;
+            return this.verifiedBytes / (this.time / 1e9);
+        }
+
+        public double getEntriesPerSecond()
+        {
+            if (this.time == 0) return 0.0;
+            return this.verifiedCount / (this.time / 1e9);
+        }
+    }
+
+    /**
+     * Results of verifying an archive.
+     */
+    public static final class Report extends Progress
+    {
+        private final Fart archive;
+        private final State state;
+        private final boolean isCancelled;
+        private final List<Issue> issues;
+
+        private Report(Fart archive, State state, Progress progress, boolean isCancelled,
+                       List<Issue> issues)
+        {
+            super(progress.entryCount, progress.verifiedCount, progress.totalBytes,
+                progress.verifiedBytes, progress.time);
+            this.archive = archive;
+            this.state = state;
+            this.isCancelled = isCancelled;
+            this.issues = issues;
+        }
+
+        public Fart getArchive()
+        {
+            return this.archive;
+        }
+
+        /**
+         * Gets the offset of the FAT at the time the archive was verified.
+         *
+         * @return Offset of FAT
+         */
+        public long getFATOffset()
+        {
+            return this.state.fatOffset;
+        }
+
+        /**
+         * Gets the modification time of the archive on disk at the time it was verified.
+         *
+         * @return Last modified time, or 0 if the archive isn't backed by a file
+         */
+        public long getLastModified()
+        {
+            return this.state.lastModified;
+        }
+
+        /**
+         * Gets the hash of the FAT at the time the archive was verified.
+         *
+         * @return SHA1 of FAT
+         */
+        public SHA1 getFATHash()
+        {
+            return this.state.fatHash;
+        }
+
+        /**
+         * Checks if the verification was cancelled before every
+         * entry was verified.
+         *
+         * @return Whether the verification was cancelled
+         */
+        public boolean isCancelled()
+        {
+            return this.isCancelled;
+        }
+
+        /**
+         * Checks if every entry was verified and none had any problems.
+         *
+         * @return Whether the archive is intact
+         */
+        public boolean isClean()
+        {
+            return !this.isCancelled && this.issues.isEmpty();
+        }
+
+        /**
+         * Gets every problem found, ordered by their offset in the archive.
+         *
+         * @return Problems found
+         */
+        public List<Issue> getIssues()
+        {
+            return this.issues;
+        }
+
+        /**
+         * Gets every problem of a given type.
+         *
+         * @param type Type of problem
+         * @return Problems of type found
+         */
+        public List<Issue> getIssues(IssueType type)
+        {
+            return this.issues.stream().filter(issue -> issue.type == type).toList();
+        }
+
+        /**
+         * Prints a summary of this report, along with every problem found.
+         *
+         * @param stream Stream to print to
+         */
+        public void print(PrintStream stream)
+        {
+            stream.printf("[ArchiveVerifier] Verified %d/%d entries (%.2f/%.2f MB) in %.2fs " +
+                          "(%.2f MB/s, %.0f entries/s)%s%n", this.verifiedCount,
+                this.entryCount, this.verifiedBytes / 1e6, this.totalBytes / 1e6,
+                this.time / 1e9, this.getBytesPerSecond() / 1e6, this.getEntriesPerSecond(),
+                this.isCancelled ? ", cancelled" : "");
+            stream.printf("[ArchiveVerifier] %d corrupt, %d truncated, %d duplicate%n",
+                this.getIssues(IssueType.CORRUPT).size(),
+                this.getIssues(IssueType.TRUNCATED).size(),
+                this.getIssues(IssueType.DUPLICATE).size());
+            for (Issue issue : this.issues)
+                stream.printf("[ArchiveVerifier]   %s%n", issue);
+        }
+    }
+
+    /**
+     * Identifies the state of an archive, so a repair can tell whether
+     * the archive changed since it was verified.
+     */
+    private static final class State
+    {
+        private final long fatOffset;
+        private final long lastModified;
+        private final SHA1 fatHash;
+
+        private State(Fart archive, Fat[] entries)
+        {
+            File file = archive.getFile();
+            this.fatOffset = archive.fatOffset;
+            this.lastModified = (file == null) ? 0 : file.lastModified();
+            this.fatHash = Crypto.SHA1(Fart.generateFAT(entries));
+        }
+
+        private boolean matches(State other)
+        {
+            return this.fatOffset == other.fatOffset &&
+                   this.lastModified == other.lastModified &&
+                   this.fatHash.equals(other.fatHash);
+        }
+    }
+
+    /**
+     * Receives progress updates while an archive is verified.
+     */
+    @FunctionalInterface
+    public interface Listener
+    {
+        /**
+         * Called on the verifying thread as entries are verified.
+         *
+         * @param progress Current progress
+         */
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * A contiguous range of the archive read in one go.
+     */
+    private static final class Block
+    {
+        private final long offset;
+        private final ArrayList<Fat> entries = new ArrayList<>();
+        private long end;
+
+        private Block(long offset)
+        {
+            this.offset = offset;
+            this.end = offset;
+        }
+    }
+
+    private final Fart archive;
+
+    /**
+     * Number of worker threads used for hashing.
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of bytes read from the archive at once.
+     */
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    private Listener listener;
+
+    private volatile boolean isCancelled;
+
+    private long start;
+    private int entryCount;
+    private long totalBytes;
+    private final AtomicInteger verifiedCount = new AtomicInteger();
+    private final AtomicLong verifiedBytes = new AtomicLong();
+    private final ConcurrentLinkedQueue<Issue> issues = new ConcurrentLinkedQueue<>();
+
+    public ArchiveVerifier(Fart archive)
+    {
+        if (archive == null)
+            throw new NullPointerException("Can't verify null archive!");
+        this.archive = archive;
+    }
+
+    /**
+     * Sets the number of worker threads used for hashing.
+     *
+     * @param parallelism Number of threads
+     * @return This verifier
+     */
+    public ArchiveVerifier setParallelism(int parallelism)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1!");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets the number of bytes read from the archive at once,
+     * entries larger than this are read on their own.
+     *
+     * @param blockSize Size of each read
+     * @return This verifier
+     */
+    public ArchiveVerifier setBlockSize(int blockSize)
+    {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be at least 1!");
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Sets the listener that receives progress updates.
+     *
+     * @param listener Progress listener, may be null
+     * @return This verifier
+     */
+    public ArchiveVerifier setListener(Listener listener)
+    {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Cancels a running verification, the report will only
+     * contain the entries verified so far.
+     */
+    public void cancel()
+    {
+        this.isCancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return this.isCancelled;
+    }
+
+    private Progress getProgress()
+    {
+        return new Progress(this.entryCount, this.verifiedCount.get(), this.totalBytes,
+            this.verifiedBytes.get(), System.nanoTime() - this.start);
+    }
+
+    private void notifyListener()
+    {
+        if (this.listener != null)
+            this.listener.onProgress(this.getProgress());
+    }
+
+    private void verified(Fat fat)
+    {
+        this.verifiedCount.incrementAndGet();
+        this.verifiedBytes.addAndGet(fat.getSize());
+    }
+
+    /**
+     * Verifies every entry in the FAT of the archive,
+     * entries that are only queued aren't checked.
+     *
+     * @return Report of any problems found
+     */
+    public synchronized Report verify()
+    {
+        this.isCancelled = false;
+        this.start = System.nanoTime();
+        this.verifiedCount.set(0);
+        this.verifiedBytes.set(0);
+        this.issues.clear();
+
+        Fat[] entries;
+        long limit;
+        State state;
+        this.archive.lock.readLock().lock();
+        try
+        {
+            entries = this.archive.getEntries();
+            limit = this.archive.fatOffset;
+            state = new State(this.archive, entries);
+        }
+        finally { this.archive.lock.readLock().unlock(); }
+
+        this.entryCount = entries.length;
+        this.totalBytes = Arrays.stream(entries).mapToLong(Fat::getSize).sum();
+
+        // Keeping the entries in the order they appear in the archive
+        // keeps reads sequential, and decides which copy of a duplicate is kept.
+        entries = entries.clone();
+        Arrays.sort(entries, Comparator.comparingLong(Fat::getOffset));
+
+        ArrayList<Fat> readable = new ArrayList<>(entries.length);
+        for (Fat fat : entries)
+        {
+            long offset = fat.getOffset();
+            if (offset < 0 || fat.getSize() < 0 || offset + fat.getSize() > limit)
+            {
+                this.issues.add(new Issue(fat, IssueType.TRUNCATED, null));
+                this.verified(fat);
+            }
+            else readable.add(fat);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try
+        {
+            if (this.archive instanceof FileArchive && this.archive.getFile() != null)
+                this.verifyFile(readable, pool);
+            else this.verifyBuffers(readable, pool);
+        }
+        finally
+        {
+            pool.shutdown();
+            try { pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                this.isCancelled = true;
+            }
+        }
+
+        if (!this.isCancelled)
+            this.findDuplicates(entries);
+
+        ArrayList<Issue> issues = new ArrayList<>(this.issues);
+        issues.sort(Comparator.comparingLong(issue -> issue.fat.getOffset()));
+        Report report = new Report(this.archive, state, this.getProgress(), this.isCancelled,
+            issues);
+        if (this.listener != null)
+            this.listener.onProgress(report);
+        return report;
+    }
+
+    /**
+     * Reads the entries of a file archive sequentially in blocks,
+     * and hashes each entry of a block on the pool.
+     */
+    private void verifyFile(ArrayList<Fat> entries, ForkJoinPool pool)
+    {
+        ArrayList<Block> blocks = new ArrayList<>();
+        Block block = null;
+        for (Fat fat : entries)
+        {
+            long offset = fat.getOffset(), end = offset + fat.getSize();
+            if (block == null || offset - block.end > MAX_BLOCK_GAP ||
+                Math.max(end, block.end) - block.offset > this.blockSize)
+            {
+                block = new Block(offset);
+                blocks.add(block);
+            }
+            block.entries.add(fat);
+            block.end = Math.max(block.end, end);
+        }
+
+        Semaphore pending = new Semaphore(MAX_PENDING_BLOCKS);
+        try (FileChannel channel = FileChannel.open(this.archive.getFile().toPath(),
+            StandardOpenOption.READ))
+        {
+            for (Block current : blocks)
+            {
+                if (this.isCancelled) break;
+
+                pending.acquireUninterruptibly();
+                ByteBuffer buffer = ByteBuffer.allocate((int) (current.end - current.offset));
+                try
+                {
+                    while (buffer.hasRemaining())
+                    {
+                        if (channel.read(buffer, current.offset + buffer.position()) < 0)
+                            break;
+                    }
+                }
+                catch (IOException ex)
+                {
+                    pending.release();
+                    throw ex;
+                }
+
+                byte[] data = buffer.array();
+                int length = buffer.position();
+                AtomicInteger remaining = new AtomicInteger(current.entries.size());
+                for (Fat fat : current.entries)
+                {
+                    pool.execute(() ->
+                    {
+                        try
+                        {
+                            if (this.isCancelled) return;
+                            int start = (int) (fat.getOffset() - current.offset);
+                            if (start + fat.getSize() > length)
+                                this.issues.add(new Issue(fat, IssueType.TRUNCATED, null));
+                            else this.check(fat, Crypto.SHA1(data, start, fat.getSize()));
+                            this.verified(fat);
+                        }
+                        finally
+                        {
+                            if (remaining.decrementAndGet() == 0)
+                                pending.release();
+                        }
+                    });
+                }
+
+                this.notifyListener();
+            }
+        }
+        catch (IOException ex)
+        {
+            // Anything we couldn't read never got verified,
+            // so the report can't claim the archive is intact.
+            this.isCancelled = true;
+        }
+
+        pending.acquireUninterruptibly(MAX_PENDING_BLOCKS);
+    }
+
+    /**
+     * Hashes the entries of an archive that's already in memory.
+     */
+    private void verifyBuffers(ArrayList<Fat> entries, ForkJoinPool pool)
+    {
+        AtomicInteger remaining = new AtomicInteger(entries.size());
+        Semaphore done = new Semaphore(0);
+        for (Fat fat : entries)
+        {
+            pool.execute(() ->
+            {
+                try
+                {
+                    if (this.isCancelled) return;
+                    ByteBuffer data = this.archive.extractBuffer(fat);
+                    if (data == null || data.remaining() != fat.getSize())
+                        this.issues.add(new Issue(fat, IssueType.TRUNCATED, null));
+                    else this.check(fat, Crypto.SHA1(data));
+                    this.verified(fat);
+                }
+                finally
+                {
+                    if (remaining.decrementAndGet() == 0)
+                        done.release();
+                }
+            });
+        }
+
+        if (entries.isEmpty()) return;
+
+        // Report progress periodically until the pool is done with every entry.
+        try
+        {
+            while (!done.tryAcquire(250, TimeUnit.MILLISECONDS))
+                this.notifyListener();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            this.isCancelled = true;
+        }
+    }
+
+    private void check(Fat fat, SHA1 actual)
+    {
+        if (!actual.equals(fat.getSHA1()))
+            this.issues.add(new Issue(fat, IssueType.CORRUPT, actual));
+    }
+
+    /**
+     * Flags every row of a hash after the first intact one as a duplicate.
+     *
+     * @param entries Entries sorted by offset
+     */
+    private void findDuplicates(Fat[] entries)
+    {
+        HashMap<SHA1, ArrayList<Fat>> bad = ArchiveVerifier.index(this.issues);
+        HashMap<SHA1, Fat> kept = new HashMap<>(entries.length);
+        for (Fat fat : entries)
+        {
+            if (ArchiveVerifier.contains(bad, fat)) continue;
+            if (kept.putIfAbsent(fat.getSHA1(), fat) != null)
+                this.issues.add(new Issue(fat, IssueType.DUPLICATE, null));
+        }
+    }
+
+    private static HashMap<SHA1, ArrayList<Fat>> index(Iterable<Issue> issues)
+    {
+        HashMap<SHA1, ArrayList<Fat>> index = new HashMap<>();
+        for (Issue issue : issues)
+            index.computeIfAbsent(issue.fat.getSHA1(), sha1 -> new ArrayList<>())
+                .add(issue.fat);
+        return index;
+    }
+
+    private static boolean contains(HashMap<SHA1, ArrayList<Fat>> index, Fat fat)
+    {
+        return ArchiveVerifier.find(index, fat) != -1;
+    }
+
+    private static int find(HashMap<SHA1, ArrayList<Fat>> index, Fat fat)
+    {
+        ArrayList<Fat> rows = index.get(fat.getSHA1());
+        if (rows == null) return -1;
+        for (int i = 0; i < rows.size(); ++i)
+        {
+            Fat row = rows.get(i);
+            if (row.getOffset() == fat.getOffset() && row.getSize() == fat.getSize())
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Rebuilds the FAT of the archive without any of the entries that
+     * had problems in a report, the archive still has to be saved afterwards.
+     *
+     * @param report Report of a completed verification of this archive
+     * @return Number of rows removed from the FAT
+     * @throws IllegalStateException if the FAT or the file on disk changed since
+     *                               the archive was verified
+     */
+    public int repair(Report report)
+    {
+        return this.repair(report, IssueType.values());
+    }
+
+    /**
+     * Rebuilds the FAT of the archive without any of the entries that
+     * had problems of the given types in a report, the archive still has to be
+     * saved afterwards.
+     *
+     * @param report Report of a completed verification of this archive
+     * @param types  Types of problems to remove entries for
+     * @return Number of rows removed from the FAT
+     * @throws IllegalStateException if the FAT or the file on disk changed since
+     *                               the archive was verified
+     */
+    public int repair(Report report, IssueType... types)
+    {
+        if (report == null)
+            throw new NullPointerException("Can't repair archive from null report!");
+        if (types == null)
+            throw new NullPointerException("Can't repair archive from null issue types!");
+        if (report.getArchive() != this.archive)
+            throw new IllegalArgumentException("Report does not belong to this archive!");
+        if (report.isCancelled())
+            throw new IllegalStateException("Can't repair archive from incomplete report!");
+
+        EnumSet<IssueType> repaired = EnumSet.noneOf(IssueType.class);
+        repaired.addAll(Arrays.asList(types));
+        List<Issue> issues = report.getIssues().stream()
+            .filter(issue -> repaired.contains(issue.type))
+            .toList();
+
+        HashMap<SHA1, ArrayList<Fat>> bad = ArchiveVerifier.index(issues);
+        this.archive.lock.writeLock().lock();
+        try
+        {
+            Fat[] entries = this.archive.getEntries();
+            if (!report.state.matches(new State(this.archive, entries)))
+                throw new IllegalStateException("Archive was modified since it was " +
+                                                "verified!");
+            if (issues.isEmpty()) return 0;
+
+            // Each issue only accounts for a single row, identical rows
+            // might still have an intact copy among them.
+            ArrayList<Fat> intact = new ArrayList<>(entries.length);
+            for (Fat fat : entries)
+            {
+                int index = ArchiveVerifier.find(bad, fat);
+                if (index != -1) bad.get(fat.getSHA1()).remove(index);
+                else intact.add(fat);
+            }
+
+            this.archive.setEntries(intact.toArray(Fat[]::new));
+            return entries.length - intact.size();
+        }
+        finally { this.archive.lock.writeLock().unlock(); }
+    }
+}
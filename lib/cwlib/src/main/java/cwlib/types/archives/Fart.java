@@ -9,16 +9,38 @@ import cwlib.types.data.SHA1;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 
 /**
  * Base class for archive resources.
+ * Archives are safe to read from multiple threads, as long as
+ * there's only a single writer.
  */
 public abstract class Fart implements Iterable<Fat>
 {
+    /**
+     * Maximum number of extracted resources waiting to be consumed
+     * during a batch extraction.
+     */
+    private static final int MAX_PENDING_EXTRACTIONS = 64;
+
+    /**
+     * Number of times an archive is verified while validating it,
+     * if it keeps getting modified in the meantime.
+     */
+    private static final int MAX_VALIDATE_ATTEMPTS = 3;
+
     /**
      * Archive path on local disk.
      */
@@ -54,6 +76,12 @@ public abstract class Fart implements Iterable<Fat>
      */
     protected HashMap<SHA1, Fat> lookup = new HashMap<>();
 
+    /**
+     * Lock guarding the state of the archive, readers can extract concurrently,
+     * while anything that modifies the FAT or queue needs exclusive access.
+     */
+    protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
     protected Fart(File file, ArchiveType type)
     {
         // Only save archives can have null paths
@@ -78,14 +106,20 @@ public abstract class Fart implements Iterable<Fat>
         if (sha1 == null)
             throw new NullPointerException("Can't search for null hash in archive!");
 
-        // Grab the resource from the queue if it exists
-        if (this.queue.containsKey(sha1))
-            return this.queue.get(sha1);
+        this.lock.readLock().lock();
+        try
+        {
+            // Grab the resource from the queue if it exists
+            byte[] data = this.queue.get(sha1);
+            if (data != null) return data;
 
-        if (this.lookup.containsKey(sha1))
-            return this.extract(this.lookup.get(sha1));
+            Fat fat = this.find(sha1);
+            if (fat != null)
+                return this.extract(fat);
 
-        return null;
+            return null;
+        }
+        finally { this.lock.readLock().unlock(); }
     }
 
     /**
@@ -110,6 +144,124 @@ public abstract class Fart implements Iterable<Fat>
         catch (IOException ex) { return null; }
     }
 
+    /**
+     * Extracts a resource from the archive via SHA1 as a read-only buffer.
+     *
+     * @param sha1 SHA1 signature of resource to extract
+     * @return Extracted resource
+     */
+    public ByteBuffer extractBuffer(SHA1 sha1)
+    {
+        if (sha1 == null)
+            throw new NullPointerException("Can't search for null hash in archive!");
+
+        this.lock.readLock().lock();
+        try
+        {
+            // Grab the resource from the queue if it exists
+            byte[] data = this.queue.get(sha1);
+            if (data != null)
+                return ByteBuffer.wrap(data).asReadOnlyBuffer();
+
+            Fat fat = this.find(sha1);
+            if (fat != null)
+                return this.extractBuffer(fat);
+
+            return null;
+        }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    /**
+     * Extracts a batch of resources from the archive.
+     * Entries are read on the calling thread in the order they appear in the archive
+     * to keep disk access sequential, then handed off to the consumer on the executor.
+     * Hashes that don't exist in the archive are skipped.
+     *
+     * @param hashes   Hashes of resources to extract
+     * @param executor Executor to run the consumer on
+     * @param consumer Callback that receives each extracted resource
+     * @return Number of resources extracted
+     */
+    public int extractAll(Collection<SHA1> hashes, Executor executor,
+                          BiConsumer<SHA1, byte[]> consumer)
+    {
+        if (hashes == null)
+            throw new NullPointerException("Can't extract null hash collection from archive!");
+        if (executor == null)
+            throw new NullPointerException("Executor cannot be null!");
+        if (consumer == null)
+            throw new NullPointerException("Consumer cannot be null!");
+
+        ArrayList<Fat> rows = new ArrayList<>(hashes.size());
+        HashMap<SHA1, byte[]> queued = new HashMap<>();
+        this.lock.readLock().lock();
+        try
+        {
+            for (SHA1 sha1 : hashes)
+            {
+                if (sha1 == null) continue;
+                byte[] data = this.queue.get(sha1);
+                if (data != null)
+                {
+                    queued.put(sha1, data);
+                    continue;
+                }
+                Fat fat = this.find(sha1);
+                if (fat != null) rows.add(fat);
+            }
+        }
+        finally { this.lock.readLock().unlock(); }
+
+        rows.sort(Comparator.comparingLong(Fat::getOffset));
+
+        // Limit how many resources can be waiting on the consumer,
+        // otherwise a slow consumer would end up with the entire batch in memory.
+        Semaphore pending = new Semaphore(MAX_PENDING_EXTRACTIONS);
+        ArrayList<CompletableFuture<Void>> tasks = new ArrayList<>(rows.size() + queued.size());
+
+        for (SHA1 sha1 : queued.keySet())
+        {
+            byte[] data = queued.get(sha1);
+            tasks.add(CompletableFuture.runAsync(() -> consumer.accept(sha1, data), executor));
+        }
+
+        for (Fat fat : rows)
+        {
+            pending.acquireUninterruptibly();
+            byte[] data = this.extract(fat);
+            if (data == null)
+            {
+                pending.release();
+                continue;
+            }
+
+            SHA1 sha1 = fat.getSHA1();
+            tasks.add(CompletableFuture.runAsync(() ->
+            {
+                try { consumer.accept(sha1, data); }
+                finally { pending.release(); }
+            }, executor));
+        }
+
+        CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+
+        return tasks.size();
+    }
+
+    /**
+     * Extracts a resource via a FAT entry as a read-only buffer.
+     *
+     * @param fat FAT row to extract
+     * @return Extracted resource
+     */
+    public ByteBuffer extractBuffer(Fat fat)
+    {
+        byte[] data = this.extract(fat);
+        if (data == null) return null;
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
     /**
      * Checks if a hash exists in the archive.
      *
@@ -120,7 +272,52 @@ public abstract class Fart implements Iterable<Fat>
     {
         if (sha1 == null)
             throw new NullPointerException("Can't search for null hash in archive!");
-        return this.lookup.containsKey(sha1) || this.queue.containsKey(sha1);
+        this.lock.readLock().lock();
+        try { return this.contains(sha1) || this.queue.containsKey(sha1); }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    /**
+     * Gets the size of a resource in the archive without extracting it.
+     *
+     * @param sha1 Hash to query
+     * @return Size of resource, or -1 if it doesn't exist
+     */
+    public int getSize(SHA1 sha1)
+    {
+        if (sha1 == null)
+            throw new NullPointerException("Can't search for null hash in archive!");
+        this.lock.readLock().lock();
+        try
+        {
+            byte[] data = this.queue.get(sha1);
+            if (data != null) return data.length;
+            Fat fat = this.find(sha1);
+            return fat == null ? -1 : fat.getSize();
+        }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    /**
+     * Finds the FAT row of a hash in the archive, doesn't include the queue.
+     *
+     * @param sha1 Hash to query
+     * @return FAT row of hash, or null if it doesn't exist
+     */
+    protected Fat find(SHA1 sha1)
+    {
+        return this.lookup.get(sha1);
+    }
+
+    /**
+     * Checks if a hash exists in the FAT, doesn't include the queue.
+     *
+     * @param sha1 Hash to query
+     * @return Whether or not the hash exists
+     */
+    protected boolean contains(SHA1 sha1)
+    {
+        return this.lookup.containsKey(sha1);
     }
 
     /**
@@ -135,10 +332,14 @@ public abstract class Fart implements Iterable<Fat>
             throw new NullPointerException("Can't add null buffer to archive!");
         SHA1 sha1 = SHA1.fromBuffer(data);
 
-        // Already exists, no point adding it to the queue.
-        if (this.exists(sha1)) return sha1;
-
-        this.queue.put(sha1, data);
+        this.lock.writeLock().lock();
+        try
+        {
+            // Already exists, no point adding it to the queue.
+            if (this.exists(sha1)) return sha1;
+            this.queue.put(sha1, data);
+        }
+        finally { this.lock.writeLock().unlock(); }
 
         return sha1;
     }
@@ -151,15 +352,30 @@ public abstract class Fart implements Iterable<Fat>
      */
     public SHA1[] add(Fart fart)
     {
-        ArrayList<SHA1> hashes = new ArrayList<>(fart.entries.length);
-        for (Fat fat : fart.entries)
+        if (fart == null)
+            throw new NullPointerException("Can't add null archive to archive!");
+        ArrayList<SHA1> hashes = new ArrayList<>(fart.getEntryCount());
+        for (Fat fat : fart)
         {
             SHA1 sha1 = fat.getSHA1();
             if (this.exists(sha1))
                 continue;
+
+            // Extract outside of the lock, so readers aren't held up
+            // while the other archive is read from disk.
             // Don't use the add method since it hashes the data again.
-            this.queue.put(sha1, fart.extract(fat));
-            hashes.add(sha1);
+            byte[] data = fart.extract(fat);
+            if (data == null) continue;
+
+            this.lock.writeLock().lock();
+            try
+            {
+                // Could've been added while we were extracting.
+                if (this.exists(sha1)) continue;
+                this.queue.put(sha1, data);
+                hashes.add(sha1);
+            }
+            finally { this.lock.writeLock().unlock(); }
         }
         return hashes.toArray(SHA1[]::new);
     }
@@ -188,10 +404,15 @@ public abstract class Fart implements Iterable<Fat>
      */
     public long getQueueSize()
     {
-        return this.queue.values()
-            .stream()
-            .mapToLong(data -> data.length)
-            .reduce(0, (p, c) -> p + c);
+        this.lock.readLock().lock();
+        try
+        {
+            return this.queue.values()
+                .stream()
+                .mapToLong(data -> data.length)
+                .reduce(0, (p, c) -> p + c);
+        }
+        finally { this.lock.readLock().unlock(); }
     }
 
     /**
@@ -201,7 +422,9 @@ public abstract class Fart implements Iterable<Fat>
      */
     public ArrayList<SHA1> getQueueHashes()
     {
-        return new ArrayList<SHA1>(this.queue.keySet());
+        this.lock.readLock().lock();
+        try { return new ArrayList<SHA1>(this.queue.keySet()); }
+        finally { this.lock.readLock().unlock(); }
     }
 
     /**
@@ -252,22 +475,38 @@ public abstract class Fart implements Iterable<Fat>
     }
 
     /**
-     * Validates that all SHA1s match their corresponding buffers in FAT
+     * Validates that all SHA1s match their corresponding buffers in FAT,
+     * and removes every entry that doesn't from the FAT.
+     * <p>
+     * Entries are verified in parallel by {@link ArchiveVerifier} without locking the
+     * archive, which is only locked to remove the bad entries. Duplicate rows are left
+     * alone, use {@link ArchiveVerifier} directly for a full report.
      *
      * @return Number of entries that failed validation
+     * @throws IllegalStateException if the archive couldn't be read, or kept changing
+     *                               while it was being validated
      */
     public int validate()
     {
-        ArrayList<Fat> entries = new ArrayList<>(this.entries.length);
-        for (Fat fat : this.entries)
+        ArchiveVerifier verifier = new ArchiveVerifier(this);
+        for (int attempt = 1; ; ++attempt)
         {
-            SHA1 sha1 = SHA1.fromBuffer(fat.extract());
-            if (sha1.equals(fat.getSHA1()))
-                entries.add(fat);
+            ArchiveVerifier.Report report = verifier.verify();
+            if (report.isCancelled())
+                throw new IllegalStateException("Failed to read archive while validating!");
+
+            // Anything that modified the archive since it was verified
+            // means it has to be verified again.
+            try
+            {
+                return verifier.repair(report, ArchiveVerifier.IssueType.CORRUPT,
+                    ArchiveVerifier.IssueType.TRUNCATED);
+            }
+            catch (IllegalStateException ex)
+            {
+                if (attempt == MAX_VALIDATE_ATTEMPTS) throw ex;
+            }
         }
-        int missing = this.entries.length - entries.size();
-        this.entries = entries.toArray(Fat[]::new);
-        return missing;
     }
 
     /**
@@ -277,7 +516,9 @@ public abstract class Fart implements Iterable<Fat>
      */
     public boolean shouldSave()
     {
-        return this.queue.size() != 0;
+        this.lock.readLock().lock();
+        try { return this.queue.size() != 0; }
+        finally { this.lock.readLock().unlock(); }
     }
 
     /**
@@ -287,12 +528,42 @@ public abstract class Fart implements Iterable<Fat>
      */
     public int getEntryCount()
     {
-        return this.entries.length;
+        return this.getEntries().length;
+    }
+
+    /**
+     * Gets a snapshot of the entries in the FAT.
+     *
+     * @return Entries in FAT
+     */
+    public Fat[] getEntries()
+    {
+        this.lock.readLock().lock();
+        try { return this.entries; }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    /**
+     * Replaces the entries in the FAT and rebuilds the lookup.
+     *
+     * @param entries New entries in FAT
+     */
+    protected void setEntries(Fat[] entries)
+    {
+        this.lock.writeLock().lock();
+        try
+        {
+            this.entries = entries;
+            this.lookup = new HashMap<>(entries.length);
+            for (Fat fat : entries)
+                this.lookup.put(fat.getSHA1(), fat);
+        }
+        finally { this.lock.writeLock().unlock(); }
     }
 
     @Override
     public Iterator<Fat> iterator()
     {
-        return Arrays.stream(this.entries).iterator();
+        return Arrays.stream(this.getEntries()).iterator();
     }
 }
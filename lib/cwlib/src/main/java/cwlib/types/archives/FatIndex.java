@@ -0,0 +1,197 @@
+package cwlib.types.archives;
+
+import cwlib.types.data.SHA1;
+import cwlib.util.Bytes;
+
+import java.util.Arrays;
+
+/**
+ * Compact index of the rows in a FAT, stored in primitive arrays
+ * sorted by hash, so lookups can be done with a binary search
+ * without allocating an object per entry.
+ */
+final class FatIndex
+{
+    /**
+     * Size of a row in the FAT.
+     */
+    private static final int FAT_ROW_SIZE = 0x1c;
+
+    /**
+     * Size of a SHA1 hash.
+     */
+    private static final int HASH_SIZE = 0x14;
+
+    /**
+     * Packed SHA1 hashes of every entry, sorted.
+     */
+    private final byte[] hashes;
+
+    /**
+     * Offsets of every entry, stored as unsigned integers.
+     */
+    private final int[] offsets;
+
+    /**
+     * Sizes of every entry.
+     */
+    private final int[] sizes;
+
+    private FatIndex(byte[] hashes, int[] offsets, int[] sizes)
+    {
+        this.hashes = hashes;
+        this.offsets = offsets;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Builds an index from a serialized FAT.
+     *
+     * @param table Serialized FAT rows
+     * @return Index of FAT
+     */
+    public static FatIndex fromTable(byte[] table)
+    {
+        int count = table.length / FAT_ROW_SIZE;
+
+        // Sort the rows by hash, we're only sorting indices,
+        // so the rows only get copied once.
+        int[] order = new int[count];
+        for (int i = 0; i < count; ++i)
+            order[i] = i;
+        FatIndex.sort(table, order);
+
+        byte[] hashes = new byte[count * HASH_SIZE];
+        int[] offsets = new int[count];
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; ++i)
+        {
+            int row = order[i] * FAT_ROW_SIZE;
+            System.arraycopy(table, row, hashes, i * HASH_SIZE, HASH_SIZE);
+            offsets[i] = Bytes.toIntegerBE(table, row + HASH_SIZE);
+            sizes[i] = Bytes.toIntegerBE(table, row + HASH_SIZE + 0x4);
+        }
+
+        return new FatIndex(hashes, offsets, sizes);
+    }
+
+    /**
+     * Sorts row indices of a serialized FAT by their hash with a heapsort,
+     * so we don't need to box every index to use a comparator.
+     *
+     * @param table Serialized FAT rows
+     * @param order Row indices to sort
+     */
+    private static void sort(byte[] table, int[] order)
+    {
+        int count = order.length;
+        for (int i = (count / 2) - 1; i >= 0; --i)
+            FatIndex.sift(table, order, i, count);
+        for (int end = count - 1; end > 0; --end)
+        {
+            int temp = order[0];
+            order[0] = order[end];
+            order[end] = temp;
+            FatIndex.sift(table, order, 0, end);
+        }
+    }
+
+    private static void sift(byte[] table, int[] order, int root, int end)
+    {
+        while (true)
+        {
+            int child = (root * 2) + 1;
+            if (child >= end) return;
+            if (child + 1 < end && FatIndex.compare(table, order[child], order[child + 1]) < 0)
+                child++;
+            if (FatIndex.compare(table, order[root], order[child]) >= 0) return;
+            int temp = order[root];
+            order[root] = order[child];
+            order[child] = temp;
+            root = child;
+        }
+    }
+
+    private static int compare(byte[] table, int a, int b)
+    {
+        a *= FAT_ROW_SIZE;
+        b *= FAT_ROW_SIZE;
+        return Arrays.compareUnsigned(table, a, a + HASH_SIZE, table, b, b + HASH_SIZE);
+    }
+
+    /**
+     * Serializes this index back into FAT rows.
+     *
+     * @return Serialized FAT rows
+     */
+    public byte[] toTable()
+    {
+        byte[] table = new byte[this.size() * FAT_ROW_SIZE];
+        for (int i = 0; i < this.size(); ++i)
+        {
+            int row = i * FAT_ROW_SIZE;
+            System.arraycopy(this.hashes, i * HASH_SIZE, table, row, HASH_SIZE);
+            System.arraycopy(Bytes.toBytesBE(this.offsets[i]), 0, table, row + HASH_SIZE, 4);
+            System.arraycopy(Bytes.toBytesBE(this.sizes[i]), 0, table, row + HASH_SIZE + 0x4,
+                4);
+        }
+        return table;
+    }
+
+    /**
+     * Finds the index of a hash.
+     *
+     * @param sha1 Hash to search for
+     * @return Index of hash, or -1 if it doesn't exist
+     */
+    public int find(SHA1 sha1)
+    {
+        byte[] hash = sha1.getHash();
+        int low = 0, high = this.size() - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int start = mid * HASH_SIZE;
+            int cmp = Arrays.compareUnsigned(this.hashes, start, start + HASH_SIZE, hash, 0,
+                HASH_SIZE);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a FAT row for an entry in the index.
+     *
+     * @param archive Archive this index belongs to
+     * @param index   Index of entry
+     * @return FAT row
+     */
+    public Fat getFat(Fart archive, int index)
+    {
+        return new Fat(archive, this.getSHA1(index), this.getOffset(index),
+            this.getSize(index));
+    }
+
+    public SHA1 getSHA1(int index)
+    {
+        int start = index * HASH_SIZE;
+        return new SHA1(Arrays.copyOfRange(this.hashes, start, start + HASH_SIZE));
+    }
+
+    public long getOffset(int index)
+    {
+        return this.offsets[index] & 0xFFFFFFFFL;
+    }
+
+    public int getSize(int index)
+    {
+        return this.sizes[index];
+    }
+
+    public int size()
+    {
+        return this.offsets.length;
+    }
+}
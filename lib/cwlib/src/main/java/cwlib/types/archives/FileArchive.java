@@ -2,21 +2,130 @@ package cwlib.types.archives;
 
 import cwlib.enums.ArchiveType;
 import cwlib.ex.SerializationException;
-import cwlib.io.streams.MemoryInputStream;
 import cwlib.types.data.SHA1;
-import cwlib.util.Bytes;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
-public class FileArchive extends Fart
+public class FileArchive extends Fart implements Closeable
 {
+    /**
+     * Size of each memory mapped window of the archive,
+     * a single mapping can't address more than 2GB.
+     */
+    private static final long MAPPING_WINDOW_SIZE = 0x40000000L;
+
+    /**
+     * Number of times a read is attempted if the shared handle
+     * gets closed while it's in progress.
+     */
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    /**
+     * Compact index of the FAT, FAT rows are only created
+     * when they're requested.
+     */
+    private volatile FatIndex index;
+
+    /**
+     * Whether this archive should be memory mapped
+     * when extracting resources.
+     */
+    private final boolean isMemoryMapped;
+
+    /**
+     * Read-only handle to the archive shared between extractions,
+     * opened on first use.
+     */
+    private Handle handle;
+
+    /**
+     * Memory mapped windows of the archive, only used
+     * if the archive is memory mapped.
+     */
+    private MappedByteBuffer[] mappings;
+
+    /**
+     * Size of the archive when it was last mapped.
+     */
+    private long mappedLength;
+
+    /**
+     * The last time the archive was modified when the handle was opened,
+     * used for checking if the handle needs to be refreshed.
+     */
+    private long handleModified;
+
+    /**
+     * Writer currently appending to this archive, null if there is none.
+     */
+    private FileArchiveWriter writer;
+
+    /**
+     * Shared read handle of an archive, counting the extractions using it, so a stale
+     * handle can be swapped out without closing it under an extraction in progress.
+     */
+    private static final class Handle
+    {
+        private final FileChannel channel;
+        private int users;
+        private boolean isRetired;
+
+        private Handle(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        private void close()
+        {
+            try { this.channel.close(); }
+            catch (IOException ex) { /* Nothing we can do */ }
+        }
+    }
+
     public FileArchive(File file)
+    {
+        this(file, false);
+    }
+
+    /**
+     * Loads a FileArchive from disk, the archive is only read, an append that never
+     * finished has to be rolled back beforehand with {@link FileArchiveWriter#recover(File)}.
+     *
+     * @param file           Archive path on local disk
+     * @param isMemoryMapped Whether resources should be served from a memory mapping of the
+     *                       archive, rather than read from disk on every extraction.
+     */
+    public FileArchive(File file, boolean isMemoryMapped)
     {
         super(file, ArchiveType.FARC);
-        byte[] fatTable = null;
+        this.isMemoryMapped = isMemoryMapped;
+
+        try { this.index = FatIndex.fromTable(this.readTable()); }
+        catch (IOException ex)
+        {
+            throw new SerializationException("An I/O error occurred while reading the FARC.");
+        }
+    }
 
+    /**
+     * Reads the FAT of this archive from disk, and updates the offset of the FAT.
+     *
+     * @return Serialized FAT rows
+     * @throws IOException If an I/O error occurs reading the archive
+     */
+    private byte[] readTable() throws IOException
+    {
         try (RandomAccessFile archive = new RandomAccessFile(this.file.getAbsolutePath(), "r"))
         {
             if (archive.length() < 0x8)
@@ -31,96 +140,448 @@ public class FileArchive extends Fart
             // entry count and magic.
 
             int entryCount = archive.readInt();
-            this.entries = new Fat[entryCount];
             if (archive.readInt() != 0x46415243 /* FARC */)
                 throw new SerializationException("Invalid FARC, magic does not match!");
             this.fatOffset = archive.length() - 0x8 - (entryCount * 0x1cL);
 
-            fatTable = new byte[entryCount * 0x1c];
+            byte[] fatTable = new byte[entryCount * 0x1c];
 
             archive.seek(this.fatOffset);
             archive.read(fatTable);
+
+            return fatTable;
         }
-        catch (IOException ex)
+    }
+
+    public FileArchive(String path)
+    {
+        this(new File(path));
+    }
+
+    public FileArchive(String path, boolean isMemoryMapped)
+    {
+        this(new File(path), isMemoryMapped);
+    }
+
+    @Override
+    public byte[] extract(Fat fat)
+    {
+        if (fat == null)
+            throw new NullPointerException("Can't search for null entry in archive!");
+        if (fat.getFileArchive() != this)
+            throw new IllegalArgumentException("This entry does not belong to this archive!");
+
+        if (this.isMemoryMapped)
         {
-            throw new SerializationException("An I/O error occurred while reading the FARC.");
+            ByteBuffer buffer = this.extractBuffer(fat);
+            if (buffer == null) return null;
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return data;
         }
 
-        // Faster to read the fat table in-memory since it's small.
-        MemoryInputStream stream = new MemoryInputStream(fatTable);
-        for (int i = 0; i < this.entries.length; ++i)
+        // Positional reads don't touch the position of the channel,
+        // so they're safe to do from multiple threads.
+        this.lock.readLock().lock();
+        try
         {
-            Fat fat = new Fat(this, stream.sha1(), stream.u32(), stream.i32());
-            this.entries[i] = fat;
-            this.lookup.put(fat.getSHA1(), fat);
+            for (int attempt = 1; ; ++attempt)
+            {
+                try { return this.read(fat); }
+                catch (ClosedChannelException ex)
+                {
+                    // The shared channel gets closed for everyone if any thread using it
+                    // is interrupted, so try again with a new one.
+                    if (Thread.currentThread().isInterrupted() ||
+                        attempt == MAX_READ_ATTEMPTS) return null;
+                }
+            }
         }
+        catch (IOException ex) { return null; }
+        finally { this.lock.readLock().unlock(); }
     }
 
-    public FileArchive(String path)
+    /**
+     * Reads a FAT entry through the shared read handle.
+     *
+     * @param fat FAT row to read
+     * @return Read resource, or null if the archive is too short
+     * @throws IOException If an I/O error occurs reading the archive
+     */
+    private byte[] read(Fat fat) throws IOException
     {
-        this(new File(path));
+        Handle handle = this.acquire();
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(fat.getSize());
+            long offset = fat.getOffset();
+            while (buffer.hasRemaining())
+            {
+                if (handle.channel.read(buffer, offset + buffer.position()) < 0)
+                    return null;
+            }
+            return buffer.array();
+        }
+        catch (ClosedChannelException ex)
+        {
+            this.retire(handle);
+            throw ex;
+        }
+        finally { this.release(handle); }
     }
 
+    /**
+     * Extracts a resource via a FAT entry as a read-only buffer.
+     * If the archive is memory mapped, the buffer is a view of the mapping
+     * and no data is copied, unless the entry crosses a mapping window.
+     *
+     * @param fat FAT row to extract
+     * @return Extracted resource
+     */
     @Override
-    public boolean save()
+    public ByteBuffer extractBuffer(Fat fat)
     {
-        // The FARC is way too massive to build every time
-        // you save, so we only ever save when there's
-        // data that needs to be added.
+        if (!this.isMemoryMapped)
+            return super.extractBuffer(fat);
+
+        if (fat == null)
+            throw new NullPointerException("Can't search for null entry in archive!");
+        if (fat.getFileArchive() != this)
+            throw new IllegalArgumentException("This entry does not belong to this archive!");
+
+        MappedByteBuffer[] mappings;
+        long length;
+        this.lock.readLock().lock();
+        try
+        {
+            synchronized (this)
+            {
+                mappings = this.getMappings();
+                length = this.mappedLength;
+            }
+        }
+        catch (IOException ex) { return null; }
+        finally { this.lock.readLock().unlock(); }
 
-        long size = this.getQueueSize();
+        long offset = fat.getOffset();
+        int size = fat.getSize();
+        if (offset < 0 || size < 0 || offset + size > length)
+            return null;
 
-        // This usually shouldn't be an issue, but since
-        // we're using a stream to write file data, we should
-        // check if we have enough space to actually write it.
-        long neededSpace = size + this.queue.size() * 0x1cL;
-        if (this.file.getFreeSpace() < neededSpace)
-            return false;
+        int window = (int) (offset / MAPPING_WINDOW_SIZE);
+        int start = (int) (offset % MAPPING_WINDOW_SIZE);
 
-        Fat[] fat = new Fat[this.entries.length + this.queue.size()];
+        // Most entries fit inside a single window, so we can just
+        // hand out a view of the mapping.
+        if (start + size <= mappings[window].capacity())
+            return mappings[window].slice(start, size).asReadOnlyBuffer();
+
+        // Otherwise stitch the entry back together from each window it spans.
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining())
+        {
+            MappedByteBuffer mapping = mappings[window++];
+            int count = Math.min(mapping.capacity() - start, buffer.remaining());
+            buffer.put(mapping.slice(start, count));
+            start = 0;
+        }
 
-        SHA1[] hashes = this.queue.keySet().toArray(SHA1[]::new);
-        byte[][] buffers = new byte[hashes.length][];
+        return buffer.flip().asReadOnlyBuffer();
+    }
 
-        // Create a new FAT table with these new entries
-        // appended at the end.
-        long offset = this.fatOffset;
-        System.arraycopy(this.entries, 0, fat, 0, this.entries.length);
-        for (int i = this.entries.length, j = 0; i < fat.length; ++i, ++j)
+    /**
+     * Acquires the shared read handle for this archive, swapping in a new
+     * handle if the archive was modified since it was opened.
+     * Every acquired handle has to be released.
+     *
+     * @return Read handle for archive
+     * @throws IOException If an I/O error occurs opening the archive
+     */
+    private synchronized Handle acquire() throws IOException
+    {
+        if (this.handle != null && this.file.lastModified() != this.handleModified)
+            this.retire();
+        if (this.handle == null)
         {
-            buffers[j] = this.queue.get(hashes[j]);
-            fat[i] = new Fat(this, hashes[j], offset, buffers[j].length);
-            offset += buffers[j].length;
+            this.handleModified = this.file.lastModified();
+            this.handle = new Handle(FileChannel.open(this.file.toPath(),
+                StandardOpenOption.READ));
         }
+        this.handle.users++;
+        return this.handle;
+    }
 
-        byte[] table = Fart.generateFAT(fat);
-        try (RandomAccessFile archive = new RandomAccessFile(this.file.getAbsolutePath(), "rw"))
+    /**
+     * Releases an acquired read handle, closing it if it was retired
+     * and this was the last extraction using it.
+     *
+     * @param handle Handle to release
+     */
+    private synchronized void release(Handle handle)
+    {
+        handle.users--;
+        if (handle.isRetired && handle.users == 0)
+            handle.close();
+    }
+
+    /**
+     * Gets the memory mapped windows of this archive,
+     * re-mapping the archive if it was modified since it was mapped.
+     *
+     * @return Memory mapped windows of archive
+     * @throws IOException If an I/O error occurs mapping the archive
+     */
+    private synchronized MappedByteBuffer[] getMappings() throws IOException
+    {
+        Handle handle = this.acquire();
+        try
         {
-            archive.seek(this.fatOffset);
+            if (this.mappings != null) return this.mappings;
 
-            for (byte[] buffer : buffers)
-                archive.write(buffer);
-            archive.write(table);
+            long length = handle.channel.size();
+            int count = (int) ((length + MAPPING_WINDOW_SIZE - 1) / MAPPING_WINDOW_SIZE);
+            MappedByteBuffer[] mappings = new MappedByteBuffer[count];
+            for (int i = 0; i < count; ++i)
+            {
+                long offset = i * MAPPING_WINDOW_SIZE;
+                mappings[i] = handle.channel.map(MapMode.READ_ONLY, offset,
+                    Math.min(MAPPING_WINDOW_SIZE, length - offset));
+            }
 
-            // Footer
-            archive.write(Bytes.toBytesBE(fat.length));
-            archive.write(new byte[] { 0x46, 0x41, 0x52, 0x43 }); // FARC
+            this.mappedLength = length;
+            this.mappings = mappings;
 
-            archive.setLength(archive.getFilePointer());
+            return this.mappings;
         }
-        catch (IOException ex) { return false; }
+        finally { this.release(handle); }
+    }
+
+    /**
+     * Retires the read handle and memory mappings of this archive,
+     * they'll be re-opened on the next extraction. The handle is only closed
+     * once every extraction still using it has finished.
+     */
+    private synchronized void retire()
+    {
+        // Mappings stay valid until they're garbage collected,
+        // there's no way to explicitly unmap them.
+        this.mappings = null;
+        this.mappedLength = 0;
+        if (this.handle == null) return;
+        this.handle.isRetired = true;
+        if (this.handle.users == 0)
+            this.handle.close();
+        this.handle = null;
+    }
+
+    /**
+     * Retires a read handle if it's still the current one.
+     *
+     * @param handle Handle to retire
+     */
+    private synchronized void retire(Handle handle)
+    {
+        if (this.handle == handle)
+            this.retire();
+    }
+
+    public boolean isMemoryMapped()
+    {
+        return this.isMemoryMapped;
+    }
+
+    @Override
+    public void close()
+    {
+        this.retire();
+    }
 
+    /**
+     * Marks a writer as the only writer appending to this archive.
+     *
+     * @param writer Writer appending to this archive
+     */
+    void attach(FileArchiveWriter writer)
+    {
+        this.lock.writeLock().lock();
+        try
+        {
+            if (this.writer != null)
+                throw new IllegalStateException("FileArchive is already being written to!");
+            this.writer = writer;
+        }
+        finally { this.lock.writeLock().unlock(); }
+    }
 
-        // Update state of the archive in memory.
-        this.entries = fat;
-        this.queue.clear();
-        this.lookup.clear();
-        for (Fat row : this.entries)
-            this.lookup.put(row.getSHA1(), row);
-        this.fatOffset = offset;
-        this.lastModified = this.file.lastModified();
+    /**
+     * Releases the archive from a writer, once it's been closed or aborted.
+     *
+     * @param writer Writer that was appending to this archive
+     */
+    void detach(FileArchiveWriter writer)
+    {
+        this.lock.writeLock().lock();
+        try
+        {
+            if (this.writer == writer)
+                this.writer = null;
+        }
+        finally { this.lock.writeLock().unlock(); }
+    }
 
-        return true;
+    /**
+     * Updates the state of the archive after the FAT has been
+     * rewritten by a FileArchiveWriter.
+     *
+     * @param table     Serialized FAT of the archive
+     * @param fatOffset Offset of the FAT in the archive
+     */
+    void update(byte[] table, long fatOffset)
+    {
+        this.lock.writeLock().lock();
+        try
+        {
+            this.retire();
+            this.index = FatIndex.fromTable(table);
+            this.queue.clear();
+            this.fatOffset = fatOffset;
+            this.lastModified = this.file.lastModified();
+        }
+        finally { this.lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Reloads the FAT of this archive from disk, after it was changed
+     * by something other than this archive. Queued resources are kept.
+     *
+     * @throws IOException If an I/O error occurs reading the archive
+     */
+    void reload() throws IOException
+    {
+        this.lock.writeLock().lock();
+        try
+        {
+            this.retire();
+            this.lastModified = this.file.lastModified();
+            this.index = FatIndex.fromTable(this.readTable());
+        }
+        finally { this.lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Gets the serialized FAT of this archive.
+     *
+     * @return Serialized FAT rows
+     */
+    byte[] getTable()
+    {
+        this.lock.readLock().lock();
+        try { return this.index.toTable(); }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    @Override
+    protected Fat find(SHA1 sha1)
+    {
+        FatIndex index = this.index;
+        int row = index.find(sha1);
+        if (row == -1) return null;
+        return index.getFat(this, row);
+    }
+
+    @Override
+    protected boolean contains(SHA1 sha1)
+    {
+        return this.index.find(sha1) != -1;
+    }
+
+    @Override
+    public Fat[] getEntries()
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            Fat[] entries = new Fat[this.index.size()];
+            for (int i = 0; i < entries.length; ++i)
+                entries[i] = this.index.getFat(this, i);
+            return entries;
+        }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    @Override
+    protected void setEntries(Fat[] entries)
+    {
+        this.lock.writeLock().lock();
+        try { this.index = FatIndex.fromTable(Fart.generateFAT(entries)); }
+        finally { this.lock.writeLock().unlock(); }
+    }
+
+    @Override
+    public int getEntryCount()
+    {
+        return this.index.size();
+    }
+
+    @Override
+    public Iterator<Fat> iterator()
+    {
+        FatIndex index;
+        this.lock.readLock().lock();
+        try { index = this.index; }
+        finally { this.lock.readLock().unlock(); }
+
+        return new Iterator<>()
+        {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return this.row < index.size();
+            }
+
+            @Override
+            public Fat next()
+            {
+                if (!this.hasNext())
+                    throw new NoSuchElementException();
+                return index.getFat(FileArchive.this, this.row++);
+            }
+        };
+    }
+
+    @Override
+    public boolean save()
+    {
+        this.lock.writeLock().lock();
+        try
+        {
+            // The FARC is way too massive to build every time
+            // you save, so we only ever save when there's
+            // data that needs to be added.
+
+            long size = this.getQueueSize();
+
+            // This usually shouldn't be an issue, but since
+            // we're using a stream to write file data, we should
+            // check if we have enough space to actually write it,
+            // the old FAT is copied to the journal before being overwritten.
+            long neededSpace = size + (this.index.size() + this.queue.size()) * 0x1cL + 0x1c;
+            if (this.file.getFreeSpace() < neededSpace)
+                return false;
+
+            // The writer flushes the queue as soon as it's opened,
+            // so all that's left is to write the new FAT.
+            FileArchiveWriter writer = new FileArchiveWriter(this);
+            writer.close();
+
+            return true;
+        }
+        // Thrown if another writer is already appending to the archive.
+        catch (IllegalStateException ex) { return false; }
+        catch (IOException ex) { return false; }
+        finally { this.lock.writeLock().unlock(); }
     }
 
 }
@@ -0,0 +1,645 @@
+package cwlib.types.archives;
+
+import cwlib.types.data.SHA1;
+import cwlib.util.Bytes;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Streaming writer for FileArchives.
+ * Resources are written to disk as soon as they're added, only the
+ * FAT is kept in memory until the archive is closed.
+ * <p>
+ * Existing archives are appended to in-place, new resources overwrite the old FAT
+ * and footer, and a new FAT is written after them when the writer is closed.
+ * Before anything is overwritten, the old FAT and footer are copied to a journal
+ * next to the archive, so an append that never finished can be rolled back
+ * with {@link #recover(File)}. Resources already in the archive are never moved,
+ * so archives that were opened before the append can keep reading from it,
+ * but the archive can't be opened again until the new footer is written.
+ * <p>
+ * The journal also serves as the lock of the archive, a writer holds an
+ * exclusive lock on it for its whole lifetime, so only one writer across every
+ * process can write to an archive at a time. The journal is emptied rather than
+ * deleted once an append is committed, since deleting a lock file lets two
+ * writers lock different files.
+ */
+public class FileArchiveWriter implements Closeable
+{
+    /**
+     * Size of a row in the FAT.
+     */
+    private static final int FAT_ROW_SIZE = 0x1c;
+
+    /**
+     * Extension of the journal written next to an archive.
+     */
+    private static final String JOURNAL_EXTENSION = ".journal";
+
+    /**
+     * Size of the journal header, the original length of the archive,
+     * the offset of the original FAT, and the checksum of the original tail.
+     */
+    private static final int JOURNAL_HEADER_SIZE = 0x14;
+
+    /**
+     * Journals locked by writers in this process. Closing any channel to a file
+     * releases every lock the process holds on it, so a second writer in the same
+     * process can't even be allowed to open the journal.
+     */
+    private static final Set<Path> LOCKED_JOURNALS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Archive path on local disk.
+     */
+    private final File file;
+
+    /**
+     * Temporary file resources are written to before being moved
+     * over the destination, null if appending to an existing archive.
+     */
+    private final Path temp;
+
+    /**
+     * Existing archive being appended to, null if creating a new archive.
+     */
+    private final FileArchive archive;
+
+    /**
+     * Journal of the archive.
+     */
+    private final Path journal;
+
+    /**
+     * Locked handle to the journal, held until the writer is closed or aborted.
+     */
+    private final FileChannel journalChannel;
+
+    /**
+     * Write handle to the archive.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Hashes of all resources added by this writer, used to skip duplicates,
+     * entries already in the archive are checked against its index.
+     */
+    private final HashSet<SHA1> hashes = new HashSet<>();
+
+    /**
+     * Serialized FAT rows of all resources in the archive.
+     */
+    private byte[] table;
+
+    /**
+     * Number of entries in the FAT.
+     */
+    private int entryCount;
+
+    /**
+     * Offset of the next resource to write.
+     */
+    private long offset;
+
+    private boolean isClosed;
+
+    /**
+     * Creates a new archive, resources are written to a temporary file,
+     * which replaces the destination when the writer is closed.
+     *
+     * @param file Archive path on local disk
+     * @throws IOException If an I/O error occurs creating the temporary file,
+     *                     or the archive is already being written to
+     */
+    public FileArchiveWriter(File file) throws IOException
+    {
+        if (file == null)
+            throw new NullPointerException("Archive path cannot be null!");
+        this.file = file.getAbsoluteFile();
+        this.archive = null;
+
+        // Temporary file needs to be on the same file system for the move to be atomic.
+        File directory = this.file.getParentFile();
+        directory.mkdirs();
+
+        this.journal = FileArchiveWriter.getJournal(this.file);
+        this.journalChannel = FileArchiveWriter.lock(this.journal);
+        if (this.journalChannel == null)
+            throw new IOException("FileArchive is already being written to!");
+
+        try
+        {
+            // The archive is being replaced, so whatever the journal
+            // has left over doesn't apply to it anymore.
+            FileArchiveWriter.clear(this.journalChannel);
+
+            this.temp = Files.createTempFile(directory.toPath(), this.file.getName(), ".tmp");
+            this.channel = FileChannel.open(this.temp, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        catch (IOException ex)
+        {
+            FileArchiveWriter.unlock(this.journal, this.journalChannel);
+            throw ex;
+        }
+
+        this.table = new byte[FAT_ROW_SIZE * 32];
+    }
+
+    /**
+     * Appends to an existing archive in-place, resources are written over
+     * the old FAT, and the new FAT is written when the writer is closed.
+     * Anything queued in the archive is written immediately, and the archive
+     * is updated to reflect the new FAT when the writer is closed.
+     * <p>
+     * If the archive has an append that never finished, it's rolled back first,
+     * and the archive is reloaded if it was changed on disk.
+     * The archive can only have one writer at a time, until it's closed or aborted.
+     *
+     * @param archive Archive to append to
+     * @throws IOException If an I/O error occurs opening the archive,
+     *                     or the archive is already being written to
+     */
+    public FileArchiveWriter(FileArchive archive) throws IOException
+    {
+        if (archive == null)
+            throw new NullPointerException("Archive to append to cannot be null!");
+        this.file = archive.getFile().getAbsoluteFile();
+        this.archive = archive;
+        this.temp = null;
+        this.journal = FileArchiveWriter.getJournal(this.file);
+
+        archive.lock.writeLock().lock();
+        try
+        {
+            archive.attach(this);
+
+            FileChannel journalChannel = null, channel = null;
+            try
+            {
+                journalChannel = FileArchiveWriter.lock(this.journal);
+                if (journalChannel == null)
+                    throw new IOException("FileArchive is already being written to!");
+                channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+
+                if (FileArchiveWriter.rollback(journalChannel, channel) || archive.wasModified())
+                    archive.reload();
+
+                this.table = archive.getTable();
+                this.entryCount = this.table.length / FAT_ROW_SIZE;
+                if (this.table.length == 0)
+                    this.table = new byte[FAT_ROW_SIZE * 32];
+                this.offset = archive.fatOffset;
+
+                // The journal has to be on disk before anything gets overwritten.
+                FileArchiveWriter.journal(journalChannel, channel, this.offset);
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                if (channel != null) channel.close();
+                if (journalChannel != null)
+                    FileArchiveWriter.unlock(this.journal, journalChannel);
+                archive.detach(this);
+                throw ex;
+            }
+            this.journalChannel = journalChannel;
+            this.channel = channel;
+
+            try
+            {
+                for (SHA1 sha1 : archive.queue.keySet())
+                    this.add(sha1, archive.queue.get(sha1));
+            }
+            catch (IOException ex)
+            {
+                this.abort();
+                throw ex;
+            }
+        }
+        finally { archive.lock.writeLock().unlock(); }
+    }
+
+    private static Path getJournal(File file)
+    {
+        return new File(file.getPath() + JOURNAL_EXTENSION).toPath().toAbsolutePath()
+            .normalize();
+    }
+
+    /**
+     * Opens and exclusively locks the journal of an archive.
+     *
+     * @param journal Journal to lock
+     * @return Locked handle to the journal, or null if it's locked by another writer
+     * @throws IOException If an I/O error occurs opening the journal
+     */
+    private static FileChannel lock(Path journal) throws IOException
+    {
+        if (!LOCKED_JOURNALS.add(journal)) return null;
+        FileChannel channel = null;
+        try
+        {
+            channel = FileChannel.open(journal, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.tryLock() != null) return channel;
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            if (channel != null) channel.close();
+            LOCKED_JOURNALS.remove(journal);
+            throw ex;
+        }
+
+        channel.close();
+        LOCKED_JOURNALS.remove(journal);
+        return null;
+    }
+
+    /**
+     * Releases the lock on the journal of an archive.
+     *
+     * @param journal Journal to unlock
+     * @param channel Locked handle to the journal
+     * @throws IOException If an I/O error occurs closing the journal
+     */
+    private static void unlock(Path journal, FileChannel channel) throws IOException
+    {
+        try { channel.close(); }
+        finally { LOCKED_JOURNALS.remove(journal); }
+    }
+
+    /**
+     * Empties the journal, marking that there's no append to roll back.
+     */
+    private static void clear(FileChannel journal) throws IOException
+    {
+        if (journal.size() == 0) return;
+        journal.truncate(0);
+        journal.force(true);
+    }
+
+    /**
+     * Copies everything from the FAT onwards to the journal, so it can be restored
+     * if the append never finishes.
+     *
+     * @param journal   Locked handle to the journal
+     * @param channel   Handle to the archive
+     * @param fatOffset Offset of the FAT in the archive
+     * @throws IOException If an I/O error occurs writing the journal
+     */
+    private static void journal(FileChannel journal, FileChannel channel, long fatOffset)
+    throws IOException
+    {
+        long length = channel.size();
+        long size = length - fatOffset;
+        if (fatOffset < 0 || size < 0 || size > Integer.MAX_VALUE - JOURNAL_HEADER_SIZE)
+            throw new IOException("FileArchive has an invalid FAT offset!");
+
+        ByteBuffer tail = ByteBuffer.allocate((int) size);
+        while (tail.hasRemaining())
+        {
+            if (channel.read(tail, fatOffset + tail.position()) < 0)
+                throw new IOException("FileArchive was truncated while journaling!");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(tail.flip());
+
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putLong(length).putLong(fatOffset).putInt((int) crc.getValue()).flip();
+
+        journal.truncate(0);
+        FileArchiveWriter.write(journal, header, 0);
+        FileArchiveWriter.write(journal, tail.rewind(), JOURNAL_HEADER_SIZE);
+        journal.force(true);
+    }
+
+    /**
+     * Restores the original FAT and footer of an archive from its journal.
+     *
+     * @param journal Locked handle to the journal
+     * @param channel Handle to the archive
+     * @return Whether an interrupted append was rolled back
+     * @throws IOException If an I/O error occurs restoring the archive
+     */
+    private static boolean rollback(FileChannel journal, FileChannel channel)
+    throws IOException
+    {
+        long size = journal.size();
+        if (size == 0) return false;
+
+        // The archive is only written to once the journal is fully on disk,
+        // so an incomplete journal means nothing was changed.
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        while (header.hasRemaining())
+        {
+            if (journal.read(header, header.position()) < 0)
+            {
+                FileArchiveWriter.clear(journal);
+                return false;
+            }
+        }
+        long length = header.getLong(0), fatOffset = header.getLong(8);
+        if (fatOffset < 0 || fatOffset > length ||
+            size != JOURNAL_HEADER_SIZE + (length - fatOffset))
+        {
+            FileArchiveWriter.clear(journal);
+            return false;
+        }
+
+        ByteBuffer tail = ByteBuffer.allocate((int) (length - fatOffset));
+        while (tail.hasRemaining())
+        {
+            if (journal.read(tail, JOURNAL_HEADER_SIZE + tail.position()) < 0)
+                throw new IOException("Journal was truncated while rolling back!");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(tail.flip());
+        if ((int) crc.getValue() != header.getInt(0x10))
+        {
+            FileArchiveWriter.clear(journal);
+            return false;
+        }
+
+        FileArchiveWriter.write(channel, tail.rewind(), fatOffset);
+        channel.truncate(length);
+        channel.force(true);
+        FileArchiveWriter.clear(journal);
+
+        return true;
+    }
+
+    /**
+     * Rolls back an append to an archive that was interrupted before its
+     * writer was closed, restoring the archive as it was before the append.
+     * Does nothing if there's no interrupted append, or if the archive is
+     * currently being written to, since the journal then belongs to a live writer.
+     * <p>
+     * Archives aren't recovered when they're opened, this should be called
+     * before opening an archive that might have been left mid-append.
+     *
+     * @param file Archive path on local disk
+     * @return Whether an interrupted append was rolled back
+     * @throws IOException If an I/O error occurs restoring the archive
+     */
+    public static boolean recover(File file) throws IOException
+    {
+        if (file == null)
+            throw new NullPointerException("Archive path cannot be null!");
+        Path journal = FileArchiveWriter.getJournal(file.getAbsoluteFile());
+        if (!Files.exists(journal)) return false;
+
+        FileChannel channel = FileArchiveWriter.lock(journal);
+        if (channel == null) return false;
+        try (FileChannel archive = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+            StandardOpenOption.WRITE))
+        {
+            return FileArchiveWriter.rollback(channel, archive);
+        }
+        finally { FileArchiveWriter.unlock(journal, channel); }
+    }
+
+    /**
+     * Adds a buffer to the archive.
+     *
+     * @param data Data to add
+     * @return SHA1 hash of data added
+     * @throws IOException If an I/O error occurs writing the data
+     */
+    public SHA1 add(byte[] data) throws IOException
+    {
+        if (data == null)
+            throw new NullPointerException("Can't add null buffer to archive!");
+        SHA1 sha1 = SHA1.fromBuffer(data);
+        this.add(sha1, data);
+        return sha1;
+    }
+
+    /**
+     * Adds a buffer with a known hash to the archive.
+     *
+     * @param sha1 SHA1 hash of data
+     * @param data Data to add
+     * @return Whether the data was written, false if it already exists in the archive
+     * @throws IOException If an I/O error occurs writing the data
+     */
+    public synchronized boolean add(SHA1 sha1, byte[] data) throws IOException
+    {
+        if (sha1 == null)
+            throw new NullPointerException("Can't add null hash to archive!");
+        if (data == null)
+            throw new NullPointerException("Can't add null buffer to archive!");
+        if (this.isClosed)
+            throw new IllegalStateException("Can't add data to closed archive writer!");
+
+        if (this.exists(sha1)) return false;
+
+        // Offsets are stored as 32-bit integers in the FAT.
+        if (this.offset > 0xFFFFFFFFL)
+            throw new IOException("FileArchive has exceeded the maximum size of 4GB!");
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining())
+            this.channel.write(buffer, this.offset + buffer.position());
+
+        int rowOffset = this.entryCount * FAT_ROW_SIZE;
+        if (rowOffset + FAT_ROW_SIZE > this.table.length)
+            this.table = Arrays.copyOf(this.table, this.table.length * 2);
+        System.arraycopy(sha1.getHash(), 0, this.table, rowOffset, 0x14);
+        System.arraycopy(Bytes.toBytesBE((int) this.offset), 0, this.table, rowOffset + 0x14,
+            4);
+        System.arraycopy(Bytes.toBytesBE(data.length), 0, this.table, rowOffset + 0x18, 4);
+
+        this.hashes.add(sha1);
+        this.offset += data.length;
+        this.entryCount++;
+
+        return true;
+    }
+
+    /**
+     * Checks if a hash has been written to the archive.
+     *
+     * @param sha1 Hash to query
+     * @return Whether or not the hash exists
+     */
+    public synchronized boolean exists(SHA1 sha1)
+    {
+        if (sha1 == null)
+            throw new NullPointerException("Can't search for null hash in archive!");
+        if (this.archive != null && this.archive.contains(sha1)) return true;
+        return this.hashes.contains(sha1);
+    }
+
+    /**
+     * Gets number of entries in FAT.
+     *
+     * @return Number of entries.
+     */
+    public synchronized int getEntryCount()
+    {
+        return this.entryCount;
+    }
+
+    /**
+     * Writes the FAT and footer to the archive at the current offset.
+     * Everything before the footer is flushed to disk before the footer is written,
+     * so the footer never points to a FAT that isn't there.
+     *
+     * @throws IOException If an I/O error occurs writing the FAT
+     */
+    private void writeFAT() throws IOException
+    {
+        int size = this.entryCount * FAT_ROW_SIZE;
+        FileArchiveWriter.write(this.channel, ByteBuffer.wrap(this.table, 0, size),
+            this.offset);
+        this.channel.force(false);
+
+        ByteBuffer footer = ByteBuffer.allocate(0x8);
+        footer.putInt(this.entryCount);
+        footer.putInt(0x46415243); // FARC
+        footer.flip();
+        FileArchiveWriter.write(this.channel, footer, this.offset + size);
+        this.channel.truncate(this.offset + size + 0x8);
+        this.channel.force(true);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long offset)
+    throws IOException
+    {
+        int start = buffer.position();
+        while (buffer.hasRemaining())
+            channel.write(buffer, offset + (buffer.position() - start));
+    }
+
+    /**
+     * Writes the FAT and footer and commits the archive.
+     * If the archive couldn't be committed, it's left as it was.
+     *
+     * @throws IOException If an I/O error occurs committing the archive
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (this.isClosed) return;
+
+        if (this.archive != null)
+        {
+            this.commit();
+            return;
+        }
+
+        this.isClosed = true;
+        try
+        {
+            try { this.writeFAT(); }
+            catch (IOException ex)
+            {
+                this.channel.close();
+                Files.deleteIfExists(this.temp);
+                throw ex;
+            }
+            this.channel.close();
+
+            try
+            {
+                Files.move(this.temp, this.file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException ex)
+            {
+                Files.move(this.temp, this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally { FileArchiveWriter.unlock(this.journal, this.journalChannel); }
+    }
+
+    /**
+     * Commits an append to an existing archive.
+     */
+    private void commit() throws IOException
+    {
+        this.archive.lock.writeLock().lock();
+        try
+        {
+            try
+            {
+                // Anything queued in the archive since the writer was opened
+                // would otherwise be lost when the queue is cleared.
+                for (SHA1 sha1 : this.archive.queue.keySet())
+                    this.add(sha1, this.archive.queue.get(sha1));
+                this.writeFAT();
+            }
+            catch (IOException ex)
+            {
+                this.abort();
+                throw ex;
+            }
+
+            this.isClosed = true;
+            try
+            {
+                this.channel.close();
+                FileArchiveWriter.clear(this.journalChannel);
+            }
+            finally { FileArchiveWriter.unlock(this.journal, this.journalChannel); }
+
+            this.archive.update(Arrays.copyOf(this.table, this.entryCount * FAT_ROW_SIZE),
+                this.offset);
+        }
+        finally
+        {
+            this.archive.detach(this);
+            this.archive.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Discards everything written by this writer, new archives are deleted,
+     * and existing archives are restored from the journal.
+     *
+     * @throws IOException If an I/O error occurs restoring the archive
+     */
+    public synchronized void abort() throws IOException
+    {
+        if (this.isClosed) return;
+        this.isClosed = true;
+
+        if (this.archive == null)
+        {
+            try
+            {
+                this.channel.close();
+                Files.deleteIfExists(this.temp);
+            }
+            finally { FileArchiveWriter.unlock(this.journal, this.journalChannel); }
+            return;
+        }
+
+        try { FileArchiveWriter.rollback(this.journalChannel, this.channel); }
+        finally
+        {
+            // The journal is left behind if the archive couldn't be restored,
+            // so it can still be recovered later.
+            try { this.channel.close(); }
+            finally
+            {
+                FileArchiveWriter.unlock(this.journal, this.journalChannel);
+                this.archive.detach(this);
+            }
+        }
+    }
+}
@@ -2,22 +2,33 @@ package cwlib.types.archives;
 
 import cwlib.enums.ArchiveType;
 import cwlib.enums.ResourceType;
-import cwlib.enums.SerializationType;
 import cwlib.ex.SerializationException;
 import cwlib.io.streams.MemoryInputStream;
 import cwlib.io.streams.MemoryInputStream.SeekMode;
 import cwlib.io.streams.MemoryOutputStream;
+import cwlib.types.data.ResourceDescriptor;
 import cwlib.types.data.Revision;
 import cwlib.types.data.SHA1;
 import cwlib.util.Bytes;
 import cwlib.util.Crypto;
+import cwlib.util.DependencyCrawler;
 import cwlib.util.FileIO;
 
+import javax.crypto.Mac;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 /**
  * The archive used for save files
@@ -82,9 +93,33 @@ public class SaveArchive extends Fart
     private int[] fragmentIDs = new int[0];
 
     /**
-     * Storage of all resources in-memory.
+     * Data of the archive, resources are handed out as slices of it
+     * at the offsets in their FAT rows, rather than being copied up front.
      */
-    private HashMap<Fat, byte[]> buffers = new HashMap<>();
+    private ByteBuffer data;
+
+    /**
+     * File an archive was last built to, its data is only read back
+     * from disk once a resource is extracted from it.
+     */
+    private Path source;
+
+    /**
+     * Layout of a built archive.
+     */
+    private static final class Layout
+    {
+        private final Fat[] entries;
+        private final long fatOffset;
+        private final SHA1 hashinate;
+
+        private Layout(Fat[] entries, long fatOffset, SHA1 hashinate)
+        {
+            this.entries = entries;
+            this.fatOffset = fatOffset;
+            this.hashinate = hashinate;
+        }
+    }
 
     /**
      * Creates empty save archive.
@@ -229,14 +264,7 @@ public class SaveArchive extends Fart
             this.lookup.put(fat.getSHA1(), fat);
         }
 
-        // Store all the resources in-memory, saves
-        // are small enough that this will rarely be an issue.
-        this.buffers = new HashMap<>(entryCount);
-        for (Fat fat : this.entries)
-        {
-            stream.seek((int) fat.getOffset(), SeekMode.Begin);
-            this.buffers.put(fat, stream.bytes(fat.getSize()));
-        }
+        this.data = ByteBuffer.wrap(data).asReadOnlyBuffer();
     }
 
     public SaveArchive(String path)
@@ -251,7 +279,66 @@ public class SaveArchive extends Fart
             throw new NullPointerException("Can't search for null entry in archive!");
         if (fat.getFileArchive() != this)
             throw new IllegalArgumentException("This entry does not belong to this archive!");
-        return this.buffers.get(fat);
+        ByteBuffer buffer = this.extractBuffer(fat);
+        if (buffer == null) return null;
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Extracts a resource via a FAT entry as a read-only view
+     * of the archive's data, without copying it.
+     *
+     * @param fat FAT row to extract
+     * @return Extracted resource
+     */
+    @Override
+    public ByteBuffer extractBuffer(Fat fat)
+    {
+        if (fat == null)
+            throw new NullPointerException("Can't search for null entry in archive!");
+        if (fat.getFileArchive() != this)
+            throw new IllegalArgumentException("This entry does not belong to this archive!");
+        this.lock.readLock().lock();
+        try
+        {
+            if (this.lookup.get(fat.getSHA1()) != fat) return null;
+            ByteBuffer data = this.getData();
+            if (data == null) return null;
+            long offset = fat.getOffset();
+            int size = fat.getSize();
+            if (offset < 0 || size < 0 || offset + size > data.limit())
+                return null;
+            return data.slice((int) offset, size);
+        }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    /**
+     * Gets the data of this archive, reading it back from disk
+     * if the archive was built to a file since it was last accessed.
+     *
+     * @return Data of archive, or null if it couldn't be read
+     */
+    private synchronized ByteBuffer getData()
+    {
+        if (this.data != null || this.source == null)
+            return this.data;
+
+        try
+        {
+            byte[] data = Files.readAllBytes(this.source);
+
+            // Make sure the file is still the archive we built.
+            long size = this.fatOffset + (this.entries.length * 0x1cL) + this.getFooterSize();
+            if (data.length != size) return null;
+
+            this.data = ByteBuffer.wrap(data).asReadOnlyBuffer();
+            this.source = null;
+            return this.data;
+        }
+        catch (IOException ex) { return null; }
     }
 
     /**
@@ -307,49 +394,30 @@ public class SaveArchive extends Fart
      */
     public void getFilterList(byte[] resource, HashSet<SHA1> hashes)
     {
-        MemoryInputStream stream = new MemoryInputStream(resource);
-
-        // Parsing the resource again here because the main class will
-        // auto-decompress the handle and do additional checks we don't
-        // care about here.
-
-        ResourceType type = ResourceType.fromMagic(stream.str(3));
-        if (type == ResourceType.INVALID) return;
-        SerializationType method = SerializationType.fromValue(stream.str(1));
-        if (method != SerializationType.BINARY && method != SerializationType.ENCRYPTED_BINARY)
-            return;
-        int revision = stream.i32();
-
-        // Dependency table wasn't added until 0x109
-        if (revision < 0x109) return;
-
-        stream.seek(stream.i32(), SeekMode.Begin);
-        int count = stream.i32();
-        for (int i = 0; i < count; ++i)
-        {
-            byte flags = stream.i8();
-            if ((flags & 2) != 0) stream.guid();
-            if ((flags & 1) != 0)
-            {
-                SHA1 sha1 = stream.sha1();
-                if (this.exists(sha1) && !hashes.contains(sha1))
+        // Only the dependency table is needed here, so there's
+        // no need to decompress the rest of the resource. This is called
+        // while holding the write lock, so it has to stay on this thread.
+        Map<ResourceDescriptor, DependencyCrawler.Node> nodes =
+            new DependencyCrawler(descriptor -> this.extract(descriptor.getSHA1()))
+                .setFilter(descriptor ->
                 {
-                    hashes.add(sha1);
-                    byte[] data = this.extract(sha1);
-                    if (data != null)
-                        this.getFilterList(data, hashes);
-                }
-            }
-            stream.i32(); // ResourceType
-        }
+                    SHA1 sha1 = descriptor.getSHA1();
+                    return sha1 != null && this.exists(sha1) && !hashes.contains(sha1);
+                })
+                .setParallelism(1)
+                .crawl(resource);
+
+        for (ResourceDescriptor descriptor : nodes.keySet())
+            hashes.add(descriptor.getSHA1());
     }
 
     /**
-     * Builds this archive and returns the resulting byte array.
+     * Gets the hashes of every resource that should be written when building this archive,
+     * in the order they're written.
      *
-     * @return Built archive
+     * @return Sorted resource hashes
      */
-    public byte[] build(boolean hashinate)
+    private SHA1[] getBuildHashes()
     {
         // If the root exists, use it to filter what
         // resources are actually necessary.
@@ -370,89 +438,245 @@ public class SaveArchive extends Fart
             resources.addAll(this.queue.keySet());
         }
 
+        // Resources are ordered by the raw bytes of their hash.
         SHA1[] hashes = resources.toArray(SHA1[]::new);
-        Arrays.sort(hashes, Comparator.comparing(SHA1::toString));
+        Arrays.sort(hashes);
+        return hashes;
+    }
+
+    /**
+     * Gets the size of the footer of this archive, everything after the FAT.
+     *
+     * @return Size of footer
+     */
+    private int getFooterSize()
+    {
+        int size = 0x8;
+        if (this.archiveRevision > 2) size += 0x14;
+        if (this.archiveRevision == 5) size += 0x4;
+        return size;
+    }
+
+    /**
+     * Streams this archive to a channel, one resource at a time.
+     * The HASHINATE is computed as the archive is written, so the archive
+     * never has to be held in memory as a whole.
+     *
+     * @param hashes    Hashes of resources to write, in order
+     * @param channel   Channel to write archive to
+     * @param hashinate Whether to compute the HASHINATE of the archive
+     * @throws IOException if an I/O error occurs
+     */
+    private Layout write(SHA1[] hashes, WritableByteChannel channel, boolean hashinate)
+    throws IOException
+    {
+        Mac mac = (hashinate && this.archiveRevision > 2) ?
+            Crypto.getHMAC(Crypto.HASHINATE_KEY) : null;
 
-        byte[][] buffers = new byte[hashes.length][];
         Fat[] entries = new Fat[hashes.length];
 
-        int size = 0;
+        long offset = 0;
         for (int i = 0; i < hashes.length; ++i)
         {
             byte[] buffer = this.extract(hashes[i]);
-            entries[i] = new Fat(this, hashes[i], size, buffer.length);
-            buffers[i] = buffer;
-            size += buffer.length;
+            if (buffer == null)
+                throw new IllegalStateException("Resource " + hashes[i] + " is missing from " +
+                                                "archive!");
+            entries[i] = new Fat(this, hashes[i], offset, buffer.length);
+            SaveArchive.write(channel, mac, buffer);
+            offset += buffer.length;
         }
 
-        byte[] saveKey = this.generateSaveKey();
-        byte[] fat = Fart.generateFAT(entries);
-
         // Save key has to be aligned at 4 byte boundary.
-        int modulo = size % 4, pad = 0;
-        if (modulo != 0)
-            pad = 4 - modulo;
+        int pad = (int) ((4 - (offset % 4)) % 4);
+        SaveArchive.write(channel, mac, new byte[pad]);
 
-        // Some additional padding in case of alignment issues.
-        size += (saveKey.length + fat.length + 0x8 + pad);
-        if (this.archiveRevision > 2) size += 0x14;
-        if (this.archiveRevision == 5) size += 4;
+        byte[] saveKey = this.generateSaveKey();
+        SaveArchive.write(channel, mac, saveKey);
+        long fatOffset = offset + pad + saveKey.length;
+        SaveArchive.write(channel, mac, Fart.generateFAT(entries));
 
-        // Start building the archive
+        MemoryOutputStream footer = new MemoryOutputStream(0x8 + 0x4);
+        if (this.archiveRevision == 5)
+            footer.bytes(Bytes.toBytesLE(this.fragmentIDs.length));
+        footer.i32(entries.length);
+        footer.str("FAR", 0x3);
+        footer.u8(this.archiveRevision + '0');
+        footer.shrink();
+
+        // The HASHINATE is computed with its own slot zeroed out,
+        // and since the rest of the footer is already known,
+        // it can be finished before the slot is written.
+        SHA1 signature = SHA1.EMPTY;
+        if (this.archiveRevision > 2)
+        {
+            if (mac != null)
+            {
+                mac.update(new byte[0x14]);
+                mac.update(footer.getBuffer());
+                signature = new SHA1(mac.doFinal());
+            }
+            SaveArchive.write(channel, null, signature.getHash());
+        }
+        SaveArchive.write(channel, null, footer.getBuffer());
 
-        MemoryOutputStream stream = new MemoryOutputStream(size);
-        for (byte[] buffer : buffers)
-            stream.bytes(buffer);
+        return new Layout(entries, fatOffset, signature);
+    }
 
-        stream.pad(pad);
+    /**
+     * Updates the state of the archive in memory after it's been built.
+     *
+     * @param layout Layout of the built archive
+     * @param data   Data of the built archive, null if it should be read from the source
+     * @param source File the archive was built to, null if the data is in memory
+     */
+    private synchronized void commit(Layout layout, byte[] data, Path source)
+    {
+        this.hashinate = layout.hashinate;
+        this.entries = layout.entries;
+        this.queue.clear();
+        this.fatOffset = layout.fatOffset;
+        this.lookup = new HashMap<>(layout.entries.length);
+        for (Fat entry : layout.entries)
+            this.lookup.put(entry.getSHA1(), entry);
+        this.data = (data == null) ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+        this.source = source;
+        if (this.file != null)
+            this.lastModified = this.file.lastModified();
+    }
 
-        stream.bytes(saveKey);
-        int fatOffset = stream.getOffset();
-        stream.bytes(fat);
+    private static void write(WritableByteChannel channel, Mac mac, byte[] data)
+    throws IOException
+    {
+        if (mac != null) mac.update(data);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
 
-        int hashinateOffset = stream.getOffset();
-        if (this.archiveRevision > 2)
+    /**
+     * Builds this archive and returns the resulting byte array.
+     * The built archive becomes the backing data of this archive,
+     * so the returned array shouldn't be modified.
+     *
+     * @param hashinate Whether to compute the HASHINATE of the archive
+     * @return Built archive
+     */
+    public byte[] build(boolean hashinate)
+    {
+        this.lock.writeLock().lock();
+        try
         {
-            // Pad out the hashinate, we need to actually generate it.
-            stream.pad(0x14);
-        }
+            SHA1[] hashes = this.getBuildHashes();
 
-        if (this.archiveRevision == 5)
-            stream.bytes(Bytes.toBytesLE(this.fragmentIDs.length));
-        stream.i32(entries.length);
-        stream.str("FAR", 0x3);
-        stream.u8(this.archiveRevision + '0');
+            // The final size is known up front, so the archive can be
+            // written straight into a buffer of the right size.
+            long size = 0;
+            for (SHA1 hash : hashes)
+            {
+                byte[] queued = this.queue.get(hash);
+                size += queued != null ? queued.length : this.lookup.get(hash).getSize();
+            }
+            size += (4 - (size % 4)) % 4;
+            size += this.generateSaveKey().length + (hashes.length * 0x1cL) +
+                    this.getFooterSize();
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalStateException("Archive is too large to build in memory!");
+
+            ByteBuffer archive = ByteBuffer.allocate((int) size);
+            Layout layout = this.write(hashes, new WritableByteChannel()
+            {
+                @Override
+                public int write(ByteBuffer src)
+                {
+                    int length = src.remaining();
+                    archive.put(src);
+                    return length;
+                }
+
+                @Override
+                public boolean isOpen()
+                {
+                    return true;
+                }
+
+                @Override
+                public void close() { }
+            }, hashinate);
 
-        byte[] archive = stream.getBuffer();
+            this.commit(layout, archive.array(), null);
 
-        // Compute hash and write it to the buffer
-        if (hashinate && this.archiveRevision > 2)
+            return archive.array();
+        }
+        catch (IOException ex)
         {
-            this.hashinate = Crypto.HMAC(archive, Crypto.HASHINATE_KEY);
-            System.arraycopy(this.hashinate.getHash(), 0, archive, hashinateOffset, 0x14);
+            // Writing to a buffer never fails.
+            throw new IllegalStateException(ex);
         }
-        else this.hashinate = SHA1.EMPTY;
+        finally { this.lock.writeLock().unlock(); }
+    }
 
-        // Update state of the archive in memory.
-        this.entries = entries;
-        this.queue.clear();
-        this.fatOffset = fatOffset;
-        if (this.file != null)
-            this.lastModified = this.file.lastModified();
+    /**
+     * Builds this archive straight to a file, without building it in memory.
+     * The archive is written to a temporary file first, so a failed build never
+     * corrupts an existing archive.
+     * <p>
+     * Only building to the file this archive was loaded from updates the archive,
+     * building anywhere else just exports a copy, and the archive is left as it was.
+     *
+     * @param file      File to write archive to
+     * @param hashinate Whether to compute the HASHINATE of the archive
+     * @return Whether the archive was successfully written
+     */
+    public boolean build(File file, boolean hashinate)
+    {
+        if (file == null)
+            throw new NullPointerException("Can't save archive to null file!");
 
-        // Reset the lookup tables
-        this.lookup = new HashMap<>(entries.length);
-        this.buffers = new HashMap<>(entries.length);
-        for (int i = 0; i < entries.length; ++i)
+        this.lock.writeLock().lock();
+        Path temp = null;
+        try
         {
-            Fat entry = entries[i];
-            byte[] buffer = buffers[i];
+            Path path = file.getAbsoluteFile().toPath().normalize();
+            Files.createDirectories(path.getParent());
+            temp = Files.createTempFile(path.getParent(), file.getName(), ".tmp");
+            Layout layout;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                layout = this.write(this.getBuildHashes(), channel, hashinate);
+            }
 
-            this.lookup.put(entry.getSHA1(), entry);
-            this.buffers.put(entry, buffer);
-        }
+            try
+            {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException ex)
+            {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
 
-        return archive;
+            // The old data is released here, and the built archive is only read
+            // back once it's needed, so both are never held in memory at once.
+            // An exported copy can be moved or changed at any time, so the archive
+            // is never backed by one.
+            if (this.file != null &&
+                path.equals(this.file.getAbsoluteFile().toPath().normalize()))
+                this.commit(layout, null, path);
+
+            return true;
+        }
+        catch (IOException ex) { return false; }
+        finally
+        {
+            if (temp != null)
+            {
+                try { Files.deleteIfExists(temp); }
+                catch (IOException ex) { }
+            }
+            this.lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -465,8 +689,7 @@ public class SaveArchive extends Fart
     {
         if (path == null)
             throw new IllegalArgumentException("Can't save archive to null path!");
-        byte[] archive = this.build(false);
-        return FileIO.write(archive, path);
+        return this.build(new File(path), false);
     }
 
     @Override
@@ -474,8 +697,7 @@ public class SaveArchive extends Fart
     {
         if (this.file == null)
             throw new IllegalStateException("Can't save archive with no associated file!");
-        byte[] archive = this.build(false);
-        return FileIO.write(archive, this.file.getAbsolutePath());
+        return this.build(this.file, false);
     }
 
     public Revision getGameRevision()
@@ -5,17 +5,25 @@ import cwlib.io.gson.SHA1Serializer;
 import cwlib.util.Bytes;
 import cwlib.util.Crypto;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Encapsulates a fixed size byte array to
  * represent a SHA1 hash.
  */
 @JsonAdapter(SHA1Serializer.class)
-public final class SHA1
+public final class SHA1 implements Comparable<SHA1>
 {
     public static final SHA1 EMPTY = new SHA1();
 
     private final byte[] hashBytes;
-    private final String hashString;
+
+    /**
+     * Hex representation of the hash, only built when it's
+     * first requested, since most hashes never get printed.
+     */
+    private String hashString;
 
     /**
      * Creates an empty SHA1.
@@ -23,7 +31,6 @@ public final class SHA1
     public SHA1()
     {
         this.hashBytes = new byte[0x14];
-        this.hashString = Bytes.toHex(this.hashBytes).toLowerCase();
     }
 
     /**
@@ -54,7 +61,6 @@ public final class SHA1
         if (hash.length != 0x14)
             throw new IllegalArgumentException("SHA1 hash must be 20 bytes in length!");
         this.hashBytes = hash;
-        this.hashString = Bytes.toHex(this.hashBytes).toLowerCase();
     }
 
     /**
@@ -71,6 +77,18 @@ public final class SHA1
         return Crypto.SHA1(buffer);
     }
 
+    /**
+     * Computes a SHA1 hash from the remaining bytes of a buffer,
+     * without moving its position.
+     *
+     * @param buffer Source buffer to be hashed
+     * @return A SHA1 hash instance
+     */
+    public static SHA1 fromBuffer(ByteBuffer buffer)
+    {
+        return Crypto.SHA1(buffer);
+    }
+
     public byte[] getHash()
     {
         return this.hashBytes;
@@ -81,18 +99,33 @@ public final class SHA1
     {
         if (other == this) return true;
         if (!(other instanceof SHA1 otherSHA1)) return false;
-        return otherSHA1.toString().equals(this.toString());
+        return Arrays.equals(otherSHA1.hashBytes, this.hashBytes);
     }
 
     @Override
     public int hashCode()
     {
-        return this.hashString.hashCode();
+        return Arrays.hashCode(this.hashBytes);
+    }
+
+    /**
+     * Compares the raw bytes of two hashes as unsigned values,
+     * which orders hashes the same way as their hex representations.
+     *
+     * @param other Hash to compare to
+     * @return Comparison result
+     */
+    @Override
+    public int compareTo(SHA1 other)
+    {
+        return Arrays.compareUnsigned(this.hashBytes, other.hashBytes);
     }
 
     @Override
     public String toString()
     {
+        if (this.hashString == null)
+            this.hashString = Bytes.toHex(this.hashBytes).toLowerCase();
         return this.hashString;
     }
 }
@@ -5,6 +5,7 @@ import cwlib.enums.ResourceType;
 import cwlib.io.streams.MemoryInputStream;
 import cwlib.io.streams.MemoryOutputStream;
 import cwlib.resources.RPalette;
+import cwlib.singleton.ResourceSystem;
 import cwlib.types.data.GUID;
 import cwlib.types.data.ResourceDescriptor;
 import cwlib.types.data.SHA1;
@@ -15,7 +16,9 @@ import cwlib.util.FileIO;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * The FileDB is a resource used by the game for assigning
@@ -39,6 +42,28 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
 
     protected HashMap<GUID, FileDBRow> lookup;
 
+    /**
+     * Rows indexed by SHA1, hashes aren't unique in a database,
+     * so every row sharing a hash is kept in insertion order.
+     */
+    protected HashMap<SHA1, ArrayList<FileDBRow>> hashes;
+
+    /**
+     * Rows indexed by their lowercase path.
+     */
+    protected HashMap<String, ArrayList<FileDBRow>> paths;
+
+    /**
+     * Compact index of the serialized database, only set while the database
+     * is lazily loaded, rows are only created when they're requested.
+     */
+    private FileDBIndex index;
+
+    /**
+     * Rows that have been created from the index so far.
+     */
+    private FileDBRow[] rows;
+
     /**
      * For databases that inherit FileDB
      */
@@ -56,6 +81,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
         this.revision = revision;
         this.entries = new ArrayList<>(DEFAULT_CAPACITY);
         this.lookup = new HashMap<>(DEFAULT_CAPACITY);
+        this.hashes = new HashMap<>(DEFAULT_CAPACITY);
+        this.paths = new HashMap<>(DEFAULT_CAPACITY);
     }
 
     /**
@@ -73,6 +100,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
                                                "count!");
         this.entries = new ArrayList<>(capacity);
         this.lookup = new HashMap<>(capacity);
+        this.hashes = new HashMap<>(capacity);
+        this.paths = new HashMap<>(capacity);
     }
 
     /**
@@ -96,6 +125,28 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
         this.process(new MemoryInputStream(file.getAbsolutePath()));
     }
 
+    /**
+     * Reads a FileDB from a file.
+     * <p>
+     * A lazily loaded database keeps the serialized database in memory and only
+     * creates rows when they're requested, which is considerably cheaper for large
+     * databases that are only used for lookups. The database is fully loaded the first
+     * time it's modified. Databases are never lazily loaded in GUI mode, since every row
+     * needs a node in the tree.
+     *
+     * @param file   FileDB source file
+     * @param isLazy Whether rows should only be created when they're requested
+     */
+    public FileDB(File file, boolean isLazy)
+    {
+        super(file, DatabaseType.FILE_DATABASE);
+        byte[] data = FileIO.read(file.getAbsolutePath());
+        if (data == null)
+            throw new IllegalArgumentException("File provided could not be read!");
+        if (isLazy && !ResourceSystem.GUI_MODE) this.processLazy(data);
+        else this.process(new MemoryInputStream(data));
+    }
+
     /**
      * Reads a FileDB from a byte array.
      *
@@ -107,6 +158,20 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
         this.process(new MemoryInputStream(data));
     }
 
+    /**
+     * Reads a FileDB from a byte array.
+     *
+     * @param data   FileDB source buffer
+     * @param isLazy Whether rows should only be created when they're requested
+     * @see FileDB#FileDB(File, boolean)
+     */
+    public FileDB(byte[] data, boolean isLazy)
+    {
+        super(null, DatabaseType.FILE_DATABASE);
+        if (isLazy && !ResourceSystem.GUI_MODE) this.processLazy(data);
+        else this.process(new MemoryInputStream(data));
+    }
+
     /**
      * Reads a FileDB from path.
      *
@@ -124,6 +189,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
         int count = stream.i32();
         this.entries = new ArrayList<>(count);
         this.lookup = new HashMap<>(count);
+        this.hashes = new HashMap<>(count);
+        this.paths = new HashMap<>(count);
 
         for (int i = 0; i < count; ++i)
         {
@@ -133,8 +200,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
             SHA1 sha1 = stream.sha1();
             GUID guid = stream.guid();
 
-            // If a GUID is duplicated, skip it
-            if (this.lookup.containsKey(guid))
+            // If a GUID is missing or duplicated, skip it
+            if (guid == null || this.lookup.containsKey(guid))
                 continue;
 
             /* 	In LittleBigPlanet Vita, some versions of the databases don't store any filenames,
@@ -149,13 +216,93 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
 
             this.entries.add(entry);
             this.lookup.put(guid, entry);
+            this.index(entry);
+        }
+    }
+
+    /**
+     * Lazily loads the database from its serialized form.
+     *
+     * @param data FileDB source buffer
+     */
+    private void processLazy(byte[] data)
+    {
+        this.index = FileDBIndex.fromBuffer(data);
+        this.revision = this.index.getRevision();
+        this.rows = new FileDBRow[this.index.size()];
+    }
+
+    /**
+     * Gets a row of a lazily loaded database, creating it if it hasn't been requested yet.
+     *
+     * @param index Index of row
+     * @return FileDBRow at index
+     */
+    private synchronized FileDBRow getRow(int index)
+    {
+        FileDBRow row = this.rows[index];
+        if (row == null)
+        {
+            row = this.index.getRow(this, index);
+            this.rows[index] = row;
+        }
+        return row;
+    }
+
+    /**
+     * Fully loads a lazily loaded database, rows that were already requested are kept.
+     */
+    private synchronized void materialize()
+    {
+        if (this.index == null) return;
+
+        int count = this.index.size();
+        this.entries = new ArrayList<>(count);
+        this.lookup = new HashMap<>(count);
+        this.hashes = new HashMap<>(count);
+        this.paths = new HashMap<>(count);
+        for (int i = 0; i < count; ++i)
+        {
+            FileDBRow entry = this.getRow(i);
+            this.entries.add(entry);
+            this.lookup.put(entry.getGUID(), entry);
+            this.index(entry);
         }
+
+        this.index = null;
+        this.rows = null;
     }
 
     @Override
     public Iterator<FileDBRow> iterator()
     {
-        return this.entries.iterator();
+        if (this.index == null)
+            return this.entries.iterator();
+
+        // Rows stay valid if the database gets fully loaded while iterating,
+        // since every row is created before the index is dropped.
+        FileDBRow[] rows = this.rows;
+        return new Iterator<>()
+        {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return this.row < rows.length;
+            }
+
+            @Override
+            public FileDBRow next()
+            {
+                if (!this.hasNext())
+                    throw new NoSuchElementException();
+                FileDBRow entry = rows[this.row];
+                if (entry == null) entry = FileDB.this.getRow(this.row);
+                this.row++;
+                return entry;
+            }
+        };
     }
 
     /**
@@ -166,6 +313,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
      */
     public boolean exists(GUID guid)
     {
+        if (this.index != null)
+            return guid != null && this.index.find(guid.getValue()) != -1;
         return this.lookup.containsKey(guid);
     }
 
@@ -184,8 +333,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
      * Gets a FileDBRow with a specified SHA1.
      * <p>
      * This method generally should not be used, as it's
-     * not guaranteed that this row is unique. It's also
-     * slower than GUID lookup, as a HashMap is not maintained.
+     * not guaranteed that this row is unique, the first
+     * row added with this SHA1 is returned.
      *
      * @param sha1 SHA1 to find
      * @return FileDBRow with SHA1
@@ -193,10 +342,30 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
     @Override
     public FileDBRow get(SHA1 sha1)
     {
-        for (FileDBRow row : this.entries)
-            if (row.getSHA1().equals(sha1))
-                return row;
-        return null;
+        if (this.index != null)
+        {
+            if (sha1 == null) return null;
+            int row = this.index.find(sha1);
+            if (row == -1) return null;
+            return this.getRow(row);
+        }
+        ArrayList<FileDBRow> rows = this.hashes.get(sha1);
+        if (rows == null) return null;
+        return rows.get(0);
+    }
+
+    /**
+     * Gets all FileDBRows with a specified SHA1.
+     *
+     * @param sha1 SHA1 to find
+     * @return FileDBRows with SHA1
+     */
+    public FileDBRow[] getAll(SHA1 sha1)
+    {
+        this.materialize();
+        ArrayList<FileDBRow> rows = this.hashes.get(sha1);
+        if (rows == null) return new FileDBRow[0];
+        return rows.toArray(FileDBRow[]::new);
     }
 
     /**
@@ -208,6 +377,13 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
     @Override
     public FileDBRow get(GUID guid)
     {
+        if (this.index != null)
+        {
+            if (guid == null) return null;
+            int row = this.index.find(guid.getValue());
+            if (row == -1) return null;
+            return this.getRow(row);
+        }
         if (this.lookup.containsKey(guid))
             return this.lookup.get(guid);
         return null;
@@ -227,6 +403,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
 
     /**
      * Gets a file name by path/name.
+     * An exact path is resolved through the path index, otherwise
+     * the first entry that contains the path/name is returned.
      *
      * @param path Path/name of entry to find
      * @return Entry found
@@ -237,12 +415,39 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
         if (path == null)
             throw new NullPointerException("Can't find null path!");
         path = path.toLowerCase(); // Ignore cases
+        if (this.index != null)
+            return this.find(path);
+        ArrayList<FileDBRow> rows = this.paths.get(path);
+        if (rows != null) return rows.get(0);
         for (FileDBRow entry : this.entries)
             if (entry.getPath().toLowerCase().contains(path))
                 return entry;
         return null;
     }
 
+    /**
+     * Finds an entry by path/name in a lazily loaded database,
+     * an exact path takes precedence over a partial match.
+     *
+     * @param path Lowercase path/name of entry to find
+     * @return Entry found
+     */
+    private FileDBRow find(String path)
+    {
+        int match = -1;
+        for (int i = 0; i < this.index.size(); ++i)
+        {
+            FileDBRow row = this.rows[i];
+            String entryPath = (row != null ? row.getPath() : this.index.getEntryPath(i))
+                .toLowerCase();
+            if (entryPath.equals(path)) return this.getRow(i);
+            if (match == -1 && entryPath.contains(path))
+                match = i;
+        }
+        if (match == -1) return null;
+        return this.getRow(match);
+    }
+
     /**
      * Updates the lookup tables with entry's new GUID.
      * The GUID is not set in this method.
@@ -253,6 +458,7 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
     protected void onGUIDChange(GUID oldGUID, GUID newGUID)
     {
         if (oldGUID.equals(newGUID)) return;
+        this.materialize();
         FileDBRow entry = this.get(oldGUID);
         if (entry == null)
             throw new IllegalArgumentException("Entry with GUID does not exist!");
@@ -260,6 +466,70 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
         this.lookup.put(newGUID, entry);
     }
 
+    /**
+     * Updates the lookup tables with entry's new SHA1.
+     * The SHA1 is not set in this method.
+     *
+     * @param entry   Entry being updated
+     * @param oldSHA1 Old hash of entry
+     * @param newSHA1 New hash of entry
+     */
+    protected void onSHA1Change(FileEntry entry, SHA1 oldSHA1, SHA1 newSHA1)
+    {
+        this.materialize();
+        FileDBRow row = (FileDBRow) entry;
+        FileDB.unindex(this.hashes, oldSHA1, row);
+        FileDB.index(this.hashes, newSHA1, row);
+    }
+
+    /**
+     * Updates the lookup tables with entry's new path.
+     * The path is not set in this method.
+     *
+     * @param entry   Entry being updated
+     * @param oldPath Old path of entry
+     * @param newPath New path of entry
+     */
+    protected void onPathChange(FileEntry entry, String oldPath, String newPath)
+    {
+        this.materialize();
+        FileDBRow row = (FileDBRow) entry;
+        FileDB.unindex(this.paths, oldPath.toLowerCase(), row);
+        FileDB.index(this.paths, newPath.toLowerCase(), row);
+    }
+
+    /**
+     * Adds an entry to the hash and path lookup tables.
+     *
+     * @param entry Entry to add
+     */
+    private void index(FileDBRow entry)
+    {
+        FileDB.index(this.hashes, entry.getSHA1(), entry);
+        FileDB.index(this.paths, entry.getPath().toLowerCase(), entry);
+    }
+
+    private static <K> void index(HashMap<K, ArrayList<FileDBRow>> table, K key,
+                                  FileDBRow entry)
+    {
+        ArrayList<FileDBRow> rows = table.get(key);
+        if (rows == null)
+        {
+            rows = new ArrayList<>(1);
+            table.put(key, rows);
+        }
+        rows.add(entry);
+    }
+
+    private static <K> void unindex(HashMap<K, ArrayList<FileDBRow>> table, K key,
+                                    FileDBRow entry)
+    {
+        ArrayList<FileDBRow> rows = table.get(key);
+        if (rows == null) return;
+        rows.remove(entry);
+        if (rows.isEmpty()) table.remove(key);
+    }
+
     /**
      * Creates a new FileDBRow in this database with specified path and GUID
      *
@@ -269,12 +539,14 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
      */
     public FileDBRow newFileDBRow(String path, GUID guid)
     {
+        this.materialize();
         if (this.lookup.containsKey(guid))
             throw new IllegalArgumentException("GUID already exists in database!");
         final FileDBRow entry = new FileDBRow(this, path, 0, 0, new SHA1(), guid);
         entry.updateDate();
         this.entries.add(entry);
         this.lookup.put(guid, entry);
+        this.index(entry);
         return entry;
     }
 
@@ -320,8 +592,11 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
     {
         if (entry.getSource() != this)
             throw new IllegalArgumentException("FileDBRow doesn't belong to this database!");
+        this.materialize();
         this.entries.remove(entry);
         this.lookup.remove(entry.getKey());
+        FileDB.unindex(this.hashes, entry.getSHA1(), (FileDBRow) entry);
+        FileDB.unindex(this.paths, entry.getPath().toLowerCase(), (FileDBRow) entry);
         FileNode node = entry.getNode();
         if (node != null) node.delete();
     }
@@ -342,6 +617,71 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
         }
     }
 
+    /**
+     * Applies a diff to this database in bulk, removed entries
+     * are dropped in a single pass over the database.
+     *
+     * @param diff Changes to apply
+     */
+    public void patch(FileDBDiff diff)
+    {
+        if (diff == null)
+            throw new NullPointerException("Can't apply null diff!");
+        if (diff.isEmpty()) return;
+        this.materialize();
+
+        FileDBDiff.Change[] removed = diff.getRemoved();
+        if (removed.length != 0)
+        {
+            HashSet<GUID> guids = new HashSet<>(removed.length);
+            for (FileDBDiff.Change change : removed)
+                guids.add(change.getGUID());
+            this.entries.removeIf(entry ->
+            {
+                if (!guids.contains(entry.getGUID())) return false;
+                if (this.lookup.get(entry.getGUID()) == entry)
+                    this.lookup.remove(entry.getGUID());
+                FileDB.unindex(this.hashes, entry.getSHA1(), entry);
+                FileDB.unindex(this.paths, entry.getPath().toLowerCase(), entry);
+                FileNode node = entry.getNode();
+                if (node != null) node.delete();
+                return true;
+            });
+        }
+
+        for (FileDBDiff.Change change : diff.getChanges())
+        {
+            // Changes without a GUID can't be matched to a row.
+            if (change.getType() == FileDBDiff.ChangeType.REMOVED || change.getGUID() == null)
+                continue;
+
+            FileDBRow entry = this.lookup.get(change.getGUID());
+            if (entry == null)
+            {
+                if (change.getType() != FileDBDiff.ChangeType.ADDED ||
+                    change.getPath() == null || change.getSHA1() == null)
+                    continue;
+                entry = new FileDBRow(this, change.getPath(), change.getDate(),
+                    change.getSize(), change.getSHA1(), change.getGUID());
+                this.entries.add(entry);
+                this.lookup.put(entry.getGUID(), entry);
+                this.index(entry);
+                continue;
+            }
+
+            entry.setDate(change.getDate());
+            if (change.getPath() != null)
+                entry.setPath(change.getPath());
+            if (change.getSHA1() != null)
+            {
+                entry.setSHA1(change.getSHA1());
+                entry.setSize(change.getSize());
+            }
+        }
+
+        this.setHasChanges();
+    }
+
     /**
      * Generates an RPlan resource list from this database
      *
@@ -349,6 +689,7 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
      */
     public String toRLST()
     {
+        this.materialize();
         int pathSize = this.entries
             .stream()
             .mapToInt(element -> element.getPath().length() + 1)
@@ -372,6 +713,7 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
      */
     public RPalette toPalette()
     {
+        this.materialize();
         RPalette palette = new RPalette();
         for (FileDBRow entry : this.entries)
         {
@@ -387,7 +729,7 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
     public GUID getNextGUID()
     {
         long lastGUID = FileDB.MIN_SAFE_GUID;
-        while (this.lookup.containsKey(new GUID(lastGUID))) lastGUID++;
+        while (this.exists(lastGUID)) lastGUID++;
         return new GUID(lastGUID);
     }
 
@@ -398,6 +740,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
      */
     public int getEntryCount()
     {
+        if (this.index != null)
+            return this.index.size();
         return this.entries.size();
     }
 
@@ -408,6 +752,8 @@ public class FileDB extends FileData implements Iterable<FileDBRow>
      */
     public byte[] build()
     {
+        this.materialize();
+
         // Just figure the GUIDs should be in ascending order.
         entries.sort((l, r) -> Long.compareUnsigned(l.getGUID().getValue(),
             r.getGUID().getValue()));
@@ -0,0 +1,422 @@
+package cwlib.types.databases;
+
+import cwlib.ex.SerializationException;
+import cwlib.io.streams.MemoryInputStream;
+import cwlib.io.streams.MemoryOutputStream;
+import cwlib.types.data.GUID;
+import cwlib.types.data.SHA1;
+import cwlib.util.GsonUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Set of changes between two FileDBs, keyed by GUID.
+ * <p>
+ * Every row in a FileDB has a GUID, but patches can still contain changes
+ * without one (stored as 0 in a binary patch, or left out of a JSON patch),
+ * these can't be matched to a row, so they're skipped when a patch is applied.
+ * <p>
+ * Diffs are computed in a single merge pass over both databases sorted by GUID,
+ * and can be stored as either a compact binary patch or JSON, and applied
+ * to a database in bulk with {@link FileDB#patch(FileDBDiff)}.
+ */
+public final class FileDBDiff
+{
+    /**
+     * FDBD
+     */
+    private static final int MAGIC = 0x46444244;
+
+    /**
+     * Version of the binary patch format.
+     */
+    private static final int VERSION = 1;
+
+    private static final int FLAG_MOVED = 1 << 0;
+    private static final int FLAG_REHASHED = 1 << 1;
+
+    public enum ChangeType
+    {
+        ADDED,
+        REMOVED,
+        MODIFIED
+    }
+
+    /**
+     * A single changed row.
+     */
+    public static final class Change
+    {
+        private final ChangeType type;
+        private final GUID guid;
+
+        /**
+         * Values before the change, only available on diffs that were computed,
+         * patches only store what's needed to apply them.
+         */
+        private final String oldPath;
+        private final SHA1 oldSHA1;
+        private final long oldSize;
+
+        private final String path;
+        private final SHA1 sha1;
+        private final long size;
+        private final long date;
+
+        private final boolean isMoved;
+        private final boolean isRehashed;
+
+        private Change(ChangeType type, GUID guid, String oldPath, SHA1 oldSHA1, long oldSize,
+                       String path, SHA1 sha1, long size, long date, boolean isMoved,
+                       boolean isRehashed)
+        {
+            this.type = type;
+            this.guid = guid;
+            this.oldPath = oldPath;
+            this.oldSHA1 = oldSHA1;
+            this.oldSize = oldSize;
+            this.path = path;
+            this.sha1 = sha1;
+            this.size = size;
+            this.date = date;
+            this.isMoved = isMoved;
+            this.isRehashed = isRehashed;
+        }
+
+        private static Change added(FileDBRow row)
+        {
+            return new Change(ChangeType.ADDED, row.getGUID(), null, null, 0, row.getPath(),
+                row.getSHA1(), row.getSize(), row.getDate(), false, false);
+        }
+
+        private static Change removed(FileDBRow row)
+        {
+            return new Change(ChangeType.REMOVED, row.getGUID(), row.getPath(), row.getSHA1(),
+                row.getSize(), null, null, 0, 0, false, false);
+        }
+
+        private static Change modified(FileDBRow base, FileDBRow update)
+        {
+            boolean isMoved = !Objects.equals(base.getPath(), update.getPath());
+            boolean isRehashed = !Objects.equals(base.getSHA1(), update.getSHA1()) ||
+                                 base.getSize() != update.getSize();
+            if (!isMoved && !isRehashed) return null;
+            return new Change(ChangeType.MODIFIED, update.getGUID(), base.getPath(),
+                base.getSHA1(), base.getSize(), update.getPath(), update.getSHA1(),
+                update.getSize(), update.getDate(), isMoved, isRehashed);
+        }
+
+        public ChangeType getType()
+        {
+            return this.type;
+        }
+
+        public GUID getGUID()
+        {
+            return this.guid;
+        }
+
+        public String getOldPath()
+        {
+            return this.oldPath;
+        }
+
+        public SHA1 getOldSHA1()
+        {
+            return this.oldSHA1;
+        }
+
+        public long getOldSize()
+        {
+            return this.oldSize;
+        }
+
+        public String getPath()
+        {
+            return this.path;
+        }
+
+        public SHA1 getSHA1()
+        {
+            return this.sha1;
+        }
+
+        public long getSize()
+        {
+            return this.size;
+        }
+
+        public long getDate()
+        {
+            return this.date;
+        }
+
+        /**
+         * Checks whether the path of this row changed.
+         *
+         * @return Whether the row was moved
+         */
+        public boolean isMoved()
+        {
+            return this.isMoved;
+        }
+
+        /**
+         * Checks whether the data of this row changed.
+         *
+         * @return Whether the row was rehashed
+         */
+        public boolean isRehashed()
+        {
+            return this.isRehashed;
+        }
+    }
+
+    private final Change[] changes;
+
+    private FileDBDiff(Change[] changes)
+    {
+        this.changes = changes;
+    }
+
+    /**
+     * Computes the changes needed to turn one database into another.
+     *
+     * @param base   Original database
+     * @param update Updated database
+     * @return Changes between databases
+     */
+    public static FileDBDiff compute(FileDB base, FileDB update)
+    {
+        if (base == null || update == null)
+            throw new NullPointerException("Can't diff null database!");
+
+        FileDBRow[] baseRows = FileDBDiff.getSortedRows(base);
+        FileDBRow[] updateRows = FileDBDiff.getSortedRows(update);
+
+        ArrayList<Change> changes = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < baseRows.length || j < updateRows.length)
+        {
+            int cmp;
+            if (i == baseRows.length) cmp = 1;
+            else if (j == updateRows.length) cmp = -1;
+            else cmp = Long.compareUnsigned(baseRows[i].getGUID().getValue(),
+                    updateRows[j].getGUID().getValue());
+
+            if (cmp < 0) changes.add(Change.removed(baseRows[i++]));
+            else if (cmp > 0) changes.add(Change.added(updateRows[j++]));
+            else
+            {
+                Change change = Change.modified(baseRows[i++], updateRows[j++]);
+                if (change != null) changes.add(change);
+            }
+        }
+
+        return new FileDBDiff(changes.toArray(Change[]::new));
+    }
+
+    private static FileDBRow[] getSortedRows(FileDB database)
+    {
+        FileDBRow[] rows = new FileDBRow[database.getEntryCount()];
+        int index = 0;
+        for (FileDBRow row : database)
+            rows[index++] = row;
+        Arrays.sort(rows, Comparator.comparingLong(row -> row.getGUID().getValue()));
+        return rows;
+    }
+
+    /**
+     * Reads a binary patch.
+     *
+     * @param data Serialized patch
+     * @return Parsed patch
+     */
+    public static FileDBDiff fromBinary(byte[] data)
+    {
+        MemoryInputStream stream = new MemoryInputStream(data);
+        if (stream.i32() != MAGIC)
+            throw new SerializationException("Invalid FileDB patch, magic does not match!");
+        if (stream.i32() != VERSION)
+            throw new SerializationException("Unsupported FileDB patch version!");
+
+        int count = stream.i32();
+        if (count < 0)
+            throw new SerializationException("Invalid FileDB patch change count!");
+        Change[] changes = new Change[count];
+        for (int i = 0; i < count; ++i)
+        {
+            int ordinal = stream.u8();
+            if (ordinal >= ChangeType.values().length)
+                throw new SerializationException("Invalid FileDB patch change type!");
+            ChangeType type = ChangeType.values()[ordinal];
+            int flags = stream.u8();
+            GUID guid = stream.guid();
+
+            boolean isMoved = (flags & FLAG_MOVED) != 0;
+            boolean isRehashed = (flags & FLAG_REHASHED) != 0;
+
+            String path = null;
+            SHA1 sha1 = null;
+            long size = 0, date = 0;
+            if (type != ChangeType.REMOVED)
+            {
+                date = stream.s64();
+                if (type == ChangeType.ADDED || isMoved)
+                    path = stream.str();
+                if (type == ChangeType.ADDED || isRehashed)
+                {
+                    size = stream.u32();
+                    sha1 = stream.sha1();
+                }
+            }
+
+            changes[i] = new Change(type, guid, null, null, 0, path, sha1, size, date,
+                isMoved, isRehashed);
+        }
+
+        return new FileDBDiff(changes);
+    }
+
+    /**
+     * Serializes this diff as a binary patch, only the values
+     * needed to apply the patch are stored.
+     *
+     * @return Serialized patch
+     */
+    public byte[] toBinary()
+    {
+        MemoryOutputStream stream = new MemoryOutputStream();
+        stream.i32(MAGIC);
+        stream.i32(VERSION);
+        stream.i32(this.changes.length);
+        for (Change change : this.changes)
+        {
+            int flags = 0;
+            if (change.isMoved) flags |= FLAG_MOVED;
+            if (change.isRehashed) flags |= FLAG_REHASHED;
+
+            stream.u8(change.type.ordinal());
+            stream.u8(flags);
+            stream.guid(change.guid);
+
+            if (change.type == ChangeType.REMOVED) continue;
+
+            stream.s64(change.date);
+            if (change.type == ChangeType.ADDED || change.isMoved)
+                stream.str(change.path);
+            if (change.type == ChangeType.ADDED || change.isRehashed)
+            {
+                stream.u32(change.size);
+                stream.sha1(change.sha1);
+            }
+        }
+
+        return stream.shrink().getBuffer();
+    }
+
+    /**
+     * Reads a JSON patch.
+     *
+     * @param json JSON patch
+     * @return Parsed patch
+     */
+    public static FileDBDiff fromJSON(String json)
+    {
+        return GsonUtils.fromJSON(json, FileDBDiff.class);
+    }
+
+    /**
+     * Serializes this diff as a JSON patch.
+     *
+     * @return JSON patch
+     */
+    public String toJSON()
+    {
+        return GsonUtils.toJSON(this);
+    }
+
+    /**
+     * Formats this diff as a human-readable report, one change per line.
+     *
+     * @return Diff report
+     */
+    public String toText()
+    {
+        StringBuilder builder = new StringBuilder(this.changes.length * 128);
+        for (Change change : this.changes)
+        {
+            switch (change.type)
+            {
+                case ADDED:
+                    builder.append("[+] path=").append(change.path)
+                        .append(" size=").append(change.size)
+                        .append(" sha1=").append(change.sha1)
+                        .append(" guid=").append(change.guid);
+                    break;
+                case REMOVED:
+                    builder.append("[-] path=").append(change.oldPath)
+                        .append(" size=").append(change.oldSize)
+                        .append(" sha1=").append(change.oldSHA1)
+                        .append(" guid=").append(change.guid);
+                    break;
+                case MODIFIED:
+                    builder.append("[~] path=").append(change.oldPath).append("->")
+                        .append(change.path)
+                        .append(" size=").append(change.oldSize).append("->")
+                        .append(change.size)
+                        .append(" sha1=").append(change.oldSHA1).append("->")
+                        .append(change.sha1)
+                        .append(" guid=").append(change.guid).append("->")
+                        .append(change.guid);
+                    break;
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private Change[] getChanges(ChangeType type)
+    {
+        return Arrays.stream(this.changes)
+            .filter(change -> change.type == type)
+            .toArray(Change[]::new);
+    }
+
+    public Change[] getChanges()
+    {
+        return this.changes;
+    }
+
+    public Change[] getAdded()
+    {
+        return this.getChanges(ChangeType.ADDED);
+    }
+
+    public Change[] getRemoved()
+    {
+        return this.getChanges(ChangeType.REMOVED);
+    }
+
+    public Change[] getMoved()
+    {
+        return Arrays.stream(this.changes)
+            .filter(Change::isMoved)
+            .toArray(Change[]::new);
+    }
+
+    public Change[] getRehashed()
+    {
+        return Arrays.stream(this.changes)
+            .filter(Change::isRehashed)
+            .toArray(Change[]::new);
+    }
+
+    public boolean isEmpty()
+    {
+        return this.changes.length == 0;
+    }
+}
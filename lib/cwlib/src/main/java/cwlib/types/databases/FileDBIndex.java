@@ -0,0 +1,351 @@
+package cwlib.types.databases;
+
+import cwlib.ex.SerializationException;
+import cwlib.types.data.GUID;
+import cwlib.types.data.SHA1;
+import cwlib.util.Bytes;
+
+import java.util.Arrays;
+
+/**
+ * Compact index of the rows in a serialized FileDB.
+ * <p>
+ * The serialized database is kept as is, and only the offset of each row
+ * is stored, along with an open-addressed table of GUIDs to rows,
+ * so rows can be looked up without allocating an object per entry.
+ * Rows are looked up by SHA1 through a sorted table of hash prefixes,
+ * which is only built the first time it's needed.
+ */
+final class FileDBIndex
+{
+    /**
+     * Size of a SHA1 hash.
+     */
+    private static final int HASH_SIZE = 0x14;
+
+    /**
+     * Marks an empty slot in the GUID table, GUIDs are unsigned 32-bit
+     * values, so this can never be an actual key.
+     */
+    private static final long EMPTY_KEY = -1L;
+
+    /**
+     * Serialized database.
+     */
+    private final byte[] data;
+
+    private final int revision;
+    private final boolean isLBP3;
+
+    /**
+     * Offset of every unique row in the serialized database.
+     */
+    private final int[] rows;
+
+    /**
+     * GUIDs of the open-addressed lookup table.
+     */
+    private final long[] keys;
+
+    /**
+     * Row indices of the open-addressed lookup table.
+     */
+    private final int[] values;
+
+    /**
+     * First four bytes of the hash of every row in the upper half,
+     * and the index of the row in the lower half, sorted.
+     */
+    private volatile long[] hashes;
+
+    private FileDBIndex(byte[] data, int revision, int[] rows, int count)
+    {
+        this.data = data;
+        this.revision = revision;
+        this.isLBP3 = (revision >> 0x10) >= 0x148;
+
+        int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(this.keys, EMPTY_KEY);
+
+        // Rows without a GUID and duplicate GUIDs are skipped,
+        // the first row with a GUID is the one kept.
+        int unique = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            long guid = this.readGUID(rows[i]);
+            if (guid == 0) continue;
+            int slot = this.getSlot(guid);
+            if (this.keys[slot] != EMPTY_KEY) continue;
+            this.keys[slot] = guid;
+            this.values[slot] = unique;
+            rows[unique++] = rows[i];
+        }
+
+        this.rows = unique == count ? rows : Arrays.copyOf(rows, unique);
+    }
+
+    /**
+     * Builds an index from a serialized FileDB.
+     *
+     * @param data Serialized database
+     * @return Index of database
+     */
+    public static FileDBIndex fromBuffer(byte[] data)
+    {
+        if (data == null)
+            throw new NullPointerException("Can't index null database!");
+        try
+        {
+            int revision = Bytes.toIntegerBE(data, 0);
+            int count = Bytes.toIntegerBE(data, 4);
+            if (count < 0)
+                throw new SerializationException("Invalid FileDB entry count!");
+            boolean isLBP3 = (revision >> 0x10) >= 0x148;
+
+            int[] rows = new int[count];
+            int offset = 8;
+            for (int i = 0; i < count; ++i)
+            {
+                rows[i] = offset;
+                int length;
+                if (isLBP3)
+                {
+                    length = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+                    offset += 2;
+                }
+                else
+                {
+                    length = Bytes.toIntegerBE(data, offset);
+                    offset += 4;
+                }
+
+                // Path, timestamp, size, hash, and GUID
+                offset += length + (isLBP3 ? 4 : 8) + 4 + HASH_SIZE + 4;
+                if (length < 0 || offset > data.length)
+                    throw new SerializationException("FileDB row exceeds the bounds of the " +
+                                                     "database!");
+            }
+
+            return new FileDBIndex(data, revision, rows, count);
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            throw new SerializationException("FileDB is truncated!");
+        }
+    }
+
+    /**
+     * Gets the slot of a GUID in the lookup table, either the slot
+     * that contains it, or the empty slot it would go into.
+     *
+     * @param guid GUID to search for
+     * @return Slot of GUID
+     */
+    private int getSlot(long guid)
+    {
+        int mask = this.keys.length - 1;
+        int slot = (int) ((guid * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (this.keys[slot] != EMPTY_KEY && this.keys[slot] != guid)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Finds the row with a GUID.
+     *
+     * @param guid GUID to search for
+     * @return Index of row, or -1 if it doesn't exist
+     */
+    public int find(long guid)
+    {
+        int slot = this.getSlot(guid);
+        if (this.keys[slot] == EMPTY_KEY) return -1;
+        return this.values[slot];
+    }
+
+    /**
+     * Finds the first row with a SHA1.
+     *
+     * @param sha1 Hash to search for
+     * @return Index of row, or -1 if it doesn't exist
+     */
+    public int find(SHA1 sha1)
+    {
+        byte[] hash = sha1.getHash();
+        long[] hashes = this.getHashes();
+        int prefix = Bytes.toIntegerBE(hash, 0);
+
+        // Rows that share a prefix are sorted by index, so the first match is the first row.
+        int low = 0, high = hashes.length;
+        long key = (long) prefix << 32;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (hashes[mid] < key) low = mid + 1;
+            else high = mid;
+        }
+
+        for (int i = low; i < hashes.length && (int) (hashes[i] >> 32) == prefix; ++i)
+        {
+            int index = (int) hashes[i];
+            int offset = this.getHashOffset(index);
+            if (Arrays.equals(this.data, offset, offset + HASH_SIZE, hash, 0, HASH_SIZE))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the sorted table of hash prefixes, building it if it hasn't been yet.
+     *
+     * @return Sorted hash prefixes
+     */
+    private long[] getHashes()
+    {
+        long[] hashes = this.hashes;
+        if (hashes != null) return hashes;
+        synchronized (this)
+        {
+            if (this.hashes != null) return this.hashes;
+            hashes = new long[this.rows.length];
+            for (int i = 0; i < hashes.length; ++i)
+            {
+                long prefix = Bytes.toIntegerBE(this.data, this.getHashOffset(i));
+                hashes[i] = (prefix << 32) | i;
+            }
+            Arrays.sort(hashes);
+            this.hashes = hashes;
+            return hashes;
+        }
+    }
+
+    /**
+     * Creates a FileDBRow for a row in the index.
+     *
+     * @param database Database this index belongs to
+     * @param index    Index of row
+     * @return FileDBRow
+     */
+    public FileDBRow getRow(FileDB database, int index)
+    {
+        return new FileDBRow(database, this.getEntryPath(index), this.getDate(index),
+            this.getSize(index), this.getSHA1(index), new GUID(this.getGUID(index)));
+    }
+
+    /**
+     * Gets the path a row will have once it's created.
+     *
+     * @param index Index of row
+     * @return Path of entry
+     */
+    public String getEntryPath(int index)
+    {
+        String path = this.getPath(index);
+
+        /* 	In LittleBigPlanet Vita, some versions of the databases don't store any filenames,
+            only the extensions, so we'll use the hash of the resource in place of a name. */
+        if (path.startsWith("."))
+        {
+            path = String.format("data/%s%s%s",
+                FileDB.getFolderFromExtension(path), this.getSHA1(index), path);
+        }
+
+        return path;
+    }
+
+    private int getPathLength(int index)
+    {
+        return this.readPathLength(this.rows[index]);
+    }
+
+    /**
+     * Reads the length of the path of the row at an offset.
+     *
+     * @param offset Offset of row in the serialized database
+     * @return Length of path
+     */
+    private int readPathLength(int offset)
+    {
+        if (this.isLBP3)
+            return ((this.data[offset] & 0xFF) << 8) | (this.data[offset + 1] & 0xFF);
+        return Bytes.toIntegerBE(this.data, offset);
+    }
+
+    private int getPathOffset(int index)
+    {
+        return this.rows[index] + (this.isLBP3 ? 2 : 4);
+    }
+
+    private int getDateOffset(int index)
+    {
+        return this.getPathOffset(index) + this.getPathLength(index);
+    }
+
+    private int getHashOffset(int index)
+    {
+        return this.getDateOffset(index) + (this.isLBP3 ? 4 : 8) + 4;
+    }
+
+    /**
+     * Gets the path of a row as stored in the database.
+     *
+     * @param index Index of row
+     * @return Path of row
+     */
+    public String getPath(int index)
+    {
+        int length = this.getPathLength(index);
+        if (length == 0) return "";
+        return new String(this.data, this.getPathOffset(index), length).replace("\0", "");
+    }
+
+    public long getDate(int index)
+    {
+        int offset = this.getDateOffset(index);
+        if (this.isLBP3)
+            return Bytes.toIntegerBE(this.data, offset) & 0xFFFFFFFFL;
+        return ((long) Bytes.toIntegerBE(this.data, offset) << 32) |
+               (Bytes.toIntegerBE(this.data, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    public long getSize(int index)
+    {
+        return Bytes.toIntegerBE(this.data, this.getHashOffset(index) - 4) & 0xFFFFFFFFL;
+    }
+
+    public SHA1 getSHA1(int index)
+    {
+        int offset = this.getHashOffset(index);
+        return new SHA1(Arrays.copyOfRange(this.data, offset, offset + HASH_SIZE));
+    }
+
+    public long getGUID(int index)
+    {
+        return this.readGUID(this.rows[index]);
+    }
+
+    /**
+     * Reads the GUID of the row at an offset.
+     *
+     * @param offset Offset of row in the serialized database
+     * @return GUID of row
+     */
+    private long readGUID(int offset)
+    {
+        offset += this.readPathLength(offset) + (this.isLBP3 ? 2 : 4);
+        offset += (this.isLBP3 ? 4 : 8) + 4 + HASH_SIZE;
+        return Bytes.toIntegerBE(this.data, offset) & 0xFFFFFFFFL;
+    }
+
+    public int getRevision()
+    {
+        return this.revision;
+    }
+
+    public int size()
+    {
+        return this.rows.length;
+    }
+}
@@ -2,6 +2,7 @@ package cwlib.types.databases;
 
 import cwlib.types.data.GUID;
 import cwlib.types.data.SHA1;
+import cwlib.types.swing.FileNode;
 
 public final class FileDBRow extends FileEntry
 {
@@ -73,6 +74,8 @@ public final class FileDBRow extends FileEntry
             throw new IllegalArgumentException("GUID already exists in database!");
         database.onGUIDChange(this.getGUID(), newGUID);
         this.key = newGUID;
+        FileNode node = this.getNode();
+        if (node != null) node.markModified();
     }
 
     /**
@@ -161,6 +161,8 @@ public abstract class FileEntry
         path = Strings.cleanupPath(path);
         if (path.equals(this.path)) return;
 
+        if (this.source instanceof FileDB)
+            ((FileDB) this.source).onPathChange(this, this.path, path);
         this.path = path;
         if (this.node != null)
         {
@@ -206,7 +208,10 @@ public abstract class FileEntry
     {
         if (sha1 == null) sha1 = new SHA1();
         if (this.sha1.equals(sha1)) return;
+        if (this.source instanceof FileDB)
+            ((FileDB) this.source).onSHA1Change(this, this.sha1, sha1);
         this.sha1 = sha1;
+        if (this.node != null) this.node.markModified();
         this.source.setHasChanges();
     }
 
@@ -26,23 +26,35 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.net.URI;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystem;
 import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.logging.Level;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 public class Mod extends FileDB
 {
     private static final String LEGACY_PASSWORD = "purchasecollege";
 
+    /**
+     * Resources added to this mod since it was loaded.
+     */
     private SaveArchive archive;
 
+    /**
+     * Resources stored in the mod file, null if the mod
+     * isn't backed by a file.
+     */
+    private ModContents contents;
+
     private ModInfo config = new ModInfo();
     private ArrayList<ModPatch> patches = new ArrayList<>();
 
@@ -56,41 +68,44 @@ public class Mod extends FileDB
     private Mod(File file, int version)
     {
         super(file, DatabaseType.MOD, version);
-        Revision revision = new Revision(
-            Branch.MIZUKI.getHead(),
-            Branch.MIZUKI.getID(),
-            Branch.MIZUKI.getRevision()
-        );
-        this.archive = new SaveArchive(revision, 0x4);
+        this.archive = Mod.newArchive();
     }
 
     public Mod(File file)
     {
         super(file, DatabaseType.MOD);
+        this.archive = Mod.newArchive();
         this.process(file);
     }
 
+    private static SaveArchive newArchive()
+    {
+        Revision revision = new Revision(
+            Branch.MIZUKI.getHead(),
+            Branch.MIZUKI.getID(),
+            Branch.MIZUKI.getRevision()
+        );
+        return new SaveArchive(revision, 0x4);
+    }
+
     private void process(File file)
     {
-        try (FileSystem fileSystem = FileSystems.newFileSystem(file.toPath(),
-            (java.lang.ClassLoader) null))
+        try (ZipFile zip = new ZipFile(file))
         {
-            Path configPath = fileSystem.getPath("config.json");
-            if (!Files.exists(configPath))
+            ZipEntry configEntry = zip.getEntry("config.json");
+            if (configEntry == null)
                 throw new SerializationException("Mod is missing config file!");
 
 
-            String config = FileIO.readString(configPath);
+            String config = Mod.readString(zip, configEntry);
 
             this.config = GsonUtils.fromJSON(config, ModInfo.class);
 
-            Path iconPath = fileSystem.getPath("icon.png");
-            if (Files.exists(iconPath))
+            ZipEntry iconEntry = zip.getEntry("icon.png");
+            if (iconEntry != null)
             {
-                try
+                try (InputStream input = zip.getInputStream(iconEntry))
                 {
-                    byte[] image = Files.readAllBytes(iconPath);
-                    InputStream input = new ByteArrayInputStream(image);
                     BufferedImage bufferedImage = ImageIO.read(input);
                     if (bufferedImage != null)
                         this.icon = Images.getImageIcon(bufferedImage);
@@ -102,34 +117,45 @@ public class Mod extends FileDB
             }
             else System.out.println("Mod has no icon image.");
 
-            Path databasePath = fileSystem.getPath("data.map");
-            if (!Files.exists(databasePath))
+            ZipEntry databaseEntry = zip.getEntry("data.map");
+            if (databaseEntry == null)
                 throw new SerializationException("Mod has no contents! (data.map is " +
                                                  "missing)");
 
-            Path archivePath = fileSystem.getPath("data.farc");
-            this.archive = null;
-            if (Files.exists(archivePath))
-                this.archive = new SaveArchive(Files.readAllBytes(archivePath));
+            // Only the FAT of the archive is read, resources are read from the mod
+            // when they're extracted.
+            this.contents = new ModContents(file, zip);
 
-            super.process(new MemoryInputStream(Files.readAllBytes(databasePath)));
+            try (InputStream input = zip.getInputStream(databaseEntry))
+            {
+                super.process(new MemoryInputStream(input.readAllBytes()));
+            }
 
             for (FileDBRow entry : this.entries)
             {
-                if (this.archive != null && archive.exists(entry.getSHA1())) continue;
-                Path filePath = fileSystem.getPath(entry.getPath());
-                if (Files.exists(filePath))
+                if (entry.getSHA1() != null && this.contents.exists(entry.getSHA1())) continue;
+                String path = entry.getPath();
+                if (path.startsWith("/")) path = path.substring(1);
+                ZipEntry fileEntry = zip.getEntry(path);
+                if (fileEntry == null || fileEntry.isDirectory()) continue;
+
+                // Loose files are hashed as they're streamed, they're read again
+                // if they actually get extracted.
+                SHA1 sha1;
+                try (InputStream input = zip.getInputStream(fileEntry))
                 {
-                    byte[] fileData = Files.readAllBytes(filePath);
-                    entry.setDetails(fileData);
-                    this.archive.add(fileData);
+                    sha1 = Crypto.SHA1(input);
                 }
+                entry.setSHA1(sha1);
+                entry.setSize(fileEntry.getSize());
+                entry.updateDate();
+                this.contents.add(sha1, path, (int) fileEntry.getSize());
             }
 
-            Path patchesPath = fileSystem.getPath("patches.json");
-            if (Files.exists(patchesPath))
+            ZipEntry patchesEntry = zip.getEntry("patches.json");
+            if (patchesEntry != null)
             {
-                String patchJSON = FileIO.readString(patchesPath);
+                String patchJSON = Mod.readString(zip, patchesEntry);
                 ModPatch[] patches = GsonUtils.fromJSON(patchJSON, ModPatch[].class);
                 this.patches = new ArrayList<>(Arrays.asList(patches));
             }
@@ -140,6 +166,14 @@ public class Mod extends FileDB
         }
     }
 
+    private static String readString(ZipFile zip, ZipEntry entry) throws IOException
+    {
+        try (InputStream input = zip.getInputStream(entry))
+        {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
     public static Mod fromLegacyMod(File file)
     {
         ResourceSystem.println("Mod", "Processing legacy mod file");
@@ -332,7 +366,63 @@ public class Mod extends FileDB
     @Override
     public byte[] extract(SHA1 sha1)
     {
-        return this.archive.extract(sha1);
+        byte[] data = this.archive.extract(sha1);
+        if (data != null || this.contents == null) return data;
+        return this.contents.extract(sha1);
+    }
+
+    /**
+     * Extracts a batch of resources from this mod on the calling thread,
+     * resources stored in the mod file are read in the order they're stored,
+     * and the mod file is only opened once.
+     * Hashes that don't exist in the mod are skipped.
+     *
+     * @param hashes   Hashes of resources to extract
+     * @param consumer Callback that receives each extracted resource
+     * @return Number of resources extracted
+     * @throws IOException if the mod file couldn't be read
+     */
+    public int extractAll(Collection<SHA1> hashes, BiConsumer<SHA1, byte[]> consumer)
+    throws IOException
+    {
+        if (hashes == null)
+            throw new NullPointerException("Can't extract null hash collection from mod!");
+        if (consumer == null)
+            throw new NullPointerException("Consumer cannot be null!");
+
+        int count = 0;
+        ArrayList<SHA1> stored = new ArrayList<>(hashes.size());
+        for (SHA1 sha1 : new HashSet<>(hashes))
+        {
+            if (sha1 == null) continue;
+            byte[] data = this.archive.extract(sha1);
+            if (data != null)
+            {
+                consumer.accept(sha1, data);
+                count++;
+            }
+            else stored.add(sha1);
+        }
+
+        if (this.contents != null)
+            count += this.contents.extractAll(stored, consumer);
+
+        return count;
+    }
+
+    /**
+     * Reads every resource still stored in the mod file into memory,
+     * so the mod no longer depends on the file.
+     *
+     * @throws IOException if the mod file couldn't be read
+     */
+    private void load() throws IOException
+    {
+        if (this.contents == null) return;
+        this.contents.extractAll(this.contents.getHashes(), (sha1, data) ->
+            this.archive.add(data));
+        this.contents.close();
+        this.contents = null;
     }
 
     @Override
@@ -340,6 +430,15 @@ public class Mod extends FileDB
     {
         if (file == null) return false;
 
+        // The mod is about to be rebuilt, possibly over the file
+        // it's being read from, so everything needs to be in memory.
+        try { this.load(); }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to read resources from mod file.");
+            return false;
+        }
+
         byte[] serializedDatabase = this.build();
         byte[] serializedArchive = this.archive.build(false);
 
@@ -377,20 +476,18 @@ public class Mod extends FileDB
 
         File workingZip = new File(ResourceSystem.getWorkingDirectory(), "working.mod");
 
-        Map<String, String> env = new HashMap<>();
-        env.put("create", "true");
-
-        URI uri =
-            URI.create("jar:file:" + Paths.get(workingZip.getAbsolutePath()).toUri().getPath());
-        try (FileSystem filesystem = FileSystems.newFileSystem(uri, env, null))
+        // The archive is stored uncompressed, so resources can be read
+        // straight from their offset once the mod is loaded again.
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+            new FileOutputStream(workingZip))))
         {
-            Files.write(filesystem.getPath("config.json"), config);
+            Mod.write(zip, "config.json", config, false);
             if (image != null)
-                Files.write(filesystem.getPath("icon.png"), image);
+                Mod.write(zip, "icon.png", image, false);
             if (patches != null)
-                Files.write(filesystem.getPath("patches.json"), patches);
-            Files.write(filesystem.getPath("data.map"), serializedDatabase);
-            Files.write(filesystem.getPath("data.farc"), serializedArchive);
+                Mod.write(zip, "patches.json", patches, false);
+            Mod.write(zip, "data.map", serializedDatabase, false);
+            Mod.write(zip, ModContents.ARCHIVE_ENTRY, serializedArchive, true);
         }
         catch (IOException ex)
         {
@@ -412,4 +509,22 @@ public class Mod extends FileDB
 
         return true;
     }
+
+    private static void write(ZipOutputStream zip, String name, byte[] data, boolean isStored)
+    throws IOException
+    {
+        ZipEntry entry = new ZipEntry(name);
+        if (isStored)
+        {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
 }
@@ -0,0 +1,307 @@
+package cwlib.types.mods;
+
+import cwlib.ex.SerializationException;
+import cwlib.types.data.SHA1;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of the resources stored in a mod file, resources are only
+ * read from the mod when they're extracted.
+ * <p>
+ * Resources either live in the archive embedded in the mod, or as loose files
+ * listed by the database. Mods store their archive uncompressed, so resources
+ * are read straight from their offset in the zip. Older mods compressed the
+ * archive, which can only be read front to back, so it's inflated once to a
+ * temporary file and resources are read from there instead.
+ */
+final class ModContents implements Closeable
+{
+    /**
+     * Name of the archive embedded in a mod.
+     */
+    static final String ARCHIVE_ENTRY = "data.farc";
+
+    /**
+     * Number of bytes read from the end of the embedded archive
+     * in the hopes that the whole FAT fits.
+     */
+    private static final int TAIL_GUESS = 0x100000;
+
+    /**
+     * Where a resource is stored in the mod.
+     */
+    private static final class Location
+    {
+        private final String entry;
+        private final long offset;
+        private final int size;
+
+        private Location(String entry, long offset, int size)
+        {
+            this.entry = entry;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private final File file;
+    private final HashMap<SHA1, Location> locations = new HashMap<>();
+
+    /**
+     * Temporary file the embedded archive was inflated to,
+     * null if the archive is stored uncompressed.
+     */
+    private Path spill;
+
+    /**
+     * Read handle to the inflated archive.
+     */
+    private FileChannel spillChannel;
+
+    /**
+     * Indexes the archive embedded in a mod.
+     *
+     * @param file Mod file on local disk
+     * @param zip  Opened mod file
+     * @throws IOException if the mod couldn't be read
+     */
+    ModContents(File file, ZipFile zip) throws IOException
+    {
+        this.file = file;
+        ZipEntry entry = zip.getEntry(ARCHIVE_ENTRY);
+        if (entry == null) return;
+
+        try
+        {
+            if (entry.getMethod() != ZipEntry.STORED)
+                this.inflate(zip, entry);
+            this.index(zip, entry);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            this.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Inflates the embedded archive to a temporary file.
+     */
+    private void inflate(ZipFile zip, ZipEntry entry) throws IOException
+    {
+        this.spill = Files.createTempFile("mod", ".farc");
+        this.spill.toFile().deleteOnExit();
+        try (InputStream stream = zip.getInputStream(entry))
+        {
+            Files.copy(stream, this.spill, StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.spillChannel = FileChannel.open(this.spill, StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads the FAT of the embedded archive from its footer, the layout
+     * is the same as in SaveArchive, but none of the resources get read.
+     */
+    private void index(ZipFile zip, ZipEntry entry) throws IOException
+    {
+        long length = (this.spillChannel != null) ? this.spillChannel.size() : entry.getSize();
+        if (length < 0x8)
+            throw new SerializationException("Invalid SaveArchive, size is less than " +
+                                             "minimum of 8 bytes!");
+
+        int guess = (int) Math.min(length, TAIL_GUESS);
+        ByteBuffer tail = ByteBuffer.wrap(this.read(zip, entry, length - guess, guess));
+        int entryCount = tail.getInt(tail.limit() - 0x8);
+        int magic = tail.getInt(tail.limit() - 0x4);
+        if ((magic >> 8) != 0x464152)
+            throw new SerializationException("Invalid SaveArchive, magic does not match!");
+        int revision = (magic & 0xFF) - '0';
+        if (revision < 2 || revision > 5)
+            throw new SerializationException("Invalid SaveArchive revision!");
+
+        long fatSize = entryCount * 0x1cL;
+        long footerSize = 0x8 + fatSize;
+        if (revision > 2) footerSize += 0x14;
+        if (revision == 5) footerSize += 0x4;
+        if (entryCount < 0 || footerSize > length || footerSize > Integer.MAX_VALUE)
+            throw new SerializationException("Invalid SaveArchive, FAT is out of bounds!");
+
+        // The FAT is bigger than what we guessed, so read it again.
+        if (footerSize > tail.limit())
+        {
+            tail = ByteBuffer.wrap(this.read(zip, entry, length - footerSize,
+                (int) footerSize));
+        }
+
+        // Rows are always big endian, even on archives that are otherwise little endian.
+        tail.order(ByteOrder.BIG_ENDIAN);
+        tail.position((int) (tail.limit() - footerSize));
+        for (int i = 0; i < entryCount; ++i)
+        {
+            byte[] hash = new byte[0x14];
+            tail.get(hash);
+            long offset = tail.getInt() & 0xFFFFFFFFL;
+            int size = tail.getInt();
+            this.locations.put(new SHA1(hash), new Location(ARCHIVE_ENTRY, offset, size));
+        }
+    }
+
+    /**
+     * Reads part of an entry of the mod. Skipping over an uncompressed entry
+     * only moves the position in the zip, so nothing before the data is read.
+     *
+     * @param zip    Opened mod file
+     * @param entry  Entry to read from
+     * @param offset Offset of data in entry
+     * @param size   Size of data
+     * @return Read data
+     * @throws IOException if the entry couldn't be read
+     */
+    private byte[] read(ZipFile zip, ZipEntry entry, long offset, int size) throws IOException
+    {
+        if (size < 0)
+            throw new IOException("Invalid size of mod entry!");
+
+        if (this.spillChannel != null && entry.getName().equals(ARCHIVE_ENTRY))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            while (buffer.hasRemaining())
+            {
+                if (this.spillChannel.read(buffer, offset + buffer.position()) < 0)
+                    throw new IOException("Unexpected end of mod entry!");
+            }
+            return buffer.array();
+        }
+
+        try (InputStream stream = zip.getInputStream(entry))
+        {
+            stream.skipNBytes(offset);
+            byte[] data = stream.readNBytes(size);
+            if (data.length != size)
+                throw new IOException("Unexpected end of mod entry!");
+            return data;
+        }
+    }
+
+    /**
+     * Reads a resource from the mod.
+     */
+    private byte[] read(ZipFile zip, Location location) throws IOException
+    {
+        ZipEntry entry = zip.getEntry(location.entry);
+        if (entry == null) return null;
+        return this.read(zip, entry, location.offset, location.size);
+    }
+
+    /**
+     * Adds a loose file of the mod to the index.
+     *
+     * @param sha1 SHA1 of file
+     * @param path Path of file in the mod
+     * @param size Size of file
+     */
+    void add(SHA1 sha1, String path, int size)
+    {
+        this.locations.putIfAbsent(sha1, new Location(path, 0, size));
+    }
+
+    boolean exists(SHA1 sha1)
+    {
+        return this.locations.containsKey(sha1);
+    }
+
+    Set<SHA1> getHashes()
+    {
+        return this.locations.keySet();
+    }
+
+    /**
+     * Extracts a single resource from the mod.
+     *
+     * @param sha1 SHA1 of resource
+     * @return Extracted resource, or null if it doesn't exist
+     */
+    byte[] extract(SHA1 sha1)
+    {
+        Location location = this.locations.get(sha1);
+        if (location == null) return null;
+        try (ZipFile zip = new ZipFile(this.file))
+        {
+            return this.read(zip, location);
+        }
+        catch (IOException ex) { return null; }
+    }
+
+    /**
+     * Extracts a batch of resources from the mod on the calling thread,
+     * the mod is only opened once, and resources are read in the order they're stored.
+     * Hashes that don't exist in the mod are skipped.
+     *
+     * @param hashes   Hashes of resources to extract
+     * @param consumer Callback that receives each extracted resource
+     * @return Number of resources extracted
+     * @throws IOException if the mod couldn't be read
+     */
+    int extractAll(Collection<SHA1> hashes, BiConsumer<SHA1, byte[]> consumer)
+    throws IOException
+    {
+        ArrayList<SHA1> batch = new ArrayList<>(hashes.size());
+        for (SHA1 sha1 : new HashSet<>(hashes))
+            if (this.locations.containsKey(sha1)) batch.add(sha1);
+        batch.sort(Comparator.comparing((SHA1 sha1) -> this.locations.get(sha1).entry)
+            .thenComparingLong(sha1 -> this.locations.get(sha1).offset));
+
+        int count = 0;
+        try (ZipFile zip = new ZipFile(this.file))
+        {
+            for (SHA1 sha1 : batch)
+            {
+                byte[] data = this.read(zip, this.locations.get(sha1));
+                if (data == null) continue;
+                consumer.accept(sha1, data);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Deletes the inflated copy of the embedded archive, if there is one,
+     * resources can't be extracted from the archive afterwards.
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            if (this.spillChannel != null)
+                this.spillChannel.close();
+            if (this.spill != null)
+                Files.deleteIfExists(this.spill);
+        }
+        catch (IOException ex) { /* Deleted on exit instead */ }
+        this.spillChannel = null;
+        this.spill = null;
+    }
+}
@@ -18,11 +18,11 @@ import cwlib.types.data.SHA1;
 import cwlib.types.databases.FileEntry;
 import cwlib.types.swing.FileData;
 import cwlib.types.swing.FileNode;
-import cwlib.util.Bytes;
 import cwlib.util.Resources;
 
 import java.awt.Toolkit;
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -65,10 +65,10 @@ public class BigSave extends FileData
             Slot slot = null;
             for (Fat fat : archive)
             {
-                byte[] data = fat.extract();
-                ResourceType type = Resources.getResourceType(data);
-                if (type == ResourceType.SLOT_LIST)
+                ByteBuffer header = fat.getFileArchive().extractBuffer(fat);
+                if (BigSave.getResourceType(header) == ResourceType.SLOT_LIST)
                 {
+                    byte[] data = fat.extract();
                     ArrayList<Slot> slotList = new SerializedResource(data).loadResource(RSlotList.class).getSlots();
                     if (slotList.size() > 0)
                         slot = slotList.get(0);
@@ -79,19 +79,19 @@ public class BigSave extends FileData
 
             // Can't import a download if they're not actually in the data.
             if (slot.root == null || slot.root.isGUID()) continue;
-            byte[] rootLevel = archive.extract(slot.root.getSHA1());
-            if (rootLevel == null) continue;
+            int rootSize = archive.getSize(slot.root.getSHA1());
+            if (rootSize == -1) continue;
 
             String levelName = ((slot.name.isEmpty()) ? "Unnamed Level" : slot.name).replaceAll("/", "&#x2f;");
             String rootFolder = "downloaded_levels/" + levelName + "/";
             for (Fat fat : archive)
             {
                 if (fat.getSHA1().equals(slot.root.getSHA1())) continue;
-                byte[] data = fat.extract();
-                this.entries.add(new SaveEntry(this, rootFolder + this.generatePath(data, fat.getSHA1()), data.length, fat.getSHA1()));
+                ByteBuffer header = fat.getFileArchive().extractBuffer(fat);
+                this.entries.add(new SaveEntry(this, rootFolder + this.generatePath(header, fat.getSHA1()), fat.getSize(), fat.getSHA1()));
             }
 
-            this.entries.add(new SaveEntry(this, slot, rootFolder + levelName + ".bin", rootLevel.length, slot.root.getSHA1()));
+            this.entries.add(new SaveEntry(this, slot, rootFolder + levelName + ".bin", rootSize, slot.root.getSHA1()));
 
             // Make sure to copy all data into this archive
             this.archive.add(archive);
@@ -121,6 +121,7 @@ public class BigSave extends FileData
             throw new IllegalArgumentException("Unable to locate RBigProfile root resource!");
 
         HashSet<SHA1> locked = new HashSet<>();
+        ArrayList<SaveEntry> adventures = new ArrayList<>();
         locked.add(key.getRootHash());
 
         for (InventoryItem item : this.profile.inventory)
@@ -131,9 +132,9 @@ public class BigSave extends FileData
                 this.profile.stringTable.get(item.details.categoryIndex);
             ResourceDescriptor plan = item.plan;
             if (plan == null || plan.isGUID()) continue;
-            byte[] data = archive.extract(plan.getSHA1());
-            if (data == null) continue;
-            this.entries.add(new SaveEntry(this, item, this.generatePath(item), data.length,
+            int size = this.archive.getSize(plan.getSHA1());
+            if (size == -1) continue;
+            this.entries.add(new SaveEntry(this, item, this.generatePath(item), size,
                 plan.getSHA1()));
             locked.add(plan.getSHA1());
         }
@@ -142,15 +143,14 @@ public class BigSave extends FileData
         {
             ResourceDescriptor root = (slot.isAdventure()) ? slot.adventure : slot.root;
             if (root == null || root.isGUID()) continue;
-            byte[] data = archive.extract(root.getSHA1());
-            if (data == null) continue;
+            int size = this.archive.getSize(root.getSHA1());
+            if (size == -1) continue;
 
             if (slot.isLevel())
             {
                 String path = "levels/" + ((slot.name.isEmpty()) ? "Unnamed Level" :
                                                slot.name);
-                this.entries.add(new SaveEntry(this, slot, path, data.length,
-                    root.getSHA1()));
+                this.entries.add(new SaveEntry(this, slot, path, size, root.getSHA1()));
                 locked.add(root.getSHA1());
             }
 
@@ -158,31 +158,16 @@ public class BigSave extends FileData
             {
                 String path = "adventures/" + ((slot.name.isEmpty()) ? "Unnamed Adventure" :
                                                    slot.name);
-                SaveEntry adventure = new SaveEntry(this, slot, path, data.length,
-                    root.getSHA1());
+                SaveEntry adventure = new SaveEntry(this, slot, path, size, root.getSHA1());
                 this.entries.add(adventure);
                 locked.add(root.getSHA1());
 
-                RAdventureCreateProfile profile = null;
-                try
-                {
-                    profile =
-                        new SerializedResource(data).loadResource(RAdventureCreateProfile.class);
-                }
-                catch (Exception ex) { continue; }
-
-                for (Slot local : profile.getAdventureSlots().values())
-                {
-                    if (!local.isLevel() || local.root.isGUID()) continue;
-                    String localPath = path + "/levels/" + ((local.name.isEmpty()) ?
-                                                                "Unnamed " +
-                                                                "Level" : local.name);
-                    byte[] localData = this.archive.extract(local.root.getSHA1());
-                    if (localData == null) continue;
-                    this.entries.add(new SaveEntry(this, adventure, local.id, localPath,
-                        localData.length, local.root.getSHA1()));
-                    locked.add(local.root.getSHA1());
-                }
+                // Adventures have to be fully deserialized to find their levels,
+                // so it's put off until the adventure is actually expanded.
+                FileNode node = adventure.getNode();
+                if (node != null)
+                    node.setLoader(() -> this.loadAdventure(adventure));
+                else adventures.add(adventure);
             }
         }
 
@@ -190,8 +175,8 @@ public class BigSave extends FileData
         {
             SHA1 sha1 = fat.getSHA1();
             if (locked.contains(sha1)) continue;
-            byte[] data = fat.extract();
-            this.entries.add(new SaveEntry(this, this.generatePath(data, sha1), fat.getSize(),
+            ByteBuffer header = this.archive.extractBuffer(fat);
+            this.entries.add(new SaveEntry(this, this.generatePath(header, sha1), fat.getSize(),
                 sha1));
         }
 
@@ -200,23 +185,103 @@ public class BigSave extends FileData
         for (SHA1 sha1 : this.archive.getQueueHashes())
         {
             if (locked.contains(sha1)) continue;
-            byte[] data = this.archive.extract(sha1);
-            this.entries.add(new SaveEntry(this, this.generatePath(data, sha1), data.length
-                , sha1));
+            ByteBuffer header = this.archive.extractBuffer(sha1);
+            this.entries.add(new SaveEntry(this, this.generatePath(header, sha1),
+                header.remaining(), sha1));
         }
 
         for (SaveEntry entry : this.entries)
             this.lookup.put(entry.getSHA1(), entry);
+
+        // Without a tree to expand there's nothing to defer to.
+        for (SaveEntry adventure : adventures)
+            this.loadAdventure(adventure);
+    }
+
+    /**
+     * Adds the levels of an adventure to this save. Adventures are only
+     * deserialized once they're expanded, until then their levels
+     * are listed as plain resources.
+     *
+     * @param adventure Adventure entry
+     */
+    public void loadAdventure(SaveEntry adventure)
+    {
+        FileNode node = adventure.getNode();
+        if (node != null) node.setLoader(null);
+
+        byte[] data = this.archive.extract(adventure.getSHA1());
+        if (data == null) return;
+
+        RAdventureCreateProfile profile;
+        try
+        {
+            profile = new SerializedResource(data).loadResource(RAdventureCreateProfile.class);
+        }
+        catch (Exception ex) { return; }
+
+        // The levels were listed elsewhere in the tree, so those folders
+        // have to be refreshed as well as the adventure itself.
+        HashSet<FileNode> changed = new HashSet<>();
+        for (Slot local : profile.getAdventureSlots().values())
+        {
+            if (!local.isLevel() || local.root.isGUID()) continue;
+            SHA1 sha1 = local.root.getSHA1();
+            int size = this.archive.getSize(sha1);
+            if (size == -1) continue;
+
+            // Replace the plain resource entry the level was listed as.
+            SaveEntry existing = this.lookup.get(sha1);
+            if (existing != null && !existing.isLevel() && !existing.isItem() &&
+                !existing.isAdventureLevel())
+            {
+                FileNode removed = existing.getNode();
+                if (removed != null && removed.getParent() instanceof FileNode parent)
+                    changed.add(parent);
+                this.remove(existing);
+            }
+
+            String localPath = adventure.getPath() + "/levels/" + ((local.name.isEmpty()) ?
+                                                                       "Unnamed " +
+                                                                       "Level" : local.name);
+            SaveEntry entry = new SaveEntry(this, adventure, local.id, localPath, size, sha1);
+            this.entries.add(entry);
+            this.lookup.put(sha1, entry);
+        }
+
+        for (FileNode parent : changed)
+            this.getModel().nodeStructureChanged(parent);
+    }
+
+    private static ResourceType getResourceType(ByteBuffer data)
+    {
+        if (data == null || data.remaining() < 4) return ResourceType.INVALID;
+        int position = data.position();
+        String header = new String(new byte[] { data.get(position), data.get(position + 1),
+            data.get(position + 2) });
+        return ResourceType.fromMagic(header);
     }
 
     public String generatePath(byte[] data, SHA1 sha1)
     {
-        if (data.length < 4) return "resources/unknown/" + sha1.toString();
-        String header = new String(new byte[] { data[0], data[1], data[2] });
-        ResourceType type = ResourceType.fromMagic(header);
+        return this.generatePath(ByteBuffer.wrap(data), sha1);
+    }
+
+    /**
+     * Generates a path for a resource from its header,
+     * without needing the rest of the resource.
+     *
+     * @param data Data of resource
+     * @param sha1 SHA1 of resource
+     * @return Generated path
+     */
+    public String generatePath(ByteBuffer data, SHA1 sha1)
+    {
+        if (data == null || data.remaining() < 4) return "resources/unknown/" + sha1.toString();
+        ResourceType type = BigSave.getResourceType(data);
         if (type == ResourceType.INVALID)
         {
-            switch (Bytes.toIntegerBE(data))
+            switch (data.getInt(data.position()))
             {
                 case 0xFFD8FFE0:
                     return "resources/textures/" + sha1.toString() + ".jpg";
@@ -350,6 +415,8 @@ public class BigSave extends FileData
             throw new IllegalArgumentException("SaveEntry doesn't belong to this database!");
         SaveEntry saveEntry = (SaveEntry) entry;
         this.entries.remove(saveEntry);
+        if (this.lookup.get(saveEntry.getSHA1()) == saveEntry)
+            this.lookup.remove(saveEntry.getSHA1());
         if (saveEntry.isLevel())
             this.profile.myMoonSlots.remove(saveEntry.getSlot().id);
         if (saveEntry.isItem())
@@ -8,6 +8,8 @@ import cwlib.types.databases.FileEntry;
 import cwlib.util.Nodes;
 
 import javax.swing.*;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
 import javax.swing.tree.TreeSelectionModel;
 import java.io.File;
 
@@ -88,6 +90,20 @@ public abstract class FileData
         tree.setModel(this.model);
         tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
 
+        // Nodes with deferred children are loaded right before they're expanded.
+        tree.addTreeWillExpandListener(new TreeWillExpandListener()
+        {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event)
+            {
+                if (event.getPath().getLastPathComponent() instanceof FileNode node)
+                    FileData.this.model.load(node);
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) { }
+        });
+
         this.tree = tree;
     }
 
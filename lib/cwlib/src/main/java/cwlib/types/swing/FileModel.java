@@ -5,6 +5,12 @@ import javax.swing.tree.TreeNode;
 
 public class FileModel extends DefaultTreeModel
 {
+    /**
+     * Search index over the entries in this model, rebuilt
+     * on the next search whenever the tree changes.
+     */
+    private SearchIndex index;
+
     public FileModel(FileNode root)
     {
         super(root, false);
@@ -23,4 +29,31 @@ public class FileModel extends DefaultTreeModel
             return ((FileNode) parent).getChildCount(true, false);
         return ((TreeNode) parent).getChildCount();
     }
+
+    /**
+     * Runs the loader of a node, if it hasn't already been run,
+     * and notifies the tree of its new children.
+     *
+     * @param node Node to load
+     */
+    public void load(FileNode node)
+    {
+        if (node.isLoaded()) return;
+        node.load();
+        this.nodeStructureChanged(node);
+    }
+
+    /**
+     * Filters the nodes in this model by a search.
+     *
+     * @param params Search parameters
+     * @return Number of visible children of the root
+     */
+    public int filter(SearchParameters params)
+    {
+        FileNode root = (FileNode) this.getRoot();
+        if (this.index == null || this.index.isStale(root))
+            this.index = new SearchIndex(root);
+        return this.index.apply(root, this.index.search(params));
+    }
 }
@@ -3,8 +3,11 @@ package cwlib.types.swing;
 import cwlib.types.databases.FileEntry;
 
 import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.MutableTreeNode;
 import javax.swing.tree.TreeNode;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 
 public class FileNode extends DefaultMutableTreeNode
 {
@@ -28,6 +31,28 @@ public class FileNode extends DefaultMutableTreeNode
      */
     private boolean visible = true;
 
+    /**
+     * Children of this node by name, only created once a child is looked up by name.
+     * If multiple children share a name, the first one is kept.
+     */
+    private HashMap<String, FileNode> names;
+
+    /**
+     * Cached visible children, null if they need to be recalculated.
+     */
+    private FileNode[] visibleChildren;
+
+    /**
+     * Number of structural changes made to the tree, only tracked on the root node.
+     */
+    private int modCount;
+
+    /**
+     * Callback that adds the children of this node, run the first time
+     * the node is expanded, null once loaded.
+     */
+    private Runnable loader;
+
     public FileNode(String name, String path, FileEntry entry, FileData source)
     {
         super(name);
@@ -42,18 +67,42 @@ public class FileNode extends DefaultMutableTreeNode
             return (FileNode) super.getChildAt(index);
         if (this.children == null)
             throw new ArrayIndexOutOfBoundsException("FileNode has no children!");
-        int realIndex = -1;
-        int visibleIndex = -1;
-        Enumeration<TreeNode> e = this.children.elements();
-        while (e.hasMoreElements())
+        FileNode[] visible = this.getVisibleChildren();
+        if (index < 0 || index >= visible.length)
+            throw new ArrayIndexOutOfBoundsException("Index unmatched!");
+        return visible[index];
+    }
+
+    /**
+     * Gets the first child of this node with a name.
+     *
+     * @param name Name of child
+     * @return Child node, or null if none exists
+     */
+    public FileNode getChild(String name)
+    {
+        if (this.children == null) return null;
+        if (this.names == null)
         {
-            FileNode node = (FileNode) e.nextElement();
-            if (node.visible) visibleIndex++;
-            realIndex++;
-            if (visibleIndex == index)
-                return (FileNode) this.children.elementAt(realIndex);
+            this.names = new HashMap<>(this.children.size());
+            for (TreeNode child : this.children)
+                if (child instanceof FileNode node)
+                    this.names.putIfAbsent(node.getName(), node);
         }
-        throw new ArrayIndexOutOfBoundsException("Index unmatched!");
+        return this.names.get(name);
+    }
+
+    private FileNode[] getVisibleChildren()
+    {
+        if (this.visibleChildren != null) return this.visibleChildren;
+        ArrayList<FileNode> visible = new ArrayList<>(this.children.size());
+        for (TreeNode child : this.children)
+        {
+            FileNode node = (FileNode) child;
+            if (node.visible) visible.add(node);
+        }
+        this.visibleChildren = visible.toArray(FileNode[]::new);
+        return this.visibleChildren;
     }
 
     public void removeAnyEmptyNodes()
@@ -70,17 +119,125 @@ public class FileNode extends DefaultMutableTreeNode
     {
         if (!isFiltered) return getChildCount();
         if (this.children == null) return 0;
+        if (!noFolders) return this.getVisibleChildren().length;
         int count = 0;
         Enumeration<TreeNode> e = this.children.elements();
         while (e.hasMoreElements())
         {
             FileNode node = (FileNode) e.nextElement();
-            if (node.visible && (!noFolders || (noFolders && node.entry != null)))
+            if (node.visible && node.entry != null)
                 count++;
         }
         return count;
     }
 
+    @Override
+    public void insert(MutableTreeNode child, int index)
+    {
+        super.insert(child, index);
+        if (this.names != null && child instanceof FileNode node)
+            this.names.putIfAbsent(node.getName(), node);
+        this.visibleChildren = null;
+        this.markModified();
+    }
+
+    @Override
+    public void remove(int index)
+    {
+        TreeNode child = this.getChildAt(index);
+        super.remove(index);
+        if (child instanceof FileNode node)
+            this.unname(node, node.getName());
+        this.visibleChildren = null;
+        this.markModified();
+    }
+
+    @Override
+    public void removeAllChildren()
+    {
+        this.names = null;
+        super.removeAllChildren();
+    }
+
+    /**
+     * Removes a child from the name lookup, falling back to the
+     * next child with the same name if there is one.
+     *
+     * @param child Child to remove
+     * @param name  Name the child was stored under
+     */
+    private void unname(FileNode child, String name)
+    {
+        if (this.names == null || this.names.get(name) != child) return;
+        this.names.remove(name);
+        for (TreeNode sibling : this.children)
+        {
+            if (sibling != child && sibling instanceof FileNode node && name.equals(node.getName()))
+            {
+                this.names.put(name, node);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Marks the tree this node belongs to as modified,
+     * invalidating anything derived from its structure, like search indices.
+     */
+    public void markModified()
+    {
+        FileNode root = this;
+        while (root.parent instanceof FileNode node)
+            root = node;
+        root.modCount++;
+    }
+
+    /**
+     * Gets the number of structural changes made to the tree,
+     * only meaningful on the root node.
+     *
+     * @return Number of changes
+     */
+    public int getModCount()
+    {
+        return this.modCount;
+    }
+
+    /**
+     * Sets a callback that adds the children of this node once it's first
+     * expanded, for children that are expensive to create.
+     *
+     * @param loader Callback that adds children, null if there's nothing to load
+     */
+    public void setLoader(Runnable loader)
+    {
+        this.loader = loader;
+    }
+
+    /**
+     * Runs the loader of this node, if it hasn't already been run.
+     * Nothing is notified of the new children, nodes in a tree
+     * should be loaded through {@link FileModel#load(FileNode)}.
+     */
+    public void load()
+    {
+        if (this.loader == null) return;
+        Runnable loader = this.loader;
+        this.loader = null;
+        loader.run();
+    }
+
+    public boolean isLoaded()
+    {
+        return this.loader == null;
+    }
+
+    @Override
+    public boolean isLeaf()
+    {
+        return this.loader == null && super.isLeaf();
+    }
+
     public void delete()
     {
         if (this.parent != null)
@@ -109,7 +266,13 @@ public class FileNode extends DefaultMutableTreeNode
 
     public void setName(String name)
     {
+        String oldName = this.getName();
         this.userObject = name;
+        if (this.parent instanceof FileNode node && node.names != null)
+        {
+            node.unname(this, oldName);
+            node.names.putIfAbsent(name, this);
+        }
     }
 
     public boolean isVisible()
@@ -119,6 +282,9 @@ public class FileNode extends DefaultMutableTreeNode
 
     public void setVisible(boolean visible)
     {
+        if (this.visible == visible) return;
         this.visible = visible;
+        if (this.parent instanceof FileNode node)
+            node.visibleChildren = null;
     }
 }
@@ -0,0 +1,282 @@
+package cwlib.types.swing;
+
+import cwlib.types.data.ResourceDescriptor;
+import cwlib.types.data.SHA1;
+import cwlib.types.databases.FileEntry;
+
+import javax.swing.tree.TreeNode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Search index over the entries of a file tree.
+ * <p>
+ * Paths are indexed by trigram, so a query only has to verify the entries
+ * that contain the rarest trigram of the query, rather than every entry in the tree.
+ * SHA1s and keys are indexed exactly, entries sharing a hash or key are chained together.
+ */
+final class SearchIndex
+{
+    /**
+     * Growable list of entry indices that contain a trigram.
+     */
+    private static final class Postings
+    {
+        private int[] indices = new int[4];
+        private int size;
+
+        private void add(int index)
+        {
+            // Entries are indexed in order, so a repeated trigram in the same path
+            // is always the last index added.
+            if (this.size != 0 && this.indices[this.size - 1] == index) return;
+            if (this.size == this.indices.length)
+                this.indices = Arrays.copyOf(this.indices, this.size * 2);
+            this.indices[this.size++] = index;
+        }
+    }
+
+    /**
+     * Every node in the tree with an entry.
+     */
+    private final FileNode[] leaves;
+
+    /**
+     * Paths of every entry, as of when the index was built.
+     */
+    private final String[] paths;
+
+    /**
+     * Open-addressed table of trigrams to the entries that contain them,
+     * trigrams are three UTF-16 characters packed into a long.
+     */
+    private long[] trigrams = new long[1 << 12];
+    private Postings[] postings = new Postings[1 << 12];
+    private int trigramCount;
+
+    /**
+     * First entry with each SHA1, the rest are chained through nextHash.
+     */
+    private final HashMap<SHA1, Integer> hashes;
+    private final int[] nextHash;
+
+    /**
+     * First entry with each key, the rest are chained through nextKey.
+     */
+    private final HashMap<Object, Integer> keys;
+    private final int[] nextKey;
+
+    /**
+     * Modification count of the tree when the index was built.
+     */
+    private final int modCount;
+
+    /**
+     * Builds a search index over every entry in a tree.
+     *
+     * @param root Root node of the tree
+     */
+    SearchIndex(FileNode root)
+    {
+        this.modCount = root.getModCount();
+
+        ArrayList<FileNode> leaves = new ArrayList<>();
+        ArrayDeque<FileNode> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty())
+        {
+            FileNode node = queue.poll();
+            if (node.getEntry() != null) leaves.add(node);
+            for (int i = 0; i < node.getChildCount(); ++i)
+                queue.add((FileNode) node.getChildAt(i));
+        }
+
+        this.leaves = leaves.toArray(FileNode[]::new);
+        this.paths = new String[this.leaves.length];
+        this.hashes = new HashMap<>(this.leaves.length);
+        this.keys = new HashMap<>(this.leaves.length);
+        this.nextHash = new int[this.leaves.length];
+        this.nextKey = new int[this.leaves.length];
+
+        // Iterated backwards so chains end up in tree order.
+        for (int i = this.leaves.length - 1; i >= 0; --i)
+        {
+            FileEntry entry = this.leaves[i].getEntry();
+            this.nextHash[i] = SearchIndex.link(this.hashes, entry.getSHA1(), i);
+            this.nextKey[i] = SearchIndex.link(this.keys, entry.getKey(), i);
+        }
+
+        for (int i = 0; i < this.leaves.length; ++i)
+        {
+            String path = this.leaves[i].getEntry().getPath();
+            this.paths[i] = path;
+            for (int j = 0; j + 3 <= path.length(); ++j)
+                this.getPostings(SearchIndex.getTrigram(path, j), true).add(i);
+        }
+    }
+
+    /**
+     * Gets the entries that contain a trigram.
+     *
+     * @param trigram Packed trigram
+     * @param create  Whether to add the trigram if it doesn't exist
+     * @return Postings of trigram, or null if it doesn't exist and wasn't created
+     */
+    private Postings getPostings(long trigram, boolean create)
+    {
+        int mask = this.trigrams.length - 1;
+        int slot = (int) ((trigram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (this.postings[slot] != null)
+        {
+            if (this.trigrams[slot] == trigram) return this.postings[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        if (!create) return null;
+
+        // Keep the table at most half full
+        if ((this.trigramCount + 1) * 2 > this.trigrams.length)
+        {
+            long[] trigrams = this.trigrams;
+            Postings[] postings = this.postings;
+            this.trigrams = new long[trigrams.length * 2];
+            this.postings = new Postings[postings.length * 2];
+            this.trigramCount = 0;
+            for (int i = 0; i < trigrams.length; ++i)
+            {
+                if (postings[i] == null) continue;
+                this.insert(trigrams[i], postings[i]);
+            }
+            return this.getPostings(trigram, true);
+        }
+
+        return this.insert(trigram, new Postings());
+    }
+
+    private Postings insert(long trigram, Postings postings)
+    {
+        int mask = this.trigrams.length - 1;
+        int slot = (int) ((trigram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (this.postings[slot] != null)
+            slot = (slot + 1) & mask;
+        this.trigrams[slot] = trigram;
+        this.postings[slot] = postings;
+        this.trigramCount++;
+        return postings;
+    }
+
+    private static <K> int link(HashMap<K, Integer> table, K key, int index)
+    {
+        if (key == null) return -1;
+        Integer next = table.put(key, index);
+        return next == null ? -1 : next;
+    }
+
+    private static long getTrigram(String string, int offset)
+    {
+        return ((long) string.charAt(offset) << 32) |
+               ((long) string.charAt(offset + 1) << 16) |
+               string.charAt(offset + 2);
+    }
+
+    /**
+     * Finds every entry that matches a search.
+     *
+     * @param params Search parameters
+     * @return Indices of matching entries
+     */
+    BitSet search(SearchParameters params)
+    {
+        BitSet matches = new BitSet(this.leaves.length);
+
+        ResourceDescriptor resource = params.getResource();
+        if (resource != null)
+        {
+            if (resource.isHash())
+                SearchIndex.follow(matches, this.hashes.get(resource.getSHA1()), this.nextHash);
+            else if (resource.isGUID())
+                SearchIndex.follow(matches, this.keys.get(resource.getGUID()), this.nextKey);
+            return matches;
+        }
+
+        String query = params.getPath();
+        if (query.length() < 3)
+        {
+            for (int i = 0; i < this.paths.length; ++i)
+                if (this.paths[i].contains(query))
+                    matches.set(i);
+            return matches;
+        }
+
+        // Only entries containing every trigram of the query can match,
+        // so the rarest trigram gives the smallest set of candidates.
+        Postings candidates = null;
+        for (int i = 0; i + 3 <= query.length(); ++i)
+        {
+            Postings postings = this.getPostings(SearchIndex.getTrigram(query, i), false);
+            if (postings == null) return matches;
+            if (candidates == null || postings.size < candidates.size)
+                candidates = postings;
+        }
+
+        for (int i = 0; i < candidates.size; ++i)
+        {
+            int index = candidates.indices[i];
+            if (this.paths[index].contains(query))
+                matches.set(index);
+        }
+
+        return matches;
+    }
+
+    private static void follow(BitSet matches, Integer first, int[] next)
+    {
+        if (first == null) return;
+        for (int index = first; index != -1; index = next[index])
+            matches.set(index);
+    }
+
+    /**
+     * Applies the result of a search to the tree, folders are only
+     * visible if they have a visible descendant.
+     *
+     * @param root    Root node of the tree
+     * @param matches Indices of matching entries
+     * @return Number of visible children of the root
+     */
+    int apply(FileNode root, BitSet matches)
+    {
+        for (int i = 0; i < this.leaves.length; ++i)
+            this.leaves[i].setVisible(matches.get(i));
+        return SearchIndex.applyFolders(root);
+    }
+
+    private static int applyFolders(FileNode root)
+    {
+        int visibleCount = 0;
+        for (int i = 0; i < root.getChildCount(); ++i)
+        {
+            FileNode node = (FileNode) root.getChildAt(i);
+            if (node.getEntry() == null)
+                node.setVisible(SearchIndex.applyFolders(node) != 0);
+            if (node.isVisible())
+                visibleCount++;
+        }
+        root.setVisible(visibleCount != 0);
+        return visibleCount;
+    }
+
+    /**
+     * Checks whether the tree has changed since this index was built.
+     *
+     * @param root Root node of the tree
+     * @return Whether the index is out of date
+     */
+    boolean isStale(FileNode root)
+    {
+        return root.getModCount() != this.modCount;
+    }
+}
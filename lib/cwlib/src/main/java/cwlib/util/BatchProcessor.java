@@ -0,0 +1,436 @@
+package cwlib.util;
+
+import cwlib.enums.ResourceType;
+import cwlib.types.archives.Fart;
+import cwlib.types.archives.Fat;
+import cwlib.types.archives.FileArchive;
+import cwlib.types.data.SHA1;
+import cwlib.types.databases.FileDB;
+import cwlib.types.databases.FileDBRow;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Runs a task over every matching resource in a directory, archive, or database,
+ * in a single process.
+ * <p>
+ * Resources are extracted and processed on a pool of worker threads,
+ * every resource is timed, and failures are recorded rather than stopping the batch.
+ * Archives opened while collecting resources are owned by the processor,
+ * and are released when it's closed.
+ */
+public final class BatchProcessor implements Closeable
+{
+    /**
+     * A resource to be processed.
+     */
+    public static final class Entry
+    {
+        private final String path;
+        private final SHA1 sha1;
+        private final File file;
+        private final Fart archive;
+
+        private Entry(String path, SHA1 sha1, File file, Fart archive)
+        {
+            this.path = path;
+            this.sha1 = sha1;
+            this.file = file;
+            this.archive = archive;
+        }
+
+        /**
+         * Gets the path of this resource, relative to the input.
+         * Resources in an archive without a database are named by their SHA1.
+         *
+         * @return Path of resource
+         */
+        public String getPath()
+        {
+            return this.path;
+        }
+
+        /**
+         * Gets the SHA1 of this resource.
+         *
+         * @return SHA1 of resource, null for loose files
+         */
+        public SHA1 getSHA1()
+        {
+            return this.sha1;
+        }
+
+        /**
+         * Reads the data of this resource.
+         *
+         * @return Resource data, or null if it couldn't be read
+         */
+        public byte[] getData()
+        {
+            if (this.archive != null) return this.archive.extract(this.sha1);
+            return FileIO.read(this.file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Task run on every resource in a batch.
+     */
+    @FunctionalInterface
+    public interface Task
+    {
+        /**
+         * Processes a resource.
+         *
+         * @param entry Resource being processed
+         * @param data  Data of resource
+         * @return Whether the resource was processed, false if it was skipped
+         * @throws Exception if the resource couldn't be processed
+         */
+        boolean process(Entry entry, byte[] data) throws Exception;
+    }
+
+    /**
+     * Outcome of processing a single resource.
+     */
+    public static final class Result
+    {
+        private final Entry entry;
+        private final long time;
+        private final boolean isSkipped;
+        private final Exception error;
+
+        private Result(Entry entry, long time, boolean isSkipped, Exception error)
+        {
+            this.entry = entry;
+            this.time = time;
+            this.isSkipped = isSkipped;
+            this.error = error;
+        }
+
+        public Entry getEntry()
+        {
+            return this.entry;
+        }
+
+        /**
+         * Gets the time spent on this resource, including extraction.
+         *
+         * @return Time in nanoseconds
+         */
+        public long getTime()
+        {
+            return this.time;
+        }
+
+        /**
+         * Checks whether this resource was skipped, either because it wasn't of the
+         * filtered type, or because the task didn't apply to it.
+         *
+         * @return Whether the resource was skipped
+         */
+        public boolean isSkipped()
+        {
+            return this.isSkipped;
+        }
+
+        /**
+         * Gets the error this resource failed with.
+         *
+         * @return Error, or null if the resource was processed successfully
+         */
+        public Exception getError()
+        {
+            return this.error;
+        }
+
+        public boolean isSuccess()
+        {
+            return !this.isSkipped && this.error == null;
+        }
+    }
+
+    /**
+     * Archives opened while collecting resources.
+     */
+    private final ArrayList<FileArchive> archives = new ArrayList<>();
+
+    /**
+     * Only resources with paths matching this glob are processed.
+     */
+    private PathMatcher matcher;
+
+    /**
+     * Only resources of this type are processed.
+     */
+    private ResourceType type;
+
+    /**
+     * Number of worker threads, 1 processes on the calling thread.
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Sets the glob that paths of resources have to match to be processed.
+     *
+     * @param glob Glob pattern, null matches everything
+     * @return This processor
+     */
+    public BatchProcessor setGlob(String glob)
+    {
+        this.matcher = glob == null ? null :
+            FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        return this;
+    }
+
+    /**
+     * Sets the type resources have to be to be processed.
+     *
+     * @param type Resource type, null matches every type
+     * @return This processor
+     */
+    public BatchProcessor setResourceType(ResourceType type)
+    {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * Sets the number of worker threads.
+     *
+     * @param parallelism Number of threads, 1 processes on the calling thread
+     * @return This processor
+     */
+    public BatchProcessor setParallelism(int parallelism)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1!");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    private boolean matches(String path)
+    {
+        return this.matcher == null || this.matcher.matches(Path.of(path));
+    }
+
+    /**
+     * Collects every resource matching the glob in an input.
+     * <p>
+     * A directory is walked for loose files, an archive yields its entries, named by the
+     * database if there is one, and a database yields its rows, read as loose files
+     * relative to the directory the database is in.
+     * Archives stay open until this processor is closed.
+     *
+     * @param input    Directory, archive, or database to collect from
+     * @param database Database used to name the entries of an archive, may be null
+     * @return Matching resources
+     * @throws IOException if the input couldn't be read
+     */
+    public ArrayList<Entry> collect(File input, FileDB database) throws IOException
+    {
+        if (input == null)
+            throw new NullPointerException("Can't collect resources from null input!");
+        if (!input.exists())
+            throw new IOException(input.getAbsolutePath() + " doesn't exist!");
+
+        ArrayList<Entry> entries = new ArrayList<>();
+        if (input.isDirectory())
+        {
+            Path root = input.toPath();
+            try (Stream<Path> files = Files.walk(root))
+            {
+                files.filter(Files::isRegularFile).sorted().forEach(file ->
+                {
+                    String path = root.relativize(file).toString().replace('\\', '/');
+                    if (this.matches(path))
+                        entries.add(new Entry(path, null, file.toFile(), null));
+                });
+            }
+            return entries;
+        }
+
+        if (input.getName().toLowerCase().endsWith(".farc"))
+        {
+            FileArchive archive = new FileArchive(input);
+            synchronized (this.archives) { this.archives.add(archive); }
+            if (database == null)
+            {
+                for (Fat fat : archive)
+                {
+                    String path = fat.getSHA1().toString();
+                    if (this.matches(path))
+                        entries.add(new Entry(path, fat.getSHA1(), null, archive));
+                }
+                return entries;
+            }
+
+            for (FileDBRow row : database)
+            {
+                SHA1 sha1 = row.getSHA1();
+                if (sha1 == null || !archive.exists(sha1) || !this.matches(row.getPath()))
+                    continue;
+                entries.add(new Entry(row.getPath(), sha1, null, archive));
+            }
+            return entries;
+        }
+
+        File directory = input.getAbsoluteFile().getParentFile();
+        for (FileDBRow row : new FileDB(input))
+        {
+            if (!this.matches(row.getPath())) continue;
+            entries.add(new Entry(row.getPath(), row.getSHA1(),
+                new File(directory, row.getPath()), null));
+        }
+        return entries;
+    }
+
+    private Result process(Entry entry, Task task)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            byte[] data = entry.getData();
+            if (data == null)
+                throw new IOException("Failed to read resource data!");
+            if (this.type != null && Resources.getResourceType(data) != this.type)
+                return new Result(entry, System.nanoTime() - start, true, null);
+            boolean isProcessed = task.process(entry, data);
+            return new Result(entry, System.nanoTime() - start, !isProcessed, null);
+        }
+        catch (Exception ex) { return new Result(entry, System.nanoTime() - start, false, ex); }
+    }
+
+    /**
+     * Runs a task over every resource in a batch.
+     *
+     * @param entries Resources to process
+     * @param task    Task to run on each resource, has to be safe to call concurrently
+     * @return Result of each resource, in the same order as the entries
+     */
+    public Result[] run(List<Entry> entries, Task task)
+    {
+        Result[] results = new Result[entries.size()];
+        if (this.parallelism == 1)
+        {
+            for (int i = 0; i < results.length; ++i)
+                results[i] = this.process(entries.get(i), task);
+            return results;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try
+        {
+            pool.submit(() -> IntStream.range(0, results.length).parallel().forEach(i ->
+                results[i] = this.process(entries.get(i), task))).join();
+        }
+        finally { pool.shutdown(); }
+
+        return results;
+    }
+
+    /**
+     * Prints a summary of a batch, with its slowest resources and every failure.
+     *
+     * @param tag     Tag to prefix lines with
+     * @param results Results of batch
+     * @param time    Total time taken by the batch in nanoseconds
+     * @param stream  Stream to print to
+     */
+    public static void printSummary(String tag, Result[] results, long time, PrintStream stream)
+    {
+        int succeeded = 0, skipped = 0;
+        ArrayList<Result> failures = new ArrayList<>();
+        for (Result result : results)
+        {
+            if (result.isSkipped()) skipped++;
+            else if (result.getError() != null) failures.add(result);
+            else succeeded++;
+        }
+
+        stream.printf("[%s] %d succeeded, %d failed, %d skipped in %.2fs%n", tag, succeeded,
+            failures.size(), skipped, time / 1e9);
+
+        Result[] slowest = Arrays.stream(results)
+            .filter(result -> !result.isSkipped())
+            .sorted(Comparator.comparingLong(Result::getTime).reversed())
+            .limit(10)
+            .toArray(Result[]::new);
+        if (slowest.length != 0)
+        {
+            stream.printf("[%s] Slowest resources:%n", tag);
+            for (Result result : slowest)
+                stream.printf("[%s]   %8.2fms %s%n", tag, result.getTime() / 1e6,
+                    result.getEntry().getPath());
+        }
+
+        for (Result result : failures)
+            stream.printf("[%s] Failed %s (%s)%n", tag, result.getEntry().getPath(),
+                BatchProcessor.getMessage(result.getError()));
+    }
+
+    /**
+     * Writes a tab separated report of every resource in a batch,
+     * with its status, time taken in milliseconds, and error.
+     *
+     * @param results Results of batch
+     * @param file    File to write report to
+     * @return Whether the report was successfully written
+     */
+    public static boolean writeReport(Result[] results, File file)
+    {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8"))
+        {
+            writer.println("path\tsha1\tstatus\ttime\terror");
+            for (Result result : results)
+            {
+                Entry entry = result.getEntry();
+                String status = result.isSkipped() ? "SKIPPED" :
+                    result.getError() != null ? "FAILED" : "OK";
+                writer.printf("%s\t%s\t%s\t%.3f\t%s%n", entry.getPath(),
+                    entry.getSHA1() == null ? "" : entry.getSHA1(), status,
+                    result.getTime() / 1e6,
+                    result.getError() == null ? "" :
+                        BatchProcessor.getMessage(result.getError()).replace('\t', ' '));
+            }
+            return true;
+        }
+        catch (IOException ex) { return false; }
+    }
+
+    private static String getMessage(Exception error)
+    {
+        String message = error.getMessage();
+        if (message == null) return error.getClass().getSimpleName();
+        return message.replace('\n', ' ');
+    }
+
+    /**
+     * Releases every archive opened while collecting resources,
+     * should be called once their entries are done being processed.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this.archives)
+        {
+            for (FileArchive archive : this.archives)
+                archive.close();
+            this.archives.clear();
+        }
+    }
+}
@@ -101,13 +101,25 @@ public final class Bytes
      * @return the integer from the byte array
      */
     public static int toIntegerBE(byte[] b)
+    {
+        return Bytes.toIntegerBE(b, 0);
+    }
+
+    /**
+     * Converts a big-order integer at an offset in a byte array to an integer primitive.
+     *
+     * @param b      Byte array containing big-order integer
+     * @param offset Offset of the integer in the byte array
+     * @return the integer from the byte array
+     */
+    public static int toIntegerBE(byte[] b, int offset)
     {
         if (b == null)
             throw new NullPointerException("Can't read data type from null byte array!");
-        return (b[0] & 0xFF) << 24 |
-               (b[1] & 0xFF) << 16 |
-               (b[2] & 0xFF) << 8 |
-               (b[3] & 0xFF);
+        return (b[offset] & 0xFF) << 24 |
+               (b[offset + 1] & 0xFF) << 16 |
+               (b[offset + 2] & 0xFF) << 8 |
+               (b[offset + 3] & 0xFF);
     }
 
     /**
@@ -1,11 +1,13 @@
 package cwlib.util;
 
+import cwlib.CwlibConfiguration;
+import cwlib.enums.CompressionLevel;
 import cwlib.ex.SerializationException;
 import cwlib.io.streams.MemoryInputStream;
-import cwlib.io.streams.MemoryOutputStream;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -15,6 +17,126 @@ import java.util.zip.Inflater;
  */
 public final class Compressor
 {
+    /**
+     * Size of each independent zlib stream in a compressed resource.
+     */
+    private static final int CHUNK_SIZE = 0x8000;
+
+    /**
+     * Minimum number of chunks before they're processed in parallel,
+     * anything smaller isn't worth the overhead of splitting up.
+     */
+    private static final int PARALLEL_CHUNK_THRESHOLD = 4;
+
+    /**
+     * Deflaters are expensive to create and hold native memory until they're ended,
+     * so each thread keeps one around per compression level and resets it between uses.
+     */
+    private static final ThreadLocal<Deflater[]> DEFLATERS =
+        ThreadLocal.withInitial(() -> new Deflater[CompressionLevel.values().length]);
+
+    /**
+     * Pooled inflaters, see {@link Compressor#DEFLATERS}.
+     */
+    private static final ThreadLocal<Inflater> INFLATERS =
+        ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Calculates the maximum size of a zlib stream for a given input size.
+     *
+     * @param size Size of input data
+     * @return Upper bound of compressed size
+     */
+    private static int getDeflateBound(int size)
+    {
+        return size + (size >> 12) + (size >> 14) + (size >> 25) + 13;
+    }
+
+    /**
+     * Compresses a region of a buffer into a region of an output buffer
+     * with a pooled deflater.
+     *
+     * @param level        Compression level to use
+     * @param input        Data to compress
+     * @param inputOffset  Offset of data to compress
+     * @param inputLength  Size of data to compress
+     * @param output       Buffer to write compressed data to
+     * @param outputOffset Offset to write compressed data to
+     * @param outputLength Space available in output buffer
+     * @return Size of compressed data
+     */
+    private static int deflate(CompressionLevel level, byte[] input, int inputOffset,
+                               int inputLength, byte[] output, int outputOffset,
+                               int outputLength)
+    {
+        Deflater[] deflaters = DEFLATERS.get();
+        Deflater deflater = deflaters[level.ordinal()];
+        if (deflater == null)
+        {
+            deflater = new Deflater(level.getLevel());
+            deflaters[level.ordinal()] = deflater;
+        }
+        deflater.reset();
+        deflater.setInput(input, inputOffset, inputLength);
+        deflater.finish();
+
+        int size = 0;
+        while (!deflater.finished())
+        {
+            if (size == outputLength)
+                throw new SerializationException("Compressed data exceeded output buffer!");
+            size += deflater.deflate(output, outputOffset + size, outputLength - size);
+        }
+
+        return size;
+    }
+
+    /**
+     * Decompresses a region of a buffer into a region of an output buffer
+     * with a pooled inflater.
+     *
+     * @param input        Compressed data
+     * @param inputOffset  Offset of compressed data
+     * @param inputLength  Size of compressed data
+     * @param output       Buffer to write decompressed data to
+     * @param outputOffset Offset to write decompressed data to
+     * @param outputLength Size of decompressed data
+     * @throws DataFormatException If the compressed data is invalid
+     */
+    private static void inflate(byte[] input, int inputOffset, int inputLength, byte[] output,
+                                int outputOffset, int outputLength) throws DataFormatException
+    {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(input, inputOffset, inputLength);
+
+        int size = 0;
+        while (size < outputLength && !inflater.finished())
+        {
+            int count = inflater.inflate(output, outputOffset + size, outputLength - size);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                break;
+            size += count;
+        }
+    }
+
+    /**
+     * Runs a task for every chunk, in parallel on the common fork-join pool
+     * if there's enough chunks to be worth it.
+     *
+     * @param chunks     Number of chunks
+     * @param isParallel Whether chunks are allowed to be processed in parallel
+     * @param task       Task to run for each chunk index
+     */
+    private static void forEachChunk(int chunks, boolean isParallel,
+                                     IntConsumer task)
+    {
+        IntStream range = IntStream.range(0, chunks);
+        if (isParallel && chunks >= PARALLEL_CHUNK_THRESHOLD)
+            range = range.parallel();
+        range.forEach(task);
+    }
+
     /**
      * Compresses a buffer.
      *
@@ -23,23 +145,23 @@ public final class Compressor
      */
     public static byte[] deflateData(byte[] data)
     {
-        try
-        {
-            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
-            ByteArrayOutputStream stream = new ByteArrayOutputStream(data.length);
-            deflater.setInput(data);
-            deflater.finish();
-            byte[] chunk = new byte[1024];
-            while (!deflater.finished())
-            {
-                int count = deflater.deflate(chunk);
-                stream.write(chunk, 0, count);
-            }
+        return Compressor.deflateData(data, CwlibConfiguration.COMPRESSION_LEVEL);
+    }
 
-            stream.close();
-            return stream.toByteArray();
-        }
-        catch (IOException ex) { return null; }
+    /**
+     * Compresses a buffer.
+     *
+     * @param data  Data to compress
+     * @param level Compression level to use
+     * @return Compressed data
+     */
+    public static byte[] deflateData(byte[] data, CompressionLevel level)
+    {
+        if (level == null)
+            throw new NullPointerException("Compression level cannot be null!");
+        byte[] output = new byte[Compressor.getDeflateBound(data.length)];
+        int size = Compressor.deflate(level, data, 0, data.length, output, 0, output.length);
+        return Arrays.copyOf(output, size);
     }
 
     /**
@@ -53,11 +175,8 @@ public final class Compressor
     {
         try
         {
-            Inflater inflater = new Inflater();
-            inflater.setInput(data);
             byte[] output = new byte[size];
-            inflater.inflate(output);
-            inflater.end();
+            Compressor.inflate(data, 0, data.length, output, 0, size);
             return output;
         }
         catch (DataFormatException ex) { return null; }
@@ -71,6 +190,22 @@ public final class Compressor
      * @return Decompressed data
      */
     public static byte[] decompressData(MemoryInputStream stream, int endOffset)
+    {
+        return Compressor.decompressData(stream, endOffset, true);
+    }
+
+    /**
+     * Decompresses zlib data from a stream.
+     * Each chunk is inflated straight from the stream's buffer into
+     * its place in the output buffer, so no intermediate copies are made.
+     *
+     * @param stream     Stream to decompress
+     * @param endOffset  Offset of the end of the compressed streams
+     * @param isParallel Whether chunks can be inflated in parallel
+     * @return Decompressed data
+     */
+    public static byte[] decompressData(MemoryInputStream stream, int endOffset,
+                                        boolean isParallel)
     {
         stream.i16(); // Some flag? Always 0x0001
         short chunks = stream.i16();
@@ -80,30 +215,52 @@ public final class Compressor
 
         int[] compressed = new int[chunks];
         int[] decompressed = new int[chunks];
-        int decompressedSize = 0;
+        int[] inputOffsets = new int[chunks];
+        int[] outputOffsets = new int[chunks];
+        int compressedSize = 0, decompressedSize = 0;
         for (int i = 0; i < chunks; ++i)
         {
             compressed[i] = stream.u16();
             decompressed[i] = stream.u16();
+            inputOffsets[i] = compressedSize;
+            outputOffsets[i] = decompressedSize;
+            compressedSize += compressed[i];
             decompressedSize += decompressed[i];
         }
 
-        MemoryOutputStream inflateStream = new MemoryOutputStream(decompressedSize);
+        // Zlib streams start right after the chunk table.
+        int tableEnd = stream.getOffset();
         for (int i = 0; i < chunks; ++i)
+            inputOffsets[i] += tableEnd;
+
+        byte[] input = stream.getBuffer();
+        if (tableEnd + compressedSize > stream.getLength())
+            throw new SerializationException("Compressed data exceeds the end of the stream!");
+
+        byte[] output = new byte[decompressedSize];
+        Compressor.forEachChunk(chunks, isParallel, i ->
         {
-            byte[] deflatedData = stream.bytes(compressed[i]);
             if (compressed[i] == decompressed[i])
             {
-                inflateStream.bytes(deflatedData);
-                continue;
+                System.arraycopy(input, inputOffsets[i], output, outputOffsets[i],
+                    compressed[i]);
+                return;
             }
-            byte[] inflatedData = Compressor.inflateData(deflatedData, decompressed[i]);
-            if (inflatedData == null)
+
+            try
+            {
+                Compressor.inflate(input, inputOffsets[i], compressed[i], output,
+                    outputOffsets[i], decompressed[i]);
+            }
+            catch (DataFormatException ex)
+            {
                 throw new SerializationException("An error occurred while inflating data!");
-            inflateStream.bytes(inflatedData);
-        }
+            }
+        });
+
+        stream.seek(compressedSize);
 
-        return inflateStream.getBuffer();
+        return output;
     }
 
     /**
@@ -115,36 +272,100 @@ public final class Compressor
      */
     public static byte[] getCompressedStream(byte[] data, boolean isCompressed)
     {
-        if (data == null) return new byte[] {};
-        if (!isCompressed)
-            return Bytes.combine(new byte[] { 0x00, 0x00, 0x00, 0x00 }, data);
+        return Compressor.getCompressedStream(data, isCompressed,
+            CwlibConfiguration.COMPRESSION_LEVEL, CwlibConfiguration.STORE_INCOMPRESSIBLE_CHUNKS,
+            true);
+    }
 
-        byte[][] chunks = Bytes.split(data, 0x8000);
+    /**
+     * Compresses a buffer into multiple zlib streams of size 0x8000.
+     *
+     * @param data         Data to compress
+     * @param isCompressed Additional check for compression, used in low resource revisions
+     * @param isParallel   Whether chunks can be deflated in parallel
+     * @return Compressed zlib streams
+     */
+    public static byte[] getCompressedStream(byte[] data, boolean isCompressed,
+                                             boolean isParallel)
+    {
+        return Compressor.getCompressedStream(data, isCompressed,
+            CwlibConfiguration.COMPRESSION_LEVEL, CwlibConfiguration.STORE_INCOMPRESSIBLE_CHUNKS,
+            isParallel);
+    }
 
-        short[] compressedSize = new short[chunks.length];
-        short[] uncompressedSize = new short[chunks.length];
+    /**
+     * Compresses a buffer into multiple zlib streams of size 0x8000.
+     * Every chunk is deflated into its own slot of a single preallocated buffer,
+     * which is then compacted in-place, so no intermediate chunks are allocated.
+     * <p>
+     * Chunks with the same compressed and uncompressed size are treated as
+     * uncompressed by the game, so a chunk that happens to deflate to exactly
+     * its own size is always stored.
+     *
+     * @param data                Data to compress
+     * @param isCompressed        Additional check for compression, used in low resource
+     *                            revisions
+     * @param level               Compression level to use
+     * @param storeIncompressible Whether chunks that don't get any smaller when compressed
+     *                            should be stored uncompressed
+     * @param isParallel          Whether chunks can be deflated in parallel
+     * @return Compressed zlib streams
+     */
+    public static byte[] getCompressedStream(byte[] data, boolean isCompressed,
+                                             CompressionLevel level,
+                                             boolean storeIncompressible, boolean isParallel)
+    {
+        if (data == null) return new byte[] {};
+        if (level == null)
+            throw new NullPointerException("Compression level cannot be null!");
+        if (!isCompressed)
+        {
+            byte[] output = new byte[data.length + 4];
+            System.arraycopy(data, 0, output, 4, data.length);
+            return output;
+        }
 
-        byte[][] zlibStreams = new byte[chunks.length][];
+        int chunks = (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int headerSize = 4 + (chunks * 4);
+        int slotSize = Compressor.getDeflateBound(CHUNK_SIZE);
 
-        for (int i = 0; i < chunks.length; ++i)
+        byte[] output = new byte[headerSize + (chunks * slotSize)];
+        int[] compressedSize = new int[chunks];
+        Compressor.forEachChunk(chunks, isParallel, i ->
         {
-            byte[] compressed = Compressor.deflateData(chunks[i]);
-            zlibStreams[i] = compressed;
-            compressedSize[i] = (short) compressed.length;
-            uncompressedSize[i] = (short) chunks[i].length;
-        }
+            int offset = i * CHUNK_SIZE;
+            int size = Math.min(CHUNK_SIZE, data.length - offset);
+            int slot = headerSize + (i * slotSize);
+            compressedSize[i] = Compressor.deflate(level, data, offset, size, output, slot,
+                slotSize);
+            if (compressedSize[i] == size || (storeIncompressible && compressedSize[i] > size))
+            {
+                System.arraycopy(data, offset, output, slot, size);
+                compressedSize[i] = size;
+            }
+        });
 
-        MemoryOutputStream output = new MemoryOutputStream(4 + (chunks.length * 4));
-        output.u16(1); // Some flag? Always 0x0001
-        output.u16(zlibStreams.length);
+        output[1] = 1; // Some flag? Always 0x0001
+        output[2] = (byte) (chunks >>> 8);
+        output[3] = (byte) chunks;
 
-        for (int i = 0; i < zlibStreams.length; ++i)
+        // Shift each zlib stream down to the end of the previous one,
+        // slots never overlap a later write, so this is safe to do in-place.
+        int offset = headerSize;
+        for (int i = 0; i < chunks; ++i)
         {
-            output.i16(compressedSize[i]);
-            output.i16(uncompressedSize[i]);
+            int uncompressedSize = Math.min(CHUNK_SIZE, data.length - (i * CHUNK_SIZE));
+            int row = 4 + (i * 4);
+            output[row] = (byte) (compressedSize[i] >>> 8);
+            output[row + 1] = (byte) compressedSize[i];
+            output[row + 2] = (byte) (uncompressedSize >>> 8);
+            output[row + 3] = (byte) uncompressedSize;
+
+            System.arraycopy(output, headerSize + (i * slotSize), output, offset,
+                compressedSize[i]);
+            offset += compressedSize[i];
         }
 
-        byte[] compressed = Bytes.combine(zlibStreams);
-        return Bytes.combine(output.getBuffer(), compressed);
+        return Arrays.copyOf(output, offset);
     }
 }
@@ -9,10 +9,17 @@ import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.CRC32;
@@ -54,6 +61,37 @@ public final class Crypto
      */
     public static final int DELTA = 0x9e3779b9;
 
+    /**
+     * View of a byte array as big-endian integers, used for XXTEA.
+     */
+    private static final VarHandle INT_BE =
+        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * SHA1 digests for each thread, so hashing doesn't have to look up
+     * a provider on every call.
+     */
+    private static final ThreadLocal<MessageDigest> SHA1_DIGEST = ThreadLocal.withInitial(() ->
+    {
+        try { return MessageDigest.getInstance("SHA-1"); }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException("SHA-1 isn't supported on this platform!", ex);
+        }
+    });
+
+    /**
+     * Gets the SHA1 digest for the current thread.
+     *
+     * @return Reset SHA1 digest
+     */
+    private static MessageDigest getSHA1Digest()
+    {
+        MessageDigest digest = Crypto.SHA1_DIGEST.get();
+        digest.reset();
+        return digest;
+    }
+
     /**
      * Computes a SHA1 hash from the buffer.
      *
@@ -65,10 +103,66 @@ public final class Crypto
         if (b == null)
             throw new NullPointerException("Data buffer provided to SHA1 hasher cannot be " +
                                            "null!");
-        MessageDigest hasher;
-        try { hasher = MessageDigest.getInstance("SHA-1"); }
-        catch (NoSuchAlgorithmException e) { return null; }
-        return new SHA1(hasher.digest(b));
+        return new SHA1(Crypto.getSHA1Digest().digest(b));
+    }
+
+    /**
+     * Computes a SHA1 hash from a region of a buffer.
+     *
+     * @param b      Buffer to hash
+     * @param offset Offset of region in buffer
+     * @param length Length of region
+     * @return SHA1 instance from resource hash
+     */
+    public static SHA1 SHA1(byte[] b, int offset, int length)
+    {
+        if (b == null)
+            throw new NullPointerException("Data buffer provided to SHA1 hasher cannot be " +
+                                           "null!");
+        Objects.checkFromIndexSize(offset, length, b.length);
+        MessageDigest digest = Crypto.getSHA1Digest();
+        digest.update(b, offset, length);
+        return new SHA1(digest.digest());
+    }
+
+    /**
+     * Computes a SHA1 hash from the remaining bytes of a buffer,
+     * the position of the buffer is left unchanged.
+     *
+     * @param buffer Buffer to hash
+     * @return SHA1 instance from resource hash
+     */
+    public static SHA1 SHA1(ByteBuffer buffer)
+    {
+        if (buffer == null)
+            throw new NullPointerException("Data buffer provided to SHA1 hasher cannot be " +
+                                           "null!");
+        if (buffer.hasArray())
+            return Crypto.SHA1(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.remaining());
+        MessageDigest digest = Crypto.getSHA1Digest();
+        digest.update(buffer.duplicate());
+        return new SHA1(digest.digest());
+    }
+
+    /**
+     * Computes a SHA1 hash of everything left in a stream,
+     * without holding the data in memory.
+     *
+     * @param stream Stream to hash
+     * @return SHA1 instance from resource hash
+     * @throws IOException if the stream couldn't be read
+     */
+    public static SHA1 SHA1(InputStream stream) throws IOException
+    {
+        if (stream == null)
+            throw new NullPointerException("Stream provided to SHA1 hasher cannot be null!");
+        MessageDigest digest = Crypto.getSHA1Digest();
+        byte[] buffer = new byte[0x8000];
+        int count;
+        while ((count = stream.read(buffer)) != -1)
+            digest.update(buffer, 0, count);
+        return new SHA1(digest.digest());
     }
 
     /**
@@ -85,6 +179,8 @@ public final class Crypto
 
     /**
      * Encrypts or decrypts a byte array with XXTEA.
+     * The source array is left untouched, data that isn't divisible
+     * by 4 is left padded with zeroes.
      *
      * @param data          Data to encrypt/decrypt
      * @param shouldDecrypt Whether this array should be decrypted
@@ -93,63 +189,82 @@ public final class Crypto
      */
     public static byte[] XXTEA(byte[] data, boolean shouldDecrypt, int[] key)
     {
-
         // Left pad the data in case it's not divisibly by 4.
-        if (data.length % 4 != 0)
-        {
-            int padding = 4 - (data.length % 4);
-            byte[] paddedData = new byte[padding + data.length];
-            System.arraycopy(data, 0, paddedData, padding, data.length);
-            data = paddedData;
-        }
-
-        int[] v = Bytes.toIntArrayBE(data);
+        int padding = (4 - (data.length & 3)) & 3;
+        byte[] buffer = new byte[padding + data.length];
+        System.arraycopy(data, 0, buffer, padding, data.length);
+        Crypto.XXTEA(buffer, 0, buffer.length, shouldDecrypt, key);
+        return buffer;
+    }
 
+    /**
+     * Encrypts or decrypts a region of a byte array with XXTEA in-place.
+     *
+     * @param data          Data to encrypt/decrypt
+     * @param offset        Offset of region in array
+     * @param length        Length of region, has to be divisible by 4
+     * @param shouldDecrypt Whether this region should be decrypted
+     * @param key           The key to use for decryption/encryption
+     */
+    public static void XXTEA(byte[] data, int offset, int length, boolean shouldDecrypt,
+                             int[] key)
+    {
+        if (data == null)
+            throw new NullPointerException("Can't encrypt/decrypt null buffer!");
+        Objects.checkFromIndexSize(offset, length, data.length);
+        if ((length & 3) != 0)
+            throw new IllegalArgumentException("XXTEA data length must be divisible by 4!");
 
-        int n = v.length - 1;
+        int n = (length >>> 2) - 1;
         if (n < 1)
-            return data;
+            return;
 
+        VarHandle v = Crypto.INT_BE;
+        int last = offset + (n << 2);
         int p, q = 6 + 52 / (n + 1);
 
         if (shouldDecrypt)
         {
-            int z, y = v[0], sum = q * Crypto.DELTA, e;
+            int z, y = (int) v.get(data, offset), sum = q * Crypto.DELTA, e;
             while (sum != 0)
             {
                 e = sum >>> 2 & 3;
                 for (p = n; p > 0; p--)
                 {
-                    z = v[p - 1];
-                    y = v[p] -=
+                    int index = offset + (p << 2);
+                    z = (int) v.get(data, index - 4);
+                    y = (int) v.get(data, index) -
                         ((z >>> 5 ^ y << 2) + (y >>> 3 ^ z << 4) ^ (sum ^ y) + (key[p & 3 ^ e] ^ z));
+                    v.set(data, index, y);
                 }
-                z = v[n];
-                y =
-                v[0] -= ((z >>> 5 ^ y << 2) + (y >>> 3 ^ z << 4) ^ (sum ^ y) + (key[p & 3 ^ e] ^ z));
+                z = (int) v.get(data, last);
+                y = (int) v.get(data, offset) -
+                    ((z >>> 5 ^ y << 2) + (y >>> 3 ^ z << 4) ^ (sum ^ y) + (key[p & 3 ^ e] ^ z));
+                v.set(data, offset, y);
                 sum = sum - Crypto.DELTA;
             }
         }
         else
         {
-            int z = v[n], y, sum = 0, e;
+            int z = (int) v.get(data, last), y, sum = 0, e;
             while (q-- > 0)
             {
                 sum = sum + Crypto.DELTA;
                 e = sum >>> 2 & 3;
                 for (p = 0; p < n; p++)
                 {
-                    y = v[p + 1];
-                    z =
-                    v[p] += ((z >>> 5 ^ y << 2) + (y >>> 3 ^ z << 4) ^ (sum ^ y) + (key[p & 3 ^ e] ^ z));
+                    int index = offset + (p << 2);
+                    y = (int) v.get(data, index + 4);
+                    z = (int) v.get(data, index) +
+                        ((z >>> 5 ^ y << 2) + (y >>> 3 ^ z << 4) ^ (sum ^ y) + (key[p & 3 ^ e] ^ z));
+                    v.set(data, index, z);
                 }
-                y = v[0];
-                z =
-                v[n] += ((z >>> 5 ^ y << 2) + (y >>> 3 ^ z << 4) ^ (sum ^ y) + (key[p & 3 ^ e] ^ z));
+                y = (int) v.get(data, offset);
+                z = (int) v.get(data, last) +
+                    ((z >>> 5 ^ y << 2) + (y >>> 3 ^ z << 4) ^ (sum ^ y) + (key[p & 3 ^ e] ^ z));
+                v.set(data, last, z);
             }
         }
-
-        return Bytes.fromIntArrayBE(v);
     }
 
     /**
@@ -261,24 +376,35 @@ public final class Crypto
     }
 
     /**
-     * Computes an HMAC-SHA1 of a given buffer.
+     * Creates an HMAC-SHA1 instance, for hashing data incrementally.
      *
-     * @param data Data to hash
-     * @param key  Secret key
-     * @return Resulting hash
+     * @param key Secret key
+     * @return Initialized HMAC instance
      */
-    public static SHA1 HMAC(byte[] data, byte[] key)
+    public static Mac getHMAC(byte[] key)
     {
         SecretKey secretKey = new SecretKeySpec(key, "HmacSHA1");
         try
         {
             Mac mac = Mac.getInstance("HmacSHA1");
             mac.init(secretKey);
-            return new SHA1(mac.doFinal(data));
+            return mac;
         }
         catch (NoSuchAlgorithmException | InvalidKeyException ex)
         {
             throw new IllegalArgumentException("Secret key was invalid!");
         }
     }
+
+    /**
+     * Computes an HMAC-SHA1 of a given buffer.
+     *
+     * @param data Data to hash
+     * @param key  Secret key
+     * @return Resulting hash
+     */
+    public static SHA1 HMAC(byte[] data, byte[] key)
+    {
+        return new SHA1(Crypto.getHMAC(key).doFinal(data));
+    }
 }
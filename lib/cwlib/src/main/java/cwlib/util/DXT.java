@@ -0,0 +1,694 @@
+package cwlib.util;
+
+import cwlib.enums.CellGcmEnumForGtf;
+import cwlib.enums.TextureQuality;
+
+import java.util.stream.IntStream;
+
+/**
+ * Pure Java DXT1/3/5 block compression.
+ * <p>
+ * Rows of 4x4 blocks are compressed in parallel, directly into
+ * an output buffer at a given offset, so every mip level of a texture
+ * can be written into a single preallocated buffer.
+ */
+public final class DXT
+{
+    /**
+     * Index remapping when the endpoints of a four color block are swapped.
+     */
+    private static final int[] SWAP_FOUR_COLOR = { 1, 0, 3, 2 };
+
+    /**
+     * Index remapping when the endpoints of a three color block are swapped.
+     */
+    private static final int[] SWAP_THREE_COLOR = { 1, 0, 2, 3 };
+
+    /**
+     * Number of least squares refinement passes in quality mode.
+     */
+    private static final int REFINEMENT_PASSES = 2;
+
+    /**
+     * Colors of a block being compressed, only the pixels that contribute
+     * to the endpoint fit are included.
+     */
+    private static final class ColorSet
+    {
+        private final int[] r = new int[16];
+        private final int[] g = new int[16];
+        private final int[] b = new int[16];
+
+        /**
+         * Index of each color in the block.
+         */
+        private final int[] pixel = new int[16];
+        private int count;
+    }
+
+    /**
+     * Gets the size of a compressed block.
+     *
+     * @param format DXT format
+     * @return Size of block in bytes
+     */
+    public static int getBlockSize(CellGcmEnumForGtf format)
+    {
+        switch (format)
+        {
+            case DXT1:
+                return 8;
+            case DXT3:
+            case DXT5:
+                return 16;
+            default:
+                throw new IllegalArgumentException("Format isn't DXT compressed!");
+        }
+    }
+
+    /**
+     * Gets the size of a compressed image.
+     *
+     * @param format DXT format
+     * @param width  Width of image
+     * @param height Height of image
+     * @return Size of compressed image in bytes
+     */
+    public static int getSize(CellGcmEnumForGtf format, int width, int height)
+    {
+        return ((width + 3) / 4) * ((height + 3) / 4) * DXT.getBlockSize(format);
+    }
+
+    /**
+     * Compresses an image, rows of blocks are compressed in parallel.
+     *
+     * @param pixels  ARGB pixels of image
+     * @param width   Width of image
+     * @param height  Height of image
+     * @param format  DXT format
+     * @param quality Compression quality
+     * @param output  Buffer to write compressed blocks to
+     * @param offset  Offset in buffer to start writing at
+     */
+    public static void compress(int[] pixels, int width, int height, CellGcmEnumForGtf format,
+                                TextureQuality quality, byte[] output, int offset)
+    {
+        int blockSize = DXT.getBlockSize(format);
+        int blocksWide = (width + 3) / 4;
+        int blocksHigh = (height + 3) / 4;
+        if (offset + blocksWide * blocksHigh * blockSize > output.length)
+            throw new IllegalArgumentException("Output buffer is too small for image!");
+
+        IntStream.range(0, blocksHigh).parallel().forEach(by ->
+        {
+            int[] block = new int[16];
+            ColorSet colors = new ColorSet();
+            int rowOffset = offset + by * blocksWide * blockSize;
+            for (int bx = 0; bx < blocksWide; ++bx)
+            {
+                // Blocks on the edge of images smaller than
+                // a block repeat their last row and column.
+                for (int y = 0; y < 4; ++y)
+                {
+                    int py = Math.min(by * 4 + y, height - 1);
+                    for (int x = 0; x < 4; ++x)
+                    {
+                        int px = Math.min(bx * 4 + x, width - 1);
+                        block[y * 4 + x] = pixels[py * width + px];
+                    }
+                }
+
+                int blockOffset = rowOffset + bx * blockSize;
+                switch (format)
+                {
+                    case DXT1:
+                        DXT.compressColor(block, colors, true, quality, output, blockOffset);
+                        break;
+                    case DXT3:
+                        DXT.compressExplicitAlpha(block, output, blockOffset);
+                        DXT.compressColor(block, colors, false, quality, output,
+                            blockOffset + 8);
+                        break;
+                    case DXT5:
+                        DXT.compressInterpolatedAlpha(block, quality, output, blockOffset);
+                        DXT.compressColor(block, colors, false, quality, output,
+                            blockOffset + 8);
+                        break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Halves the size of an image with a box filter, used to generate mip levels.
+     *
+     * @param pixels ARGB pixels of image
+     * @param width  Width of image
+     * @param height Height of image
+     * @return ARGB pixels of the downsampled image
+     */
+    public static int[] downsample(int[] pixels, int width, int height)
+    {
+        int newWidth = Math.max(1, width / 2), newHeight = Math.max(1, height / 2);
+        int[] output = new int[newWidth * newHeight];
+        IntStream.range(0, newHeight).parallel().forEach(y ->
+        {
+            int y0 = Math.min(y * 2, height - 1), y1 = Math.min(y * 2 + 1, height - 1);
+            for (int x = 0; x < newWidth; ++x)
+            {
+                int x0 = Math.min(x * 2, width - 1), x1 = Math.min(x * 2 + 1, width - 1);
+                int p0 = pixels[y0 * width + x0], p1 = pixels[y0 * width + x1];
+                int p2 = pixels[y1 * width + x0], p3 = pixels[y1 * width + x1];
+
+                int pixel = 0;
+                for (int shift = 0; shift < 32; shift += 8)
+                {
+                    int sum = ((p0 >>> shift) & 0xff) + ((p1 >>> shift) & 0xff) +
+                              ((p2 >>> shift) & 0xff) + ((p3 >>> shift) & 0xff);
+                    pixel |= ((sum + 2) >> 2) << shift;
+                }
+                output[y * newWidth + x] = pixel;
+            }
+        });
+        return output;
+    }
+
+    private static int clamp(int value, int max)
+    {
+        return value < 0 ? 0 : Math.min(value, max);
+    }
+
+    private static int to565(float r, float g, float b)
+    {
+        int r5 = DXT.clamp(Math.round(r * 31.0f / 255.0f), 31);
+        int g6 = DXT.clamp(Math.round(g * 63.0f / 255.0f), 63);
+        int b5 = DXT.clamp(Math.round(b * 31.0f / 255.0f), 31);
+        return (r5 << 11) | (g6 << 5) | b5;
+    }
+
+    /**
+     * Expands a 565 color into its 8-bit channels, as the decoder sees it.
+     *
+     * @param color  565 color
+     * @param output Array to store the red, green, and blue channels in
+     * @param index  Index in the array to start at
+     */
+    private static void from565(int color, int[] output, int index)
+    {
+        int r = (color >> 11) & 0x1f, g = (color >> 5) & 0x3f, b = color & 0x1f;
+        output[index] = (r << 3) | (r >> 2);
+        output[index + 1] = (g << 2) | (g >> 4);
+        output[index + 2] = (b << 3) | (b >> 2);
+    }
+
+    /**
+     * Finds the closest palette entry for every color for a pair of endpoints.
+     *
+     * @param colors       Colors to fit
+     * @param c0           First endpoint
+     * @param c1           Second endpoint
+     * @param isThreeColor Whether the palette only has three colors
+     * @param indices      Array to store the palette index of each color in
+     * @return Total squared error of the fit
+     */
+    private static long fit(ColorSet colors, int c0, int c1, boolean isThreeColor,
+                            int[] indices)
+    {
+        int[] palette = new int[12];
+        DXT.from565(c0, palette, 0);
+        DXT.from565(c1, palette, 3);
+        for (int i = 0; i < 3; ++i)
+        {
+            if (isThreeColor)
+                palette[6 + i] = (palette[i] + palette[3 + i]) / 2;
+            else
+            {
+                palette[6 + i] = (2 * palette[i] + palette[3 + i]) / 3;
+                palette[9 + i] = (palette[i] + 2 * palette[3 + i]) / 3;
+            }
+        }
+
+        int entries = isThreeColor ? 3 : 4;
+        long error = 0;
+        for (int i = 0; i < colors.count; ++i)
+        {
+            int best = 0, bestError = Integer.MAX_VALUE;
+            for (int j = 0; j < entries; ++j)
+            {
+                int dr = colors.r[i] - palette[j * 3];
+                int dg = colors.g[i] - palette[j * 3 + 1];
+                int db = colors.b[i] - palette[j * 3 + 2];
+                int distance = dr * dr + dg * dg + db * db;
+                if (distance < bestError)
+                {
+                    bestError = distance;
+                    best = j;
+                }
+            }
+            indices[i] = best;
+            error += bestError;
+        }
+        return error;
+    }
+
+    /**
+     * Solves for the endpoints that best fit a set of palette indices with least squares.
+     *
+     * @param colors       Colors to fit
+     * @param indices      Palette index of each color
+     * @param isThreeColor Whether the palette only has three colors
+     * @return Packed endpoints, first endpoint in the upper 16 bits, or -1 if there's no
+     * unique solution
+     */
+    private static int solve(ColorSet colors, int[] indices, boolean isThreeColor)
+    {
+        float aa = 0, ab = 0, bb = 0;
+        float ar = 0, ag = 0, ab_ = 0, br = 0, bg = 0, bb_ = 0;
+        for (int i = 0; i < colors.count; ++i)
+        {
+            float alpha;
+            switch (indices[i])
+            {
+                case 0:
+                    alpha = 1.0f;
+                    break;
+                case 1:
+                    alpha = 0.0f;
+                    break;
+                case 2:
+                    alpha = isThreeColor ? 0.5f : 2.0f / 3.0f;
+                    break;
+                default:
+                    alpha = 1.0f / 3.0f;
+                    break;
+            }
+            float beta = 1.0f - alpha;
+
+            aa += alpha * alpha;
+            ab += alpha * beta;
+            bb += beta * beta;
+
+            ar += alpha * colors.r[i];
+            ag += alpha * colors.g[i];
+            ab_ += alpha * colors.b[i];
+            br += beta * colors.r[i];
+            bg += beta * colors.g[i];
+            bb_ += beta * colors.b[i];
+        }
+
+        float determinant = aa * bb - ab * ab;
+        if (Math.abs(determinant) < 1e-6f) return -1;
+        float factor = 1.0f / determinant;
+
+        int c0 = DXT.to565(
+            (bb * ar - ab * br) * factor,
+            (bb * ag - ab * bg) * factor,
+            (bb * ab_ - ab * bb_) * factor);
+        int c1 = DXT.to565(
+            (aa * br - ab * ar) * factor,
+            (aa * bg - ab * ag) * factor,
+            (aa * bb_ - ab * ab_) * factor);
+
+        return (c0 << 16) | c1;
+    }
+
+    /**
+     * Finds the endpoints at the extremes of the principal axis of a set of colors.
+     *
+     * @param colors Colors to fit
+     * @return Packed endpoints, first endpoint in the upper 16 bits
+     */
+    private static int getPrincipalEndpoints(ColorSet colors)
+    {
+        float mr = 0, mg = 0, mb = 0;
+        for (int i = 0; i < colors.count; ++i)
+        {
+            mr += colors.r[i];
+            mg += colors.g[i];
+            mb += colors.b[i];
+        }
+        mr /= colors.count;
+        mg /= colors.count;
+        mb /= colors.count;
+
+        float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+        for (int i = 0; i < colors.count; ++i)
+        {
+            float r = colors.r[i] - mr, g = colors.g[i] - mg, b = colors.b[i] - mb;
+            rr += r * r;
+            rg += r * g;
+            rb += r * b;
+            gg += g * g;
+            gb += g * b;
+            bb += b * b;
+        }
+
+        // Power iteration for the dominant eigenvector of the covariance matrix
+        float x = 1.0f, y = 1.0f, z = 1.0f;
+        for (int i = 0; i < 8; ++i)
+        {
+            float nx = rr * x + rg * y + rb * z;
+            float ny = rg * x + gg * y + gb * z;
+            float nz = rb * x + gb * y + bb * z;
+            float length = Math.max(Math.max(Math.abs(nx), Math.abs(ny)), Math.abs(nz));
+            if (length < 1e-6f) break;
+            x = nx / length;
+            y = ny / length;
+            z = nz / length;
+        }
+
+        int min = 0, max = 0;
+        float minProjection = Float.MAX_VALUE, maxProjection = -Float.MAX_VALUE;
+        for (int i = 0; i < colors.count; ++i)
+        {
+            float projection = colors.r[i] * x + colors.g[i] * y + colors.b[i] * z;
+            if (projection < minProjection)
+            {
+                minProjection = projection;
+                min = i;
+            }
+            if (projection > maxProjection)
+            {
+                maxProjection = projection;
+                max = i;
+            }
+        }
+
+        return (DXT.to565(colors.r[max], colors.g[max], colors.b[max]) << 16) |
+               DXT.to565(colors.r[min], colors.g[min], colors.b[min]);
+    }
+
+    /**
+     * Finds the endpoints at the corners of the bounding box of a set of colors,
+     * inset slightly to reduce the error of colors in the middle.
+     * The diagonal of the box is picked so that channels that fall while
+     * the widest channel rises go from their max to their min.
+     *
+     * @param colors Colors to fit
+     * @return Packed endpoints, first endpoint in the upper 16 bits
+     */
+    private static int getBoundingEndpoints(ColorSet colors)
+    {
+        int minR = 255, minG = 255, minB = 255, maxR = 0, maxG = 0, maxB = 0;
+        for (int i = 0; i < colors.count; ++i)
+        {
+            minR = Math.min(minR, colors.r[i]);
+            minG = Math.min(minG, colors.g[i]);
+            minB = Math.min(minB, colors.b[i]);
+            maxR = Math.max(maxR, colors.r[i]);
+            maxG = Math.max(maxG, colors.g[i]);
+            maxB = Math.max(maxB, colors.b[i]);
+        }
+
+        int centerR = (minR + maxR) >> 1, centerG = (minG + maxG) >> 1,
+            centerB = (minB + maxB) >> 1;
+        long covRG = 0, covRB = 0, covGB = 0;
+        for (int i = 0; i < colors.count; ++i)
+        {
+            int r = colors.r[i] - centerR, g = colors.g[i] - centerG, b = colors.b[i] - centerB;
+            covRG += r * g;
+            covRB += r * b;
+            covGB += g * b;
+        }
+
+        // Each channel is flipped based on how it moves relative to the widest channel.
+        int rangeR = maxR - minR, rangeG = maxG - minG, rangeB = maxB - minB;
+        boolean flipR = false, flipG = false, flipB = false;
+        if (rangeR >= rangeG && rangeR >= rangeB)
+        {
+            flipG = covRG < 0;
+            flipB = covRB < 0;
+        }
+        else if (rangeG >= rangeB)
+        {
+            flipR = covRG < 0;
+            flipB = covGB < 0;
+        }
+        else
+        {
+            flipR = covRB < 0;
+            flipG = covGB < 0;
+        }
+
+        int swap;
+        if (flipR)
+        {
+            swap = minR;
+            minR = maxR;
+            maxR = swap;
+        }
+        if (flipG)
+        {
+            swap = minG;
+            minG = maxG;
+            maxG = swap;
+        }
+        if (flipB)
+        {
+            swap = minB;
+            minB = maxB;
+            maxB = swap;
+        }
+
+        // Insets are negative for flipped channels, so they still move inwards.
+        int insetR = (maxR - minR) >> 4, insetG = (maxG - minG) >> 4, insetB = (maxB - minB) >> 4;
+        return (DXT.to565(maxR - insetR, maxG - insetG, maxB - insetB) << 16) |
+               DXT.to565(minR + insetR, minG + insetG, minB + insetB);
+    }
+
+    /**
+     * Compresses the color block of a DXT block.
+     *
+     * @param block   ARGB pixels of block
+     * @param colors  Scratch color set
+     * @param isDXT1  Whether this is a DXT1 block, which can encode transparent pixels
+     * @param quality Compression quality
+     * @param output  Buffer to write block to
+     * @param offset  Offset of block in buffer
+     */
+    private static void compressColor(int[] block, ColorSet colors, boolean isDXT1,
+                                      TextureQuality quality, byte[] output, int offset)
+    {
+        // Only DXT1 blocks can encode transparent pixels, and they're
+        // left out of the fit, since their color is never displayed.
+        boolean hasTransparency = false;
+        colors.count = 0;
+        for (int i = 0; i < 16; ++i)
+        {
+            int pixel = block[i];
+            if (isDXT1 && (pixel >>> 24) < 0x80)
+            {
+                hasTransparency = true;
+                continue;
+            }
+            colors.r[colors.count] = (pixel >> 16) & 0xff;
+            colors.g[colors.count] = (pixel >> 8) & 0xff;
+            colors.b[colors.count] = pixel & 0xff;
+            colors.pixel[colors.count++] = i;
+        }
+
+        int c0 = 0, c1 = 0;
+        int[] indices = new int[16];
+        if (colors.count != 0)
+        {
+            int endpoints = quality == TextureQuality.FAST ?
+                DXT.getBoundingEndpoints(colors) : DXT.getPrincipalEndpoints(colors);
+            c0 = endpoints >>> 16;
+            c1 = endpoints & 0xffff;
+            long error = DXT.fit(colors, c0, c1, hasTransparency, indices);
+
+            if (quality == TextureQuality.QUALITY)
+            {
+                int[] candidate = new int[16];
+
+                endpoints = DXT.getBoundingEndpoints(colors);
+                long candidateError = DXT.fit(colors, endpoints >>> 16, endpoints & 0xffff,
+                    hasTransparency, candidate);
+                if (candidateError < error)
+                {
+                    error = candidateError;
+                    c0 = endpoints >>> 16;
+                    c1 = endpoints & 0xffff;
+                    System.arraycopy(candidate, 0, indices, 0, 16);
+                }
+
+                for (int pass = 0; pass < REFINEMENT_PASSES && error != 0; ++pass)
+                {
+                    endpoints = DXT.solve(colors, indices, hasTransparency);
+                    if (endpoints == -1) break;
+                    candidateError = DXT.fit(colors, endpoints >>> 16, endpoints & 0xffff,
+                        hasTransparency, candidate);
+                    if (candidateError >= error) break;
+                    error = candidateError;
+                    c0 = endpoints >>> 16;
+                    c1 = endpoints & 0xffff;
+                    System.arraycopy(candidate, 0, indices, 0, 16);
+                }
+            }
+        }
+
+        // Four color blocks need the first endpoint to be larger,
+        // and three color blocks need it to be smaller or equal.
+        int[] remap = null;
+        if (hasTransparency && c0 > c1) remap = SWAP_THREE_COLOR;
+        else if (!hasTransparency && c0 < c1) remap = SWAP_FOUR_COLOR;
+        if (remap != null)
+        {
+            int swap = c0;
+            c0 = c1;
+            c1 = swap;
+        }
+
+        int bits = hasTransparency ? 0xffffffff : 0;
+        for (int i = 0; i < colors.count; ++i)
+        {
+            int index = indices[i];
+            if (remap != null) index = remap[index];
+
+            // Identical endpoints can only be decoded as a three color block,
+            // so everything has to use the first endpoint.
+            if (!hasTransparency && c0 == c1) index = 0;
+
+            int shift = colors.pixel[i] * 2;
+            bits = (bits & ~(3 << shift)) | (index << shift);
+        }
+
+        output[offset] = (byte) c0;
+        output[offset + 1] = (byte) (c0 >>> 8);
+        output[offset + 2] = (byte) c1;
+        output[offset + 3] = (byte) (c1 >>> 8);
+        output[offset + 4] = (byte) bits;
+        output[offset + 5] = (byte) (bits >>> 8);
+        output[offset + 6] = (byte) (bits >>> 16);
+        output[offset + 7] = (byte) (bits >>> 24);
+    }
+
+    /**
+     * Compresses the explicit 4-bit alpha block of a DXT3 block.
+     *
+     * @param block  ARGB pixels of block
+     * @param output Buffer to write block to
+     * @param offset Offset of block in buffer
+     */
+    private static void compressExplicitAlpha(int[] block, byte[] output, int offset)
+    {
+        for (int i = 0; i < 8; ++i)
+        {
+            int a0 = ((block[i * 2] >>> 24) * 15 + 127) / 255;
+            int a1 = ((block[i * 2 + 1] >>> 24) * 15 + 127) / 255;
+            output[offset + i] = (byte) (a0 | (a1 << 4));
+        }
+    }
+
+    /**
+     * Gets the alpha palette of a DXT5 block.
+     *
+     * @param a0      First endpoint
+     * @param a1      Second endpoint
+     * @param palette Array to store the eight palette entries in
+     */
+    private static void getAlphaPalette(int a0, int a1, int[] palette)
+    {
+        palette[0] = a0;
+        palette[1] = a1;
+        if (a0 > a1)
+        {
+            for (int i = 1; i < 7; ++i)
+                palette[i + 1] = ((7 - i) * a0 + i * a1) / 7;
+        }
+        else
+        {
+            for (int i = 1; i < 5; ++i)
+                palette[i + 1] = ((5 - i) * a0 + i * a1) / 5;
+            palette[6] = 0;
+            palette[7] = 255;
+        }
+    }
+
+    /**
+     * Finds the closest alpha palette entry for every pixel.
+     *
+     * @param block   ARGB pixels of block
+     * @param a0      First endpoint
+     * @param a1      Second endpoint
+     * @param indices Array to store the palette index of each pixel in
+     * @return Total squared error of the fit
+     */
+    private static long fitAlpha(int[] block, int a0, int a1, int[] indices)
+    {
+        int[] palette = new int[8];
+        DXT.getAlphaPalette(a0, a1, palette);
+        long error = 0;
+        for (int i = 0; i < 16; ++i)
+        {
+            int alpha = block[i] >>> 24;
+            int best = 0, bestError = Integer.MAX_VALUE;
+            for (int j = 0; j < 8; ++j)
+            {
+                int distance = (alpha - palette[j]) * (alpha - palette[j]);
+                if (distance < bestError)
+                {
+                    bestError = distance;
+                    best = j;
+                }
+            }
+            indices[i] = best;
+            error += bestError;
+        }
+        return error;
+    }
+
+    /**
+     * Compresses the interpolated alpha block of a DXT5 block.
+     *
+     * @param block   ARGB pixels of block
+     * @param quality Compression quality
+     * @param output  Buffer to write block to
+     * @param offset  Offset of block in buffer
+     */
+    private static void compressInterpolatedAlpha(int[] block, TextureQuality quality,
+                                                  byte[] output, int offset)
+    {
+        int min = 255, max = 0;
+        int innerMin = 255, innerMax = 0;
+        for (int i = 0; i < 16; ++i)
+        {
+            int alpha = block[i] >>> 24;
+            min = Math.min(min, alpha);
+            max = Math.max(max, alpha);
+            if (alpha != 0 && alpha != 255)
+            {
+                innerMin = Math.min(innerMin, alpha);
+                innerMax = Math.max(innerMax, alpha);
+            }
+        }
+
+        // Eight interpolated values between the extremes
+        int a0 = max, a1 = min;
+        int[] indices = new int[16];
+        long error = DXT.fitAlpha(block, a0, a1, indices);
+
+        // Six interpolated values between the extremes that aren't fully
+        // opaque or transparent, those have their own explicit entries.
+        if (quality == TextureQuality.QUALITY && error != 0 && innerMin <= innerMax)
+        {
+            int[] candidate = new int[16];
+            long candidateError = DXT.fitAlpha(block, innerMin, innerMax, candidate);
+            if (candidateError < error)
+            {
+                a0 = innerMin;
+                a1 = innerMax;
+                indices = candidate;
+            }
+        }
+
+        long bits = 0;
+        for (int i = 0; i < 16; ++i)
+            bits |= (long) indices[i] << (i * 3);
+
+        output[offset] = (byte) a0;
+        output[offset + 1] = (byte) a1;
+        for (int i = 0; i < 6; ++i)
+            output[offset + 2 + i] = (byte) (bits >>> (i * 8));
+    }
+}
@@ -0,0 +1,378 @@
+package cwlib.util;
+
+import cwlib.enums.ResourceType;
+import cwlib.singleton.ResourceSystem;
+import cwlib.types.ResourceHeader;
+import cwlib.types.data.ResourceDescriptor;
+import cwlib.types.data.Revision;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Collects the transitive dependencies of resources.
+ * <p>
+ * Every resource is extracted and has its dependency table read
+ * from its header, without the rest of the resource being decompressed.
+ * With a parallelism above one, each resource is visited as its own task on a
+ * work-stealing pool, so extraction and parsing of sibling dependencies overlap.
+ * Resources are only ever visited once, by SHA1 or GUID.
+ */
+public final class DependencyCrawler
+{
+    /**
+     * A resource visited by the crawler.
+     */
+    public static final class Node
+    {
+        private final ResourceDescriptor descriptor;
+        private final byte[] data;
+        private final int size;
+        private final ResourceType type;
+        private final Revision revision;
+        private final ResourceDescriptor[] dependencies;
+
+        private Node(ResourceDescriptor descriptor, byte[] data, boolean retainData)
+        {
+            this.descriptor = descriptor;
+            this.data = retainData ? data : null;
+            this.size = data == null ? -1 : data.length;
+
+            ResourceHeader header = data == null ? null : DependencyCrawler.getHeader(data);
+            this.type = header == null ? descriptor.getType() : header.getResourceType();
+            this.revision = header == null ? null : header.getRevision();
+            this.dependencies = DependencyCrawler.getDependencies(header);
+        }
+
+        public ResourceDescriptor getDescriptor()
+        {
+            return this.descriptor;
+        }
+
+        /**
+         * Gets the data of this resource, only available if the crawler retains data.
+         *
+         * @return Resource data
+         */
+        public byte[] getData()
+        {
+            return this.data;
+        }
+
+        /**
+         * Gets the size of this resource.
+         *
+         * @return Size of resource, or -1 if it couldn't be extracted
+         */
+        public int getSize()
+        {
+            return this.size;
+        }
+
+        public ResourceType getResourceType()
+        {
+            return this.type;
+        }
+
+        /**
+         * Gets the revision of this resource.
+         *
+         * @return Revision of resource, null if the resource isn't binary
+         */
+        public Revision getRevision()
+        {
+            return this.revision;
+        }
+
+        /**
+         * Gets the valid dependencies of this resource.
+         *
+         * @return Dependencies of resource
+         */
+        public ResourceDescriptor[] getDependencies()
+        {
+            return this.dependencies;
+        }
+
+        /**
+         * Checks whether this resource could be extracted.
+         *
+         * @return Whether this resource is missing
+         */
+        public boolean isMissing()
+        {
+            return this.size == -1;
+        }
+    }
+
+    /**
+     * Function used to get the data of a resource.
+     */
+    private final Function<ResourceDescriptor, byte[]> extractor;
+
+    /**
+     * Dependencies that don't pass this filter aren't visited.
+     */
+    private Predicate<ResourceDescriptor> filter = descriptor -> true;
+
+    /**
+     * Number of threads used to crawl, 1 crawls on the calling thread.
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether resource data should be kept in the visited nodes.
+     */
+    private boolean retainData = false;
+
+    /**
+     * Creates a crawler that extracts resources from the loaded databases and archives.
+     */
+    public DependencyCrawler()
+    {
+        this(ResourceSystem::extract);
+    }
+
+    /**
+     * Creates a crawler.
+     *
+     * @param extractor Function used to get the data of a resource, must be thread-safe
+     *                  if crawling in parallel
+     */
+    public DependencyCrawler(Function<ResourceDescriptor, byte[]> extractor)
+    {
+        if (extractor == null)
+            throw new NullPointerException("Extractor cannot be null!");
+        this.extractor = extractor;
+    }
+
+    /**
+     * Sets the filter for which dependencies get visited.
+     *
+     * @param filter Dependencies that don't pass this filter aren't visited
+     * @return This crawler
+     */
+    public DependencyCrawler setFilter(Predicate<ResourceDescriptor> filter)
+    {
+        if (filter == null)
+            throw new NullPointerException("Filter cannot be null!");
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads used to crawl.
+     *
+     * @param parallelism Number of threads, 1 crawls on the calling thread
+     * @return This crawler
+     */
+    public DependencyCrawler setParallelism(int parallelism)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1!");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets whether resource data should be kept in the visited nodes.
+     *
+     * @param retainData Whether data should be kept
+     * @return This crawler
+     */
+    public DependencyCrawler setRetainData(boolean retainData)
+    {
+        this.retainData = retainData;
+        return this;
+    }
+
+    /**
+     * Collects every resource depended on by a resource that passes the filter,
+     * the resource itself isn't included unless something it depends on refers back to it.
+     *
+     * @param resource Resource data
+     * @return Every visited resource, by the descriptor it was first reached with
+     */
+    public Map<ResourceDescriptor, Node> crawl(byte[] resource)
+    {
+        if (resource == null)
+            throw new NullPointerException("Can't crawl null resource!");
+        ArrayList<ResourceDescriptor> roots = new ArrayList<>();
+        for (ResourceDescriptor dependency :
+            DependencyCrawler.getDependencies(DependencyCrawler.getHeader(resource)))
+        {
+            if (this.filter.test(dependency))
+                roots.add(dependency);
+        }
+        return this.crawl(roots.toArray(ResourceDescriptor[]::new));
+    }
+
+    /**
+     * Collects a set of resources and everything they depend on.
+     * Roots are visited regardless of the filter.
+     *
+     * @param roots Resources to start from
+     * @return Every visited resource, by the descriptor it was first reached with
+     */
+    public Map<ResourceDescriptor, Node> crawl(ResourceDescriptor... roots)
+    {
+        ConcurrentHashMap<Object, Node> visited = new ConcurrentHashMap<>();
+        ConcurrentHashMap<Object, Boolean> queued = new ConcurrentHashMap<>();
+
+        ArrayList<ResourceDescriptor> pending = new ArrayList<>(roots.length);
+        for (ResourceDescriptor root : roots)
+        {
+            if (root == null || !root.isValid()) continue;
+            if (queued.putIfAbsent(DependencyCrawler.getKey(root), Boolean.TRUE) == null)
+                pending.add(root);
+        }
+
+        if (this.parallelism == 1)
+        {
+            ArrayDeque<ResourceDescriptor> queue = new ArrayDeque<>(pending);
+            while (!queue.isEmpty())
+                queue.addAll(this.visit(queue.poll(), visited, queued));
+            return DependencyCrawler.getNodes(visited);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try
+        {
+            ArrayList<RecursiveAction> tasks = new ArrayList<>(pending.size());
+            for (ResourceDescriptor descriptor : pending)
+                tasks.add(new VisitTask(descriptor, visited, queued));
+            pool.invoke(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    RecursiveAction.invokeAll(tasks);
+                }
+            });
+        }
+        finally { pool.shutdown(); }
+
+        return DependencyCrawler.getNodes(visited);
+    }
+
+    /**
+     * Gets the key a resource is visited by, descriptors hash their
+     * string form, which is too slow to do for every dependency.
+     *
+     * @param descriptor Resource descriptor
+     * @return SHA1 of resource if it has one, otherwise its GUID
+     */
+    private static Object getKey(ResourceDescriptor descriptor)
+    {
+        if (descriptor.isHash()) return descriptor.getSHA1();
+        return descriptor.getGUID();
+    }
+
+    /**
+     * Maps every visited resource by the descriptor it was visited with.
+     *
+     * @param visited Every visited resource
+     * @return Visited resources by descriptor
+     */
+    private static Map<ResourceDescriptor, Node> getNodes(Map<Object, Node> visited)
+    {
+        HashMap<ResourceDescriptor, Node> nodes = new HashMap<>(visited.size());
+        for (Node node : visited.values())
+            nodes.put(node.getDescriptor(), node);
+        return nodes;
+    }
+
+    /**
+     * Reads the header of a resource.
+     *
+     * @param data Resource data
+     * @return Resource header, or null if the data isn't a resource
+     */
+    private static ResourceHeader getHeader(byte[] data)
+    {
+        // A resource that can't be parsed shouldn't stop the rest of the crawl.
+        try { return new ResourceHeader(data); }
+        catch (Exception ex) { return null; }
+    }
+
+    /**
+     * Gets the valid dependencies of a resource.
+     *
+     * @param header Resource header, can be null
+     * @return Valid dependencies of resource
+     */
+    private static ResourceDescriptor[] getDependencies(ResourceHeader header)
+    {
+        if (header == null) return new ResourceDescriptor[0];
+        ArrayList<ResourceDescriptor> dependencies = new ArrayList<>();
+        try
+        {
+            for (ResourceDescriptor dependency : header.getDependencies())
+                if (dependency.isValid())
+                    dependencies.add(dependency);
+        }
+        catch (Exception ex) { /* Corrupt dependency table */ }
+        return dependencies.toArray(ResourceDescriptor[]::new);
+    }
+
+    /**
+     * Visits a resource, and claims any of its dependencies that haven't been
+     * visited yet.
+     *
+     * @param descriptor Resource to visit
+     * @param visited    Every visited resource
+     * @param queued     Every resource that has been claimed for a visit
+     * @return Dependencies that need to be visited
+     */
+    private ArrayList<ResourceDescriptor> visit(ResourceDescriptor descriptor,
+                                                Map<Object, Node> visited,
+                                                Map<Object, Boolean> queued)
+    {
+        Node node = new Node(descriptor, this.extractor.apply(descriptor), this.retainData);
+        visited.put(DependencyCrawler.getKey(descriptor), node);
+
+        ArrayList<ResourceDescriptor> children = new ArrayList<>();
+        if (node.isMissing()) return children;
+        for (ResourceDescriptor dependency : node.getDependencies())
+        {
+            if (!this.filter.test(dependency)) continue;
+            if (queued.putIfAbsent(DependencyCrawler.getKey(dependency), Boolean.TRUE) == null)
+                children.add(dependency);
+        }
+        return children;
+    }
+
+    private final class VisitTask extends RecursiveAction
+    {
+        private final ResourceDescriptor descriptor;
+        private final Map<Object, Node> visited;
+        private final Map<Object, Boolean> queued;
+
+        private VisitTask(ResourceDescriptor descriptor, Map<Object, Node> visited,
+                          Map<Object, Boolean> queued)
+        {
+            this.descriptor = descriptor;
+            this.visited = visited;
+            this.queued = queued;
+        }
+
+        @Override
+        protected void compute()
+        {
+            ArrayList<ResourceDescriptor> children = DependencyCrawler.this.visit(this.descriptor,
+                this.visited, this.queued);
+            if (children.isEmpty()) return;
+            ArrayList<VisitTask> tasks = new ArrayList<>(children.size());
+            for (ResourceDescriptor child : children)
+                tasks.add(new VisitTask(child, this.visited, this.queued));
+            RecursiveAction.invokeAll(tasks);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
 import cwlib.enums.Branch;
 import cwlib.io.gson.*;
 import cwlib.structs.things.Thing;
@@ -13,20 +15,120 @@ import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 public final class GsonUtils
 {
-    public static Revision REVISION = new Revision(Branch.MIZUKI.getHead(), Branch.MIZUKI.getID()
-        , Branch.MIZUKI.getRevision());
-    public static final HashMap<Integer, Thing> THINGS = new HashMap<>();
-    public static final HashSet<Thing> UNIQUE_THINGS = new HashSet<>();
-    public static Lock _gsonLock = new ReentrantLock();
+    /**
+     * State of a single JSON conversion.
+     * <p>
+     * Every conversion gets its own context, so conversions on different
+     * threads never share references or revisions.
+     */
+    public static final class Context
+    {
+        /**
+         * Revision fields are serialized for.
+         */
+        private Revision revision;
+
+        /**
+         * Things that have been deserialized by UID, so later references resolve to them.
+         */
+        private final HashMap<Integer, Thing> things = new HashMap<>();
+
+        /**
+         * Things that have already been serialized, later occurrences are written as references.
+         */
+        private final HashSet<Thing> uniqueThings = new HashSet<>();
+
+        private Context(Revision revision)
+        {
+            this.revision = revision;
+        }
+
+        public Revision getRevision()
+        {
+            return this.revision;
+        }
 
-    private static Gson GetGson()
+        public void setRevision(Revision revision)
+        {
+            if (revision == null)
+                throw new NullPointerException("Revision cannot be null!");
+            this.revision = revision;
+        }
+
+        /**
+         * Gets a thing that has already been deserialized.
+         *
+         * @param UID UID of thing
+         * @return Deserialized thing, or null if it hasn't been deserialized yet
+         */
+        public Thing getThing(int UID)
+        {
+            return this.things.get(UID);
+        }
+
+        /**
+         * Registers a deserialized thing, so later references to its UID resolve to it.
+         *
+         * @param thing Deserialized thing
+         */
+        public void putThing(Thing thing)
+        {
+            this.things.put(thing.UID, thing);
+        }
+
+        /**
+         * Marks a thing as serialized.
+         *
+         * @param thing Thing being serialized
+         * @return Whether this is the first time the thing has been serialized
+         */
+        public boolean markSerialized(Thing thing)
+        {
+            return this.uniqueThings.add(thing);
+        }
+    }
+
+    /**
+     * Context of the conversion running on each thread,
+     * serializers are only ever invoked on the thread that started the conversion.
+     */
+    private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<>();
+
+    /**
+     * Gets the context of the conversion running on this thread.
+     *
+     * @return Conversion context
+     */
+    public static Context getContext()
+    {
+        Context context = CONTEXT.get();
+        if (context == null)
+            throw new IllegalStateException("No JSON conversion is running on this thread!");
+        return context;
+    }
+
+    private static Revision getDefaultRevision()
+    {
+        return new Revision(Branch.MIZUKI.getHead(), Branch.MIZUKI.getID(),
+            Branch.MIZUKI.getRevision());
+    }
+
+    private static Gson GetGson(Context context)
     {
         return new GsonBuilder()
             .setPrettyPrinting()
@@ -38,16 +140,17 @@ public final class GsonUtils
                 @Override
                 public boolean shouldSkipField(FieldAttributes field)
                 {
+                    Revision current = context.getRevision();
                     boolean skip = false;
 
                     if (field.getAnnotation(GsonRevision.class) != null)
                     {
                         GsonRevision revision =
                             field.getAnnotation(GsonRevision.class);
-                        int head = (revision.lbp3()) ? REVISION.getSubVersion() :
-                            REVISION.getVersion();
+                        int head = (revision.lbp3()) ? current.getSubVersion() :
+                            current.getVersion();
 
-                        if (revision.branch() != -1 && REVISION.getBranchID() != revision.branch())
+                        if (revision.branch() != -1 && current.getBranchID() != revision.branch())
                             skip = true;
                         if (revision.max() != -1 && head > revision.max())
                             skip = true;
@@ -63,15 +166,15 @@ public final class GsonUtils
                         for (GsonRevision revision : revisions)
                         {
                             int head = (revision.lbp3()) ?
-                                REVISION.getSubVersion() :
-                                REVISION.getVersion();
+                                current.getSubVersion() :
+                                current.getVersion();
 
                             boolean max =
                                 ((revision.max() == -1) || (revision.max() >= head));
                             boolean min =
                                 ((revision.min() == -1) || (revision.min() <= head));
                             boolean branch =
-                                ((revision.branch() == -1) || (revision.branch() == REVISION.getBranchID()));
+                                ((revision.branch() == -1) || (revision.branch() == current.getBranchID()));
 
                             if (max && min && branch)
                             {
@@ -98,6 +201,27 @@ public final class GsonUtils
             .create();
     }
 
+    /**
+     * Runs a conversion with its own context on this thread.
+     *
+     * @param <T>        Result of conversion
+     * @param revision   Revision to convert for
+     * @param conversion Conversion to run
+     * @return Result of conversion
+     */
+    private static <T> T convert(Revision revision, Function<Gson, T> conversion)
+    {
+        Context previous = CONTEXT.get();
+        Context context = new Context(revision);
+        CONTEXT.set(context);
+        try { return conversion.apply(GetGson(context)); }
+        finally
+        {
+            if (previous == null) CONTEXT.remove();
+            else CONTEXT.set(previous);
+        }
+    }
+
     /**
      * Deserializes a JSON string to an object.
      *
@@ -108,14 +232,20 @@ public final class GsonUtils
      */
     public static <T> T fromJSON(String json, Class<T> clazz)
     {
-        _gsonLock.lock();
-        try
-        {
-            THINGS.clear();
-            UNIQUE_THINGS.clear();
-            return GetGson().fromJson(json, clazz);
-        }
-        finally { _gsonLock.unlock(); }
+        return convert(getDefaultRevision(), gson -> gson.fromJson(json, clazz));
+    }
+
+    /**
+     * Deserializes a JSON stream to an object.
+     *
+     * @param <T>    Type to deserialize
+     * @param reader Reader to deserialize JSON from
+     * @param clazz  Class to deserialize
+     * @return Deserialized object
+     */
+    public static <T> T fromJSON(Reader reader, Class<T> clazz)
+    {
+        return convert(getDefaultRevision(), gson -> gson.fromJson(reader, clazz));
     }
 
     /**
@@ -126,33 +256,99 @@ public final class GsonUtils
      */
     public static String toJSON(Object object)
     {
-        _gsonLock.lock();
-        try
-        {
-            THINGS.clear();
-            UNIQUE_THINGS.clear();
-            return GetGson().toJson(object);
-        }
-        finally { _gsonLock.unlock(); }
+        return toJSON(object, getDefaultRevision());
     }
 
     /**
      * Serializes an object to a JSON string with revision.
      *
-     * @param object Object to serialize
+     * @param object   Object to serialize
+     * @param revision Revision to serialize for
      * @return Serialized JSON string
      */
     public static String toJSON(Object object, Revision revision)
     {
-        _gsonLock.lock();
+        if (revision == null)
+            throw new NullPointerException("Revision cannot be null!");
+        return convert(revision, gson -> gson.toJson(object));
+    }
+
+    /**
+     * Serializes an object as JSON to a writer, without building the JSON in memory.
+     *
+     * @param object   Object to serialize
+     * @param revision Revision to serialize for
+     * @param writer   Writer to serialize JSON to
+     * @throws IOException if an I/O error occurs
+     */
+    public static void toJSON(Object object, Revision revision, Writer writer)
+    throws IOException
+    {
+        JsonWriter json = new JsonWriter(writer);
+        json.setIndent("  ");
+        toJSON(object, revision, json);
+        json.flush();
+    }
+
+    /**
+     * Serializes an object as JSON to a JSON writer, the formatting of the writer is kept,
+     * so the object can be written compactly or as part of a larger document.
+     *
+     * @param object   Object to serialize
+     * @param revision Revision to serialize for
+     * @param writer   JSON writer to serialize to
+     * @throws IOException if an I/O error occurs
+     */
+    public static void toJSON(Object object, Revision revision, JsonWriter writer)
+    throws IOException
+    {
+        if (revision == null)
+            throw new NullPointerException("Revision cannot be null!");
         try
         {
-            REVISION = revision;
-            THINGS.clear();
-            UNIQUE_THINGS.clear();
-            return GetGson().toJson(object);
+            convert(revision, gson ->
+            {
+                gson.toJson(object, object == null ? Object.class : object.getClass(), writer);
+                return null;
+            });
         }
-        finally { _gsonLock.unlock(); }
+        catch (JsonIOException ex)
+        {
+            if (ex.getCause() instanceof IOException io) throw io;
+            throw ex;
+        }
+    }
 
+    /**
+     * Serializes an object as UTF-8 JSON to a stream, without building the JSON in memory.
+     *
+     * @param object   Object to serialize
+     * @param revision Revision to serialize for
+     * @param stream   Stream to serialize JSON to
+     * @throws IOException if an I/O error occurs
+     */
+    public static void toJSON(Object object, Revision revision, OutputStream stream)
+    throws IOException
+    {
+        toJSON(object, revision, new BufferedWriter(new OutputStreamWriter(stream,
+            StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Serializes an object as UTF-8 JSON to a file, without building the JSON in memory.
+     *
+     * @param object   Object to serialize
+     * @param revision Revision to serialize for
+     * @param file     File to serialize JSON to
+     * @return Whether the file was successfully written
+     */
+    public static boolean toJSON(Object object, Revision revision, File file)
+    {
+        try (FileOutputStream stream = new FileOutputStream(file))
+        {
+            toJSON(object, revision, stream);
+            return true;
+        }
+        catch (IOException ex) { return false; }
     }
 }
@@ -2,6 +2,7 @@ package cwlib.util;
 
 import cwlib.CwlibConfiguration;
 import cwlib.enums.CellGcmEnumForGtf;
+import cwlib.enums.TextureQuality;
 import cwlib.external.DDSReader;
 import cwlib.io.serializer.SerializationData;
 import cwlib.structs.texture.CellGcmTexture;
@@ -13,13 +14,19 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 public class Images
 {
@@ -58,48 +65,40 @@ public class Images
         return image;
     }
 
-    private static byte[] getRGBA(BufferedImage image)
+    private static CellGcmEnumForGtf getFormat(Squish.CompressionType type)
     {
-        int[] ARGB = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0,
-            image.getWidth());
-        byte[] RGBA = new byte[ARGB.length * 4];
-        for (int i = 0; i < ARGB.length; ++i)
+        switch (type)
         {
-            RGBA[(4 * i)] = (byte) ((ARGB[i] >> 16) & 0xff);
-            RGBA[(4 * i) + 1] = (byte) ((ARGB[i] >> 8) & 0xff);
-            RGBA[(4 * i) + 2] = (byte) ((ARGB[i]) & 0xff);
-            RGBA[(4 * i) + 3] = (byte) ((ARGB[i] >> 24) & 0xff);
+            case DXT1:
+                return CellGcmEnumForGtf.DXT1;
+            case DXT3:
+                return CellGcmEnumForGtf.DXT3;
+            default:
+                return CellGcmEnumForGtf.DXT5;
         }
-        return RGBA;
     }
 
-
+    /**
+     * Compresses an image to a DDS texture.
+     *
+     * @param image        Image to compress
+     * @param type         DXT compression type
+     * @param quality      Compression quality, only used by the built-in encoder
+     * @param generateMips Whether to generate a full mip chain
+     * @param padding      Number of empty bytes to reserve at the end of the buffer
+     * @return DDS texture, followed by the requested padding
+     */
     private static byte[] toDDS(BufferedImage image, Squish.CompressionType type,
-                                boolean generateMips)
+                                TextureQuality quality, boolean generateMips, int padding)
     {
+        CellGcmEnumForGtf format = getFormat(type);
+
         // Prefer texconv on Windows platforms
         if (CwlibConfiguration.IS_WINDOWS && CwlibConfiguration.TEXCONV_EXECUTABLE.exists())
         {
             File input = new File("TEXTURE.PNG");
             File output = new File("TEXTURE.DDS");
 
-            String formatType = null;
-            switch (type)
-            {
-                case DXT1:
-                    formatType = "DXT1";
-                    break;
-                case DXT3:
-                    formatType = "DXT3";
-                    break;
-                case DXT5:
-                    formatType = "DXT5";
-                    break;
-                default:
-                    formatType = "DXT5";
-                    break;
-            }
-
             try { ImageIO.write(image, "png", input); }
             catch (Exception ex) { return null; }
 
@@ -107,7 +106,7 @@ public class Images
                 new ProcessBuilder(CwlibConfiguration.TEXCONV_EXECUTABLE.getAbsolutePath(),
                     "texconv",
                     "-f",
-                    formatType,
+                    format.name(),
                     "-y",
                     "-nologo",
                     "-m",
@@ -128,59 +127,62 @@ public class Images
 
             input.delete();
 
-            return imageData;
+            if (imageData == null || padding == 0) return imageData;
+            return Arrays.copyOf(imageData, imageData.length + padding);
         }
 
-
         int width = toNearest(image.getWidth());
         int height = toNearest(image.getHeight());
 
-        int originalWidth = width, originalHeight = height;
-
-        CellGcmEnumForGtf format = null;
-        switch (type)
-        {
-            case DXT1:
-                format = CellGcmEnumForGtf.DXT1;
-                break;
-            case DXT3:
-                format = CellGcmEnumForGtf.DXT3;
-                break;
-            case DXT5:
-                format = CellGcmEnumForGtf.DXT5;
-                break;
-        }
-
         if (image.getWidth() != width || image.getHeight() != height)
             image = Scalr.resize(image, Scalr.Mode.FIT_EXACT, width, height);
-        byte[] dds = Squish.compressImage(getRGBA(image), width, height, null, type);
 
-        int mipCount = 1;
+        // Mip levels are box filtered from the previous level,
+        // which is cheap compared to compressing them.
+        ArrayList<int[]> levels = new ArrayList<>();
+        levels.add(image.getRGB(0, 0, width, height, null, 0, width));
         if (generateMips)
         {
-            while (true)
+            int w = width, h = height;
+            while (w != 1 && h != 1)
             {
-                width = toNearest(width - 1);
-                height = toNearest(height - 1);
-                image = Scalr.resize(image, Scalr.Method.AUTOMATIC, width, height);
-                dds = Bytes.combine(dds, Squish.compressImage(getRGBA(image), width,
-                    height, null
-                    , type));
-                mipCount += 1;
-                if (width == 1 || height == 1) break;
+                levels.add(DXT.downsample(levels.get(levels.size() - 1), w, h));
+                w = Math.max(1, w / 2);
+                h = Math.max(1, h / 2);
             }
         }
 
-        return Bytes.combine(
-            DDS.getDDSHeader(format, originalWidth, originalHeight, mipCount, false),
-            dds
-        );
+        int mipCount = levels.size();
+        int[] offsets = new int[mipCount];
+        int size = 0x80;
+        for (int i = 0; i < mipCount; ++i)
+        {
+            offsets[i] = size;
+            size += DXT.getSize(format, Math.max(1, width >> i), Math.max(1, height >> i));
+        }
+
+        // Every level is compressed straight into a single buffer, after the header.
+        byte[] dds = new byte[size + padding];
+        byte[] header = DDS.getDDSHeader(format, width, height, mipCount, false);
+        System.arraycopy(header, 0, dds, 0, header.length);
+
+        IntStream.range(0, mipCount).parallel().forEach(i ->
+            DXT.compress(levels.get(i), Math.max(1, width >> i), Math.max(1, height >> i),
+                format, quality, dds, offsets[i]));
+
+        return dds;
     }
 
     public static byte[] toGTF(BufferedImage image, Squish.CompressionType type, boolean noSRGB,
                                boolean generateMips)
     {
-        byte[] dds = toDDS(image, type, generateMips);
+        return toGTF(image, type, CwlibConfiguration.TEXTURE_QUALITY, noSRGB, generateMips);
+    }
+
+    public static byte[] toGTF(BufferedImage image, Squish.CompressionType type,
+                               TextureQuality quality, boolean noSRGB, boolean generateMips)
+    {
+        byte[] dds = toDDS(image, type, quality, generateMips, 0);
         CellGcmTexture info = new CellGcmTexture(dds, noSRGB);
         dds = Arrays.copyOfRange(dds, 0x80, dds.length);
         return SerializedResource.compress(new SerializationData(dds, info));
@@ -189,26 +191,43 @@ public class Images
     public static byte[] toTEX(BufferedImage image, Squish.CompressionType type, boolean noSRGB,
                                boolean generateMips)
     {
-        byte[] dds = toDDS(image, type, generateMips);
-        String texType = "\0\0\0\0";
+        return toTEX(image, type, CwlibConfiguration.TEXTURE_QUALITY, noSRGB, generateMips);
+    }
+
+    public static byte[] toTEX(BufferedImage image, Squish.CompressionType type,
+                               TextureQuality quality, boolean noSRGB, boolean generateMips)
+    {
+        byte[] dds = toDDS(image, type, quality, generateMips, 4);
         if (noSRGB)
-            texType = "BUMP";
-        dds = Bytes.combine(dds, texType.getBytes());
+        {
+            byte[] texType = "BUMP".getBytes();
+            System.arraycopy(texType, 0, dds, dds.length - 4, 4);
+        }
         return SerializedResource.compress(new SerializationData(dds));
     }
 
     public static BufferedImage fromDDS(byte[] DDS)
+    {
+        return Images.fromDDS(DDS, 0);
+    }
+
+    /**
+     * Decodes a single mip level of a DDS texture.
+     *
+     * @param DDS      DDS texture
+     * @param mipLevel Mip level to decode, levels that don't exist decode the full image
+     * @return Decoded image
+     */
+    public static BufferedImage fromDDS(byte[] DDS, int mipLevel)
     {
         try
         {
-            int[] pixels = DDSReader.read(DDS, DDSReader.ARGB, 0);
-            int width = DDSReader.getWidth(DDS), height = DDSReader.getHeight(DDS);
-            BufferedImage image = new BufferedImage(width, height, 2);
-            if (image != null)
-            {
-                image.setRGB(0, 0, width, height, pixels, 0, width);
-                return image;
-            }
+            if (mipLevel >= DDSReader.getMipmap(DDS)) mipLevel = 0;
+            int[] pixels = DDSReader.read(DDS, DDSReader.ARGB, mipLevel);
+            int width = Math.max(1, DDSReader.getWidth(DDS) >> mipLevel);
+            int height = Math.max(1, DDSReader.getHeight(DDS) >> mipLevel);
+            if (pixels != null)
+                return Images.fromPixels(pixels, width, height);
         }
         catch (Exception ex)
         {
@@ -217,6 +236,63 @@ public class Images
         return null;
     }
 
+    /**
+     * Gets the smallest mip level of a DDS texture that's at least as large
+     * as the requested size, so the level can be scaled down without losing detail.
+     *
+     * @param DDS    DDS texture
+     * @param width  Requested width
+     * @param height Requested height
+     * @return Mip level
+     */
+    public static int getMipLevel(byte[] DDS, int width, int height)
+    {
+        int mipWidth = DDSReader.getWidth(DDS), mipHeight = DDSReader.getHeight(DDS);
+        int mipCount = DDSReader.getMipmap(DDS);
+
+        // Levels smaller than a single block are never worth decoding.
+        width = Math.max(width, 4);
+        height = Math.max(height, 4);
+
+        int level = 0;
+        while (level + 1 < mipCount && (mipWidth >> 1) >= width && (mipHeight >> 1) >= height)
+        {
+            mipWidth >>= 1;
+            mipHeight >>= 1;
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Wraps ARGB pixels in an image without copying them.
+     *
+     * @param pixels ARGB pixels
+     * @param width  Width of image
+     * @param height Height of image
+     * @return Image backed by the pixel array
+     */
+    public static BufferedImage fromPixels(int[] pixels, int width, int height)
+    {
+        DataBufferInt buffer = new DataBufferInt(pixels, width * height);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width,
+            new int[] { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 }, null);
+        return new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+    }
+
+    /**
+     * Scales an image down to fit within a square, keeping its aspect ratio.
+     *
+     * @param image Image to scale
+     * @param size  Maximum width and height
+     * @return Scaled image, or the image itself if it already fits
+     */
+    public static BufferedImage getThumbnail(BufferedImage image, int size)
+    {
+        if (image.getWidth() <= size && image.getHeight() <= size) return image;
+        return Scalr.resize(image, Scalr.Method.QUALITY, size);
+    }
+
     public static ImageIcon getImageIcon(BufferedImage image)
     {
         return getImageIcon(image, 320, 320);
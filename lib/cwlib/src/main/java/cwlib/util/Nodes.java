@@ -5,7 +5,6 @@ import cwlib.types.databases.FileEntry;
 import cwlib.types.swing.FileNode;
 import cwlib.types.swing.SearchParameters;
 
-import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreeNode;
 import java.util.ArrayList;
 import java.util.Enumeration;
@@ -14,15 +13,9 @@ public class Nodes
 {
     public static int childIndex(FileNode node, String header)
     {
-        Enumeration<TreeNode> children = node.children();
-        while (children.hasMoreElements())
-        {
-            DefaultMutableTreeNode child = (DefaultMutableTreeNode) children.nextElement();
-            if (header.equals(child.getUserObject()))
-                return node.getIndex(child);
-        }
-
-        return -1;
+        FileNode child = node.getChild(header);
+        if (child == null) return -1;
+        return node.getIndex(child);
     }
 
     public static void loadChildren(ArrayList<FileNode> nodes, FileNode node, boolean isFiltered)
@@ -90,14 +83,13 @@ public class Nodes
         String parent = "";
         for (String component : components)
         {
-            int index = Nodes.childIndex(root, component);
-            if (index == -1)
+            FileNode child = root.getChild(component);
+            if (child == null)
             {
-                FileNode child = new FileNode(component, parent, null, root.getSource());
+                child = new FileNode(component, parent, null, root.getSource());
                 root.insert(child, root.getChildCount());
-                root = child;
             }
-            else root = (FileNode) root.getChildAt(index);
+            root = child;
             parent += (component + "/");
         }
         return root;
@@ -119,14 +111,13 @@ public class Nodes
         String relativePath = "";
         for (int i = 0; i < strings.length - 1; i++)
         {
-            int index = Nodes.childIndex(node, strings[i]);
-            if (index == -1)
+            FileNode child = node.getChild(strings[i]);
+            if (child == null)
             {
-                FileNode child = new FileNode(strings[i], relativePath, null, node.getSource());
+                child = new FileNode(strings[i], relativePath, null, node.getSource());
                 node.add(child);
-                node = child;
             }
-            else node = (FileNode) node.getChildAt(index);
+            node = child;
             relativePath = relativePath + (strings[i] + "/");
         }
 
@@ -0,0 +1,69 @@
+package cwlib.io.streams;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryInputStreamTest
+{
+    private static final byte[] DATA =
+    {
+        0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09
+    };
+
+    @Test
+    public void readsBigEndian()
+    {
+        MemoryInputStream stream = new MemoryInputStream(DATA);
+        assertEquals(0x0102, stream.i16());
+        assertEquals(0x030405, stream.u24());
+        assertEquals(0x06070809, stream.i32());
+        assertEquals(DATA.length, stream.getOffset());
+
+        stream.seek(0, MemoryInputStream.SeekMode.Begin);
+        assertEquals(0x0102030405060708L, stream.u64(true));
+    }
+
+    @Test
+    public void readsLittleEndian()
+    {
+        MemoryInputStream stream = new MemoryInputStream(DATA);
+        stream.setLittleEndian(true);
+        assertEquals(0x0201, stream.i16());
+        assertEquals(0x050403, stream.u24());
+        assertEquals(0x09080706, stream.i32());
+
+        stream.seek(0, MemoryInputStream.SeekMode.Begin);
+        assertEquals(0x0807060504030201L, stream.u64(true));
+    }
+
+    @Test
+    public void padsReadsPastEnd()
+    {
+        MemoryInputStream stream = new MemoryInputStream(DATA);
+        stream.seek(8, MemoryInputStream.SeekMode.Begin);
+        assertEquals(0x0900, stream.i16());
+
+        stream.seek(8, MemoryInputStream.SeekMode.Begin);
+        assertEquals(0x090000, stream.u24());
+
+        stream.seek(7, MemoryInputStream.SeekMode.Begin);
+        assertEquals(0x08090000, stream.i32());
+        assertEquals(11, stream.getOffset());
+
+        stream.seek(4, MemoryInputStream.SeekMode.Begin);
+        assertEquals(0x0506070809000000L, stream.u64(true));
+
+        stream.setLittleEndian(true);
+        stream.seek(7, MemoryInputStream.SeekMode.Begin);
+        assertEquals(0x00000908, stream.i32());
+    }
+
+    @Test
+    public void padsFloatArraysPastEnd()
+    {
+        byte[] data = { 0x00, 0x00, 0x00, 0x02, 0x3F, (byte) 0x80, 0x00, 0x00, 0x40 };
+        float[] elements = new MemoryInputStream(data).floatarray();
+        assertArrayEquals(new float[] { 1.0f, 2.0f }, elements);
+    }
+}
@@ -0,0 +1,48 @@
+package cwlib.io.streams;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryOutputStreamTest
+{
+    private static int getSegmentCount(MemoryOutputStream stream) throws Exception
+    {
+        Field field = MemoryOutputStream.class.getDeclaredField("segments");
+        field.setAccessible(true);
+        return ((byte[][]) field.get(stream)).length;
+    }
+
+    @Test
+    public void writesEmptyBuffers() throws Exception
+    {
+        MemoryOutputStream stream = new MemoryOutputStream();
+        int count = MemoryOutputStreamTest.getSegmentCount(stream);
+        stream.bytes(new byte[0]);
+        stream.pad(0);
+        assertEquals(count, MemoryOutputStreamTest.getSegmentCount(stream));
+        assertEquals(0, stream.getLength());
+        assertArrayEquals(new byte[0], stream.getBuffer());
+    }
+
+    @Test
+    public void writesAcrossSegments()
+    {
+        byte[] data = new byte[0x28000];
+        new Random(1).nextBytes(data);
+
+        MemoryOutputStream stream = new MemoryOutputStream();
+        for (int offset = 0; offset < data.length; offset += 0x3001)
+            stream.bytes(data, offset, Math.min(0x3001, data.length - offset));
+        stream.i32(0x01020304);
+
+        byte[] buffer = stream.getBuffer();
+        assertEquals(data.length + 4, buffer.length);
+        for (int i = 0; i < data.length; ++i)
+            assertEquals(data[i], buffer[i]);
+        assertEquals(0x04, buffer[buffer.length - 1]);
+    }
+}
@@ -0,0 +1,106 @@
+package cwlib.singleton;
+
+import cwlib.types.data.SHA1;
+import cwlib.util.Crypto;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResourceCacheTest
+{
+    private static SHA1 getSHA1(int index)
+    {
+        return Crypto.SHA1(new byte[] { (byte) index });
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed()
+    {
+        ResourceCache cache = new ResourceCache(300);
+        cache.put(getSHA1(0), String.class, "a", 100);
+        cache.put(getSHA1(1), String.class, "b", 100);
+        cache.put(getSHA1(2), String.class, "c", 100);
+
+        // Touch the first entry, so the second is now the least recently used.
+        assertEquals("a", cache.get(getSHA1(0), String.class));
+
+        cache.put(getSHA1(3), String.class, "d", 100);
+        assertNull(cache.get(getSHA1(1), String.class));
+        assertEquals("a", cache.get(getSHA1(0), String.class));
+        assertEquals("c", cache.get(getSHA1(2), String.class));
+        assertEquals("d", cache.get(getSHA1(3), String.class));
+        assertEquals(300, cache.getWeight());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void evictsByWeight()
+    {
+        ResourceCache cache = new ResourceCache(300);
+        cache.put(getSHA1(0), String.class, "a", 100);
+        cache.put(getSHA1(1), String.class, "b", 100);
+        cache.put(getSHA1(2), String.class, "c", 250);
+
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(250, cache.getWeight());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void skipsResourcesLargerThanCapacity()
+    {
+        ResourceCache cache = new ResourceCache(100);
+        cache.put(getSHA1(0), String.class, "a", 50);
+        cache.put(getSHA1(1), String.class, "b", 101);
+
+        assertNull(cache.get(getSHA1(1), String.class));
+        assertEquals("a", cache.get(getSHA1(0), String.class));
+        assertEquals(0, cache.getEvictions());
+
+        ResourceCache disabled = new ResourceCache(0);
+        disabled.put(getSHA1(0), String.class, "a", 1);
+        assertEquals(0, disabled.getEntryCount());
+    }
+
+    @Test
+    public void replacesEntries()
+    {
+        ResourceCache cache = new ResourceCache(300);
+        cache.put(getSHA1(0), String.class, "a", 100);
+        cache.put(getSHA1(0), String.class, "b", 200);
+
+        assertEquals("b", cache.get(getSHA1(0), String.class));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(200, cache.getWeight());
+    }
+
+    @Test
+    public void keysByType()
+    {
+        ResourceCache cache = new ResourceCache(300);
+        cache.put(getSHA1(0), String.class, "a", 100);
+        cache.put(getSHA1(0), Integer.class, 1, 100);
+
+        assertEquals("a", cache.get(getSHA1(0), String.class));
+        assertEquals(1, cache.get(getSHA1(0), Integer.class));
+        assertEquals(2, cache.getHits());
+        assertNull(cache.get(getSHA1(0), Long.class));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shrinksCapacity()
+    {
+        ResourceCache cache = new ResourceCache(300);
+        for (int i = 0; i < 3; ++i)
+            cache.put(getSHA1(i), String.class, "value", 100);
+
+        cache.setCapacity(150);
+        assertEquals(1, cache.getEntryCount());
+        assertEquals("value", cache.get(getSHA1(2), String.class));
+
+        cache.clear();
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getWeight());
+    }
+}
@@ -0,0 +1,135 @@
+package cwlib.types.archives;
+
+import cwlib.util.Crypto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchiveVerifierTest
+{
+    private static final int ENTRY_COUNT = 200;
+
+    @TempDir
+    File folder;
+
+    private static byte[] getRow(byte[] hash, int offset, int size)
+    {
+        return ByteBuffer.allocate(0x1c).put(hash).putInt(offset).putInt(size).array();
+    }
+
+    /**
+     * Writes an archive with one corrupt entry, two duplicate entries,
+     * and one truncated entry.
+     */
+    private File getArchive() throws IOException
+    {
+        Random random = new Random(3);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ArrayList<byte[]> rows = new ArrayList<>();
+        for (int i = 0; i < ENTRY_COUNT; ++i)
+        {
+            byte[] buffer = new byte[1 + random.nextInt(0x4000)];
+            random.nextBytes(buffer);
+            rows.add(getRow(Crypto.SHA1(buffer).getHash(), data.size(), buffer.length));
+            data.writeBytes(buffer);
+        }
+
+        // Corrupt
+        byte[] buffer = data.toByteArray();
+        buffer[ByteBuffer.wrap(rows.get(5)).getInt(0x14)] ^= 1;
+
+        // Duplicate of a valid entry
+        rows.add(rows.get(7).clone());
+
+        // Duplicate hash pointing at the data of another entry
+        byte[] row = rows.get(9).clone();
+        System.arraycopy(rows.get(10), 0x14, row, 0x14, 8);
+        rows.add(row);
+
+        // Truncated
+        rows.add(getRow(new byte[0x14], buffer.length - 10, 100));
+
+        File file = new File(this.folder, "data.farc");
+        try (FileOutputStream stream = new FileOutputStream(file))
+        {
+            stream.write(buffer);
+            for (byte[] fat : rows)
+                stream.write(fat);
+            stream.write(ByteBuffer.allocate(8).putInt(rows.size()).putInt(0x46415243).array());
+        }
+        return file;
+    }
+
+    @Test
+    public void findsIssues() throws IOException
+    {
+        FileArchive archive = new FileArchive(this.getArchive());
+        ArchiveVerifier.Report report = new ArchiveVerifier(archive)
+            .setBlockSize(0x10000)
+            .verify();
+
+        assertFalse(report.isClean());
+        assertEquals(ENTRY_COUNT + 3, report.getEntryCount());
+        assertEquals(2, report.getIssues(ArchiveVerifier.IssueType.CORRUPT).size());
+        assertEquals(1, report.getIssues(ArchiveVerifier.IssueType.TRUNCATED).size());
+        assertEquals(1, report.getIssues(ArchiveVerifier.IssueType.DUPLICATE).size());
+        archive.close();
+    }
+
+    @Test
+    public void repairsIssues() throws IOException
+    {
+        FileArchive archive = new FileArchive(this.getArchive());
+        ArchiveVerifier verifier = new ArchiveVerifier(archive).setParallelism(2);
+
+        assertEquals(4, verifier.repair(verifier.verify()));
+        assertEquals(ENTRY_COUNT - 1, archive.getEntryCount());
+        assertTrue(new ArchiveVerifier(archive).verify().isClean());
+        archive.close();
+    }
+
+    @Test
+    public void validateKeepsDuplicates() throws IOException
+    {
+        FileArchive archive = new FileArchive(this.getArchive());
+        assertEquals(3, archive.validate());
+        assertEquals(ENTRY_COUNT, archive.getEntryCount());
+
+        ArchiveVerifier.Report report = new ArchiveVerifier(archive).verify();
+        assertEquals(report.getIssues(ArchiveVerifier.IssueType.DUPLICATE), report.getIssues());
+        assertEquals(1, report.getIssues().size());
+        archive.close();
+    }
+
+    @Test
+    public void rejectsStaleReport() throws IOException
+    {
+        File file = this.getArchive();
+        FileArchive archive = new FileArchive(file);
+        ArchiveVerifier.Report report = new ArchiveVerifier(archive).verify();
+        assertTrue(file.setLastModified(file.lastModified() - 5000));
+
+        assertThrows(IllegalStateException.class,
+            () -> new ArchiveVerifier(archive).repair(report));
+        archive.close();
+    }
+
+    @Test
+    public void cancels() throws IOException
+    {
+        FileArchive archive = new FileArchive(this.getArchive());
+        ArchiveVerifier verifier = new ArchiveVerifier(archive).setBlockSize(0x1000);
+        verifier.setListener(progress -> verifier.cancel());
+        assertTrue(verifier.verify().isCancelled());
+        archive.close();
+    }
+}
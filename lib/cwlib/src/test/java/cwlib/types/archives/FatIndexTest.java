@@ -0,0 +1,86 @@
+package cwlib.types.archives;
+
+import cwlib.types.data.SHA1;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FatIndexTest
+{
+    private static final int ENTRY_COUNT = 1000;
+
+    @Test
+    public void findsEveryHash()
+    {
+        Random random = new Random(7);
+        ByteBuffer table = ByteBuffer.allocate(ENTRY_COUNT * 0x1c);
+        HashMap<SHA1, long[]> rows = new HashMap<>();
+        for (int i = 0; i < ENTRY_COUNT; ++i)
+        {
+            byte[] hash = new byte[0x14];
+            random.nextBytes(hash);
+            // Offsets past 2GB are stored as unsigned integers.
+            long offset = random.nextInt() & 0xFFFFFFFFL;
+            int size = random.nextInt(0x10000);
+            table.put(hash).putInt((int) offset).putInt(size);
+            rows.put(new SHA1(hash), new long[] { offset, size });
+        }
+
+        FatIndex index = FatIndex.fromTable(table.array());
+        assertEquals(ENTRY_COUNT, index.size());
+        for (SHA1 sha1 : rows.keySet())
+        {
+            int i = index.find(sha1);
+            assertNotEquals(-1, i);
+            assertEquals(sha1, index.getSHA1(i));
+            assertEquals(rows.get(sha1)[0], index.getOffset(i));
+            assertEquals(rows.get(sha1)[1], index.getSize(i));
+        }
+
+        assertEquals(-1, index.find(new SHA1()));
+    }
+
+    @Test
+    public void sortsByUnsignedHash()
+    {
+        byte[] low = new byte[0x14];
+        byte[] high = new byte[0x14];
+        high[0] = (byte) 0x80;
+        ByteBuffer table = ByteBuffer.allocate(2 * 0x1c);
+        table.put(high).putInt(1).putInt(2);
+        table.put(low).putInt(3).putInt(4);
+
+        FatIndex index = FatIndex.fromTable(table.array());
+        assertEquals(0, index.find(new SHA1(low)));
+        assertEquals(1, index.find(new SHA1(high)));
+        assertEquals(3, index.getOffset(0));
+    }
+
+    @Test
+    public void roundTripsTable()
+    {
+        Random random = new Random(11);
+        byte[] table = new byte[ENTRY_COUNT * 0x1c];
+        random.nextBytes(table);
+
+        FatIndex index = FatIndex.fromTable(table);
+        byte[] sorted = index.toTable();
+        assertEquals(table.length, sorted.length);
+        assertArrayEquals(sorted, FatIndex.fromTable(sorted).toTable());
+
+        // The same rows are kept, just reordered by hash.
+        for (int i = 0; i < ENTRY_COUNT; ++i)
+        {
+            ByteBuffer row = ByteBuffer.wrap(table, i * 0x1c, 0x1c);
+            byte[] hash = new byte[0x14];
+            row.get(hash);
+            int found = index.find(new SHA1(hash));
+            assertEquals(row.getInt() & 0xFFFFFFFFL, index.getOffset(found));
+            assertEquals(row.getInt(), index.getSize(found));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package cwlib.types.archives;
+
+import cwlib.types.data.SHA1;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileArchiveWriterTest
+{
+    private static final int ENTRY_COUNT = 100;
+
+    @TempDir
+    File folder;
+
+    private final Random random = new Random(5);
+
+    private byte[] getResource()
+    {
+        byte[] data = new byte[1 + this.random.nextInt(0x1000)];
+        this.random.nextBytes(data);
+        return data;
+    }
+
+    private File getArchive(ArrayList<SHA1> hashes) throws IOException
+    {
+        File file = new File(this.folder, "data.farc");
+        try (FileArchiveWriter writer = new FileArchiveWriter(file))
+        {
+            for (int i = 0; i < ENTRY_COUNT; ++i)
+                hashes.add(writer.add(this.getResource()));
+        }
+        return file;
+    }
+
+    private static long getDataSize(FileArchive archive)
+    {
+        long size = 0;
+        for (Fat fat : archive.getEntries())
+            size += fat.getSize();
+        return size;
+    }
+
+    @Test
+    public void overwritesOldFAT() throws IOException
+    {
+        ArrayList<SHA1> hashes = new ArrayList<>();
+        File file = this.getArchive(hashes);
+
+        FileArchive archive = new FileArchive(file);
+        for (int i = 0; i < 3; ++i)
+        {
+            for (int j = 0; j < 10; ++j)
+                hashes.add(archive.add(this.getResource()));
+            assertTrue(archive.save());
+
+            // Nothing is left behind of the old FAT and footer.
+            long expected = getDataSize(archive) + archive.getEntryCount() * 0x1cL + 0x8;
+            assertEquals(expected, file.length());
+        }
+
+        FileArchive reloaded = new FileArchive(file);
+        assertEquals(hashes.size(), reloaded.getEntryCount());
+        for (SHA1 sha1 : hashes)
+            assertEquals(sha1, SHA1.fromBuffer(reloaded.extract(sha1)));
+        archive.close();
+        reloaded.close();
+    }
+
+    @Test
+    public void abortRestoresArchive() throws IOException
+    {
+        File file = this.getArchive(new ArrayList<>());
+        byte[] original = Files.readAllBytes(file.toPath());
+
+        FileArchive archive = new FileArchive(file);
+        FileArchiveWriter writer = new FileArchiveWriter(archive);
+        for (int i = 0; i < 10; ++i)
+            writer.add(this.getResource());
+        writer.abort();
+
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+        assertEquals(ENTRY_COUNT, archive.getEntryCount());
+        archive.close();
+    }
+
+    @Test
+    public void recoversInterruptedAppend() throws IOException
+    {
+        File file = this.getArchive(new ArrayList<>());
+        byte[] original = Files.readAllBytes(file.toPath());
+        File journal = new File(file.getPath() + ".journal");
+
+        FileArchive archive = new FileArchive(file);
+        FileArchiveWriter writer = new FileArchiveWriter(archive);
+        for (int i = 0; i < 10; ++i)
+            writer.add(this.getResource());
+
+        // Copy the archive as it is halfway through the append, as if the writer crashed.
+        File crashed = new File(this.folder, "crashed.farc");
+        Files.copy(file.toPath(), crashed.toPath());
+        Files.copy(journal.toPath(), new File(crashed.getPath() + ".journal").toPath());
+
+        assertTrue(FileArchiveWriter.recover(crashed));
+        assertArrayEquals(original, Files.readAllBytes(crashed.toPath()));
+        assertFalse(FileArchiveWriter.recover(crashed));
+
+        // A writer that's still alive is never rolled back.
+        long length = file.length();
+        assertFalse(FileArchiveWriter.recover(file));
+        assertEquals(length, file.length());
+
+        writer.close();
+        assertEquals(ENTRY_COUNT + 10, new FileArchive(file).getEntryCount());
+        archive.close();
+    }
+
+    @Test
+    public void allowsOneWriter() throws IOException
+    {
+        File file = this.getArchive(new ArrayList<>());
+
+        FileArchive archive = new FileArchive(file);
+        FileArchive other = new FileArchive(file);
+        FileArchiveWriter writer = new FileArchiveWriter(archive);
+        writer.add(this.getResource());
+
+        assertThrows(IOException.class, () -> new FileArchiveWriter(other));
+        assertThrows(IOException.class, () -> new FileArchiveWriter(file));
+        assertFalse(other.save());
+
+        writer.close();
+        other.add(this.getResource());
+        assertTrue(other.save());
+        assertEquals(ENTRY_COUNT + 2, new FileArchive(file).getEntryCount());
+        archive.close();
+        other.close();
+    }
+}
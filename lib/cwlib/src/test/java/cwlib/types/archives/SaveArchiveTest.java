@@ -0,0 +1,188 @@
+package cwlib.types.archives;
+
+import cwlib.io.streams.MemoryOutputStream;
+import cwlib.types.data.Revision;
+import cwlib.types.data.SHA1;
+import cwlib.util.Bytes;
+import cwlib.util.Crypto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SaveArchiveTest
+{
+    private static final int ENTRY_COUNT = 50;
+
+    @TempDir
+    File folder;
+
+    private static SaveArchive getArchive(int revision)
+    {
+        Random random = new Random(revision);
+        SaveArchive archive = new SaveArchive(new Revision(0x272), revision);
+        for (int i = 0; i < ENTRY_COUNT; ++i)
+        {
+            // Odd sizes, so the save key has to be padded.
+            byte[] buffer = new byte[1 + random.nextInt(0x2000)];
+            random.nextBytes(buffer);
+            archive.add(buffer);
+        }
+        return archive;
+    }
+
+    private static int getFooterSize(int revision)
+    {
+        int size = 0x8;
+        if (revision > 2) size += 0x14;
+        if (revision == 5) size += 0x4;
+        return size;
+    }
+
+    /**
+     * Builds an archive the way it was built before it was streamed,
+     * all in memory with the HASHINATE computed over the whole buffer at once.
+     *
+     * @param archive   Archive to build
+     * @param saveKey   Save key of the archive
+     * @param hashinate Whether to compute the HASHINATE of the archive
+     * @return Built archive
+     */
+    private static byte[] getExpected(SaveArchive archive, byte[] saveKey, boolean hashinate)
+    {
+        SHA1[] hashes = Arrays.stream(archive.getEntries())
+            .map(Fat::getSHA1)
+            .sorted(Comparator.comparing(SHA1::toString))
+            .toArray(SHA1[]::new);
+
+        MemoryOutputStream data = new MemoryOutputStream(0x100000);
+        Fat[] entries = new Fat[hashes.length];
+        for (int i = 0; i < hashes.length; ++i)
+        {
+            byte[] buffer = archive.extract(hashes[i]);
+            entries[i] = new Fat(archive, hashes[i], data.getOffset(), buffer.length);
+            data.bytes(buffer);
+        }
+        data.pad((4 - (data.getOffset() % 4)) % 4);
+        data.bytes(saveKey);
+        data.bytes(Fart.generateFAT(entries));
+
+        int revision = archive.getArchiveRevision();
+        int hashinateOffset = data.getOffset();
+        if (revision > 2)
+            data.pad(0x14);
+        if (revision == 5)
+            data.bytes(Bytes.toBytesLE(archive.getFragmentIDs().length));
+        data.i32(entries.length);
+        data.str("FAR", 0x3);
+        data.u8(revision + '0');
+
+        byte[] expected = data.shrink().getBuffer();
+        if (revision > 2 && hashinate)
+        {
+            byte[] hash = Crypto.HMAC(expected, Crypto.HASHINATE_KEY).getHash();
+            System.arraycopy(hash, 0, expected, hashinateOffset, hash.length);
+        }
+        return expected;
+    }
+
+    private static byte[] getSaveKey(byte[] built, int revision, int entryCount,
+                                     int dataSize)
+    {
+        int start = dataSize + ((4 - (dataSize % 4)) % 4);
+        int end = built.length - getFooterSize(revision) - (entryCount * 0x1c);
+        return Arrays.copyOfRange(built, start, end);
+    }
+
+    private static void assertMatchesBaseline(int revision, boolean hashinate)
+    {
+        SaveArchive archive = SaveArchiveTest.getArchive(revision);
+        byte[] built = archive.build(hashinate);
+
+        int dataSize = 0;
+        for (Fat fat : archive.getEntries())
+            dataSize += fat.getSize();
+        byte[] saveKey = SaveArchiveTest.getSaveKey(built, revision,
+            archive.getEntryCount(), dataSize);
+
+        assertArrayEquals(SaveArchiveTest.getExpected(archive, saveKey, hashinate), built,
+            "Revision " + revision);
+    }
+
+    @Test
+    public void matchesBaseline()
+    {
+        for (int revision = 2; revision <= 5; ++revision)
+        {
+            SaveArchiveTest.assertMatchesBaseline(revision, true);
+            SaveArchiveTest.assertMatchesBaseline(revision, false);
+        }
+    }
+
+    @Test
+    public void storesHashinate()
+    {
+        for (int revision = 3; revision <= 5; ++revision)
+        {
+            SaveArchive archive = SaveArchiveTest.getArchive(revision);
+            byte[] built = archive.build(true);
+
+            // The HASHINATE is computed with its own field zeroed.
+            int offset = built.length - getFooterSize(revision);
+            byte[] stored = Arrays.copyOfRange(built, offset, offset + 0x14);
+            Arrays.fill(built, offset, offset + 0x14, (byte) 0);
+
+            SHA1 expected = Crypto.HMAC(built, Crypto.HASHINATE_KEY);
+            assertEquals(expected, new SHA1(stored));
+            assertEquals(expected, archive.getHashinate());
+
+            assertEquals(new SHA1(), new SaveArchive(archive.build(false)).getHashinate());
+        }
+    }
+
+    @Test
+    public void buildsFile() throws IOException
+    {
+        for (int revision = 2; revision <= 5; ++revision)
+        {
+            SaveArchive archive = SaveArchiveTest.getArchive(revision);
+            byte[] expected = archive.build(true);
+
+            File file = new File(this.folder, "bigfart" + revision);
+            assertTrue(archive.build(file, true));
+            assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+
+            // The archive is read back from the file once it's been built.
+            SaveArchive loaded = new SaveArchive(file);
+            assertEquals(ENTRY_COUNT, loaded.getEntryCount());
+            for (Fat fat : archive.getEntries())
+                assertEquals(fat.getSHA1(), Crypto.SHA1(loaded.extract(fat.getSHA1())));
+            assertEquals(archive.getHashinate(), loaded.getHashinate());
+        }
+    }
+
+    @Test
+    public void exportsCopy() throws IOException
+    {
+        File file = new File(this.folder, "bigfart4");
+        assertTrue(SaveArchiveTest.getArchive(4).build(file, true));
+
+        SaveArchive archive = new SaveArchive(file);
+        SHA1 added = archive.add(new byte[] { 1, 2, 3 });
+        byte[] expected = archive.build(true);
+
+        // The archive keeps its own data, even once the exported copy is gone.
+        File copy = new File(this.folder, "copy");
+        assertTrue(archive.save(copy.getAbsolutePath()));
+        assertTrue(copy.delete());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, archive.extract(added));
+        assertArrayEquals(expected, archive.build(true));
+    }
+}
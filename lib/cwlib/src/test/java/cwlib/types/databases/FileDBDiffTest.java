@@ -0,0 +1,115 @@
+package cwlib.types.databases;
+
+import cwlib.types.data.GUID;
+import cwlib.util.Crypto;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileDBDiffTest
+{
+    private static final int REVISION = 0x100;
+
+    private static FileDBRow add(FileDB database, String path, GUID guid, String data)
+    {
+        FileDBRow row = database.newFileDBRow(path, guid);
+        row.setSHA1(Crypto.SHA1(data.getBytes(StandardCharsets.UTF_8)));
+        row.setSize(data.length());
+        row.setDate(1000);
+        return row;
+    }
+
+    private static FileDB getBase()
+    {
+        FileDB database = new FileDB(REVISION);
+        add(database, "gamedata/a.plan", new GUID(1), "a");
+        add(database, "gamedata/b.plan", new GUID(2), "b");
+        add(database, "gamedata/c.plan", new GUID(3), "c");
+        return database;
+    }
+
+    private static FileDB getUpdate()
+    {
+        FileDB database = new FileDB(REVISION);
+        // Rehashed
+        add(database, "gamedata/a.plan", new GUID(1), "a2");
+        // Moved
+        add(database, "gamedata/moved/b.plan", new GUID(2), "b");
+        // Row 3 is removed, row 4 is added
+        add(database, "gamedata/d.plan", new GUID(4), "d");
+        return database;
+    }
+
+    private static ArrayList<String> getRows(FileDB database)
+    {
+        ArrayList<String> rows = new ArrayList<>();
+        for (FileDBRow row : database)
+        {
+            rows.add(row.getGUID() + "|" + row.getPath() + "|" + row.getSHA1() + "|" +
+                     row.getSize() + "|" + row.getDate());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test
+    public void computesChanges()
+    {
+        FileDBDiff diff = FileDBDiff.compute(getBase(), getUpdate());
+        assertEquals(4, diff.getChanges().length);
+        assertEquals(1, diff.getAdded().length);
+        assertEquals(1, diff.getRemoved().length);
+        assertEquals(1, diff.getMoved().length);
+        assertEquals(1, diff.getRehashed().length);
+        assertTrue(FileDBDiff.compute(getBase(), getBase()).isEmpty());
+    }
+
+    @Test
+    public void skipsChangesWithoutGUID()
+    {
+        String json = "{\"changes\":[" +
+                      "{\"type\":\"ADDED\",\"path\":\"gamedata/e.plan\"}," +
+                      "{\"type\":\"MODIFIED\",\"path\":\"gamedata/f.plan\"}," +
+                      "{\"type\":\"REMOVED\"}" +
+                      "]}";
+        FileDBDiff diff = FileDBDiff.fromJSON(json);
+        assertEquals(3, diff.getChanges().length);
+
+        FileDB base = getBase();
+        base.patch(diff);
+        assertEquals(getRows(getBase()), getRows(base));
+
+        base.patch(FileDBDiff.fromBinary(diff.toBinary()));
+        assertEquals(getRows(getBase()), getRows(base));
+    }
+
+    @Test
+    public void patchesDatabase()
+    {
+        FileDB base = getBase();
+        base.patch(FileDBDiff.compute(getBase(), getUpdate()));
+        assertEquals(getRows(getUpdate()), getRows(base));
+    }
+
+    @Test
+    public void patchesDatabaseFromBinary()
+    {
+        byte[] data = FileDBDiff.compute(getBase(), getUpdate()).toBinary();
+        FileDB base = getBase();
+        base.patch(FileDBDiff.fromBinary(data));
+        assertEquals(getRows(getUpdate()), getRows(base));
+    }
+
+    @Test
+    public void patchesDatabaseFromJSON()
+    {
+        String json = FileDBDiff.compute(getBase(), getUpdate()).toJSON();
+        FileDB base = getBase();
+        base.patch(FileDBDiff.fromJSON(json));
+        assertEquals(getRows(getUpdate()), getRows(base));
+    }
+}
@@ -0,0 +1,137 @@
+package cwlib.types.databases;
+
+import cwlib.io.streams.MemoryOutputStream;
+import cwlib.types.data.GUID;
+import cwlib.types.data.SHA1;
+import cwlib.util.Crypto;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileDBIndexTest
+{
+    private static final int LBP1_REVISION = 0x100;
+    private static final int LBP3_REVISION = 0x148 << 0x10;
+
+    private static final Object[][] ROWS =
+    {
+        { "gamedata/a.plan", 1L, "a" },
+        { "gamedata/b.plan", 2L, "b" },
+        // Duplicate GUID
+        { "gamedata/duplicate.plan", 1L, "duplicate" },
+        // Missing GUID
+        { "gamedata/missing.plan", 0L, "missing" },
+        // Duplicate SHA1
+        { "gamedata/c.plan", 3L, "a" },
+        // Path without a name
+        { ".tex", 4L, "texture" },
+        { "gamedata/d.plan", 0x80000000L, "d" },
+    };
+
+    private static SHA1 getSHA1(String data)
+    {
+        return Crypto.SHA1(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] build(int revision)
+    {
+        boolean isLBP3 = (revision >> 0x10) >= 0x148;
+        MemoryOutputStream stream = new MemoryOutputStream(0x1000);
+        stream.i32(revision);
+        stream.i32(ROWS.length);
+        for (Object[] row : ROWS)
+        {
+            String path = (String) row[0];
+            if (isLBP3) stream.i16((short) path.length());
+            else stream.i32(path.length());
+            stream.str(path, path.length());
+            if (isLBP3) stream.u32(1000);
+            else stream.s64(1000);
+            stream.u32(((String) row[2]).length());
+            stream.sha1(FileDBIndexTest.getSHA1((String) row[2]));
+            stream.u32((long) row[1]);
+        }
+        return stream.shrink().getBuffer();
+    }
+
+    private static ArrayList<String> getRows(FileDB database)
+    {
+        ArrayList<String> rows = new ArrayList<>();
+        for (FileDBRow row : database)
+        {
+            rows.add(row.getGUID() + "|" + row.getPath() + "|" + row.getSHA1() + "|" +
+                     row.getSize() + "|" + row.getDate());
+        }
+        return rows;
+    }
+
+    private static void assertParity(int revision)
+    {
+        byte[] data = FileDBIndexTest.build(revision);
+        FileDB eager = new FileDB(data, false);
+        FileDB lazy = new FileDB(data, true);
+
+        assertEquals(5, eager.getEntryCount());
+        assertEquals(getRows(eager), getRows(lazy));
+
+        for (Object[] row : ROWS)
+        {
+            SHA1 sha1 = FileDBIndexTest.getSHA1((String) row[2]);
+            FileDBRow expected = eager.get(sha1);
+            if (expected == null) assertNull(lazy.get(sha1));
+            else assertEquals(expected.getGUID(), lazy.get(sha1).getGUID());
+
+            long guid = (long) row[1];
+            if (guid == 0) continue;
+            assertEquals(eager.exists(guid), lazy.exists(guid));
+            if (eager.exists(guid))
+                assertEquals(eager.get(guid).getPath(), lazy.get(guid).getPath());
+        }
+
+        assertNull(lazy.get(new GUID(5)));
+        assertNull(lazy.get(FileDBIndexTest.getSHA1("missing")));
+        assertNull(lazy.get(FileDBIndexTest.getSHA1("nothing")));
+        assertEquals(new GUID(1), lazy.get(FileDBIndexTest.getSHA1("a")).getGUID());
+        assertEquals(eager.get("gamedata/c.plan").getGUID(),
+            lazy.get("gamedata/c.plan").getGUID());
+    }
+
+    @Test
+    public void matchesEagerDatabase()
+    {
+        FileDBIndexTest.assertParity(LBP1_REVISION);
+    }
+
+    @Test
+    public void matchesEagerDatabaseLBP3()
+    {
+        FileDBIndexTest.assertParity(LBP3_REVISION);
+    }
+
+    @Test
+    public void findsEveryHash()
+    {
+        MemoryOutputStream stream = new MemoryOutputStream(0x100000);
+        int count = 0x2000;
+        stream.i32(LBP1_REVISION);
+        stream.i32(count);
+        for (int i = 0; i < count; ++i)
+        {
+            String path = "gamedata/" + i + ".plan";
+            stream.i32(path.length());
+            stream.str(path, path.length());
+            stream.s64(0);
+            stream.u32(0);
+            stream.sha1(FileDBIndexTest.getSHA1(path));
+            stream.u32(i + 1);
+        }
+
+        FileDBIndex index = FileDBIndex.fromBuffer(stream.shrink().getBuffer());
+        for (int i = 0; i < count; ++i)
+            assertEquals(i, index.find(FileDBIndexTest.getSHA1("gamedata/" + i + ".plan")));
+        assertEquals(-1, index.find(new SHA1()));
+    }
+}
@@ -0,0 +1,166 @@
+package cwlib.types.mods;
+
+import cwlib.types.data.SHA1;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModTest
+{
+    private static final int ENTRY_COUNT = 50;
+
+    @TempDir
+    File folder;
+
+    private File getMod(HashMap<SHA1, byte[]> resources)
+    {
+        Random random = new Random(9);
+        Mod mod = new Mod();
+        for (int i = 0; i < ENTRY_COUNT; ++i)
+        {
+            byte[] data = new byte[1 + random.nextInt(0x4000)];
+            random.nextBytes(data);
+            resources.put(mod.add("gamedata/" + i + ".bin", data).getSHA1(), data);
+        }
+
+        File file = new File(this.folder, "test.mod");
+        assertTrue(mod.save(file));
+        return file;
+    }
+
+    /**
+     * Rewrites a mod with every entry compressed, like older mods were saved,
+     * optionally replacing the embedded archive.
+     */
+    private File rewrite(File file, String name, byte[] archive, boolean isArchiveStored)
+    throws IOException
+    {
+        File output = new File(this.folder, name);
+        try (ZipFile zip = new ZipFile(file);
+             ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(output)))
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.getName().equals(ModContents.ARCHIVE_ENTRY))
+                {
+                    stream.putNextEntry(new ZipEntry(entry.getName()));
+                    try (InputStream input = zip.getInputStream(entry))
+                    {
+                        input.transferTo(stream);
+                    }
+                    stream.closeEntry();
+                    continue;
+                }
+
+                byte[] data = archive;
+                if (data == null)
+                {
+                    try (InputStream input = zip.getInputStream(entry))
+                    {
+                        data = input.readAllBytes();
+                    }
+                }
+
+                ZipEntry copy = new ZipEntry(entry.getName());
+                if (isArchiveStored)
+                {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    copy.setMethod(ZipEntry.STORED);
+                    copy.setSize(data.length);
+                    copy.setCompressedSize(data.length);
+                    copy.setCrc(crc.getValue());
+                }
+                stream.putNextEntry(copy);
+                stream.write(data);
+                stream.closeEntry();
+            }
+        }
+        return output;
+    }
+
+    private static void assertExtracts(Mod mod, HashMap<SHA1, byte[]> resources)
+    throws IOException
+    {
+        for (SHA1 sha1 : resources.keySet())
+            assertArrayEquals(resources.get(sha1), mod.extract(sha1));
+
+        HashMap<SHA1, byte[]> extracted = new HashMap<>();
+        assertEquals(resources.size(), mod.extractAll(resources.keySet(), extracted::put));
+        for (SHA1 sha1 : resources.keySet())
+            assertArrayEquals(resources.get(sha1), extracted.get(sha1));
+    }
+
+    @Test
+    public void storesArchive() throws IOException
+    {
+        HashMap<SHA1, byte[]> resources = new HashMap<>();
+        File file = this.getMod(resources);
+        try (ZipFile zip = new ZipFile(file))
+        {
+            assertEquals(ZipEntry.STORED, zip.getEntry(ModContents.ARCHIVE_ENTRY).getMethod());
+        }
+
+        ModTest.assertExtracts(new Mod(file), resources);
+    }
+
+    @Test
+    public void readsCompressedArchive() throws IOException
+    {
+        HashMap<SHA1, byte[]> resources = new HashMap<>();
+        File file = this.rewrite(this.getMod(resources), "deflated.mod", null, false);
+        try (ZipFile zip = new ZipFile(file))
+        {
+            assertEquals(ZipEntry.DEFLATED,
+                zip.getEntry(ModContents.ARCHIVE_ENTRY).getMethod());
+        }
+
+        ModTest.assertExtracts(new Mod(file), resources);
+    }
+
+    @Test
+    public void extractsOverlappingRows() throws IOException
+    {
+        byte[] data = new byte[0x100];
+        new Random(3).nextBytes(data);
+
+        // Rows that share some of their data, and an empty row.
+        int[][] rows = { { 0, 0x80 }, { 0x40, 0x80 }, { 0x40, 0x20 }, { 0x10, 0 } };
+        HashMap<SHA1, byte[]> resources = new HashMap<>();
+        ByteBuffer archive = ByteBuffer.allocate(data.length + rows.length * 0x1c + 0x1c);
+        archive.put(data);
+        for (int[] row : rows)
+        {
+            byte[] resource = new byte[row[1]];
+            System.arraycopy(data, row[0], resource, 0, row[1]);
+            SHA1 sha1 = SHA1.fromBuffer(resource);
+            resources.put(sha1, resource);
+            archive.put(sha1.getHash()).putInt(row[0]).putInt(row[1]);
+        }
+        archive.put(new byte[0x14]).putInt(rows.length).putInt(0x46415234); // FAR4
+
+        File mod = this.getMod(new HashMap<>());
+        for (boolean isStored : new boolean[] { true, false })
+        {
+            File file = this.rewrite(mod, "overlap" + isStored + ".mod", archive.array(),
+                isStored);
+            ModTest.assertExtracts(new Mod(file), resources);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package cwlib.types.swing;
+
+import cwlib.types.data.GUID;
+import cwlib.types.databases.FileDB;
+import cwlib.types.databases.FileDBRow;
+import cwlib.util.Crypto;
+import cwlib.util.Nodes;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest
+{
+    private static final String[] PATHS =
+    {
+        "gamedata/levels/story/the_gardens.bin",
+        "gamedata/levels/story/the_temples.bin",
+        "gamedata/textures/garden_grass.tex",
+        "gamedata/textures/Garden_Rock.tex",
+        "gamedata/audio/music/gardens.fsb",
+        "characters/sackboy/sackboy.mol",
+        "characters/sackboy/sackboy_head.tex",
+        "ab.tex",
+    };
+
+    private static final String[] QUERIES =
+    {
+        "garden", "gardens", "rock", "rden_", ".tex", "sackboy/", "ab", "a", "", "zzz",
+        "res:" + getGUID(2), "res:" + getSHA1("gamedata/levels/story/the_gardens.bin"),
+        "res:" + getSHA1("shared"), "res:g9999"
+    };
+
+    private static String getGUID(int index)
+    {
+        return new GUID(index + 1).toString();
+    }
+
+    private static String getSHA1(String data)
+    {
+        return Crypto.SHA1(data.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static FileDB getDatabase()
+    {
+        FileDB database = new FileDB(0x100);
+        for (int i = 0; i < PATHS.length; ++i)
+        {
+            FileDBRow row = database.newFileDBRow(PATHS[i], new GUID(i + 1));
+            // A few entries share a hash
+            String data = (i % 3 == 0) ? "shared" : PATHS[i];
+            row.setSHA1(Crypto.SHA1(data.getBytes(StandardCharsets.UTF_8)));
+            database.addNode(row);
+        }
+        return database;
+    }
+
+    private static ArrayList<Boolean> getVisibility(FileNode root)
+    {
+        ArrayList<Boolean> visibility = new ArrayList<>();
+        ArrayDeque<FileNode> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty())
+        {
+            FileNode node = queue.poll();
+            visibility.add(node.isVisible());
+            for (int i = 0; i < node.getChildCount(); ++i)
+                queue.add((FileNode) node.getChildAt(i));
+        }
+        return visibility;
+    }
+
+    @Test
+    public void matchesFilter()
+    {
+        FileDB database = SearchIndexTest.getDatabase();
+        FileNode root = database.getRoot();
+        SearchIndex index = new SearchIndex(root);
+
+        for (String query : QUERIES)
+        {
+            SearchParameters params = new SearchParameters(query);
+
+            int expectedCount = Nodes.filter(root, params);
+            ArrayList<Boolean> expected = SearchIndexTest.getVisibility(root);
+
+            int count = index.apply(root, index.search(params));
+            assertEquals(expectedCount, count, query);
+            assertEquals(expected, SearchIndexTest.getVisibility(root), query);
+        }
+    }
+
+    @Test
+    public void findsSharedHashes()
+    {
+        FileDB database = SearchIndexTest.getDatabase();
+        SearchIndex index = new SearchIndex(database.getRoot());
+        BitSet matches = index.search(new SearchParameters("res:" + getSHA1("shared")));
+        assertEquals(3, matches.cardinality());
+    }
+
+    @Test
+    public void goesStale()
+    {
+        FileDB database = SearchIndexTest.getDatabase();
+        FileNode root = database.getRoot();
+        SearchIndex index = new SearchIndex(root);
+        assertFalse(index.isStale(root));
+
+        database.addNode(database.newFileDBRow("gamedata/new.tex", new GUID(100)));
+        assertTrue(index.isStale(root));
+    }
+}
@@ -0,0 +1,123 @@
+package cwlib.util;
+
+import cwlib.enums.CellGcmEnumForGtf;
+import cwlib.enums.TextureQuality;
+import cwlib.external.DDSReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DXTTest
+{
+    /**
+     * The width isn't a multiple of the block size, so the edge blocks get covered too,
+     * DDSReader can only decode images with a height that is a multiple of the block size.
+     */
+    private static final int WIDTH = 18;
+    private static final int HEIGHT = 12;
+
+    private static int[] getGradient(boolean hasAlpha)
+    {
+        // The colors of every block lie on a line, which is what DXT can represent.
+        int[] pixels = new int[WIDTH * HEIGHT];
+        int steps = WIDTH + HEIGHT - 2;
+        for (int y = 0; y < HEIGHT; ++y)
+        {
+            for (int x = 0; x < WIDTH; ++x)
+            {
+                int t = ((x + y) * 255) / steps;
+                int a = hasAlpha ? (y * 255) / (HEIGHT - 1) : 0xFF;
+                int r = t;
+                int g = 255 - t;
+                int b = 0x40 + t / 2;
+                pixels[y * WIDTH + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] roundTrip(int[] pixels, CellGcmEnumForGtf format,
+                                   TextureQuality quality)
+    {
+        byte[] header = DDS.getDDSHeader(format, WIDTH, HEIGHT, 1, false);
+        byte[] dds = new byte[header.length + DXT.getSize(format, WIDTH, HEIGHT)];
+        System.arraycopy(header, 0, dds, 0, header.length);
+        DXT.compress(pixels, WIDTH, HEIGHT, format, quality, dds, header.length);
+        return DDSReader.read(dds, DDSReader.ARGB, 0);
+    }
+
+    /**
+     * Gets the largest difference of any channel between two images.
+     */
+    private static int getError(int[] expected, int[] actual, int shift)
+    {
+        int error = 0;
+        for (int i = 0; i < expected.length; ++i)
+        {
+            int l = (expected[i] >>> shift) & 0xFF;
+            int r = (actual[i] >>> shift) & 0xFF;
+            error = Math.max(error, Math.abs(l - r));
+        }
+        return error;
+    }
+
+    private static void assertRoundTrip(CellGcmEnumForGtf format, TextureQuality quality,
+                                        boolean hasAlpha, int maxAlphaError)
+    {
+        int[] pixels = DXTTest.getGradient(hasAlpha);
+        int[] decoded = DXTTest.roundTrip(pixels, format, quality);
+        assertEquals(pixels.length, decoded.length);
+
+        // Endpoints are 5:6:5, and each block interpolates between only four colors.
+        for (int shift = 0; shift < 24; shift += 8)
+            assertTrue(DXTTest.getError(pixels, decoded, shift) <= 0x10,
+                format + " " + quality + " color error is too large");
+        assertTrue(DXTTest.getError(pixels, decoded, 24) <= maxAlphaError,
+            format + " " + quality + " alpha error is too large");
+    }
+
+    @Test
+    public void roundTripsDXT1()
+    {
+        for (TextureQuality quality : TextureQuality.values())
+            DXTTest.assertRoundTrip(CellGcmEnumForGtf.DXT1, quality, false, 0);
+    }
+
+    @Test
+    public void roundTripsDXT3()
+    {
+        // Alpha is stored explicitly with four bits.
+        for (TextureQuality quality : TextureQuality.values())
+            DXTTest.assertRoundTrip(CellGcmEnumForGtf.DXT3, quality, true, 0x11);
+    }
+
+    @Test
+    public void roundTripsDXT5()
+    {
+        // Alpha is interpolated between eight values per block.
+        for (TextureQuality quality : TextureQuality.values())
+            DXTTest.assertRoundTrip(CellGcmEnumForGtf.DXT5, quality, true, 0x08);
+    }
+
+    @Test
+    public void encodesSolidBlocksExactly()
+    {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, 0xFF0000FF);
+        for (TextureQuality quality : TextureQuality.values())
+        {
+            int[] decoded = DXTTest.roundTrip(pixels, CellGcmEnumForGtf.DXT1, quality);
+            assertArrayEquals(pixels, decoded);
+        }
+    }
+
+    @Test
+    public void rejectsSmallOutput()
+    {
+        assertThrows(IllegalArgumentException.class, () ->
+            DXT.compress(new int[16], 4, 4, CellGcmEnumForGtf.DXT5, TextureQuality.FAST,
+                new byte[15], 0));
+    }
+}
@@ -7,15 +7,19 @@ import cwlib.ex.SerializationException;
 import cwlib.io.streams.MemoryInputStream;
 import cwlib.singleton.ResourceSystem;
 import cwlib.types.SerializedResource;
+import cwlib.types.archives.ArchiveVerifier;
 import cwlib.types.archives.Fart;
 import cwlib.types.archives.FileArchive;
+import cwlib.types.archives.FileArchiveWriter;
 import cwlib.types.databases.FileEntry;
 import cwlib.types.swing.FileData;
 import cwlib.types.swing.FileNode;
 import cwlib.util.Compressor;
 import cwlib.util.FileIO;
 import toolkit.utilities.FileChooser;
+import toolkit.utilities.SlowOp;
 import toolkit.windows.Toolkit;
+import toolkit.windows.utilities.SlowOpGUI;
 
 import javax.swing.*;
 import java.io.File;
@@ -35,7 +39,20 @@ public class ArchiveCallbacks
     {
         int index = Toolkit.INSTANCE.isArchiveLoaded(file);
         FileArchive archive = null;
-        try { archive = new FileArchive(file); }
+        try
+        {
+            // Roll back anything left over from an append that never finished,
+            // this is skipped if the archive is being written to right now.
+            FileArchiveWriter.recover(file);
+            archive = new FileArchive(file);
+        }
+        catch (IOException ex)
+        {
+            JOptionPane.showMessageDialog(Toolkit.INSTANCE, "Failed to recover interrupted " +
+                                                            "write to FARC.", "An error occurred",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
         catch (SerializationException ex)
         {
             JOptionPane.showMessageDialog(Toolkit.INSTANCE, ex.getMessage(), "An error " +
@@ -73,12 +90,90 @@ public class ArchiveCallbacks
     {
         File file = FileChooser.openFile("data.farc", "farc", false);
         if (file == null) return;
-        FileArchive archive = new FileArchive(file);
-        int missing = archive.validate();
-        if (missing != 0)
-            archive.save();
-        System.out.printf("%d files failed integrity check and were removed.%n",
-            missing);
+        FileArchive archive;
+        try { archive = new FileArchive(file); }
+        catch (SerializationException ex)
+        {
+            JOptionPane.showMessageDialog(Toolkit.INSTANCE, ex.getMessage(), "Integrity Check",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        ArchiveVerifier verifier = new ArchiveVerifier(archive);
+        ArchiveVerifier.Report[] report = new ArchiveVerifier.Report[1];
+        SlowOpGUI.performSlowOperation(Toolkit.INSTANCE, "Integrity Check", "Verifying Archive",
+            archive.getEntryCount(), new SlowOp()
+            {
+                @Override
+                public int run(SlowOpGUI state)
+                {
+                    verifier.setListener(progress ->
+                    {
+                        if (state.wantQuit()) verifier.cancel();
+                        state.setProgress(progress.getVerifiedCount());
+                        state.setMessage(String.format("Verifying Archive (%.1f MB/s, %.0f " +
+                                                       "entries/s)",
+                            progress.getBytesPerSecond() / 1e6,
+                            progress.getEntriesPerSecond()));
+                    });
+
+                    try { report[0] = verifier.verify(); }
+                    catch (Exception ex)
+                    {
+                        state.setErrorMessage("Integrity check failed: " + ex.getMessage());
+                        return -1;
+                    }
+
+                    if (report[0].isCancelled())
+                    {
+                        state.setErrorMessage("Integrity check was cancelled!");
+                        return -1;
+                    }
+
+                    return 0;
+                }
+            });
+
+        // The failure has already been shown by the slow operation.
+        if (report[0] == null)
+        {
+            archive.close();
+            return;
+        }
+
+        report[0].print(System.out);
+        if (report[0].isCancelled() || report[0].isClean())
+        {
+            archive.close();
+            return;
+        }
+
+        // Only touch the archive if the user actually asks for it,
+        // the report on its own is useful for diagnosing bad caches.
+        int result = JOptionPane.showConfirmDialog(Toolkit.INSTANCE,
+            String.format("%d entries failed the integrity check, see the console for " +
+                          "details.%nRemove them from the archive?",
+                report[0].getIssues().size()),
+            "Integrity Check", JOptionPane.YES_NO_OPTION);
+        if (result == JOptionPane.YES_OPTION)
+        {
+            try
+            {
+                int removed = verifier.repair(report[0]);
+                if (!archive.save())
+                    throw new IllegalStateException("Failed to save repaired archive!");
+                JOptionPane.showMessageDialog(Toolkit.INSTANCE,
+                    String.format("%d entries were removed from the archive.", removed),
+                    "Integrity Check", JOptionPane.INFORMATION_MESSAGE);
+            }
+            catch (IllegalStateException ex)
+            {
+                JOptionPane.showMessageDialog(Toolkit.INSTANCE, ex.getMessage(),
+                    "Integrity Check", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        archive.close();
     }
 
     public static void addFile()
@@ -1,15 +1,20 @@
 package toolkit.functions;
 
 import cwlib.enums.DatabaseType;
+import cwlib.enums.ResourceType;
 import cwlib.singleton.ResourceSystem;
-import cwlib.types.SerializedResource;
 import cwlib.types.data.ResourceDescriptor;
 import cwlib.types.databases.FileDB;
+import cwlib.types.databases.FileDBRow;
 import cwlib.types.databases.FileEntry;
+import cwlib.util.DependencyCrawler;
 import cwlib.util.FileIO;
 import toolkit.utilities.FileChooser;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
 
 public class DebugCallbacks
 {
@@ -22,47 +27,60 @@ public class DebugCallbacks
         }
 
         FileDB database = ResourceSystem.getSelectedDatabase();
-        StringBuilder builder = new StringBuilder(database.getEntryCount() * 1024);
-        for (FileEntry entry : database)
+
+        // Only the dependency tables are needed, so every resource's header
+        // gets read in parallel, without following any of the dependencies.
+        HashMap<ResourceDescriptor, FileEntry> entries = new HashMap<>();
+        for (FileDBRow entry : database)
         {
             if (entry.getPath().toLowerCase().endsWith(extension))
+                entries.put(DebugCallbacks.getDescriptor(entry), entry);
+        }
+
+        Function<ResourceDescriptor, byte[]> extractor = descriptor ->
+        {
+            try { return ResourceSystem.extract(entries.get(descriptor)); }
+            catch (Exception e) { return null; /* Ignore the error */ }
+        };
+
+        Map<ResourceDescriptor, DependencyCrawler.Node> nodes =
+            new DependencyCrawler(extractor)
+                .setFilter(descriptor -> false)
+                .crawl(entries.keySet().toArray(ResourceDescriptor[]::new));
+
+        StringBuilder builder = new StringBuilder(database.getEntryCount() * 1024);
+        for (FileDBRow entry : database)
+        {
+            DependencyCrawler.Node node = nodes.get(DebugCallbacks.getDescriptor(entry));
+            if (node == null) continue;
+            ResourceDescriptor[] dependencies = node.getDependencies();
+            if (dependencies.length == 0) continue;
+            builder.append(String.format("%s (%s)\n", entry.getPath(),
+                entry.getKey()));
+            for (ResourceDescriptor descriptor : dependencies)
             {
-                byte[] data = ResourceSystem.extract(entry);
-                if (data == null) continue;
-                try
+                String type = descriptor.getType().name();
+                String name = String.format(" - (Unresolved Resource) [%s]",
+                    type);
+                if (descriptor.isGUID())
                 {
-                    SerializedResource resource = new SerializedResource(data);
-                    ResourceDescriptor[] dependencies = resource.getDependencies();
-                    if (dependencies.length == 0) continue;
-                    builder.append(String.format("%s (%s)\n", entry.getPath(),
-                        entry.getKey()));
-                    for (ResourceDescriptor descriptor : resource.getDependencies())
-                    {
-                        String type = descriptor.getType().name();
-                        String name = String.format(" - (Unresolved Resource) [%s]",
-                            type);
-                        if (descriptor.isGUID())
-                        {
-                            name = String.format(" - (Unresolved Path) (%s) [%s]\n",
-                                descriptor.getGUID(), type);
-                            FileEntry resolved =
-                                ResourceSystem.get(descriptor.getGUID());
-                            if (resolved != null)
-                                name = String.format(" - %s (%s) [%s]\n",
-                                    resolved.getPath(),
-                                    descriptor.getGUID(), type);
-                        }
-                        else if (descriptor.isHash())
-                            name = String.format(" - %s [%s]",
-                                descriptor.getSHA1().toString(),
-                                type);
-                        else continue;
-                        builder.append(name);
-                    }
-                    builder.append('\n');
+                    name = String.format(" - (Unresolved Path) (%s) [%s]\n",
+                        descriptor.getGUID(), type);
+                    FileEntry resolved =
+                        ResourceSystem.get(descriptor.getGUID());
+                    if (resolved != null)
+                        name = String.format(" - %s (%s) [%s]\n",
+                            resolved.getPath(),
+                            descriptor.getGUID(), type);
                 }
-                catch (Exception e) { /* Ignore the error */ }
+                else if (descriptor.isHash())
+                    name = String.format(" - %s [%s]",
+                        descriptor.getSHA1().toString(),
+                        type);
+                else continue;
+                builder.append(name);
             }
+            builder.append('\n');
         }
 
         File file = FileChooser.openFile("dependencies.txt", "txt", true);
@@ -71,4 +89,18 @@ public class DebugCallbacks
         FileIO.write(builder.toString().getBytes(), file.getAbsolutePath());
     }
 
+    /**
+     * Gets the descriptor a row is crawled by, rows without a GUID
+     * fall back to their SHA1.
+     *
+     * @param entry Row to get descriptor of
+     * @return Descriptor of row
+     */
+    private static ResourceDescriptor getDescriptor(FileDBRow entry)
+    {
+        if (entry.getGUID() == null)
+            return new ResourceDescriptor(entry.getSHA1(), ResourceType.INVALID);
+        return new ResourceDescriptor(entry.getGUID(), ResourceType.INVALID);
+    }
+
 }
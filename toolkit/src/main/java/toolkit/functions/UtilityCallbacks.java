@@ -6,8 +6,10 @@ import cwlib.types.SerializedResource;
 import cwlib.types.archives.Fart;
 import cwlib.types.archives.Fat;
 import cwlib.types.archives.FileArchive;
+import cwlib.types.archives.FileArchiveWriter;
 import cwlib.types.data.SHA1;
 import cwlib.types.databases.FileDB;
+import cwlib.types.databases.FileDBDiff;
 import cwlib.types.databases.FileDBRow;
 import cwlib.types.mods.Mod;
 import cwlib.types.swing.FileData;
@@ -20,6 +22,9 @@ import toolkit.windows.utilities.SlowOpGUI;
 
 import javax.swing.*;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 
 public class UtilityCallbacks
 {
@@ -74,19 +79,16 @@ public class UtilityCallbacks
         File file = FileChooser.openFile("base.farc", "farc", false);
         if (file == null) return;
 
-        Fart cache;
+        FileArchive cache;
         int index = Toolkit.INSTANCE.isArchiveLoaded(file);
-        if (index != -1) cache = ResourceSystem.getArchives().get(index);
+        if (index != -1) cache = (FileArchive) ResourceSystem.getArchives().get(index);
         else cache = new FileArchive(file);
 
         file = FileChooser.openFile("patch.farc", "farc", false);
         if (file == null) return;
 
-        FileArchive patch = new FileArchive(file);
-
-        // Flush archives at 256MBs, maybe make this configurable, or auto-calculate some
-        // appropriate value based on lower end systems.
-        final int CACHE_SIZE = 268_435_456;
+        // The patch is only ever read from, so we can safely map it.
+        FileArchive patch = new FileArchive(file, true);
 
         SlowOpGUI.performSlowOperation(Toolkit.INSTANCE, "Archive Merger", "Merging Archives",
             patch.getEntryCount(), new SlowOp()
@@ -94,23 +96,33 @@ public class UtilityCallbacks
                 @Override
                 public int run(SlowOpGUI state)
                 {
-                    int current = 0;
-                    for (Fat fat : patch)
+                    // Resources get streamed straight into the base archive,
+                    // so we don't need to worry about how much is in memory.
+                    try (FileArchiveWriter writer = new FileArchiveWriter(cache))
                     {
-                        if (state.wantQuit()) return -1;
-
-                        // Save if we have too much stored in memory currently.
-                        if (cache.getQueueSize() >= CACHE_SIZE)
-                            cache.save();
-
-                        SHA1 sha1 = fat.getSHA1();
-                        if (!cache.exists(sha1))
-                            cache.add(patch.extract(sha1));
-
-                        state.setProgress(current++);
+                        int current = 0;
+                        for (Fat fat : patch)
+                        {
+                            if (state.wantQuit()) return -1;
+
+                            SHA1 sha1 = fat.getSHA1();
+                            if (!writer.exists(sha1))
+                            {
+                                byte[] data = patch.extract(fat);
+                                if (data != null)
+                                    writer.add(sha1, data);
+                            }
+
+                            state.setProgress(current++);
+                        }
                     }
-
-                    cache.save();
+                    catch (IOException ex)
+                    {
+                        System.err.println("An error occurred while merging archives!");
+                        System.err.println(ex.getMessage());
+                        return -1;
+                    }
+                    finally { patch.close(); }
 
                     return 0;
                 }
@@ -155,37 +167,12 @@ public class UtilityCallbacks
             return;
         }
 
-        StringBuilder builder = new StringBuilder(update.getEntryCount() * 255);
-        for (FileDBRow row : update)
-        {
-            FileDBRow existing = base.get(row.getGUID());
-            if (existing == null)
-                builder.append(String.format("[+] path=%s size=%s sha1=%s guid=%s\n",
-                    row.getPath(), row.getSize(), row.getSHA1(), row.getGUID()));
-            else
-            {
-
-                if (row.getPath().equals(existing.getPath()))
-                {
-                    if (row.getSHA1().equals(existing.getSHA1())) continue;
-                }
-
-
-                builder.append(String.format(
-                    "[~] path=%s->%s size=%s->%s sha1=%s->%s guid=%s->%s\n",
-                    existing.getPath(), row.getPath(),
-                    existing.getSize(), row.getSize(),
-                    existing.getSHA1(), row.getSHA1(),
-                    existing.getGUID(), row.getGUID()
-                ));
-            }
-        }
-
+        String diff = FileDBDiff.compute(base, update).toText();
 
         File destination = FileChooser.openFile("diff.txt", "txt", true);
         if (destination == null) return;
 
-        FileIO.write(builder.toString().getBytes(), destination.getAbsolutePath());
+        FileIO.write(diff.getBytes(), destination.getAbsolutePath());
     }
 
     public static void installMod()
@@ -206,13 +193,30 @@ public class UtilityCallbacks
             Mod mod = ModCallbacks.loadMod(files[i]);
             if (mod == null) continue;
 
+            ArrayList<SHA1> hashes = new ArrayList<>(mod.getEntryCount());
+            for (FileDBRow row : mod)
+                if (row.getSHA1() != null) hashes.add(row.getSHA1());
+
+            // Resources are installed before anything else is touched,
+            // so a mod that fails to install doesn't leave rows pointing at nothing.
             if (database.getType().containsData())
             {
-                for (FileDBRow row : mod)
+                ArrayList<byte[]> resources = new ArrayList<>(hashes.size());
+                try { mod.extractAll(hashes, (sha1, data) -> resources.add(data)); }
+                catch (IOException ex)
                 {
-                    byte[] data = mod.extract(row.getSHA1());
-                    if (data != null) database.add(data);
+                    UtilityCallbacks.showInstallError(files[i], ex);
+                    continue;
                 }
+                for (byte[] data : resources)
+                    database.add(data);
+                continue;
+            }
+
+            try { UtilityCallbacks.install(mod, hashes, archives); }
+            catch (IOException | IllegalStateException ex)
+            {
+                UtilityCallbacks.showInstallError(files[i], ex);
                 continue;
             }
 
@@ -223,15 +227,86 @@ public class UtilityCallbacks
                     gameDB.get(row.getGUID()).setDetails(row);
                 else
                     gameDB.newFileDBRow(row);
-
-                byte[] data = mod.extract(row.getSHA1());
-                if (data == null) continue;
-
-                ResourceSystem.add(data, archives);
             }
         }
 
         database.setHasChanges();
         ResourceSystem.reloadModel(database);
     }
+
+    private static void showInstallError(File file, Exception ex)
+    {
+        JOptionPane.showMessageDialog(
+            Toolkit.INSTANCE,
+            String.format("Failed to install %s (%s)", file.getName(), ex.getMessage()),
+            "An error occurred",
+            JOptionPane.ERROR_MESSAGE
+        );
+    }
+
+    /**
+     * Streams the resources of a mod into archives, resources are written straight
+     * into file archives as they're read from the mod, rather than being queued.
+     * Nothing is committed to any archive unless every resource was read.
+     *
+     * @param mod      Mod to install
+     * @param hashes   Hashes of resources to install
+     * @param archives Archives to install into
+     * @throws IOException If the mod couldn't be read, or an archive couldn't be written
+     */
+    private static void install(Mod mod, ArrayList<SHA1> hashes, Fart[] archives)
+    throws IOException
+    {
+        ArrayList<FileArchiveWriter> writers = new ArrayList<>(archives.length);
+        ArrayList<Fart> queued = new ArrayList<>(archives.length);
+        ArrayList<byte[]> pending = new ArrayList<>();
+        boolean isCommitted = false;
+        try
+        {
+            for (Fart archive : archives)
+            {
+                if (archive instanceof FileArchive fileArchive)
+                    writers.add(new FileArchiveWriter(fileArchive));
+                else queued.add(archive);
+            }
+
+            try
+            {
+                mod.extractAll(hashes, (sha1, data) ->
+                {
+                    try
+                    {
+                        for (FileArchiveWriter writer : writers)
+                            writer.add(sha1, data);
+                    }
+                    catch (IOException ex) { throw new UncheckedIOException(ex); }
+                    if (!queued.isEmpty()) pending.add(data);
+                });
+            }
+            catch (UncheckedIOException ex) { throw ex.getCause(); }
+
+            for (FileArchiveWriter writer : writers)
+                writer.close();
+            for (Fart archive : queued)
+                for (byte[] data : pending)
+                    archive.add(data);
+
+            isCommitted = true;
+        }
+        finally
+        {
+            // Writers that were already closed are left alone.
+            if (!isCommitted)
+            {
+                for (FileArchiveWriter writer : writers)
+                {
+                    try { writer.abort(); }
+                    catch (IOException ex)
+                    {
+                        // The archive gets rolled back the next time it's opened.
+                    }
+                }
+            }
+        }
+    }
 }
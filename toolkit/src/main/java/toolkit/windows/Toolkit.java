@@ -56,6 +56,7 @@ import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.PrintStream;
 import java.nio.file.Files;
@@ -2477,8 +2478,7 @@ public class Toolkit extends javax.swing.JFrame
         FileData database = ResourceSystem.getSelectedDatabase();
         database.setLastSearch(search.getText());
         JTree tree = database.getTree();
-        Nodes.filter((FileNode) tree.getModel().getRoot(),
-            new SearchParameters(search.getText()));
+        ((FileModel) tree.getModel()).filter(new SearchParameters(search.getText()));
         ((FileModel) tree.getModel()).reload();
         tree.updateUI();
     }// GEN-LAST:event_searchActionPerformed
@@ -2738,7 +2738,7 @@ public class Toolkit extends javax.swing.JFrame
             boolean wasPS4 = archive.isLittleEndian();
             archive.setLittleEndian(!wasPS4);
 
-            FileIO.write(archive.build(false), FAR4.getAbsolutePath());
+            archive.build(FAR4, false);
             JOptionPane.showMessageDialog(this,
                 String.format("FAR4 has been swapped to %s endianness.",
                     (!wasPS4) ? "PS4" : "PS3"));
@@ -2990,9 +2990,15 @@ public class Toolkit extends javax.swing.JFrame
         for (int i = 0; i < fragments.length; ++i)
         {
             byte[] fragment = FileIO.read(fragments[i].getAbsolutePath());
-            if (i + 1 == fragments.length)
-                fragment = Arrays.copyOfRange(fragment, 0, fragment.length - 4);
-            data[i] = Crypto.XXTEA(fragment, true);
+            int length = fragment.length;
+            if (i + 1 == fragments.length) length -= 4;
+            if (length % 4 == 0)
+            {
+                Crypto.XXTEA(fragment, 0, length, true, Crypto.TEA_KEY);
+                data[i] = (length == fragment.length) ? fragment :
+                    Arrays.copyOfRange(fragment, 0, length);
+            }
+            else data[i] = Crypto.XXTEA(Arrays.copyOfRange(fragment, 0, length), true);
         }
         
         File save = FileChooser.openFile("bigfart", null, true);
@@ -3590,11 +3596,10 @@ public class Toolkit extends javax.swing.JFrame
         if (entry == null)
             return;
 
-        byte[] data = ResourceSystem.extract(resource);
-        if (data == null)
+        BufferedImage image = ResourceSystem.getThumbnail(resource, 320);
+        if (image == null)
             return;
-        RTexture texture = new RTexture(data);
-        setImage(texture.getImageIcon(320, 320));
+        setImage(Images.getImageIcon(image, 320, 320));
     }
 
     public void setImage(ImageIcon image)
@@ -4,11 +4,13 @@ import cwlib.ex.SerializationException;
 import cwlib.singleton.ResourceSystem;
 import cwlib.types.archives.Fart;
 import cwlib.types.archives.FileArchive;
+import cwlib.types.archives.FileArchiveWriter;
 import toolkit.utilities.FileChooser;
 import toolkit.windows.Toolkit;
 
 import javax.swing.*;
 import java.io.File;
+import java.io.IOException;
 
 public class ArchiveManager extends javax.swing.JDialog
 {
@@ -43,7 +45,18 @@ public class ArchiveManager extends javax.swing.JDialog
             }
 
             Fart archive = null;
-            try { archive = new FileArchive(file); }
+            try
+            {
+                FileArchiveWriter.recover(file);
+                archive = new FileArchive(file);
+            }
+            catch (IOException ex)
+            {
+                JOptionPane.showMessageDialog(this, "Failed to recover interrupted write to " +
+                                                    "FARC.", "An error occurred",
+                    JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             catch (SerializationException ex)
             {
                 JOptionPane.showMessageDialog(this, ex.getMessage(), "An error occurred",
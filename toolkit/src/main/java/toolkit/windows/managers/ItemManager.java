@@ -2,7 +2,6 @@ package toolkit.windows.managers;
 
 import cwlib.enums.*;
 import cwlib.resources.RPlan;
-import cwlib.resources.RTexture;
 import cwlib.resources.RTranslationTable;
 import cwlib.singleton.ResourceSystem;
 import cwlib.structs.inventory.*;
@@ -13,7 +12,7 @@ import cwlib.types.data.*;
 import cwlib.types.databases.FileEntry;
 import cwlib.types.save.BigSave;
 import cwlib.util.Bytes;
-import cwlib.util.Resources;
+import cwlib.util.Images;
 import cwlib.util.Strings;
 import org.joml.Vector4f;
 import toolkit.windows.Toolkit;
@@ -22,6 +21,7 @@ import toolkit.windows.utilities.ResourcePicker;
 import javax.swing.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -562,18 +562,11 @@ public class ItemManager extends javax.swing.JFrame
         if (!Strings.isGUID(text) && !Strings.isSHA1(text)) return;
         descriptor = new ResourceDescriptor(text, ResourceType.TEXTURE);
 
-        byte[] data = ResourceSystem.extract(descriptor);
-        if (data == null) return;
-
-        ResourceType type = Resources.getResourceType(data);
-        if (type != ResourceType.TEXTURE && type != ResourceType.GTF_TEXTURE) return;
-
-        RTexture texture = null;
-        try { texture = new RTexture(data); }
-        catch (Exception ex) { return; }
+        BufferedImage image = ResourceSystem.getThumbnail(descriptor, 128);
+        if (image == null) return;
 
         this.itemIcon.setText(null);
-        this.itemIcon.setIcon(texture.getImageIcon(128, 128));
+        this.itemIcon.setIcon(Images.getImageIcon(image, 128, 128));
     }
 
     private void initializeSubTypes()
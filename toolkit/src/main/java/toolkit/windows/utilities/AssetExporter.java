@@ -4,8 +4,6 @@ import cwlib.CwlibConfiguration;
 import cwlib.enums.*;
 import cwlib.io.Resource;
 import cwlib.io.serializer.SerializationData;
-import cwlib.io.streams.MemoryInputStream;
-import cwlib.io.streams.MemoryInputStream.SeekMode;
 import cwlib.resources.RGfxMaterial;
 import cwlib.resources.RPlan;
 import cwlib.resources.RTexture;
@@ -20,6 +18,7 @@ import cwlib.types.databases.FileEntry;
 import cwlib.types.mods.Mod;
 import cwlib.util.Bytes;
 import cwlib.util.DDS;
+import cwlib.util.DependencyCrawler;
 import cwlib.util.Resources;
 import cwlib.util.gfx.CgAssembler;
 import cwlib.util.gfx.GfxAssembler;
@@ -31,6 +30,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 
 public class AssetExporter extends JDialog
 {
@@ -575,45 +575,18 @@ public class AssetExporter extends JDialog
     private void getDescriptors(byte[] resource, HashSet<Asset> descriptors)
     {
         if (resource == null) return;
-        MemoryInputStream data = new MemoryInputStream(resource);
-        // Parse the resource manually, since the resource class auto-decompresses,
-        // saves some time.
-        ResourceType type = ResourceType.fromMagic(data.str(3));
-        if (type == ResourceType.INVALID) return;
-        SerializationType method = SerializationType.fromValue(data.str(1));
-        if (method != SerializationType.BINARY && method != SerializationType.ENCRYPTED_BINARY)
-            return;
-        int revision = data.i32();
-        // Dependency table didn't exist before this revision.
-        if (revision < 0x109) return;
-        data.seek(data.i32(), SeekMode.Begin);
-        int count = data.i32();
-        for (int i = 0; i < count; ++i)
-        {
-            Asset asset = null;
-            ResourceDescriptor descriptor = null;
-            byte flags = data.i8();
-
-            GUID guid = null;
-            SHA1 sha1 = null;
-
-            if ((flags & 2) != 0)
-                guid = data.guid();
-            if ((flags & 1) != 0)
-                sha1 = data.sha1();
+        // Only the headers are read, since the resource class auto-decompresses,
+        // and the whole graph is collected in parallel, saves some time.
+        Map<ResourceDescriptor, DependencyCrawler.Node> nodes = new DependencyCrawler()
+            .setRetainData(true)
+            .crawl(resource);
 
-            descriptor = new ResourceDescriptor(guid, sha1,
-                ResourceType.fromType(data.i32()));
-            if (!descriptor.isValid()) continue;
-
-            asset = new Asset(descriptor);
-            if (descriptors.contains(asset)) continue;
+        for (DependencyCrawler.Node node : nodes.values())
+        {
+            Asset asset = new Asset(node.getDescriptor());
+            asset.data = node.getData();
             descriptors.add(asset);
-            asset.data = ResourceSystem.extract(asset.descriptor);
-            if (asset.data != null)
-                this.getDescriptors(asset.data, descriptors);
         }
-
     }
 
     private boolean areAllAssetsHash()
@@ -11,7 +11,7 @@ public class SlowOpGUI extends javax.swing.JDialog
 {
     private final SlowOp operation;
     private String error;
-    private final boolean wantQuit = false;
+    private volatile boolean wantQuit = false;
     private int code;
 
     private SlowOpGUI(Frame parent, SlowOp operation)
@@ -27,6 +27,8 @@ public class SlowOpGUI extends javax.swing.JDialog
             @Override
             public void windowClosing(WindowEvent event)
             {
+                // Operations that support it stop at the next check.
+                SlowOpGUI.this.wantQuit = true;
             }
         });
     }
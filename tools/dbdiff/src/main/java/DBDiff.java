@@ -0,0 +1,147 @@
+import cwlib.types.databases.FileDB;
+import cwlib.types.databases.FileDBDiff;
+import cwlib.util.FileIO;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+public class DBDiff
+{
+    private static void printUsage()
+    {
+        System.out.println("java -jar dbdiff.jar diff <base.map> <update.map> <output> " +
+                           "[bin|json|txt]");
+        System.out.println("java -jar dbdiff.jar apply <base.map> <patch> <output.map>");
+    }
+
+    private static FileDB load(String path)
+    {
+        if (!new File(path).exists())
+        {
+            System.err.printf("[DBDiff] %s doesn't exist!%n", path);
+            return null;
+        }
+        try { return new FileDB(new File(path), true); }
+        catch (Exception ex)
+        {
+            System.err.printf("[DBDiff] Failed to load %s (%s)%n", path, ex.getMessage());
+            return null;
+        }
+    }
+
+    private static String getFormat(String path)
+    {
+        int index = path.lastIndexOf('.');
+        if (index == -1) return "bin";
+        String extension = path.substring(index + 1).toLowerCase();
+        if (extension.equals("json") || extension.equals("txt")) return extension;
+        return "bin";
+    }
+
+    private static int diff(String[] args)
+    {
+        if (args.length < 4 || args.length > 5)
+        {
+            DBDiff.printUsage();
+            return 1;
+        }
+
+        FileDB base = DBDiff.load(args[1]);
+        if (base == null) return 1;
+        FileDB update = DBDiff.load(args[2]);
+        if (update == null) return 1;
+
+        FileDBDiff diff = FileDBDiff.compute(base, update);
+        System.out.printf("[DBDiff] %d added, %d removed, %d moved, %d rehashed%n",
+            diff.getAdded().length, diff.getRemoved().length,
+            diff.getMoved().length, diff.getRehashed().length);
+
+        String format = args.length == 5 ? args[4].toLowerCase() : DBDiff.getFormat(args[3]);
+        byte[] data = switch (format)
+        {
+            case "json" -> diff.toJSON().getBytes(StandardCharsets.UTF_8);
+            case "txt" -> diff.toText().getBytes(StandardCharsets.UTF_8);
+            case "bin" -> diff.toBinary();
+            default -> null;
+        };
+
+        if (data == null)
+        {
+            System.err.printf("[DBDiff] Unknown output format %s!%n", format);
+            return 1;
+        }
+
+        if (!FileIO.write(data, args[3]))
+        {
+            System.err.printf("[DBDiff] Failed to write %s!%n", args[3]);
+            return 1;
+        }
+
+        return 0;
+    }
+
+    private static int apply(String[] args)
+    {
+        if (args.length != 4)
+        {
+            DBDiff.printUsage();
+            return 1;
+        }
+
+        FileDB base = DBDiff.load(args[1]);
+        if (base == null) return 1;
+
+        byte[] patch = FileIO.read(args[2]);
+        if (patch == null)
+        {
+            System.err.printf("[DBDiff] Failed to read %s!%n", args[2]);
+            return 1;
+        }
+
+        FileDBDiff diff;
+        try
+        {
+            if (DBDiff.getFormat(args[2]).equals("json"))
+                diff = FileDBDiff.fromJSON(new String(patch, StandardCharsets.UTF_8));
+            else
+                diff = FileDBDiff.fromBinary(patch);
+        }
+        catch (Exception ex)
+        {
+            System.err.printf("[DBDiff] Failed to parse patch (%s)%n", ex.getMessage());
+            return 1;
+        }
+
+        base.patch(diff);
+        if (!FileIO.write(base.build(), args[3]))
+        {
+            System.err.printf("[DBDiff] Failed to write %s!%n", args[3]);
+            return 1;
+        }
+
+        System.out.printf("[DBDiff] Applied %d changes%n", diff.getChanges().length);
+        return 0;
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length == 0)
+        {
+            DBDiff.printUsage();
+            return;
+        }
+
+        int status = switch (args[0].toLowerCase())
+        {
+            case "diff" -> DBDiff.diff(args);
+            case "apply" -> DBDiff.apply(args);
+            default ->
+            {
+                DBDiff.printUsage();
+                yield 1;
+            }
+        };
+
+        System.exit(status);
+    }
+}
@@ -1,4 +1,6 @@
+import com.google.gson.stream.JsonWriter;
 import cwlib.enums.Part;
+import cwlib.enums.ResourceType;
 import cwlib.resources.RLevel;
 import cwlib.structs.things.Thing;
 import cwlib.structs.things.components.Decoration;
@@ -9,8 +11,16 @@ import cwlib.singleton.ResourceSystem;
 import cwlib.types.data.GUID;
 import cwlib.types.databases.FileDB;
 import cwlib.types.databases.FileDBRow;
+import cwlib.util.BatchProcessor;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,29 +30,20 @@ public class Descriptor
 {
     private static final HashMap<Long, GUID> CRC_LOOKUP = new HashMap<>();
 
-    public static void main(String[] args)
+    private static void printUsage()
     {
-        if (args.length < 2 || args.length > 3)
-        {
-            System.out.println("java -jar descriptor.jar <*.bin> <*.db> [null]");
-            return;
-        }
-
-        boolean includeNull = args.length == 3 && args[2].equalsIgnoreCase("NULL");
-
-        if (!new File(args[0]).exists())
-        {
-            System.err.println("Level file doesn't exist!");
-            return;
-        }
-
-        if (!new File(args[1]).exists())
-        {
-            System.err.println("Database file doesn't exist!");
-            return;
-        }
+        System.out.println("java -jar descriptor.jar <*.bin> <*.db> [null]");
+        System.out.println("java -jar descriptor.jar batch <directory|*.farc> <*.db> [options]");
+        System.out.println("  --glob <pattern>   Only check levels with matching paths");
+        System.out.println("  --threads <count>  Number of worker threads");
+        System.out.println("  --jsonl <file>     Write missing descriptors of each level as JSON-lines");
+        System.out.println("  --report <file>    Write a per-level timing and error report");
+        System.out.println("  --null             Report things that are missing plan descriptors");
+    }
 
-        FileDB database = new FileDB(args[1]);
+    private static FileDB loadDatabase(String path)
+    {
+        FileDB database = new FileDB(path);
         System.out.println("[GatherTask] Performing CRC pre-process...");
         for (FileDBRow row : database)
         {
@@ -50,27 +51,15 @@ public class Descriptor
             crc32.update(row.getPath().getBytes());
             CRC_LOOKUP.put(crc32.getValue() | 0x80000000L, row.getGUID());
         }
-        System.out.println("[GatherTask] Loading level...");
-
-        RLevel level = null;
-        try { level = new SerializedResource(args[0]).loadResource(RLevel.class); }
-        catch (Exception ex)
-        {
-            System.out.println("[GatherTask] Failed to either load or parse, I'mma be real," +
-                               " I " +
-                               "ain't keeping track, let's see the stacktrace!");
-            ex.printStackTrace();
-            return;
-        }
-
-        if (level == null)
-        {
-            System.out.println("[GatherTask] Level was null somehow, and yet there wasn't " +
-                               "an " +
-                               "error...?");
-            return;
-        }
+        return database;
+    }
 
+    /**
+     * Finds every plan descriptor referenced by a level that doesn't exist in a database.
+     */
+    private static ArrayList<GUID> getMissing(RLevel level, FileDB database,
+                                              boolean includeNull, String tag)
+    {
         HashSet<GUID> descriptors = new HashSet<>();
         PWorld world = level.worldThing.getPart(Part.WORLD);
         for (Thing thing : world.things)
@@ -79,7 +68,7 @@ public class Descriptor
             if (thing.planGUID != null)
                 descriptors.add(thing.planGUID);
             else if (includeNull)
-                System.out.println("[GatherTask] Thing is missing PlanGUID! (ThingUID=" + thing.UID + ")");
+                System.out.println("[" + tag + "] Thing is missing PlanGUID! (ThingUID=" + thing.UID + ")");
 
             PDecorations decorations = thing.getPart(Part.DECORATIONS);
             if (decorations != null)
@@ -90,10 +79,10 @@ public class Descriptor
                     if (decoration.planGUID != null)
                         descriptors.add(decoration.planGUID);
                     else if (includeNull)
-                        System.out.printf("[GatherTask] Decoration[%d]" +
+                        System.out.printf("[%s] Decoration[%d]" +
                                           " missing " +
                                           "PlanGUID (ThingUID=%d)%n",
-                            index, thing.UID);
+                            tag, index, thing.UID);
                     index++;
                 }
             }
@@ -110,10 +99,10 @@ public class Descriptor
                             descriptors.add(decal.plan.getGUID());
                     }
                     else if (includeNull)
-                        System.out.printf("[GatherTask] Decal[%d] " +
+                        System.out.printf("[%s] Decal[%d] " +
                                           "missing PlanGUID" +
-                                          " (ThingUID=%d)%n", index,
-                            thing.UID);
+                                          " (ThingUID=%d)%n", tag,
+                            index, thing.UID);
                     index++;
                 }
             }
@@ -124,7 +113,7 @@ public class Descriptor
                 if (generatedMesh.planGUID != null)
                     descriptors.add(generatedMesh.planGUID);
                 else if (includeNull)
-                    System.out.println("[GatherTask] PGeneratedMesh missing PlanGUID " +
+                    System.out.println("[" + tag + "] PGeneratedMesh missing PlanGUID " +
                                        "(ThingUID=" + thing.UID + ")");
             }
 
@@ -133,7 +122,7 @@ public class Descriptor
             if (ref != null)
             {
                 if (ref.plan == null && includeNull)
-                    System.out.println("[GatherTask] PRef missing PlanGUID (ThingUID=" + thing.UID + ")");
+                    System.out.println("[" + tag + "] PRef missing PlanGUID (ThingUID=" + thing.UID + ")");
                 else if (ref.plan != null && ref.plan.isGUID())
                     descriptors.add(ref.plan.getGUID());
             }
@@ -142,7 +131,7 @@ public class Descriptor
             if (group != null)
             {
                 if (group.planDescriptor == null && includeNull)
-                    System.out.println("[GatherTask] PGroup missing PlanGUID " +
+                    System.out.println("[" + tag + "] PGroup missing PlanGUID " +
                                        "(ThingUID=" + thing.UID + ")");
                 else if (group.planDescriptor != null && group.planDescriptor.isGUID())
                     descriptors.add(group.planDescriptor.getGUID());
@@ -161,6 +150,168 @@ public class Descriptor
             }
         }
 
+        return missing;
+    }
+
+    private static int batch(String[] args)
+    {
+        if (args.length < 3)
+        {
+            Descriptor.printUsage();
+            return 1;
+        }
+
+        BatchProcessor processor = new BatchProcessor().setResourceType(ResourceType.LEVEL);
+        File jsonl = null, report = null;
+        boolean includeNull = false;
+        try
+        {
+            for (int i = 3; i < args.length; ++i)
+            {
+                switch (args[i])
+                {
+                    case "--glob" -> processor.setGlob(args[++i]);
+                    case "--threads" -> processor.setParallelism(Integer.parseInt(args[++i]));
+                    case "--jsonl" -> jsonl = new File(args[++i]);
+                    case "--report" -> report = new File(args[++i]);
+                    case "--null" -> includeNull = true;
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            System.err.printf("[GatherTask] Invalid arguments (%s)%n", ex.getMessage());
+            Descriptor.printUsage();
+            return 1;
+        }
+
+        if (!new File(args[2]).exists())
+        {
+            System.err.println("Database file doesn't exist!");
+            return 1;
+        }
+
+        FileDB database = Descriptor.loadDatabase(args[2]);
+        // Archives opened by the processor are released once the batch is done.
+        try (processor)
+        {
+            ArrayList<BatchProcessor.Entry> entries;
+            try { entries = processor.collect(new File(args[1]), database); }
+            catch (Exception ex)
+            {
+                System.err.printf("[GatherTask] Failed to read input (%s)%n", ex.getMessage());
+                return 1;
+            }
+
+            System.out.printf("[GatherTask] Checking %d resources...%n", entries.size());
+
+            boolean isNullIncluded = includeNull;
+            long start = System.nanoTime();
+            BatchProcessor.Result[] results;
+            try (Writer writer = jsonl == null ? null : new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(jsonl), StandardCharsets.UTF_8)))
+            {
+                results = processor.run(entries, (entry, data) ->
+                {
+                    RLevel level = new SerializedResource(data).loadResource(RLevel.class);
+                    ArrayList<GUID> missing =
+                        Descriptor.getMissing(level, database, isNullIncluded, entry.getPath());
+
+                    if (writer == null)
+                    {
+                        if (missing.size() != 0)
+                            System.out.printf("[%s] Found %d missing plan descriptors %s%n",
+                                entry.getPath(), missing.size(), missing);
+                        return true;
+                    }
+
+                    StringWriter line = new StringWriter();
+                    JsonWriter json = new JsonWriter(line);
+                    json.beginObject();
+                    json.name("path").value(entry.getPath());
+                    json.name("missing").beginArray();
+                    for (GUID guid : missing)
+                        json.value(guid.getValue());
+                    json.endArray();
+                    json.endObject();
+                    json.flush();
+                    line.write('\n');
+
+                    synchronized (writer) { writer.write(line.toString()); }
+                    return true;
+                });
+            }
+            catch (IOException ex)
+            {
+                System.err.printf("[GatherTask] Failed to write %s (%s)%n", jsonl, ex.getMessage());
+                return 1;
+            }
+
+            BatchProcessor.printSummary("GatherTask", results, System.nanoTime() - start,
+                System.out);
+            if (report != null && !BatchProcessor.writeReport(results, report))
+                System.err.printf("[GatherTask] Failed to write report %s%n", report);
+
+            for (BatchProcessor.Result result : results)
+                if (result.getError() != null) return 1;
+            return 0;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length != 0 && args[0].equalsIgnoreCase("batch"))
+        {
+            System.exit(Descriptor.batch(args));
+            return;
+        }
+
+        if (args.length < 2 || args.length > 3)
+        {
+            Descriptor.printUsage();
+            return;
+        }
+
+        boolean includeNull = args.length == 3 && args[2].equalsIgnoreCase("NULL");
+
+        if (!new File(args[0]).exists())
+        {
+            System.err.println("Level file doesn't exist!");
+            return;
+        }
+
+        if (!new File(args[1]).exists())
+        {
+            System.err.println("Database file doesn't exist!");
+            return;
+        }
+
+        FileDB database = Descriptor.loadDatabase(args[1]);
+        System.out.println("[GatherTask] Loading level...");
+
+        RLevel level = null;
+        try { level = new SerializedResource(args[0]).loadResource(RLevel.class); }
+        catch (Exception ex)
+        {
+            System.out.println("[GatherTask] Failed to either load or parse, I'mma be real," +
+                               " I " +
+                               "ain't keeping track, let's see the stacktrace!");
+            ex.printStackTrace();
+            return;
+        }
+
+        if (level == null)
+        {
+            System.out.println("[GatherTask] Level was null somehow, and yet there wasn't " +
+                               "an " +
+                               "error...?");
+            return;
+        }
+
+        ArrayList<GUID> missing = Descriptor.getMissing(level, database, includeNull,
+            "GatherTask");
+
         if (missing.size() != 0)
         {
             System.out.printf("[%s] Found %d missing plan descriptors%n",
@@ -1,31 +1,45 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
 
-import cwlib.singleton.ResourceSystem;
+import com.google.gson.stream.JsonWriter;
+import cwlib.enums.ResourceType;
 import cwlib.types.SerializedResource;
 import cwlib.types.data.WrappedResource;
+import cwlib.types.databases.FileDB;
+import cwlib.util.BatchProcessor;
 import cwlib.util.FileIO;
 import cwlib.util.GsonUtils;
 
 public class Jsoninator
 {
-    public static void main(String[] args)
+    private static void printUsage()
     {
-        if (args.length != 2)
-        {
-            System.out.println("java -jar jsoninator.java <input> <output>");
-            return;
-        }
-
-        File input = new File(args[0]);
-        File output = new File(args[1]);
-
-        if (!input.exists())
-        {
-            System.err.println("Input file doesn't exist!");
-            return;
-        }
+        System.out.println("java -jar jsoninator.java <input> <output>");
+        System.out.println("java -jar jsoninator.java batch <directory|*.farc|*.map> <output> " +
+                           "[options]");
+        System.out.println("  --db <*.map>       Database used to name entries of an archive");
+        System.out.println("  --glob <pattern>   Only convert resources with matching paths");
+        System.out.println("  --type <type>      Only convert resources of a type, e.g. PLAN");
+        System.out.println("  --threads <count>  Number of worker threads");
+        System.out.println("  --jsonl            Write every resource to a single JSON-lines file");
+        System.out.println("  --report <file>    Write a per-resource timing and error report");
+    }
 
+    /**
+     * Converts a single resource to JSON, or back.
+     */
+    private static void convert(File input, File output)
+    {
         if (input.getAbsolutePath().toLowerCase().endsWith(".json"))
         {
             System.out.println("[MODE] JSON -> RESOURCE");
@@ -44,7 +58,196 @@ public class Jsoninator
 
         SerializedResource resource = new SerializedResource(input.getAbsolutePath());
         WrappedResource wrapper = new WrappedResource(resource);
-        FileIO.write(GsonUtils.toJSON(wrapper, resource.getRevision()).getBytes(),
-            output.getAbsolutePath());
+        if (!GsonUtils.toJSON(wrapper, resource.getRevision(), output))
+            System.err.println("Failed to write output file!");
+    }
+
+    /**
+     * Converts every matching resource in a directory, archive, or database.
+     */
+    private static int batch(String[] args)
+    {
+        if (args.length < 3)
+        {
+            Jsoninator.printUsage();
+            return 1;
+        }
+
+        BatchProcessor processor = new BatchProcessor();
+        File database = null, report = null;
+        boolean isJSONLines = false;
+        try
+        {
+            for (int i = 3; i < args.length; ++i)
+            {
+                switch (args[i])
+                {
+                    case "--db" -> database = new File(args[++i]);
+                    case "--glob" -> processor.setGlob(args[++i]);
+                    case "--type" -> processor.setResourceType(
+                        ResourceType.valueOf(args[++i].toUpperCase()));
+                    case "--threads" -> processor.setParallelism(Integer.parseInt(args[++i]));
+                    case "--jsonl" -> isJSONLines = true;
+                    case "--report" -> report = new File(args[++i]);
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            System.err.printf("[Jsoninator] Invalid arguments (%s)%n", ex.getMessage());
+            Jsoninator.printUsage();
+            return 1;
+        }
+
+        // Archives opened by the processor are released once the batch is done.
+        try (processor)
+        {
+            ArrayList<BatchProcessor.Entry> entries;
+            try
+            {
+                FileDB names = database == null ? null : new FileDB(database, true);
+                entries = processor.collect(new File(args[1]), names);
+            }
+            catch (Exception ex)
+            {
+                System.err.printf("[Jsoninator] Failed to read input (%s)%n", ex.getMessage());
+                return 1;
+            }
+
+            System.out.printf("[Jsoninator] Converting %d resources...%n", entries.size());
+
+            File output = new File(args[2]);
+            long start = System.nanoTime();
+            BatchProcessor.Result[] results;
+            if (isJSONLines)
+            {
+                if (output.getParentFile() != null) output.getParentFile().mkdirs();
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output), StandardCharsets.UTF_8)))
+                {
+                    results = processor.run(entries, (entry, data) ->
+                        Jsoninator.toJSONLine(entry, data, writer));
+                }
+                catch (IOException ex)
+                {
+                    System.err.printf("[Jsoninator] Failed to write %s (%s)%n", output,
+                        ex.getMessage());
+                    return 1;
+                }
+            }
+            else results = processor.run(entries, (entry, data) ->
+                Jsoninator.toFile(entry, data, output));
+
+            BatchProcessor.printSummary("Jsoninator", results, System.nanoTime() - start,
+                System.out);
+            if (report != null && !BatchProcessor.writeReport(results, report))
+                System.err.printf("[Jsoninator] Failed to write report %s%n", report);
+
+            for (BatchProcessor.Result result : results)
+                if (result.getError() != null) return 1;
+            return 0;
+        }
+    }
+
+    private static boolean isJSON(BatchProcessor.Entry entry)
+    {
+        return entry.getPath().toLowerCase().endsWith(".json");
+    }
+
+    private static WrappedResource load(byte[] data)
+    {
+        SerializedResource resource = new SerializedResource(data);
+        if (resource.getResourceType().getCompressable() == null) return null;
+        return new WrappedResource(resource);
+    }
+
+    /**
+     * Converts a resource in a batch to its own file in the output tree,
+     * resources are converted to JSON, and JSON files are converted back to resources.
+     */
+    private static boolean toFile(BatchProcessor.Entry entry, byte[] data, File output)
+    throws IOException
+    {
+        if (Jsoninator.isJSON(entry))
+        {
+            WrappedResource wrapper;
+            try (InputStreamReader reader = new InputStreamReader(
+                new ByteArrayInputStream(data), StandardCharsets.UTF_8))
+            {
+                wrapper = GsonUtils.fromJSON(reader, WrappedResource.class);
+            }
+
+            String path = entry.getPath();
+            File file = new File(output, path.substring(0, path.length() - ".json".length()));
+            if (!FileIO.write(wrapper.build(), file.getAbsolutePath()))
+                throw new IOException("Failed to write " + file.getAbsolutePath());
+            return true;
+        }
+
+        WrappedResource wrapper = Jsoninator.load(data);
+        if (wrapper == null) return false;
+
+        File file = new File(output, entry.getPath() + ".json");
+        file.getParentFile().mkdirs();
+        if (!GsonUtils.toJSON(wrapper, wrapper.revision, file))
+            throw new IOException("Failed to write " + file.getAbsolutePath());
+        return true;
+    }
+
+    /**
+     * Converts a resource in a batch to a single compact line of JSON,
+     * with the path and SHA1 of the resource.
+     */
+    private static boolean toJSONLine(BatchProcessor.Entry entry, byte[] data, Writer output)
+    throws IOException
+    {
+        if (Jsoninator.isJSON(entry)) return false;
+        WrappedResource wrapper = Jsoninator.load(data);
+        if (wrapper == null) return false;
+
+        StringWriter line = new StringWriter();
+        JsonWriter json = new JsonWriter(line);
+        json.beginObject();
+        json.name("path").value(entry.getPath());
+        json.name("sha1").value(entry.getSHA1() == null ? null : entry.getSHA1().toString());
+        json.name("resource");
+        GsonUtils.toJSON(wrapper, wrapper.revision, json);
+        json.endObject();
+        json.flush();
+
+        synchronized (output)
+        {
+            output.write(line.toString());
+            output.write('\n');
+        }
+
+        return true;
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length != 0 && args[0].equalsIgnoreCase("batch"))
+        {
+            System.exit(Jsoninator.batch(args));
+            return;
+        }
+
+        if (args.length != 2)
+        {
+            Jsoninator.printUsage();
+            return;
+        }
+
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+
+        if (!input.exists())
+        {
+            System.err.println("Input file doesn't exist!");
+            return;
+        }
+
+        Jsoninator.convert(input, output);
     }
-}
\ No newline at end of file
+}